@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.copybara.exception.ValidationException.checkCondition;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.config.Config;
+import com.google.copybara.config.ConfigValidator;
+import com.google.copybara.config.Migration;
+import com.google.copybara.config.ValidationResult;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.exception.EmptyChangeException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.GitOptions;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Console;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Executes several migrations of the same config in one run.
+ *
+ * <p>The config is loaded once, and the migrations run concurrently, at most {@code
+ * --batch-migrate-jobs} at a time, each one in its own work directory. The migrations only read
+ * the options of the command, and the console serializes the messages of all of them. Fetches of
+ * the same references from the same repository are only done once per run.
+ */
+@Parameters(
+    separators = "=",
+    commandDescription =
+        "Executes the migrations of the given config whose names match the arguments, that can"
+            + " contain '*' wildcards. Usage: migrate_batch config_path workflow_name...")
+public class BatchMigrateCmd implements CopybaraCmd {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ConfigValidator configValidator;
+  private final Consumer<Migration> migrationRanConsumer;
+  private final ConfigLoaderProvider configLoaderProvider;
+
+  BatchMigrateCmd(ConfigValidator configValidator, Consumer<Migration> migrationRanConsumer,
+      ConfigLoaderProvider configLoaderProvider) {
+    this.configValidator = Preconditions.checkNotNull(configValidator);
+    this.migrationRanConsumer = Preconditions.checkNotNull(migrationRanConsumer);
+    this.configLoaderProvider = Preconditions.checkNotNull(configLoaderProvider);
+  }
+
+  @Override
+  public ExitCode run(CommandEnv commandEnv)
+      throws RepoException, ValidationException, IOException {
+    ImmutableList<String> args = commandEnv.getArgs();
+    if (args.size() < 2) {
+      throw new CommandLineException(
+          String.format("Usage: copybara %s config_path workflow_name...", name()));
+    }
+    Options options = commandEnv.getOptions();
+    checkCondition(!options.get(WorkflowOptions.class).isReadConfigFromChange(),
+        "%s flag is not supported by %s", WorkflowOptions.READ_CONFIG_FROM_CHANGE, name());
+    Console console = options.get(GeneralOptions.class).console();
+
+    Config config =
+        configLoaderProvider.newLoader(args.get(0), /*sourceRef=*/ null).load(console);
+    ImmutableList<String> names =
+        selectMigrations(config.getMigrations().keySet(), args.subList(1, args.size()));
+    console.progress("Validating configuration");
+    boolean valid = true;
+    for (String name : names) {
+      ValidationResult result = configValidator.validate(config, name);
+      result.getErrors().forEach(console::error);
+      valid &= !result.hasErrors();
+    }
+    if (!valid) {
+      console.error("Configuration is invalid.");
+      throw new ValidationException("Error validating configuration: Configuration is invalid.");
+    }
+
+    options.get(GitOptions.class).deduplicateFetches();
+    int jobs = options.get(WorkflowOptions.class).batchMigrateJobs;
+    console.infoFmt("Running %d workflow(s), %d at a time", names.size(), jobs);
+    ImmutableMap<String, ExitCode> exitCodes =
+        runAll(config, names, commandEnv.getWorkdir(), jobs, console);
+
+    ExitCode exitCode = ExitCode.NO_OP;
+    ExitCode firstFailure = null;
+    for (Entry<String, ExitCode> entry : exitCodes.entrySet()) {
+      console.infoFmt("Workflow '%s': %s", entry.getKey(), entry.getValue());
+      if (entry.getValue() == ExitCode.SUCCESS) {
+        exitCode = ExitCode.SUCCESS;
+      } else if (entry.getValue() != ExitCode.NO_OP && firstFailure == null) {
+        firstFailure = entry.getValue();
+      }
+    }
+    return firstFailure != null ? firstFailure : exitCode;
+  }
+
+  /** Returns the names of the migrations matching the patterns, in the order of the patterns. */
+  @VisibleForTesting
+  static ImmutableList<String> selectMigrations(
+      Iterable<String> migrations, ImmutableList<String> patterns) throws CommandLineException {
+    Set<String> selected = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      Pattern regex =
+          Pattern.compile(
+              Splitter.on('*').splitToStream(pattern)
+                  .map(Pattern::quote)
+                  .collect(Collectors.joining(".*")));
+      boolean matched = false;
+      for (String migration : migrations) {
+        if (regex.matcher(migration).matches()) {
+          selected.add(migration);
+          matched = true;
+        }
+      }
+      if (!matched) {
+        throw new CommandLineException(
+            String.format("No migration matches '%s'. Available: %s", pattern, migrations));
+      }
+    }
+    return ImmutableList.copyOf(selected);
+  }
+
+  private ImmutableMap<String, ExitCode> runAll(Config config, ImmutableList<String> names,
+      Path workdir, int jobs, Console console) throws ValidationException, IOException {
+    Map<String, Future<ExitCode>> futures = new LinkedHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, names.size()));
+    try {
+      for (int i = 0; i < names.size(); i++) {
+        String name = names.get(i);
+        Migration migration = config.getMigration(name);
+        Path migrationWorkdir = Files.createDirectories(workdir.resolve("migration_" + i));
+        futures.put(
+            name, executor.submit(() -> runMigration(migration, migrationWorkdir, console)));
+      }
+      ImmutableMap.Builder<String, ExitCode> exitCodes = ImmutableMap.builder();
+      for (Entry<String, Future<ExitCode>> entry : futures.entrySet()) {
+        try {
+          exitCodes.put(entry.getKey(), entry.getValue().get());
+        } catch (ExecutionException e) {
+          logger.atSevere().withCause(e.getCause()).log(
+              "Unexpected error running %s", entry.getKey());
+          console.errorFmt("Workflow '%s' failed with an unexpected error: %s",
+              entry.getKey(), e.getCause().getMessage());
+          exitCodes.put(entry.getKey(), ExitCode.INTERNAL_ERROR);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          exitCodes.put(entry.getKey(), ExitCode.INTERRUPTED);
+        }
+      }
+      return exitCodes.buildOrThrow();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Runs the migration, mapping its errors to exit codes like a migrate command would. */
+  private ExitCode runMigration(Migration migration, Path workdir, Console console) {
+    String name = migration.getName();
+    console.verboseFmt("Executing workflow '%s'", name);
+    try {
+      migrationRanConsumer.accept(migration);
+      migration.run(workdir, /*sourceRefs=*/ ImmutableList.of());
+      return ExitCode.SUCCESS;
+    } catch (CommandLineException e) {
+      console.errorFmt("Workflow '%s': %s", name, e.getMessage());
+      return ExitCode.COMMAND_LINE_ERROR;
+    } catch (RepoException e) {
+      console.errorFmt("Workflow '%s': %s", name, e.getMessage());
+      return e.getCause() instanceof InterruptedException
+          ? ExitCode.INTERRUPTED
+          : ExitCode.REPOSITORY_ERROR;
+    } catch (EmptyChangeException e) {
+      console.warnFmt("Workflow '%s': %s", name, e.getMessage());
+      return ExitCode.NO_OP;
+    } catch (ValidationException e) {
+      console.errorFmt("Workflow '%s': %s", name, e.getMessage());
+      return ExitCode.CONFIGURATION_ERROR;
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Error running %s", name);
+      console.errorFmt("Workflow '%s': %s", name, e.getMessage());
+      return ExitCode.ENVIRONMENT_ERROR;
+    }
+  }
+
+  @Override
+  public String name() {
+    return "migrate_batch";
+  }
+}
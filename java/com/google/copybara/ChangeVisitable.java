@@ -49,7 +49,16 @@ public interface ChangeVisitable <R extends Revision> {
   default void visitChangesWithAnyLabel(
       @Nullable R start, ImmutableCollection<String> labels, ChangesLabelVisitor visitor)
       throws RepoException, ValidationException {
-    visitChanges(start, input -> {
+    visitChanges(start, anyLabelVisitor(labels, visitor));
+  }
+
+  /**
+   * Returns a visitor that calls {@code visitor} only for the changes that contain any of the
+   * labels in {@code labels}.
+   */
+  static ChangesVisitor anyLabelVisitor(
+      ImmutableCollection<String> labels, ChangesLabelVisitor visitor) {
+    return input -> {
       // We could return all the label values, but this is really only used for
       // RevId like ones and last is good enough for now.
       Map<String, String> copy = Maps.newHashMap(Maps.transformValues(input.getLabels().asMap(),
@@ -59,7 +68,7 @@ public interface ChangeVisitable <R extends Revision> {
         return VisitResult.CONTINUE;
       }
       return visitor.visit(input, ImmutableMap.copyOf(copy));
-    });
+    };
   }
   
   /**
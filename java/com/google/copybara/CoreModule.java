@@ -595,7 +595,8 @@ public class CoreModule implements LabelsAwareModule, StarlarkValue {
             "transformations",
             printHandler,
             debugOptions::transformWrapper,
-            Sequence.NoopBehavior.NOOP_IF_ANY_NOOP);
+            Sequence.NoopBehavior.NOOP_IF_ANY_NOOP)
+        .asTopLevel();
     Transformation reverseTransform = null;
     if (!generalOptions.isDisableReversibleCheck()
         && convertFromNoneable(reversibleCheckObj, mode == WorkflowMode.CHANGE_REQUEST)) {
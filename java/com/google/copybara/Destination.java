@@ -88,6 +88,19 @@ public interface Destination<R extends Revision> extends ConfigItemDescription,
     ImmutableList<DestinationEffect> write(TransformResult transformResult, Glob destinationFiles,
         Console console) throws ValidationException, RepoException, IOException;
 
+    /**
+     * Called once the workflow finished writing changes, even if it failed, for writers that keep
+     * some of the written changes locally in order to write several of them at once.
+     *
+     * <p>Returns the final effects of the changes that {@link #write} reported as {@link
+     * DestinationEffect.Type#PENDING} and that were not reported by a later {@code write}:
+     * {@link DestinationEffect.Type#CREATED} if they reached the destination, or an error effect
+     * if they didn't. Errors writing them are reported as effects instead of thrown.
+     */
+    default ImmutableList<DestinationEffect> finishWrites(Console console) {
+      return ImmutableList.of();
+    }
+
     /**
      * Utility endpoint for accessing and adding feedback data.
      * @param console console to use for reporting information to the user
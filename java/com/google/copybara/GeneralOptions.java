@@ -35,6 +35,7 @@ import com.google.common.flogger.StackSize;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.jcommander.DurationConverter;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.jcommander.MapConverter;
 import com.google.copybara.monitor.ConsoleEventMonitor;
 import com.google.copybara.monitor.EventMonitor;
@@ -42,6 +43,8 @@ import com.google.copybara.monitor.EventMonitor.EventMonitors;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
 import com.google.copybara.util.CommandRunner;
+import com.google.copybara.util.DiffUtil;
+import com.google.copybara.util.DiffUtil.DiffEngine;
 import com.google.copybara.util.DirFactory;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.StarlarkMode;
@@ -82,6 +85,7 @@ public final class GeneralOptions implements Option {
   private final HashMap<String, EventMonitor> eventMonitors;
   private Path configRootPath;
   private Path outputRootPath;
+  @Nullable private String tmpSubdir;
 
   private Profiler profiler = new Profiler(Ticker.systemTicker());
 
@@ -108,13 +112,17 @@ public final class GeneralOptions implements Option {
   }
 
   public GeneralOptions withForce(boolean force) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    GeneralOptions result = new GeneralOptions(environment, fileSystem, verbose, console,
+        getConfigRoot(), getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    result.diffEngine = diffEngine;
+    return result;
   }
 
   public GeneralOptions withConsole(Console console) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    GeneralOptions result = new GeneralOptions(environment, fileSystem, verbose, console,
+        getConfigRoot(), getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    result.diffEngine = diffEngine;
+    return result;
   }
 
   public Map<String, String> getEnvironment() {
@@ -137,6 +145,11 @@ public final class GeneralOptions implements Option {
     return noCleanup;
   }
 
+  /** Maximum size in bytes of the cache directory, or 0 if unbounded. */
+  public long getCacheMaxSizeBytes() {
+    return cacheMaxSizeMb * 1024 * 1024;
+  }
+
   public boolean isDisableReversibleCheck() {
     return disableReversibleCheck;
   }
@@ -247,12 +260,22 @@ public final class GeneralOptions implements Option {
    * overridden with the flag --output-root.
    */
   public DirFactory getDirFactory() {
+    DirFactory dirFactory;
     if (getOutputRoot() != null) {
-      return new DirFactory(getOutputRoot());
+      dirFactory = new DirFactory(getOutputRoot());
     } else {
       String home = checkNotNull(environment.get("HOME"), "$HOME environment var is not set");
-      return new DirFactory(fileSystem.getPath(home).resolve("copybara"));
+      dirFactory = new DirFactory(fileSystem.getPath(home).resolve("copybara"));
     }
+    return tmpSubdir == null ? dirFactory : dirFactory.withTmpSubdir(tmpSubdir);
+  }
+
+  /**
+   * Makes the temp directories of this invocation live in their own subdirectory of the temp root,
+   * so that cleaning them up doesn't affect other invocations in the same process.
+   */
+  void setTmpSubdir(String tmpSubdir) {
+    this.tmpSubdir = checkNotNull(tmpSubdir);
   }
 
   @VisibleForTesting
@@ -423,6 +446,30 @@ public final class GeneralOptions implements Option {
               + " usage.")
   boolean noCleanup = false;
 
+  @Parameter(
+      names = "--cache-max-size-mb",
+      description =
+          "Maximum size in MiB of the cache directory of the output root, shared by all the"
+              + " Copybara processes that use it. When exceeded, the least recently used caches,"
+              + " like git repositories, are deleted at the beginning of the execution. Caches in"
+              + " use by other Copybara processes are never deleted. Defaults to 0, that keeps"
+              + " the caches forever.")
+  long cacheMaxSizeMb = 0;
+
+  @Parameter(
+      names = "--server-max-requests",
+      description = "Maximum number of requests that the serve command runs at the same time.",
+      validateWith = GreaterThanZeroValidator.class)
+  int serverMaxRequests = 4;
+
+  @Parameter(
+      names = "--server-read-timeout",
+      description =
+          "Time that the serve command waits for a connected client to send its command line"
+              + " before closing the connection. (10s, 1m, etc.)",
+      converter = DurationConverter.class)
+  Duration serverReadTimeout = Duration.ofSeconds(30);
+
   @Parameter(
       names = "--nologging",
       description =
@@ -461,6 +508,21 @@ public final class GeneralOptions implements Option {
     return diffBin;
   }
 
+  @Parameter(
+      names = "--diff-engine",
+      description =
+          "Implementation used for computing the diff of two directory trees. GIT forks 'git diff"
+              + " --no-index' and JAVA computes the same diff in-process, falling back to git when"
+              + " renames could be detected. Defaults to the " + DiffUtil.DIFF_ENGINE_ENV
+              + " environment variable or GIT.",
+      hidden = true)
+  DiffEngine diffEngine = null;
+
+  /** Returns the engine used for diffing directory trees. */
+  public DiffEngine getDiffEngine() {
+    return diffEngine != null ? diffEngine : DiffEngine.fromEnvironment(environment);
+  }
+
   public static final String PATCH_BIN_FLAG = "--patch-bin";
 
   @Parameter(names = PATCH_BIN_FLAG, description = "Path for GNU Patch command")
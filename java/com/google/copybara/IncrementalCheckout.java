@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.Origin.Reader;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.revision.Revision;
+import com.google.copybara.util.DirFactory;
+import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.FileUtil.CopySymlinkStrategy;
+import com.google.copybara.util.FileUtil.SymlinkMode;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Checks out origin revisions by updating a checkout of the previous revision, that is kept
+ * unmodified during the run, instead of writing all the files of each revision.
+ *
+ * <p>Transformations modify the work directory in place, so each change still gets a copy of the
+ * unmodified checkout, but only of the files that match origin_files. For path-local
+ * transformations (See {@link Transformation#isPathLocal()}) it can also keep the result of
+ * transforming the previous revision, so that only the files that changed need to be transformed.
+ */
+final class IncrementalCheckout<O extends Revision> {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Symlinks are copied as they are, since they were created by the checkout. */
+  private static final CopySymlinkStrategy COPY_AS_IS =
+      new CopySymlinkStrategy(SymlinkMode.COPY_AS_IS, SymlinkMode.COPY_AS_IS,
+          SymlinkMode.COPY_AS_IS);
+
+  private final Reader<O> reader;
+  private final DirFactory dirFactory;
+  @Nullable private Path pristine;
+  /** The revision in {@link #pristine}, or null if its contents are unknown. */
+  @Nullable private O pristineRev;
+  @Nullable private Path transformed;
+  /** The revision whose transformed files are in {@link #transformed}, or null if none. */
+  @Nullable private O transformedRev;
+
+  IncrementalCheckout(Reader<O> reader, DirFactory dirFactory) {
+    this.reader = checkNotNull(reader);
+    this.dirFactory = checkNotNull(dirFactory);
+  }
+
+  /**
+   * The paths, relative to the checkout dir, that changed in a {@link #checkout} since {@code
+   * previous}, the revision checked out before. If {@code reusedTransformed} is true, the checkout
+   * dir got the transformed files of {@code previous} with only the changed paths checked out
+   * again. Otherwise it got all the files, but the ones that didn't change keep their size and
+   * modification time.
+   */
+  record Update(String previous, ImmutableSet<String> changedPaths, boolean reusedTransformed) {}
+
+  /**
+   * Writes the files of {@code rev} that match {@code originFiles} to {@code checkoutDir}, that
+   * should be empty.
+   *
+   * <p>If {@code reuseTransformed} is true and {@link #saveTransformed} saved the result for the
+   * revision checked out before, {@code checkoutDir} gets that result instead, with the files that
+   * changed since then checked out again. Returns the paths that changed since the previous
+   * checkout, or null if it was a full checkout.
+   */
+  @Nullable
+  synchronized Update checkout(
+      O rev, Path checkoutDir, Glob originFiles, boolean reuseTransformed)
+      throws RepoException, ValidationException, IOException {
+    O previous = pristineRev;
+    O previousTransformed = transformedRev;
+    // Unknown contents until the update or checkout finish
+    pristineRev = null;
+    transformedRev = null;
+    if (pristine == null) {
+      pristine = dirFactory.newTempDir("pristine_checkout");
+    }
+    Optional<ImmutableSet<String>> changed =
+        previous == null ? Optional.empty() : reader.updateCheckout(previous, rev, pristine);
+    if (changed.isEmpty()) {
+      logger.atInfo().log("Full checkout of %s in %s", rev.asString(), pristine);
+      FileUtil.deleteRecursively(pristine);
+      Files.createDirectories(pristine);
+      reader.checkout(rev, pristine);
+    }
+    pristineRev = rev;
+
+    if (!reuseTransformed
+        || changed.isEmpty()
+        || previousTransformed == null
+        || !previousTransformed.asString().equals(previous.asString())) {
+      FileUtil.copyFilesRecursively(pristine, checkoutDir, COPY_AS_IS, originFiles);
+      return changed.isEmpty()
+          ? null
+          : new Update(previous.asString(), changed.get(), /* reusedTransformed= */ false);
+    }
+    FileUtil.copyFilesRecursively(transformed, checkoutDir, COPY_AS_IS);
+    copyPaths(changed.get(), pristine, checkoutDir, originFiles.relativeTo(pristine));
+    return new Update(previous.asString(), changed.get(), /* reusedTransformed= */ true);
+  }
+
+  /**
+   * Saves the transformed files of {@code rev}, that was checked out by {@link #checkout}, for
+   * reusing them in the next checkout. {@code changedPaths} is the result of that call.
+   */
+  synchronized void saveTransformed(
+      O rev, Path checkoutDir, @Nullable ImmutableSet<String> changedPaths) throws IOException {
+    transformedRev = null;
+    if (transformed == null) {
+      transformed = dirFactory.newTempDir("transformed_checkout");
+    }
+    if (changedPaths == null) {
+      FileUtil.deleteRecursively(transformed);
+      Files.createDirectories(transformed);
+      FileUtil.copyFilesRecursively(checkoutDir, transformed, COPY_AS_IS);
+    } else {
+      copyPaths(changedPaths, checkoutDir, transformed, p -> true);
+    }
+    transformedRev = rev;
+  }
+
+  /**
+   * Replaces {@code paths} in {@code to} with the files of {@code from} that match {@code
+   * matcher}, deleting them if they don't exist in {@code from} or don't match.
+   */
+  private static void copyPaths(
+      ImmutableSet<String> paths, Path from, Path to, PathMatcher matcher) throws IOException {
+    // Deepest first, so that a file replacing a directory finds it already deleted
+    ImmutableList<String> deepestFirst =
+        ImmutableList.sortedCopyOf(
+            Comparator.comparingLong((String p) -> p.chars().filter(c -> c == '/').count())
+                .reversed(),
+            paths);
+    for (String path : deepestFirst) {
+      FileUtil.deleteFileAndEmptyParents(to, path);
+    }
+    for (String path : paths) {
+      Path file = from.resolve(path);
+      if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)
+          && !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)
+          && matcher.matches(file)) {
+        Path target = to.resolve(path);
+        Files.createDirectories(target.getParent());
+        Files.copy(
+            file, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+}
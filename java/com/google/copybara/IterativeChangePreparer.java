@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.WorkflowRunHelper.ChangeMigrator;
+import com.google.copybara.WorkflowRunHelper.PreparedChange;
+import com.google.copybara.effect.DestinationEffect;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.revision.Change;
+import com.google.copybara.revision.Changes;
+import com.google.copybara.revision.Revision;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.PrefixConsole;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Migrates the changes of an {@link WorkflowMode#ITERATIVE} workflow, checking out and
+ * transforming the next changes in the background while the current one is written to the
+ * destination.
+ *
+ * <p>Each change being prepared has its own work directory. Changes are still written one at a
+ * time and in order, and errors of the preparation are reported when the change is written, so
+ * the result is the same as migrating them one by one. The exception are transformations that
+ * read the destination, since they would see it before the previous changes are written. Because
+ * of that this is only enabled by {@code --iterative-prepare-ahead}.
+ */
+final class IterativeChangePreparer<O extends Revision, D extends Revision>
+    implements AutoCloseable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final WorkflowRunHelper<O, D> runHelper;
+  private final ImmutableList<Change<O>> changes;
+  private final int ahead;
+  /** The last migrated revision, before migrating any of the changes. */
+  @Nullable private final O firstLastRev;
+  @Nullable private final ExecutorService executor;
+  private final List<Path> workdirs = new ArrayList<>();
+  private final Map<Change<O>, ChangeMigrator<O, D>> migrators = new IdentityHashMap<>();
+  private final Map<Change<O>, Future<PreparedChange>> prepared = new IdentityHashMap<>();
+  /** The changes already prepared, most recent first, like the migrated changes of the loop. */
+  private final Deque<Change<O>> preparedChanges = new ArrayDeque<>();
+  private int nextChange = 0;
+  private int submitted = 0;
+
+  private IterativeChangePreparer(
+      WorkflowRunHelper<O, D> runHelper,
+      ImmutableList<Change<O>> changes,
+      int ahead,
+      @Nullable O lastRev) {
+    this.runHelper = runHelper;
+    this.changes = changes;
+    this.ahead = ahead;
+    this.firstLastRev = lastRev;
+    this.executor = ahead > 0 ? Executors.newFixedThreadPool(ahead) : null;
+  }
+
+  /**
+   * Creates a preparer for {@code changes}, that prepares changes ahead if enabled by the flags
+   * and supported by the workflow, or else just migrates them one by one.
+   */
+  static <O extends Revision, D extends Revision> IterativeChangePreparer<O, D> create(
+      WorkflowRunHelper<O, D> runHelper, ImmutableList<Change<O>> changes, @Nullable O lastRev) {
+    WorkflowOptions options = runHelper.workflowOptions();
+    int ahead = Math.max(options.iterativePrepareAhead, 0);
+    if (ahead > 0 && (runHelper.isMergeImport() || options.diffInOrigin
+        || options.treeStateIndex)) {
+      // Merge import needs the destination after the previous change, diff in origin asks for
+      // confirmation before the checkout and the tree state index is shared by all the changes.
+      runHelper.getConsole().warn(
+          "--iterative-prepare-ahead is not supported with merge_import, --diff-in-origin or"
+              + " the tree state index. Migrating the changes one by one.");
+      ahead = 0;
+    }
+    return new IterativeChangePreparer<>(runHelper, changes, ahead, lastRev);
+  }
+
+  /** Returns the migrator for {@code change}, creating it only once per change. */
+  ChangeMigrator<O, D> getMigrator(Change<O> change) throws RepoException, ValidationException {
+    ChangeMigrator<O, D> migrator = migrators.get(change);
+    if (migrator == null) {
+      migrator = runHelper.getMigratorForChange(change);
+      migrators.put(change, migrator);
+    }
+    return migrator;
+  }
+
+  /**
+   * Migrates {@code change}, that should be the next change of the list that is not skipped.
+   * Before writing it, starts preparing the changes that come after it. {@code lastRev} only
+   * changes between changes in merge import mode, where changes are not prepared ahead.
+   */
+  ImmutableList<DestinationEffect> migrate(
+      Change<O> change,
+      @Nullable O lastRev,
+      Console processConsole,
+      Metadata metadata,
+      Changes currentChanges,
+      @Nullable O originBaseline)
+      throws IOException, RepoException, ValidationException {
+    if (executor != null) {
+      // Before forgetting the migrator of the change, in case it was not prepared yet
+      prepareAhead();
+    }
+    ChangeMigrator<O, D> migrator = getMigrator(change);
+    migrators.remove(change);
+    if (executor == null) {
+      return migrator.migrate(
+          change.getRevision(),
+          lastRev,
+          processConsole,
+          metadata,
+          currentChanges,
+          /* destinationBaseline= */ null,
+          // Use the current change since we might want to create different
+          // reviews in the destination. Will not work if we want to group
+          // all the changes in the same Github PR
+          change.getRevision(),
+          originBaseline);
+    }
+    Future<PreparedChange> future = prepared.remove(change);
+    checkState(future != null, "Change %s was not prepared", change.getRevision().asString());
+    return migrator.migratePrepared(currentChanges, () -> get(future).write());
+  }
+
+  /**
+   * Starts preparing changes until {@code ahead} changes are prepared besides the one about to be
+   * written. The work directory of the change written before is reused.
+   */
+  private void prepareAhead() throws IOException, RepoException, ValidationException {
+    while (prepared.size() <= ahead && nextChange < changes.size()) {
+      Change<O> change = changes.get(nextChange++);
+      ChangeMigrator<O, D> migrator = getMigrator(change);
+      if (migrator.shouldSkipChange(change)) {
+        continue;
+      }
+      Changes changesForPrepare = new Changes(ImmutableList.of(change), preparedChanges);
+      preparedChanges.addFirst(change);
+      Metadata metadata =
+          new Metadata(
+              runHelper.getChangeMessage(change.getMessage()),
+              runHelper.getFinalAuthor(change.getAuthor()),
+              ImmutableSetMultimap.of());
+      Console console =
+          new PrefixConsole(
+              String.format("Preparing %s: ", change.getRevision().asString()),
+              runHelper.getConsole());
+      Path workdir = workdir(submitted++ % (ahead + 1));
+      logger.atInfo().log("Preparing change %s in %s", change.getRevision().asString(), workdir);
+      prepared.put(
+          change,
+          executor.submit(
+              () ->
+                  migrator.prepare(
+                      workdir,
+                      change.getRevision(),
+                      firstLastRev,
+                      console,
+                      metadata,
+                      changesForPrepare,
+                      change.getRevision())));
+    }
+  }
+
+  private Path workdir(int index) throws IOException {
+    if (index == workdirs.size()) {
+      workdirs.add(runHelper.getGeneralOptions().getDirFactory().newTempDir("prepared_change"));
+    }
+    return workdirs.get(index);
+  }
+
+  private static PreparedChange get(Future<PreparedChange> future)
+      throws IOException, RepoException, ValidationException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while preparing the change", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), RepoException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), ValidationException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException("Error preparing the change", e.getCause());
+    }
+  }
+
+  /** Stops preparing the changes that were not written, for example because of an error. */
+  @Override
+  public void close() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.atWarning().log("Changes still being prepared after one minute");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -17,40 +17,58 @@
 package com.google.copybara;
 
 import static com.google.common.base.Throwables.throwIfInstanceOf;
-import static com.google.common.base.Throwables.throwIfUnchecked;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.collect.Iterators;
 import com.google.copybara.exception.ValidationException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
 
 /**
  * A class that allows to run a list of things in parallel batches.
+ *
+ * <p>Elements are split in small batches that are submitted as soon as they are read from the
+ * input, so that work starts before the whole input is consumed. Batches are executed in a
+ * work-stealing pool that is shared by all the parallelizers with the same number of threads, so
+ * that a few expensive batches don't leave the rest of the threads idle.
+ *
+ * <p>A batch can use a parallelizer itself. When it is called from a thread of its own pool, the
+ * nested batches are forked in that pool and the thread runs pending batches while it waits for
+ * them, instead of blocking a thread that the nested batches need.
  */
 public class LocalParallelizer {
 
+  /** Number of batches per thread that we try to create when the input size is known. */
+  private static final int BATCHES_PER_THREAD = 8;
+  /** Batch size used when we cannot know the input size in advance. */
+  private static final int DEFAULT_BATCH_SIZE = 64;
+  /** A batch is closed when its weight (usually bytes) reaches this value. */
+  @VisibleForTesting static final long MAX_BATCH_WEIGHT = 8 * 1024 * 1024;
+
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
   private final int threads;
   private final int minSize;
-  private final ListeningExecutorService executor;
+  private final ForkJoinPool pool;
 
   public LocalParallelizer(int threads, int minSize) {
     this.threads = threads;
     this.minSize = minSize;
     Preconditions.checkState(threads >= 1, "Threads need to be positive");
     Preconditions.checkState(threads < 1000, "Too many threads (max: 1000)");
-    executor = threads == 1
-        ? null
-        : MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+    pool = threads == 1 ? null : POOLS.computeIfAbsent(threads, ForkJoinPool::new);
   }
 
   /**
@@ -58,25 +76,92 @@ public class LocalParallelizer {
    */
   public <K, V> List<V> run(Iterable<K> list, TransformFunc<K, V> func)
       throws IOException, ValidationException {
-    if (threads == 1 || Iterables.size(list) < minSize) {
+    return run(list, k -> 1, func);
+  }
+
+  /**
+   * Run a list of things in batches, calling {@code func} for each batch.
+   *
+   * <p>{@code weigher} returns the relative cost of processing an element (For example, the size
+   * of a file). Batches are closed early when they accumulate too much weight, so that big
+   * elements don't serialize the tail of the execution. Negative weights are treated as 1.
+   */
+  public <K, V> List<V> run(Iterable<K> list, ToLongFunction<? super K> weigher,
+      TransformFunc<K, V> func) throws IOException, ValidationException {
+    if (threads == 1) {
       return ImmutableList.of(func.run(list));
     }
-    List<ListenableFuture<V>> results = new ArrayList<>(threads);
-    List<K> newList = Lists.newArrayList(list);
-    for (List<K> batch : Lists.partition(newList, Math.max(1, newList.size() / threads))) {
-      results.add(executor.submit(() -> func.run(batch)));
+    Iterator<K> iterator = list.iterator();
+    List<K> first = new ArrayList<>();
+    while (iterator.hasNext() && first.size() < minSize) {
+      first.add(iterator.next());
+    }
+    if (!iterator.hasNext()) {
+      return ImmutableList.of(func.run(first));
+    }
+    int batchSize = list instanceof Collection
+        ? Math.max(1, ((Collection<?>) list).size() / (threads * BATCHES_PER_THREAD))
+        : DEFAULT_BATCH_SIZE;
+
+    List<Batch<K, V>> results = new ArrayList<>();
+    List<K> batch = new ArrayList<>(batchSize);
+    long weight = 0;
+    Iterator<K> all = Iterators.concat(first.iterator(), iterator);
+    while (all.hasNext()) {
+      K element = all.next();
+      batch.add(element);
+      weight += Math.max(1, weigher.applyAsLong(element));
+      if (batch.size() >= batchSize || weight >= MAX_BATCH_WEIGHT) {
+        results.add(submit(batch, func));
+        batch = new ArrayList<>(batchSize);
+        weight = 0;
+      }
+    }
+    if (!batch.isEmpty()) {
+      results.add(submit(batch, func));
+    }
+    List<V> values = new ArrayList<>(results.size());
+    for (Batch<K, V> result : results) {
+      // From a thread of the pool, join() runs other batches while waiting instead of blocking
+      values.add(result.join());
+      if (result.failure != null) {
+        throwIfInstanceOf(result.failure, IOException.class);
+        throwIfInstanceOf(result.failure, ValidationException.class);
+        throw new RuntimeException("Unhandled error", result.failure);
+      }
+    }
+    return values;
+  }
+
+  private <K, V> Batch<K, V> submit(List<K> batch, TransformFunc<K, V> func) {
+    Batch<K, V> task = new Batch<>(batch, func);
+    if (ForkJoinTask.getPool() == pool) {
+      task.fork();
+    } else {
+      pool.execute(task);
     }
-    try {
-      return Futures.allAsList(results).get();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      //TODO We cannot do much here. We might expose InterruptedException all the way up to Main...
-      throw new RuntimeException("Interrupted", e);
-    } catch (ExecutionException e) {
-      throwIfInstanceOf(e.getCause(), IOException.class);
-      throwIfInstanceOf(e.getCause(), ValidationException.class);
-      throwIfUnchecked(e.getCause());
-      throw new RuntimeException("Unhandled error", e.getCause());
+    return task;
+  }
+
+  /** A batch of elements. Checked exceptions are kept in {@code failure} instead of thrown. */
+  private static final class Batch<K, V> extends RecursiveTask<V> {
+    private final List<K> elements;
+    private final TransformFunc<K, V> func;
+    @Nullable private Exception failure;
+
+    private Batch(List<K> elements, TransformFunc<K, V> func) {
+      this.elements = elements;
+      this.func = func;
+    }
+
+    @Override
+    protected V compute() {
+      try {
+        return func.run(elements);
+      } catch (IOException | ValidationException e) {
+        failure = e;
+        return null;
+      }
     }
   }
 
@@ -61,6 +61,7 @@ import com.google.copybara.util.console.FileConsole;
 import com.google.copybara.util.console.LogConsole;
 import com.google.copybara.util.console.NoPromptConsole;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -74,6 +75,7 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -110,6 +112,8 @@ public class Main {
   protected JCommander jCommander;
 
   private Console console;
+  /** Whether this instance runs a request of {@link ServerCmd}, in the JVM of the server. */
+  private boolean serverRequest;
 
   public Main() {
     this(System.getenv());
@@ -152,6 +156,34 @@ public class Main {
     return result.exitCode;
   }
 
+  /**
+   * Runs the command line of a request to the server, with its own options and the given console.
+   * The log is managed by the server. The temp directories of the request are created in their own
+   * subdirectory of the output directory, and deleted when the request finishes.
+   */
+  final ExitCode runServerRequest(String[] args, Console console) {
+    this.console = console;
+    this.serverRequest = true;
+    logger.atInfo().log("Running server request: %s", Joiner.on(' ').join(args));
+    console.verboseFmt("Running: %s", Joiner.on(' ').join(args));
+    CommandResult result = runInternal(args, console, FileSystems.getDefault());
+    try {
+      shutdown(result);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      handleUnexpectedError(console, "Execution was interrupted.", args, e);
+    }
+    return result.exitCode;
+  }
+
+  /**
+   * Returns a new instance for running a request to the server, since each request has its own
+   * state. Subclasses should return an instance of themselves.
+   */
+  protected Main newServerRequestMain() {
+    return new Main(environment);
+  }
+
   /** Helper to find out about verbose output before JCommander has been initialized .*/
   protected static boolean isVerbose(String[] args) {
     return Arrays.stream(args).anyMatch(s -> s.equals("-v") || s.equals("--verbose"));
@@ -333,13 +365,15 @@ public class Main {
     Consumer<Migration> consumer = getMigrationRanConsumer();
     return ImmutableSet.of(
         new MigrateCmd(validator, consumer, configLoaderProvider, moduleSet),
+        new BatchMigrateCmd(validator, consumer, configLoaderProvider),
         new InfoCmd(configLoaderProvider, newInfoContextProvider()),
         new ValidateCmd(validator, consumer, configLoaderProvider),
         new HelpCmd(jcommander),
         new OnboardCmd(),
         new GeneratorCmd(moduleSet),
         new VersionCmd(),
-        new RegenerateCmd(configLoaderProvider));
+        new RegenerateCmd(configLoaderProvider),
+        new ServerCmd((args, console) -> newServerRequestMain().runServerRequest(args, console)));
   }
 
   protected void initMonitoringEnvironment(CommandEnv commandEnv, ImmutableList<String> args) {
@@ -541,6 +575,10 @@ public class Main {
       ImmutableList<String> rawArgs)
       throws ValidationException, IOException, RepoException {
     GeneralOptions generalOptions = options.get(GeneralOptions.class);
+    if (serverRequest) {
+      // Other requests use the output directory of the server at the same time
+      generalOptions.setTmpSubdir("request_" + UUID.randomUUID());
+    }
     profiler = generalOptions.profiler();
     ImmutableList.Builder<Listener> profilerListeners = ImmutableList.builder();
     profilerListeners.add(
@@ -564,12 +602,27 @@ public class Main {
               "Cleaned output directory:%s", generalOptions.getDirFactory().getTmpRoot());
           return null;
         });
+    if (generalOptions.getCacheMaxSizeBytes() > 0) {
+      generalOptions.ioRepoTask(
+          "evict_cache",
+          () ->
+              generalOptions
+                  .getDirFactory()
+                  .getCacheManager()
+                  .evict(generalOptions.getCacheMaxSizeBytes()));
+    }
   }
   /**
    * Performs cleanup tasks after executing Copybara.
    * @param result
    */
   protected void shutdown(CommandResult result) throws InterruptedException {
+    if (result.commandEnv() != null) {
+      closeOptions(result.commandEnv().getOptions());
+      if (serverRequest) {
+        cleanupServerRequestDir(result.commandEnv().getOptions().get(GeneralOptions.class));
+      }
+    }
     // Before profiler.stop()
     if (console != null) {
       console.close();
@@ -579,6 +632,32 @@ public class Main {
     }
   }
 
+  /** Deletes the temp directories of a server request, since the next request won't. */
+  private static void cleanupServerRequestDir(GeneralOptions generalOptions) {
+    if (generalOptions.isNoCleanup()) {
+      return;
+    }
+    try {
+      generalOptions.getDirFactory().cleanupTempDirs();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot clean %s", generalOptions.getDirFactory().getTmpRoot());
+    }
+  }
+
+  /** Releases the resources, like long-lived processes, held by the options of the command. */
+  private static void closeOptions(Options options) {
+    for (Option option : options.getAll()) {
+      if (option instanceof Closeable closeable) {
+        try {
+          closeable.close();
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot close %s", option);
+        }
+      }
+    }
+  }
+
   /**
    * Returns the base directory to be used by Copybara to write execution related files (Like
    * logs).
@@ -22,6 +22,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.copybara.approval.ApprovalsProvider;
@@ -127,6 +128,23 @@ public interface Origin<R extends Revision> extends ConfigItemDescription, Starl
      */
     void checkout(R ref, Path checkoutDir) throws RepoException, ValidationException;
 
+    /**
+     * Updates {@code checkoutDir}, that contains a {@link #checkout} of {@code previous} that
+     * hasn't been modified, to the contents of {@code ref}, writing only the files that are
+     * different between them.
+     *
+     * <p>Returns the paths that are different, relative to {@code checkoutDir}, or empty if the
+     * origin cannot update the checkout for these revisions. In that case the caller should do a
+     * regular checkout.
+     *
+     * @throws RepoException if any error happens during the update. The contents of {@code
+     *     checkoutDir} are undefined after an error.
+     */
+    default Optional<ImmutableSet<String>> updateCheckout(R previous, R ref, Path checkoutDir)
+        throws RepoException, ValidationException {
+      return Optional.empty();
+    }
+
     /**
      * Returns the list of versions from the origin repository. By default it returns an empty list.
      */
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.LogConsole;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Copybara as a long-running server, so that frequent invocations don't pay for the start of
+ * the JVM and the parsing of the config each time.
+ *
+ * <p>Clients connect to a Unix domain socket and send the command line of a {@code migrate},
+ * {@code info} or {@code validate} command, one argument per line, followed by an empty line. Each
+ * request runs with its own options and console, like a separate invocation would. The server
+ * writes the output of the console to the connection, then a last line {@code EXIT <code>} with
+ * the exit code of the command, and closes the connection. Connections that don't send the command
+ * line within {@code --server-read-timeout} are closed. A {@code shutdown} request stops the
+ * server after the running requests finish.
+ *
+ * <p>Only the user running the server can connect to the socket, since requests run with the
+ * credentials of that user. Paths in the arguments are resolved against the working directory of
+ * the server, so clients should pass absolute paths.
+ */
+@Parameters(
+    separators = "=",
+    commandDescription =
+        "Runs a server that executes the migrate, info and validate commands sent to a local"
+            + " socket, reusing the JVM and the parsed config files. Usage: serve socket_path")
+public class ServerCmd implements CopybaraCmd {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final ImmutableSet<String> COMMANDS = ImmutableSet.of("migrate", "info", "validate");
+  static final String SHUTDOWN = "shutdown";
+  static final String EXIT_PREFIX = "EXIT ";
+  // File type bits of the unix:mode attribute
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFSOCK = 0140000;
+  // Closes the connections that don't send their command line in time
+  private static final ScheduledExecutorService READ_TIMEOUTS =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("server-read-timeout-%d")
+              .setDaemon(true)
+              .build());
+
+  /** Runs the command line of a request with its own options and console. */
+  interface RequestRunner {
+    ExitCode run(String[] args, Console console);
+  }
+
+  private final RequestRunner requestRunner;
+
+  ServerCmd(RequestRunner requestRunner) {
+    this.requestRunner = Preconditions.checkNotNull(requestRunner);
+  }
+
+  @Override
+  public ExitCode run(CommandEnv commandEnv)
+      throws ValidationException, IOException, RepoException {
+    ImmutableList<String> args = commandEnv.getArgs();
+    if (args.size() != 1) {
+      throw new CommandLineException(String.format("Usage: copybara %s socket_path", name()));
+    }
+    GeneralOptions generalOptions = commandEnv.getOptions().get(GeneralOptions.class);
+    Path socket = generalOptions.getCwd().resolve(args.get(0)).toAbsolutePath();
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+    deleteStaleSocket(address);
+    Duration readTimeout = generalOptions.serverReadTimeout;
+
+    ExecutorService executor = Executors.newFixedThreadPool(generalOptions.serverMaxRequests);
+    try (ServerSocketChannel server = bindPrivately(socket)) {
+      generalOptions.console().infoFmt("Listening in %s", socket);
+      while (true) {
+        SocketChannel client;
+        try {
+          client = server.accept();
+        } catch (AsynchronousCloseException e) {
+          // Closed by a shutdown request
+          break;
+        }
+        executor.execute(() -> handle(client, server, readTimeout));
+      }
+    } finally {
+      executor.shutdown();
+      Files.deleteIfExists(socket);
+    }
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.atInfo().log("Waiting for the running requests to finish");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while waiting for the running requests", e);
+    }
+    generalOptions.console().info("Server stopped");
+    return ExitCode.SUCCESS;
+  }
+
+  /**
+   * Deletes the socket file left by a server that didn't stop cleanly. Fails if the path exists and
+   * is not a socket, so that a wrong argument doesn't delete other files.
+   */
+  private static void deleteStaleSocket(UnixDomainSocketAddress address)
+      throws IOException, ValidationException {
+    if (!Files.exists(address.getPath(), LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    if (!isSocket(address.getPath())) {
+      throw new ValidationException(
+          String.format("%s already exists and is not a socket", address.getPath()));
+    }
+    try (SocketChannel ignored = SocketChannel.open(address)) {
+      throw new ValidationException(
+          String.format("A server is already listening in %s", address.getPath()));
+    } catch (IOException e) {
+      Files.delete(address.getPath());
+    }
+  }
+
+  private static boolean isSocket(Path path) throws IOException {
+    try {
+      int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+      return (mode & S_IFMT) == S_IFSOCK;
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      // No unix attributes in this file system, at least check that it is not a regular file,
+      // directory or symlink.
+      return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+          .isOther();
+    }
+  }
+
+  /**
+   * Binds a socket that only the owner can connect to. The socket is bound in a new directory that
+   * only the owner can access, and moved to its path once its own permissions are restricted, so
+   * that nobody else can connect in between.
+   */
+  private static ServerSocketChannel bindPrivately(Path socket) throws IOException {
+    Path privateDir =
+        Files.createTempDirectory(
+            socket.getParent(),
+            ".copybara_server",
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    Path boundSocket = privateDir.resolve("socket");
+    ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      server.bind(UnixDomainSocketAddress.of(boundSocket));
+      Files.setPosixFilePermissions(boundSocket, PosixFilePermissions.fromString("rw-------"));
+      Files.move(boundSocket, socket, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      server.close();
+      throw e;
+    } finally {
+      Files.deleteIfExists(boundSocket);
+      Files.delete(privateDir);
+    }
+    return server;
+  }
+
+  private void handle(SocketChannel client, ServerSocketChannel server, Duration readTimeout) {
+    try (client;
+        PrintStream out =
+            new PrintStream(Channels.newOutputStream(client), /*autoFlush=*/ true, UTF_8)) {
+      List<String> args = readArgs(client, readTimeout);
+      if (args.size() == 1 && args.get(0).equals(SHUTDOWN)) {
+        logger.atInfo().log("Server shutdown requested");
+        server.close();
+        out.println(EXIT_PREFIX + ExitCode.SUCCESS.getCode());
+        return;
+      }
+      if (args.isEmpty() || !COMMANDS.contains(args.get(0))) {
+        out.printf("ERROR: The first argument should be one of %s or %s%n", COMMANDS, SHUTDOWN);
+        out.println(EXIT_PREFIX + ExitCode.COMMAND_LINE_ERROR.getCode());
+        return;
+      }
+      boolean verbose = args.contains("-v") || args.contains("--verbose");
+      ExitCode exitCode;
+      try {
+        Console console = LogConsole.writeOnlyConsole(out, verbose);
+        exitCode = requestRunner.run(args.toArray(new String[0]), console);
+      } catch (RuntimeException e) {
+        logger.atSevere().withCause(e).log("Unexpected error running %s", args);
+        exitCode = ExitCode.INTERNAL_ERROR;
+      }
+      out.println(EXIT_PREFIX + exitCode.getCode());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Error handling a server request");
+    }
+  }
+
+  /**
+   * Reads the command line of the request. Blocking reads of the channel don't time out, so the
+   * connection is closed if the command line is not read within {@code readTimeout}.
+   */
+  private static List<String> readArgs(SocketChannel client, Duration readTimeout)
+      throws IOException {
+    ScheduledFuture<?> timeout =
+        READ_TIMEOUTS.schedule(
+            () -> {
+              logger.atWarning().log("Closing a server connection that didn't send a request");
+              try {
+                client.close();
+              } catch (IOException e) {
+                logger.atWarning().withCause(e).log("Cannot close the server connection");
+              }
+            },
+            readTimeout.toMillis(),
+            TimeUnit.MILLISECONDS);
+    try {
+      // Not closed, since that would close the connection
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(Channels.newInputStream(client), UTF_8));
+      List<String> args = new ArrayList<>();
+      String line;
+      while ((line = in.readLine()) != null && !line.isEmpty()) {
+        args.add(line);
+      }
+      return args;
+    } finally {
+      timeout.cancel(/*mayInterruptIfRunning=*/ false);
+    }
+  }
+
+  @Override
+  public String name() {
+    return "serve";
+  }
+}
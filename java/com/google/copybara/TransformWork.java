@@ -786,6 +786,32 @@ public final class TransformWork extends CheckoutFileSystem
         mode);
   }
 
+  /**
+   * Create a clone of the transform work but use a different {@link TreeState}. Used to provide
+   * a {@link TreeState} backed by a persistent index.
+   */
+  public TransformWork withTreeState(TreeState newTreeState) {
+    Preconditions.checkArgument(newTreeState.getCheckoutDir().equals(getCheckoutDir()),
+        "TreeState is for a different checkout dir: %s", newTreeState.getCheckoutDir());
+    return new TransformWork(
+        getCheckoutDir(),
+        metadata,
+        changes,
+        console,
+        migrationInfo,
+        resolvedReference,
+        newTreeState,
+        insideExplicitTransform,
+        lastRev,
+        currentRev,
+        skylarkTransformParams,
+        originApi,
+        destinationApi,
+        destinationReader,
+        destinationInfo,
+        mode);
+  }
+
   /**
    * Update mutable state from another worker data.
    */
@@ -74,4 +74,14 @@ public interface Transformation extends StarlarkValue {
         "Unexpected join call for %s and %s", this, next));
   }
 
+  /**
+   * Returns true if the transformation only modifies files found with {@link
+   * TransformWork#getTreeState()}, and the new content of each file only depends on its own
+   * content. These transformations don't create, move or delete files, so running them over the
+   * files that changed gives the same result for those files as running them over all the files.
+   */
+  default boolean isPathLocal() {
+    return false;
+  }
+
 }
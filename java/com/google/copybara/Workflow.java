@@ -322,7 +322,14 @@ public class Workflow<O extends Revision, D extends Revision> implements Migrati
             eventMonitors().dispatchEvent(m -> m.onChangeMigrationFinished(event));
           });
       try (ProfilerTask ignored = profiler().start(mode.toString().toLowerCase(Locale.ROOT))) {
-        mode.run(helper);
+        try {
+          mode.run(helper);
+        } catch (RepoException | ValidationException | IOException | RuntimeException e) {
+          // Write the changes migrated before the error
+          helper.finishWrites(e);
+          throw e;
+        }
+        helper.finishWrites(/*error=*/ null);
       } finally {
         if (!getGeneralOptions().dryRunMode) {
           try (ProfilerTask ignored = profiler().start("after_all_migration")) {
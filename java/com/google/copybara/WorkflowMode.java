@@ -189,66 +189,67 @@ public enum WorkflowMode {
 
       Deque<Change<O>> migrated = new ArrayDeque<>();
       int migratedChanges = 0;
-      while (changesIterator.hasNext() && migratedChanges < limit) {
-        Change<O> change = changesIterator.next();
-        String prefix = String.format(
-            "Change %d of %d (%s): ",
-            changeNumber, Math.min(changes.size(), limit), change.getRevision().asString());
-        ImmutableList<DestinationEffect> result;
-
-        boolean errors = false;
-        try (ProfilerTask ignored = runHelper.profiler().start(change.getRef())) {
-          ImmutableList<Change<O>> current = ImmutableList.of(change);
-          ChangeMigrator<O, D> migrator = runHelper.getMigratorForChange(change);
-          if (migrator.skipChange(change)) {
-            continue;
+      try (IterativeChangePreparer<O, D> preparer =
+          IterativeChangePreparer.create(runHelper, changes, lastRev)) {
+        while (changesIterator.hasNext() && migratedChanges < limit) {
+          Change<O> change = changesIterator.next();
+          String prefix = String.format(
+              "Change %d of %d (%s): ",
+              changeNumber, Math.min(changes.size(), limit), change.getRevision().asString());
+          ImmutableList<DestinationEffect> result;
+
+          boolean errors = false;
+          try (ProfilerTask ignored = runHelper.profiler().start(change.getRef())) {
+            ImmutableList<Change<O>> current = ImmutableList.of(change);
+            ChangeMigrator<O, D> migrator = preparer.getMigrator(change);
+            if (migrator.skipChange(change)) {
+              continue;
+            }
+            result =
+                preparer.migrate(
+                    change,
+                    lastRev,
+                    new PrefixConsole(prefix, runHelper.getConsole()),
+                    new Metadata(
+                        runHelper.getChangeMessage(change.getMessage()),
+                        runHelper.getFinalAuthor(change.getAuthor()),
+                        ImmutableSetMultimap.of()),
+                    new Changes(current, migrated),
+                    originBaseline);
+            migratedChanges++;
+            for (DestinationEffect effect : result) {
+              if (effect.getType() != Type.NOOP) {
+                errors |= !effect.getErrors().isEmpty();
+              }
+            }
+          } catch (EmptyChangeException e) {
+            runHelper.getConsole().warnFmt("Migration of origin revision '%s' resulted in an"
+                    + " empty change in the destination: %s",
+                change.getRevision().asString(), e.getMessage());
+          } catch (ValidationException | RepoException e) {
+            runHelper.getConsole().errorFmt(
+                "Migration of origin revision '%s' failed with error: %s",
+                change.getRevision().asString(), e.getMessage());
+            throw e;
           }
-          result =
-              migrator.migrate(
-                  change.getRevision(),
-                  lastRev,
-                  new PrefixConsole(prefix, runHelper.getConsole()),
-                  new Metadata(
-                      runHelper.getChangeMessage(change.getMessage()),
-                      runHelper.getFinalAuthor(change.getAuthor()),
-                      ImmutableSetMultimap.of()),
-                  new Changes(current, migrated),
-                  /* destinationBaseline= */ null,
-                  // Use the current change since we might want to create different
-                  // reviews in the destination. Will not work if we want to group
-                  // all the changes in the same Github PR
-                  change.getRevision(),
-                  originBaseline);
-          migratedChanges++;
-          for (DestinationEffect effect : result) {
-            if (effect.getType() != Type.NOOP) {
-              errors |= !effect.getErrors().isEmpty();
+          migrated.addFirst(change);
+
+          if (errors && changesIterator.hasNext()) {
+            // Use the regular console to log prompt and final message, it will be easier to spot
+            if (!runHelper.getConsole()
+                .promptConfirmation("Continue importing next change?")) {
+              String message =
+                  String.format("Iterative workflow aborted by user after: %s", prefix);
+              runHelper.getConsole().warn(message);
+              throw new ChangeRejectedException(message);
             }
           }
-        } catch (EmptyChangeException e) {
-          runHelper.getConsole().warnFmt("Migration of origin revision '%s' resulted in an empty"
-              + " change in the destination: %s", change.getRevision().asString(), e.getMessage());
-        } catch (ValidationException | RepoException e) {
-          runHelper.getConsole().errorFmt("Migration of origin revision '%s' failed with error: %s",
-              change.getRevision().asString(), e.getMessage());
-          throw e;
-        }
-        migrated.addFirst(change);
-
-        if (errors && changesIterator.hasNext()) {
-          // Use the regular console to log prompt and final message, it will be easier to spot
-          if (!runHelper.getConsole()
-              .promptConfirmation("Continue importing next change?")) {
-            String message = String.format("Iterative workflow aborted by user after: %s", prefix);
-            runHelper.getConsole().warn(message);
-            throw new ChangeRejectedException(message);
+          if (runHelper.isMergeImport()) {
+            lastRev = change.getRevision();
+            originBaseline = change.getRevision();
           }
+          changeNumber++;
         }
-        if (runHelper.isMergeImport()) {
-          lastRev = change.getRevision();
-          originBaseline = change.getRevision();
-        }
-        changeNumber++;
       }
       if (migratedChanges == 0) {
         throw new EmptyChangeException(
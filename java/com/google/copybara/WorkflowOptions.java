@@ -27,6 +27,7 @@ import com.google.copybara.authoring.Author;
 import com.google.copybara.jcommander.AuthorConverter;
 import com.google.copybara.jcommander.GlobConverter;
 import com.google.copybara.jcommander.GreaterThanZeroListValidator;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.util.Glob;
 import java.util.List;
 import java.util.Objects;
@@ -104,6 +105,16 @@ public class WorkflowOptions implements Option {
       description = "Import just a number of changes instead of all the pending ones")
   public int iterativeLimitChanges = Integer.MAX_VALUE;
 
+  @Parameter(
+      names = "--iterative-prepare-ahead",
+      description =
+          "In ITERATIVE mode, number of changes to check out and transform in the background"
+              + " while the previous ones are written to the destination. The changes are still"
+              + " written one at a time and in order. Transformations that read the destination"
+              + " would see it before the previous changes are written, so this is disabled by"
+              + " default.")
+  public int iterativePrepareAhead = 0;
+
   @Parameter(names = "--ignore-noop",
       description = "Only warn about operations/transforms that didn't have any effect."
           + " For example: A transform that didn't modify any file, non-existent origin"
@@ -149,6 +160,12 @@ public class WorkflowOptions implements Option {
           "Number of threads to use when running transformations that change lot of files")
   public int threads = Runtime.getRuntime().availableProcessors();
 
+  @Parameter(
+      names = "--batch-migrate-jobs",
+      description = "Number of workflows that the migrate_batch command runs at the same time.",
+      validateWith = GreaterThanZeroValidator.class)
+  int batchMigrateJobs = 4;
+
   @Parameter(names = CHANGE_REQUEST_FROM_SOT_LIMIT_FLAG,
       description = "Number of origin baseline changes to use for trying to match one in the"
           + " destination. It can be used if the are many parent changes in the origin that are a"
@@ -159,6 +176,48 @@ public class WorkflowOptions implements Option {
       description = "Minimum size of the lists to process to run them in parallel")
   public int threadsMinSize = 100;
 
+  @Parameter(
+      names = "--tree-state-index",
+      description =
+          "Persist the file sizes and modification times of the origin checkout in the cache"
+              + " directory, so that the next change of the same workflow only reads the files"
+              + " that changed since it. Implies --incremental-checkout.",
+      hidden = true,
+      arity = 1)
+  public boolean treeStateIndex = false;
+
+  @Parameter(
+      names = "--incremental-checkout",
+      description =
+          "Keep an unmodified checkout of the last migrated origin revision during the run, and"
+              + " create the checkout of the next change by writing only the files that changed"
+              + " since it, if the origin supports it.",
+      hidden = true,
+      arity = 1)
+  public boolean incrementalCheckout = false;
+
+  @Parameter(
+      names = "--incremental-transforms",
+      description =
+          "If all the transformations of the workflow only rewrite the content of each file, like"
+              + " core.replace or format.buildifier, keep the transformed files of the last"
+              + " migrated change and transform only the files that changed in the next one."
+              + " Transformations that don't find files to change are not reported as no-ops."
+              + " Implies --incremental-checkout.",
+      hidden = true,
+      arity = 1)
+  public boolean incrementalTransforms = false;
+
+  @Parameter(
+      names = "--reversible-check-hashes",
+      description =
+          "Run the reversible check by comparing content hashes in-process instead of making a"
+              + " copy of the origin checkout and running 'git diff' over the two trees. The diff"
+              + " is only computed for the files that are different.",
+      hidden = true,
+      arity = 1)
+  public boolean reversibleCheckHashes = false;
+
   @Parameter(names = "--notransformation-join",
       description = "By default Copybara tries to join certain transformations in one so that it"
           + " is more efficient. This disables the feature.")
@@ -210,6 +269,7 @@ public class WorkflowOptions implements Option {
     this.lastRevision = other.lastRevision;
     this.initHistory = other.initHistory;
     this.iterativeLimitChanges = other.iterativeLimitChanges;
+    this.iterativePrepareAhead = other.iterativePrepareAhead;
     this.ignoreNoop = other.ignoreNoop;
     this.squashSkipHistory = other.squashSkipHistory;
     this.migrateNoopChanges = other.migrateNoopChanges;
@@ -219,6 +279,10 @@ public class WorkflowOptions implements Option {
     this.changeRequestFromSotLimit = other.changeRequestFromSotLimit;
     this.threadsMinSize = other.threadsMinSize;
     this.noTransformationJoin = other.noTransformationJoin;
+    this.treeStateIndex = other.treeStateIndex;
+    this.incrementalCheckout = other.incrementalCheckout;
+    this.incrementalTransforms = other.incrementalTransforms;
+    this.reversibleCheckHashes = other.reversibleCheckHashes;
     this.readConfigFromChange = other.readConfigFromChange;
     this.disableReadConfigFromChange = other.disableReadConfigFromChange;
     this.readConfigFromChangePaths = other.readConfigFromChangePaths;
@@ -292,6 +356,16 @@ public class WorkflowOptions implements Option {
       arity = 1)
   String debugMergeImport = null;
 
+  @Parameter(
+      names = "--merge-import-in-process",
+      description =
+          "Merge the files for the merge import mode in-process, with the same output as diff3,"
+              + " instead of running a diff3 process per file. The merge uses at most one thread"
+              + " per core.",
+      hidden = true,
+      arity = 1)
+  boolean mergeImportInProcess = false;
+
   @Parameter(
       names = "--disable-consistency-merge-import",
       description =
@@ -30,7 +30,11 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import com.google.common.io.MoreFiles;
 import com.google.copybara.Destination.DestinationStatus;
 import com.google.copybara.Destination.Writer;
@@ -58,12 +62,16 @@ import com.google.copybara.profiler.Profiler.ProfilerTask;
 import com.google.copybara.revision.Change;
 import com.google.copybara.revision.Changes;
 import com.google.copybara.revision.Revision;
+import com.google.copybara.treestate.TreeState;
 import com.google.copybara.util.ApplyDestinationPatch;
 import com.google.copybara.util.AutoPatchUtil;
+import com.google.copybara.util.CacheManager;
 import com.google.copybara.util.CommandLineDiffUtil;
 import com.google.copybara.util.ConsistencyFile;
+import com.google.copybara.util.Diff3Merge;
 import com.google.copybara.util.DiffUtil;
 import com.google.copybara.util.DiffUtil.DiffFile;
+import com.google.copybara.util.DirectoryHashes;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.FileUtil.CopySymlinkStrategy;
 import com.google.copybara.util.Glob;
@@ -99,6 +107,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   @Nullable
   final String rawSourceRef;
   private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+  @Nullable private final IncrementalCheckout<O> incrementalCheckout;
 
   public WorkflowRunHelper(
       Workflow<O, D> workflow,
@@ -115,6 +124,13 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     this.writer = checkNotNull(destinationWriter);
     this.rawSourceRef = rawSourceRef;
     this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+    this.incrementalCheckout =
+        workflow.getWorkflowOptions().incrementalCheckout
+                || workflow.getWorkflowOptions().incrementalTransforms
+                || workflow.getWorkflowOptions().treeStateIndex
+            ? new IncrementalCheckout<>(
+                originReader, workflow.getGeneralOptions().getDirFactory())
+            : null;
   }
 
   public Consumer<ChangeMigrationFinishedEvent> getMigrationFinishedMonitor() {
@@ -136,7 +152,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   ChangeMigrator<O, D> getMigratorForChangeAndWriter(Change<?> change, Writer<D> writer)
       throws ValidationException, RepoException {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationFinishedMonitor, incrementalCheckout);
   }
 
   /**
@@ -144,7 +160,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
    */
   ChangeMigrator<O, D> getDefaultMigrator() {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationFinishedMonitor, incrementalCheckout);
   }
 
   public Profiler profiler() {
@@ -229,6 +245,38 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     return writer;
   }
 
+  /**
+   * Lets the writer write the changes that it kept locally, and reports their final effects. If
+   * some of them couldn't be written, fails with their errors, unless the workflow already failed
+   * with {@code error}.
+   */
+  void finishWrites(@Nullable Exception error) throws RepoException, ValidationException {
+    ImmutableList<DestinationEffect> effects;
+    try (ProfilerTask ignored = profiler().start("finish_writes")) {
+      effects = writer.finishWrites(workflow.getConsole());
+    }
+    if (effects.isEmpty()) {
+      return;
+    }
+    workflow
+        .eventMonitors()
+        .dispatchEvent(m -> m.onChangeMigrationStarted(new ChangeMigrationStartedEvent()));
+    migrationFinishedMonitor.accept(
+        new ChangeMigrationFinishedEvent(
+            effects, workflow.getOriginDescription(), workflow.getDestinationDescription()));
+    if (error != null) {
+      return;
+    }
+    for (DestinationEffect effect : effects) {
+      if (effect.getType() == Type.ERROR) {
+        throw new ValidationException(effect.getSummary() + ": " + effect.getErrors());
+      }
+      if (effect.getType() == Type.TEMPORARY_ERROR) {
+        throw new RepoException(effect.getSummary() + ": " + effect.getErrors());
+      }
+    }
+  }
+
   boolean destinationSupportsPreviousRef() {
     return writer.supportsHistory();
   }
@@ -304,6 +352,15 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     }
   }
 
+  /** A change that was checked out and transformed, and is ready to be written. */
+  @FunctionalInterface
+  interface PreparedChange {
+
+    /** Writes the change to the destination. */
+    ImmutableList<DestinationEffect> write()
+        throws IOException, RepoException, ValidationException;
+  }
+
   /**
    * Migrate a change for a workflow. Can overwrite the reader, writer, transformations, etc.
    */
@@ -317,10 +374,19 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     @Nullable
     private final String rawSourceRef;
     private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+    @Nullable private final IncrementalCheckout<O> incrementalCheckout;
 
     ChangeMigrator(Workflow<O, D> workflow, Path workdir, Reader<O> reader,
         Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
         Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
+      this(workflow, workdir, reader, writer, resolvedRef, rawSourceRef, migrationFinishedMonitor,
+          /*incrementalCheckout=*/ null);
+    }
+
+    ChangeMigrator(Workflow<O, D> workflow, Path workdir, Reader<O> reader,
+        Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
+        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor,
+        @Nullable IncrementalCheckout<O> incrementalCheckout) {
       this.headWorkflow = checkNotNull(workflow);
       this.workdir = checkNotNull(workdir);
       this.resolvedRef = checkNotNull(resolvedRef);
@@ -328,6 +394,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       this.writer = checkNotNull(writer);
       this.rawSourceRef = rawSourceRef;
       this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+      this.incrementalCheckout = incrementalCheckout;
     }
 
     protected Workflow<O, D> getWorkflow() {
@@ -445,7 +512,6 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
      * @param originBaselineForMergeImport the revision to populate baseline for merge_import mode
      */
     @CanIgnoreReturnValue
-    @SuppressWarnings("Finally")
     public final ImmutableList<DestinationEffect> migrate(
         O rev,
         @Nullable O lastRev,
@@ -456,22 +522,65 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         @Nullable O changeIdentityRevision,
         @Nullable O originBaselineForMergeImport)
         throws IOException, RepoException, ValidationException {
+      return migratePrepared(
+          changes,
+          () ->
+              doMigrate(
+                  rev,
+                  lastRev,
+                  processConsole,
+                  metadata,
+                  changes,
+                  destinationBaseline,
+                  changeIdentityRevision,
+                  originBaselineForMergeImport));
+    }
+
+    /**
+     * Checks out and transforms a change in {@code workdir}, like {@link #migrate} does, but
+     * without writing it to the destination. Different changes can be prepared concurrently in
+     * different work directories, while another change is written.
+     *
+     * @return the change to pass to {@link #migratePrepared} in order to write it
+     */
+    final PreparedChange prepare(
+        Path workdir,
+        O rev,
+        @Nullable O lastRev,
+        Console processConsole,
+        Metadata metadata,
+        Changes changes,
+        @Nullable O changeIdentityRevision)
+        throws IOException, RepoException, ValidationException {
+      return prepare(
+          workdir,
+          rev,
+          lastRev,
+          processConsole,
+          metadata,
+          changes,
+          /* destinationBaseline= */ null,
+          changeIdentityRevision,
+          /* originBaselineForPrune= */ null);
+    }
+
+    /**
+     * Writes a change to the destination, reporting the same effects and running the same hooks
+     * as {@link #migrate}. Errors thrown by {@code prepared} are reported like errors of the
+     * migration.
+     */
+    @CanIgnoreReturnValue
+    @SuppressWarnings("Finally")
+    final ImmutableList<DestinationEffect> migratePrepared(
+        Changes changes, PreparedChange prepared)
+        throws IOException, RepoException, ValidationException {
       ImmutableList<DestinationEffect> effects = ImmutableList.of();
       Exception lastException = null;
       try {
         getWorkflow()
             .eventMonitors()
             .dispatchEvent(m -> m.onChangeMigrationStarted(new ChangeMigrationStartedEvent()));
-        effects =
-            doMigrate(
-                rev,
-                lastRev,
-                processConsole,
-                metadata,
-                changes,
-                destinationBaseline,
-                changeIdentityRevision,
-                originBaselineForMergeImport);
+        effects = prepared.write();
       } catch (RedundantChangeException e) {
         effects =
             ImmutableList.of(
@@ -577,6 +686,26 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
               getWorkflow().getDestinationDescription()));
     }
 
+    /** Index file for the {@link TreeState} of this workflow, stored in the cache directory. */
+    private Path treeStateIndexFile() throws IOException {
+      String key =
+          Hashing.sha256()
+              .hashString(
+                  getWorkflow().getMainConfigFile().getIdentifier()
+                      + ":"
+                      + getWorkflow().getName(),
+                  UTF_8)
+              .toString();
+      return getWorkflow().getGeneralOptions().getDirFactory().getCacheDir("tree_state")
+          .resolve(key);
+    }
+
+    /** Protects the tree state index file from eviction until the returned use is closed. */
+    private CacheManager.Use useTreeStateIndex() throws IOException {
+      return getWorkflow().getGeneralOptions().getDirFactory().getCacheManager()
+          .recordUse(treeStateIndexFile());
+    }
+
     private boolean showDiffInOrigin(O rev, @Nullable O lastRev, Console processConsole)
         throws RepoException, ValidationException {
       if (!getWorkflow().getWorkflowOptions().diffInOrigin
@@ -626,6 +755,30 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         @Nullable O changeIdentityRevision,
         @Nullable O originBaselineForPrune)
         throws IOException, RepoException, ValidationException {
+      return prepare(
+              workdir,
+              rev,
+              lastRev,
+              processConsole,
+              metadata,
+              changes,
+              destinationBaseline,
+              changeIdentityRevision,
+              originBaselineForPrune)
+          .write();
+    }
+
+    private PreparedChange prepare(
+        Path workdir,
+        O rev,
+        @Nullable O lastRev,
+        Console processConsole,
+        Metadata metadata,
+        Changes changes,
+        @Nullable Baseline<O> destinationBaseline,
+        @Nullable O changeIdentityRevision,
+        @Nullable O originBaselineForPrune)
+        throws IOException, RepoException, ValidationException {
       Path checkoutDir = workdir.resolve(ConsistencyFile.CHECKOUT_DIR_NAME);
       try (ProfilerTask ignored = profiler().start("prepare_workdir")) {
         processConsole.progress("Cleaning working directory");
@@ -637,15 +790,46 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       processConsole.progress("Checking out the change");
       boolean isShowDiffInOrigin = showDiffInOrigin(rev, lastRev, processConsole);
 
-      checkout(rev, processConsole, checkoutDir, "origin.checkout");
+      boolean incrementalTransforms = incrementalTransforms();
+      IncrementalCheckout.Update update =
+          checkout(rev, processConsole, checkoutDir, "origin.checkout", incrementalCheckout,
+              incrementalTransforms);
+      ImmutableSet<String> changedPaths =
+          update != null && update.reusedTransformed() ? update.changedPaths() : null;
+      TreeState indexedTreeState = null;
+      if (getWorkflow().getWorkflowOptions().treeStateIndex) {
+        // Read before the transformations modify the checkout
+        try (ProfilerTask ignored = profiler().start("read_tree_state_index");
+            CacheManager.Use ignoredUse = useTreeStateIndex()) {
+          indexedTreeState =
+              TreeState.withIndex(
+                  checkoutDir,
+                  treeStateIndexFile(),
+                  rev.asString(),
+                  update != null ? update.previous() : null,
+                  update != null ? update.changedPaths() : ImmutableSet.of());
+        }
+        getWorkflow().getConsole().verboseFmt(
+            "Tree state index: read %d files from the file system",
+            indexedTreeState.getFilesRead());
+      }
 
       Path originCopy = null;
+      DirectoryHashes originHashes = null;
       Console console = getWorkflow().getConsole();
       if (getReverseTransformForCheck() != null) {
-        try (ProfilerTask ignored = profiler().start("reverse_copy")) {
-          console.progress("Making a copy or the workdir for reverse checking");
-          originCopy = Files.createDirectories(workdir.resolve("origin"));
-          copyForReverseCheck(checkoutDir, originCopy);
+        if (getWorkflow().getWorkflowOptions().reversibleCheckHashes) {
+          try (ProfilerTask ignored = profiler().start("reverse_hash")) {
+            console.progress("Computing the hashes of the workdir for reverse checking");
+            originHashes = DirectoryHashes.compute(
+                checkoutDir, getWorkflow().getWorkflowOptions().parallelizer());
+          }
+        } else {
+          try (ProfilerTask ignored = profiler().start("reverse_copy")) {
+            console.progress("Making a copy or the workdir for reverse checking");
+            originCopy = Files.createDirectories(workdir.resolve("origin"));
+            copyForReverseCheck(checkoutDir, originCopy);
+          }
         }
       }
       // Lazy loading to avoid running afoul of checks unless the instance is actually used.
@@ -675,13 +859,21 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
               .withLastRev(lastRev)
               .withCurrentRev(rev)
               .withDestinationInfo(writer.getDestinationInfo());
+      if (indexedTreeState != null) {
+        transformWork = transformWork.withTreeState(indexedTreeState);
+      } else if (changedPaths != null) {
+        console.verboseFmt("Transforming only the %d paths that changed", changedPaths.size());
+        transformWork =
+            transformWork.withTreeState(TreeState.forPaths(checkoutDir, changedPaths));
+      }
       transformWork.addLabel(
           COPYBARA_CONFIG_PATH_LABEL, getWorkflow().getMainConfigFile().getIdentifier(), "=", true);
       transformWork.addLabel(COPYBARA_WORKFLOW_NAME_LABEL, getWorkflow().getName(), "=", true);
 
       try (ProfilerTask ignored = profiler().start("transforms")) {
         TransformationStatus status = getTransformation().transform(transformWork);
-        if (status.isNoop()) {
+        // Transformations that only saw the changed files can be no-ops for them
+        if (status.isNoop() && changedPaths == null) {
           showInfoAboutNoop(console);
           status.throwException(console, getWorkflow().getWorkflowOptions().ignoreNoop);
         }
@@ -690,6 +882,17 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         showInfoAboutNoop(console);
         throw e;
       }
+      if (incrementalTransforms) {
+        try (ProfilerTask ignored = profiler().start("save_transformed")) {
+          incrementalCheckout.saveTransformed(rev, checkoutDir, changedPaths);
+        }
+      }
+      if (indexedTreeState != null) {
+        try (ProfilerTask ignored = profiler().start("save_tree_state_index");
+            CacheManager.Use ignoredUse = useTreeStateIndex()) {
+          indexedTreeState.saveIndex();
+        }
+      }
 
       if (getReverseTransformForCheck() != null) {
         console.progress("Checking that the transformations can be reverted");
@@ -723,22 +926,28 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         }
         String diff;
         try {
-          byte[] byteDiff =
-              DiffUtil.diff(
-                  originCopy,
-                  reverse,
-                  getWorkflow().isVerbose(),
-                  getWorkflow().getGeneralOptions().getEnvironment());
-
-          // This should be more optimal than parsing a potential huge diff file.
-          if (getReversibleCheckIgnoreFiles() != null) {
-            PathMatcher pathMatcher =
-                getReversibleCheckIgnoreFiles().relativeTo(Paths.get("origin"));
-            diff =
-                new String(
-                    DiffUtil.filterDiff(byteDiff, s -> !pathMatcher.matches(Path.of(s))), UTF_8);
+          if (originHashes != null) {
+            diff = diffNonReversedFiles(workdir, rev, processConsole, originHashes, reverse);
           } else {
-            diff = new String(byteDiff, UTF_8);
+            byte[] byteDiff =
+                DiffUtil.diff(
+                    originCopy,
+                    reverse,
+                    getWorkflow().isVerbose(),
+                    getWorkflow().getGeneralOptions().getEnvironment(),
+                    getWorkflow().getGeneralOptions().getDiffEngine());
+
+            // This should be more optimal than parsing a potential huge diff file.
+            if (getReversibleCheckIgnoreFiles() != null) {
+              PathMatcher pathMatcher =
+                  getReversibleCheckIgnoreFiles().relativeTo(Paths.get("origin"));
+              diff =
+                  new String(
+                      DiffUtil.filterDiff(byteDiff, s -> !pathMatcher.matches(Path.of(s))),
+                      UTF_8);
+            } else {
+              diff = new String(byteDiff, UTF_8);
+            }
           }
         } catch (InsideGitDirException e) {
           throw new ValidationException(String.format(
@@ -766,7 +975,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           .verifyFilesToWrite();
 
       // TODO(malcon): Pass metadata object instead
-      TransformResult transformResult =
+      TransformResult prepared =
           new TransformResult(
                   checkoutDir,
                   rev,
@@ -780,7 +989,42 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                   transformWork::getAllLabels,
                   getWorkflow().getRevIdLabel())
               .withDestinationInfo(transformWork.getDestinationInfo());
+      Metadata preparedMetadata = metadata;
+      TransformWork preparedWork = transformWork;
+      return () ->
+          write(
+              prepared,
+              lastRev,
+              processConsole,
+              preparedMetadata,
+              destinationBaseline,
+              changeIdentityRevision,
+              originBaselineForPrune,
+              checkoutDir,
+              isShowDiffInOrigin,
+              preparedWork,
+              originApi,
+              destinationApi,
+              destinationReader);
+    }
 
+    /** Writes a change transformed by {@link #prepare} to the destination. */
+    private ImmutableList<DestinationEffect> write(
+        TransformResult transformResult,
+        @Nullable O lastRev,
+        Console processConsole,
+        Metadata metadata,
+        @Nullable Baseline<O> destinationBaseline,
+        @Nullable O changeIdentityRevision,
+        @Nullable O originBaselineForPrune,
+        Path checkoutDir,
+        boolean isShowDiffInOrigin,
+        TransformWork transformWork,
+        LazyResourceLoader<Endpoint> originApi,
+        LazyResourceLoader<Endpoint> destinationApi,
+        ResourceSupplier<DestinationReader> destinationReader)
+        throws IOException, RepoException, ValidationException {
+      Console console = getWorkflow().getConsole();
       ImmutableList<String> mergeErrorPaths = null;
       if (getWorkflow().isMergeImport()) {
         mergeErrorPaths =
@@ -847,7 +1091,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                     baselineWorkdir,
                     checkoutDir,
                     getWorkflow().getGeneralOptions().isVerbose(),
-                    getWorkflow().getGeneralOptions().getEnvironment());
+                    getWorkflow().getGeneralOptions().getEnvironment(),
+                    getWorkflow().getGeneralOptions().getDiffEngine());
             transformResult = transformResult.withAffectedFilesForSmartPrune(affectedFiles);
           } catch (InsideGitDirException e) {
             throw new ValidationException("Error computing diff for smart_prune: " + e.getMessage(),
@@ -995,6 +1240,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
               getWorkflow().getGeneralOptions().getDiffBin(),
               getWorkflow().getGeneralOptions().getEnvironment(),
               debugPattern);
+      int mergeThreads = getWorkflow().getWorkflowOptions().threadsForMergeImport;
       if (getWorkflow().getGeneralOptions().isTemporaryFeature("use_patch_merge", false)
           || getWorkflow().getMergeImport().mergeStrategy()
               == MergeImportConfiguration.MergeStrategy.PATCH_MERGE) {
@@ -1003,13 +1249,18 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                 console,
                 getWorkflow().getGeneralOptions().patchBin,
                 getWorkflow().getGeneralOptions().getEnvironment());
+      } else if (getWorkflow().getWorkflowOptions().mergeImportInProcess) {
+        mergeRunner = new Diff3Merge();
+        // CPU bound, more threads than cores don't help
+        mergeThreads = Math.min(mergeThreads, Runtime.getRuntime().availableProcessors());
       }
 
       MergeImportTool mergeImportTool =
           new MergeImportTool(
               console,
+              profiler(),
               mergeRunner,
-              getWorkflow().getWorkflowOptions().threadsForMergeImport,
+              mergeThreads,
               debugPattern);
       ImmutableList<String> mergeErrorPaths;
       try (ProfilerTask ignored = profiler().start("merge_tool")) {
@@ -1044,7 +1295,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                           getWorkflow().getMainConfigFile().getIdentifier(),
                           getWorkflow().getName(),
                           excludeBuildFiles,
-                          /* excludedFiles= */ null)
+                          /* excludedFiles= */ null,
+                          getWorkflow().getGeneralOptions().getDiffEngine())
                       .toBytes());
         } catch (InsideGitDirException e) {
           throw new ValidationException("Error generating consistency file", e);
@@ -1065,7 +1317,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
               checkoutDir,
               getWorkflow().getAutoPatchfileConfiguration().stripFilenames(),
               getWorkflow().getAutoPatchfileConfiguration().stripLineNumbers(),
-              getWorkflow().getAutoPatchfileConfiguration().glob());
+              getWorkflow().getAutoPatchfileConfiguration().glob(),
+              getWorkflow().getGeneralOptions().getDiffEngine());
         } catch (InsideGitDirException e) {
           console.errorFmt(
               "Could not automatically generate patch files. Error received is %s", e.getMessage());
@@ -1212,14 +1465,38 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     private void checkout(
         O rev, Console processConsole, Path checkoutDir, String profileDescription)
         throws RepoException, ValidationException, IOException {
+      checkout(rev, processConsole, checkoutDir, profileDescription,
+          /*incrementalCheckout=*/ null, /*reuseTransformed=*/ false);
+    }
+
+    /**
+     * Checks out {@code rev}, and returns the paths that changed since the previous revision if
+     * {@code checkoutDir} was updated by {@code incrementalCheckout}.
+     */
+    @Nullable
+    private IncrementalCheckout.Update checkout(
+        O rev, Console processConsole, Path checkoutDir, String profileDescription,
+        @Nullable IncrementalCheckout<O> incrementalCheckout, boolean reuseTransformed)
+        throws RepoException, ValidationException, IOException {
+      IncrementalCheckout.Update update = null;
       if (getWorkflow().isCheckout()) {
         try (ProfilerTask ignored =
             profiler()
                 .start(
                     profileDescription, profiler().taskType(getWorkflow().getOrigin().getType()))) {
-          reader.checkout(rev, checkoutDir);
+          if (incrementalCheckout != null) {
+            update =
+                incrementalCheckout.checkout(
+                    rev, checkoutDir, getOriginFiles(), reuseTransformed);
+          } else {
+            reader.checkout(rev, checkoutDir);
+          }
         }
       }
+      if (incrementalCheckout != null) {
+        // Only the files that match origin_files were copied
+        return update;
+      }
 
       // Remove excluded origin files.
       PathMatcher originFiles = getOriginFiles().relativeTo(checkoutDir);
@@ -1231,6 +1508,69 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         processConsole.infoFmt(
             "Removed %d files from workdir that do not match origin_files", deleted);
       }
+      return null;
+    }
+
+    /**
+     * Returns true if the workflow can reuse the transformed files of the previous change, running
+     * the transformations only over the files that changed since it.
+     */
+    private boolean incrementalTransforms() {
+      WorkflowOptions options = getWorkflow().getWorkflowOptions();
+      // Changes prepared ahead would not see the result of the previous change, and the
+      // reversible check needs the checkout to contain only origin files before transforming.
+      return incrementalCheckout != null
+          && options.incrementalTransforms
+          && !options.treeStateIndex
+          && options.iterativePrepareAhead == 0
+          && getReverseTransformForCheck() == null
+          && getTransformation().isPathLocal();
+    }
+
+    /**
+     * Compares the hashes of the original checkout with the reversed tree and returns the diff of
+     * the files that are different, or an empty string if the transformations are reversible.
+     *
+     * <p>Since we only have the hashes of the original files, the change is checked out again for
+     * computing the diff, inside the {@code workdir} of the change being prepared. This only
+     * happens if the workflow is not reversible.
+     */
+    private String diffNonReversedFiles(
+        Path workdir, O rev, Console processConsole, DirectoryHashes originHashes, Path reverse)
+        throws IOException, RepoException, ValidationException, InsideGitDirException {
+      ImmutableSortedSet<String> different;
+      try (ProfilerTask ignored = profiler().start("reverse_hash")) {
+        DirectoryHashes reverseHashes =
+            DirectoryHashes.compute(reverse, getWorkflow().getWorkflowOptions().parallelizer());
+        different = originHashes.differences(reverseHashes);
+      }
+      if (getReversibleCheckIgnoreFiles() != null) {
+        PathMatcher pathMatcher = getReversibleCheckIgnoreFiles().relativeTo(reverse);
+        different = ImmutableSortedSet.copyOf(
+            Iterables.filter(different, p -> !pathMatcher.matches(reverse.resolve(p))));
+      }
+      if (different.isEmpty()) {
+        return "";
+      }
+      processConsole.verboseFmt("%d files are different after reversing the transformations",
+          different.size());
+      Path originCheckout = Files.createDirectories(workdir.resolve("reverse_check_origin"));
+      checkout(rev, processConsole, originCheckout, "origin.checkout_for_reverse_diff");
+      // Only diff the different files, using the same directory names that the copy based
+      // check uses, so that the output is the same.
+      Path diffDir = Files.createDirectories(workdir.resolve("reverse_check_diff"));
+      Path originDiff = Files.createDirectories(diffDir.resolve("origin"));
+      Path reverseDiff = Files.createDirectories(diffDir.resolve("reverse"));
+      DirectoryHashes.linkFiles(originCheckout, originDiff, different);
+      DirectoryHashes.linkFiles(reverse, reverseDiff, different);
+      return new String(
+          DiffUtil.diff(
+              originDiff,
+              reverseDiff,
+              getWorkflow().isVerbose(),
+              getWorkflow().getGeneralOptions().getEnvironment(),
+              getWorkflow().getGeneralOptions().getDiffEngine()),
+          UTF_8);
     }
 
     private void copyForReverseCheck(Path from, Path to) throws IOException, ValidationException {
@@ -18,24 +18,36 @@ package com.google.copybara.config;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.copybara.ModuleSet;
+import com.google.copybara.exception.CannotResolveLabel;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.StarlarkMode;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import net.starlark.java.annot.StarlarkAnnotations;
 import net.starlark.java.annot.StarlarkBuiltin;
 import net.starlark.java.annot.StarlarkLibrary;
@@ -50,10 +62,12 @@ import net.starlark.java.eval.StarlarkSemantics;
 import net.starlark.java.eval.StarlarkThread;
 import net.starlark.java.eval.Tuple;
 import net.starlark.java.syntax.FileOptions;
+import net.starlark.java.syntax.LoadStatement;
 import net.starlark.java.syntax.Location;
 import net.starlark.java.syntax.ParserInput;
 import net.starlark.java.syntax.Program;
 import net.starlark.java.syntax.StarlarkFile;
+import net.starlark.java.syntax.Statement;
 import net.starlark.java.syntax.SyntaxError;
 
 /**
@@ -66,6 +80,26 @@ public class SkylarkParser {
   private static final ImmutableSet<String> ALLOWED_LOAD_EXTENSIONS =
       ImmutableSet.of(DEFAULT_EXTENSION, ".scl");
   private static final Object VISIBILITY_FUNC = new VisibilityFunction();
+
+  /**
+   * Compiled config files. A program doesn't depend on the module it runs in, only on the names
+   * predeclared in it, so processes that load configs many times, like the server, only parse and
+   * compile a file again when its content changes.
+   */
+  private static final Cache<ProgramKey, Program> compiledPrograms =
+      CacheBuilder.newBuilder().maximumSize(1000).build();
+
+  private record ProgramKey(
+      String path, HashCode content, boolean strict, ImmutableSet<String> predeclared) {}
+
+  /**
+   * Configs evaluated by this parser, by module set and by the content of their files. Evaluated
+   * configs hold the options of the module set, so they cannot be shared between module sets.
+   */
+  private final Map<EvaluationKey, ConfigWithDependencies> evaluated = new ConcurrentHashMap<>();
+
+  private record EvaluationKey(ModuleSet moduleSet, ImmutableSet<String> files, HashCode content) {}
+
   // For now all the modules are namespaces. We don't use variables except for 'core'.
   private final Iterable<Class<?>> modules;
   private final StarlarkMode validation;
@@ -122,6 +156,12 @@ public class SkylarkParser {
   public ConfigWithDependencies getConfigWithTransitiveImports(
       ConfigFile config, ModuleSet moduleSet, Console console)
       throws IOException, ValidationException {
+    EvaluationKey key = evaluationKey(config, moduleSet);
+    ConfigWithDependencies cached = key == null ? null : evaluated.get(key);
+    if (cached != null) {
+      logger.atInfo().log("Config files of %s didn't change, reusing the config", config.path());
+      return cached;
+    }
     CapturingConfigFile capturingConfigFile = new CapturingConfigFile(config);
     ConfigFilesSupplier configFilesSupplier = new ConfigFilesSupplier();
 
@@ -132,7 +172,49 @@ public class SkylarkParser {
 
     configFilesSupplier.setConfigFiles(allLoadedFiles);
 
-    return new ConfigWithDependencies(allLoadedFiles, parsedConfig);
+    ConfigWithDependencies result = new ConfigWithDependencies(allLoadedFiles, parsedConfig);
+    // Files read during the evaluation, like patches, are not part of the key
+    if (key != null && allLoadedFiles.keySet().equals(key.files())) {
+      evaluated.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the key of the config file and all the files that it loads, transitively, or null if
+   * they cannot be parsed or resolved. In that case the evaluation reports the error.
+   */
+  @Nullable
+  private EvaluationKey evaluationKey(ConfigFile config, ModuleSet moduleSet) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    Set<String> visited = new HashSet<>();
+    Deque<ConfigFile> pending = new ArrayDeque<>();
+    pending.push(config);
+    try {
+      while (!pending.isEmpty()) {
+        ConfigFile file = pending.pop();
+        if (!visited.add(file.path())) {
+          continue;
+        }
+        byte[] content = file.readContentBytes();
+        hasher.putString(file.path(), UTF_8).putInt(content.length).putBytes(content);
+        StarlarkFile syntax =
+            StarlarkFile.parse(ParserInput.fromUTF8(content, file.path()), fileOptions());
+        if (!syntax.ok()) {
+          return null;
+        }
+        Set<String> loads = new LinkedHashSet<>();
+        for (Statement statement : syntax.getStatements()) {
+          if (statement instanceof LoadStatement load) {
+            loads.add(loadPath(load.getImport().getValue()));
+          }
+        }
+        pending.addAll(file.resolveAll(loads).values());
+      }
+    } catch (CannotResolveLabel e) {
+      return null;
+    }
+    return new EvaluationKey(moduleSet, ImmutableSet.copyOf(visited), hasher.hash());
   }
 
   private static class ConfigFilesSupplier
@@ -216,19 +298,9 @@ public class SkylarkParser {
       module = Module.withPredeclared(semantics, environment);
 
       // parse & compile
-      ParserInput input = ParserInput.fromUTF8(content.readContentBytes(), content.path());
-      FileOptions options =
-          FileOptions.DEFAULT.toBuilder()
-              // Ordinarily, load statements should create file-local variables.
-              // For now, we make them create first-class members of Module.globals.
-              .loadBindsGlobally(true)
-              .allowToplevelRebinding(true) // allow e.g. x=1; x=2 at top level
-              .requireLoadStatementsFirst(validation == StarlarkMode.STRICT)
-              .build();
-
       Program prog;
       try {
-        prog = Program.compileFile(StarlarkFile.parse(input, options), module);
+        prog = compile(content.path(), content.readContentBytes(), module);
       } catch (SyntaxError.Exception ex) {
         for (SyntaxError error : ex.errors()) {
           console.error(error.toString());
@@ -241,13 +313,7 @@ public class SkylarkParser {
       ImmutableMap<String, String> fileToLoad =
           prog.getLoads().stream()
               .distinct()
-              .collect(
-                  toImmutableMap(
-                      l ->
-                          ALLOWED_LOAD_EXTENSIONS.stream().anyMatch(l::endsWith)
-                              ? l
-                              : l + DEFAULT_EXTENSION,
-                      l -> l));
+              .collect(toImmutableMap(SkylarkParser::loadPath, l -> l));
 
       for (Entry<String, ConfigFile> entry :
           content
@@ -283,6 +349,21 @@ public class SkylarkParser {
       return module;
     }
 
+    private Program compile(String path, byte[] content, Module module)
+        throws SyntaxError.Exception {
+      boolean strict = validation == StarlarkMode.STRICT;
+      ProgramKey key =
+          new ProgramKey(path, Hashing.sha256().hashBytes(content), strict, environment.keySet());
+      Program cached = compiledPrograms.getIfPresent(key);
+      if (cached != null) {
+        return cached;
+      }
+      ParserInput input = ParserInput.fromUTF8(content, path);
+      Program prog = Program.compileFile(StarlarkFile.parse(input, fileOptions()), module);
+      compiledPrograms.put(key, prog);
+      return prog;
+    }
+
     private void starlarkPrint(StarlarkThread thread, String msg) {
       console.verbose(thread.getCallerLocation() + ": " + msg);
     }
@@ -300,6 +381,23 @@ public class SkylarkParser {
     }
   }
 
+  private FileOptions fileOptions() {
+    return FileOptions.DEFAULT.toBuilder()
+        // Ordinarily, load statements should create file-local variables.
+        // For now, we make them create first-class members of Module.globals.
+        .loadBindsGlobally(true)
+        .allowToplevelRebinding(true) // allow e.g. x=1; x=2 at top level
+        .requireLoadStatementsFirst(validation == StarlarkMode.STRICT)
+        .build();
+  }
+
+  /** Returns the path of the file loaded by a load statement. */
+  private static String loadPath(String load) {
+    return ALLOWED_LOAD_EXTENSIONS.stream().anyMatch(load::endsWith)
+        ? load
+        : load + DEFAULT_EXTENSION;
+  }
+
   /** Updates the module globals with information about the current loaded config file. */
   // TODO(copybara-team): evaluate the cleaner approach of saving the varying parts in the
   // StarlarkThread.setThreadLocal and leaving the modules alone as nature intended.
@@ -205,6 +205,11 @@ public class DestinationEffect implements StarlarkValue {
      * This effect would be created on the former one.
      */
     STARTED,
+    /**
+     * The change was written locally by the destination, that will write it together with later
+     * changes. Another effect for the same change reports whether it reached the destination.
+     */
+    PENDING,
   }
 
   /** Reference to the change/review created/updated on the destination. */
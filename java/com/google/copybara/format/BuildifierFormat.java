@@ -40,13 +40,9 @@ import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.Consoles;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
+import com.google.copybara.treestate.TreeState.FileState;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import javax.annotation.Nullable;
 
@@ -80,20 +76,10 @@ public class BuildifierFormat implements Transformation {
   @Override
   public TransformationStatus transform(TransformWork work)
       throws IOException, ValidationException {
-    PathMatcher pathMatcher = glob.relativeTo(work.getCheckoutDir());
     ImmutableList.Builder<String> paths = ImmutableList.builder();
-    Files.walkFileTree(
-        work.getCheckoutDir(),
-        new SimpleFileVisitor<>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-              throws IOException {
-            if (pathMatcher.matches(file)) {
-              paths.add(file.toAbsolutePath().toString());
-            }
-            return FileVisitResult.CONTINUE;
-          }
-        });
+    for (FileState file : work.getTreeState().find(glob.relativeTo(work.getCheckoutDir()))) {
+      paths.add(file.getPath().toAbsolutePath().toString());
+    }
     ImmutableList<String> builtPaths = paths.build();
     if (builtPaths.isEmpty()) {
       return TransformationStatus.noop(glob + " didn't match any build file to format");
@@ -156,6 +142,11 @@ public class BuildifierFormat implements Transformation {
     return "Buildifier";
   }
 
+  @Override
+  public boolean isPathLocal() {
+    return true;
+  }
+
   /**
    * Valid modes that we support for buildifier -lint flag.
    */
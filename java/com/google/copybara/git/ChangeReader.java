@@ -24,6 +24,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.exception.RepoException;
@@ -34,7 +36,9 @@ import com.google.copybara.revision.Change;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 import net.starlark.java.eval.EvalException;
 
@@ -116,6 +120,44 @@ class ChangeReader {
         fromHash == null || historyIsNonLinear
           ? toHash
           : fromHash + ".." + toHash;
+    LogCmd logCmd = logCmd(refExpression);
+    ChangeBuilder changes = new ChangeBuilder(labels, toRev);
+    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
+    if (batchSize > 0) {
+      for (GitLogEntry e : logCmd.withBatchSize(batchSize).run()) {
+        changes.add(e, result);
+      }
+    } else {
+      // Parse the entries as they are read, so that the log output is never held in memory.
+      logCmd.visit(e -> {
+        changes.add(e, result);
+        return true;
+      });
+    }
+    return result.build().reverse();
+  }
+
+  /**
+   * Visits the changes reachable from {@code start}, newest first, as they are read from the log.
+   * Stops reading the log as soon as the visitor returns {@link VisitResult#TERMINATE}.
+   *
+   * @return the number of changes visited
+   */
+  int visit(GitRevision start, ChangesVisitor visitor) throws RepoException, ValidationException {
+    ChangeBuilder changes = new ChangeBuilder(ImmutableMap.of(), start);
+    int[] visited = {0};
+    logCmd(resolveRevisionHash(start.getHash())).visit(e -> {
+      Change<GitRevision> change = changes.build(e);
+      if (change == null) {
+        return true;
+      }
+      visited[0]++;
+      return visitor.visit(change) != VisitResult.TERMINATE;
+    });
+    return visited[0];
+  }
+
+  private LogCmd logCmd(String refExpression) throws ValidationException {
     LogCmd logCmd = repository.log(refExpression).firstParent(firstParent).topoOrder(topoOrder);
     if (limit != -1) {
       logCmd = logCmd.withLimit(limit);
@@ -123,9 +165,6 @@ class ChangeReader {
     if (skip > 0) {
       logCmd = logCmd.withSkip(skip);
     }
-    if (batchSize > 0) {
-      logCmd = logCmd.withBatchSize(batchSize);
-    }
     if (grepString != null) {
       logCmd = logCmd.grep(grepString);
     }
@@ -141,7 +180,43 @@ class ChangeReader {
     // Log command does not filter by roots here because of how git log works. Some commits (e.g.
     // fake merges) might not include the files in the log, and filtering here would return
     // incorrect results. We do filter later on the changes to match the actual glob.
-    return parseChanges(logCmd.includeFiles(true).includeMergeDiff(true).run(), labels, toRev);
+    return logCmd.includeFiles(true).includeMergeDiff(true);
+  }
+
+  /**
+   * Returns the changes for {@code commits}, a list of complete SHA-1s, in the same order. Their
+   * ancestors are not read.
+   */
+  ImmutableList<Change<GitRevision>> runForCommits(List<String> commits)
+      throws RepoException, ValidationException {
+    if (commits.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ChangeBuilder changes =
+        new ChangeBuilder(ImmutableMap.of(), new GitRevision(repository, commits.get(0)));
+    // --no-walk sorts the commits by date
+    Map<String, Change<GitRevision>> byHash = new HashMap<>();
+    repository
+        .log(String.join(" ", commits))
+        .noWalk(true)
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .visit(e -> {
+          Change<GitRevision> change = changes.build(e);
+          if (change != null) {
+            byHash.put(change.getRevision().getHash(), change);
+          }
+          return true;
+        });
+    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
+    for (String commit : commits) {
+      Change<GitRevision> change = byHash.get(commit);
+      if (change == null) {
+        throw new RepoException("Cannot find commit " + commit);
+      }
+      result.add(change);
+    }
+    return result.build();
   }
 
   static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
@@ -195,23 +270,40 @@ class ChangeReader {
     return sb.toString();
   }
 
-  private ImmutableList<Change<GitRevision>> parseChanges(
-      ImmutableList<GitLogEntry> logEntries,
-      ImmutableMap<String, ImmutableListMultimap<String, String>> labels,
-      GitRevision toRev)
-      throws RepoException {
-    ImmutableMap<String, ImmutableListMultimap<String, String>> resolvedLabels =
-        labels.entrySet().stream()
-            .collect(toImmutableMap(e -> resolveRevisionHash(e.getKey()), e -> e.getValue()));
+  /**
+   * Creates the changes for the log entries, skipping the repeated entries of merge commits (One
+   * per parent when using -m).
+   */
+  private final class ChangeBuilder {
+
+    private final ImmutableMap<String, ImmutableListMultimap<String, String>> resolvedLabels;
+    private final GitRevision toRev;
+    private final String toHash;
+    @Nullable private GitRevision last;
+
+    ChangeBuilder(
+        ImmutableMap<String, ImmutableListMultimap<String, String>> labels, GitRevision toRev) {
+      this.resolvedLabels =
+          labels.entrySet().stream()
+              .collect(toImmutableMap(e -> resolveRevisionHash(e.getKey()), e -> e.getValue()));
+      this.toRev = toRev;
+      this.toHash = resolveRevisionHash(toRev.getHash());
+    }
 
-    String toHash = resolveRevisionHash(toRev.getHash());
+    void add(GitLogEntry e, ImmutableList.Builder<Change<GitRevision>> result)
+        throws RepoException {
+      Change<GitRevision> change = build(e);
+      if (change != null) {
+        result.add(change);
+      }
+    }
 
-    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
-    GitRevision last = null;
-    for (GitLogEntry e : logEntries) {
+    /** Returns the change for the entry, or null if it is a repeated entry. */
+    @Nullable
+    Change<GitRevision> build(GitLogEntry e) throws RepoException {
       // Keep the first commit if repeated (merge commits).
       if (last != null && last.equals(e.commit())) {
-        continue;
+        return null;
       }
       last = e.commit();
       ImmutableListMultimap<String, String> labelsToCopy =
@@ -221,18 +313,16 @@ class ChangeReader {
           && toRev.contextReference() != null) {
         last = last.withContextReference(toRev.contextReference());
       }
-      result.add(
-          new Change<>(
-              last.withUrl(url).withLabels(labelsToCopy),
-              filterAuthor(e.author()),
-              e.body() + branchCommitLog(last, e.parents()),
-              e.authorDate(),
-              ChangeMessage.parseAllAsLabels(e.body()).labelsAsMultimap(),
-              e.files(),
-              e.parents().size() > 1,
-              e.parents()));
+      return new Change<>(
+          last.withUrl(url).withLabels(labelsToCopy),
+          filterAuthor(e.author()),
+          e.body() + branchCommitLog(last, e.parents()),
+          e.authorDate(),
+          ChangeMessage.parseAllAsLabels(e.body()).labelsAsMultimap(),
+          e.files(),
+          e.parents().size() > 1,
+          e.parents());
     }
-    return result.build().reverse();
   }
 
   private Author filterAuthor(Author author) throws RepoException {
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fetches that already ran in a Copybara run, so that several migrations that fetch the same
+ * references from the same repository only fetch them once.
+ *
+ * <p>The remote repositories are assumed not to change during the run, except for the pushes done
+ * by the run itself. Any push forgets all the fetches, since the pushed repository might be the
+ * one fetched under another url, like with {@code push_url} or mirrors.
+ */
+final class FetchMemo {
+
+  /** The arguments of a fetch into a git directory. */
+  record Fetch(
+      Path gitDir,
+      String url,
+      ImmutableList<String> refspecs,
+      boolean prune,
+      boolean force,
+      boolean partialFetch,
+      Optional<Integer> depth,
+      boolean tags) {}
+
+  private final Set<Fetch> done = ConcurrentHashMap.newKeySet();
+
+  /** Returns true if an identical fetch already succeeded. */
+  boolean isDone(Fetch fetch) {
+    return done.contains(fetch);
+  }
+
+  void recordDone(Fetch fetch) {
+    done.add(fetch);
+  }
+
+  /** Forgets all the fetches. */
+  void invalidate() {
+    done.clear();
+  }
+}
@@ -18,6 +18,7 @@ package com.google.copybara.git;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Comparators.max;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.copybara.DestinationReader.NOOP_DESTINATION_READER;
 import static com.google.copybara.GeneralOptions.FORCE;
 import static com.google.copybara.LazyResourceLoader.memoized;
@@ -32,12 +33,14 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable;
 import com.google.copybara.Destination;
 import com.google.copybara.DestinationReader;
 import com.google.copybara.DestinationStatusVisitor;
@@ -213,11 +216,19 @@ public class GitDestination implements Destination<GitRevision> {
     boolean firstWrite = true;
     final LazyResourceLoader<GitRepository> localRepo;
     final String localBranch;
+    /** Commits created locally that will be pushed together with the next ones. */
+    final List<PendingPush> pendingPushes = new ArrayList<>();
+    /** Final effects of pushed or failed commits that were reported as pending. */
+    final List<DestinationEffect> finalEffects = new ArrayList<>();
 
     WriterState(LazyResourceLoader<GitRepository> localRepo, String localBranch) {
       this.localRepo = localRepo;
       this.localBranch = localBranch;
     }
+
+    /** A commit created locally for {@code originChanges}, to be pushed to {@code push}. */
+    record PendingPush(
+        GitRevision commit, String push, Sequence<? extends Change<?>> originChanges) {}
   }
 
   /**
@@ -311,19 +322,19 @@ public class GitDestination implements Destination<GitRevision> {
     @Override
     public void visitChanges(@Nullable GitRevision start, ChangesVisitor visitor)
         throws RepoException, ValidationException {
+      visitChanges(start, visitor, /* firstParent= */ false);
+    }
+
+    private void visitChanges(
+        @Nullable GitRevision start, ChangesVisitor visitor, boolean firstParent)
+        throws RepoException, ValidationException {
       GitRepository repository = getRepository(baseConsole);
-      try {
-        fetchIfNeeded(repository, baseConsole);
-      } catch (ValidationException e) {
-        throw new CannotResolveRevisionException(
-            "Cannot visit changes because fetch failed. Does the destination branch exist?", e);
-      }
-      GitRevision startRef = getLocalBranchRevision(repository);
+      GitRevision startRef = visitStartRef(repository);
       if (startRef == null) {
         return;
       }
       ChangeReader.Builder queryChanges =
-          ChangeReader.Builder.forDestination(repository, baseConsole);
+          ChangeReader.Builder.forDestination(repository, baseConsole).setFirstParent(firstParent);
 
       GitVisitorUtil.visitChanges(
           start == null ? startRef : start,
@@ -331,9 +342,62 @@ public class GitDestination implements Destination<GitRevision> {
           queryChanges,
           generalOptions,
           "destination",
+          visitChangePageSize,
+          gitOptions.visitChangesStream);
+    }
+
+    @Override
+    public void visitChangesWithAnyLabel(@Nullable GitRevision start,
+        ImmutableCollection<String> labels, ChangesLabelVisitor visitor)
+        throws RepoException, ValidationException {
+      GitRepository repository = getRepository(baseConsole);
+      OriginLabelIndex index = start == null
+          ? labelIndex(repository, OriginLabelIndex.anyLabelPatterns(labels), lastRevFirstParent)
+          : null;
+      if (index == null) {
+        visitChanges(start, ChangeVisitable.anyLabelVisitor(labels, visitor), lastRevFirstParent);
+        return;
+      }
+      GitRevision startRef = visitStartRef(repository);
+      if (startRef == null) {
+        return;
+      }
+      GitVisitorUtil.visitIndexedChanges(
+          startRef,
+          ChangeVisitable.anyLabelVisitor(labels, visitor),
+          index,
+          ChangeReader.Builder.forDestination(repository, baseConsole),
+          generalOptions,
+          "destination",
           visitChangePageSize);
     }
 
+    @Nullable
+    private GitRevision visitStartRef(GitRepository repository)
+        throws RepoException, ValidationException {
+      try {
+        fetchIfNeeded(repository, baseConsole);
+      } catch (ValidationException e) {
+        throw new CannotResolveRevisionException(
+            "Cannot visit changes because fetch failed. Does the destination branch exist?", e);
+      }
+      return getLocalBranchRevision(repository);
+    }
+
+    /**
+     * Returns the index of the destination commits that match {@code grepPatterns}, or null if
+     * the history needs to be read with {@code git log}.
+     */
+    @Nullable
+    private OriginLabelIndex labelIndex(
+        GitRepository repository, ImmutableList<String> grepPatterns, boolean firstParent) {
+      // Don't write in user provided repositories
+      if (!destinationOptions.labelIndex || localRepoPath != null) {
+        return null;
+      }
+      return new OriginLabelIndex(repository, remoteFetch, grepPatterns, firstParent);
+    }
+
     /**
      * Do a fetch iff we haven't done one already. Prevents doing unnecessary fetches.
      */
@@ -376,19 +440,32 @@ public class GitDestination implements Destination<GitRevision> {
 
       PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
       DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
+      String grep = "^" + labelName + ORIGIN_LABEL_SEPARATOR;
+      OriginLabelIndex index = labelIndex(repo, ImmutableList.of(grep), lastRevFirstParent);
+      if (index != null) {
+        GitVisitorUtil.visitIndexedChanges(
+            startRef,
+            visitor,
+            index,
+            ChangeReader.Builder.forDestination(repo, baseConsole),
+            generalOptions,
+            "get_destination_status",
+            visitChangePageSize);
+        return visitor.getDestinationStatus();
+      }
       ChangeReader.Builder changeReader =
           ChangeReader.Builder.forDestination(repo, baseConsole)
               .setFirstParent(lastRevFirstParent)
-              .grep("^" + labelName + ORIGIN_LABEL_SEPARATOR);
+              .grep(grep);
       try {
-        // Using same visitChangePageSize for now
         GitVisitorUtil.visitChanges(
             startRef,
             visitor,
             changeReader,
             generalOptions,
             "get_destination_status",
-            visitChangePageSize);
+            visitChangePageSize,
+            gitOptions.visitChangesStream);
       } catch (CannotResolveRevisionException e) {
         baseConsole.warnFmt("Error caught when visiting changes: %s", e.getMessage());
         return null;
@@ -466,6 +543,15 @@ public class GitDestination implements Destination<GitRevision> {
       default ImmutableSetMultimap<String, String> describe() {
         return ImmutableSetMultimap.of();
       }
+
+      /**
+       * Whether the commits of several writes can be pushed together. Only for hooks whose {@link
+       * #beforePush} and {@link #afterPush} don't need each commit to be pushed right after it is
+       * created.
+       */
+      default boolean supportsBatchPush() {
+        return false;
+      }
     }
 
     /**
@@ -501,6 +587,12 @@ public class GitDestination implements Destination<GitRevision> {
           GitRepository repo, String pushToRefsFor, TransformResult transformResult) {
         return pushToRefsFor;
       }
+
+      @Override
+      public boolean supportsBatchPush() {
+        // Subclasses create or update reviews before and after each push
+        return getClass() == DefaultWriteHook.class;
+      }
     }
 
     @Override
@@ -535,7 +627,7 @@ public class GitDestination implements Destination<GitRevision> {
         }
         state.firstWrite = false;
       } else {
-        if (!skipPush) {
+        if (!skipPush && !batchPush()) {
           // Should be a no-op, but an iterative migration could take several minutes between
           // migrations so lets fetch the latest first.
           fetchFromRemote(console, scratchClone, repoUrl, remoteFetch);
@@ -691,10 +783,43 @@ public class GitDestination implements Destination<GitRevision> {
       }
       String push =
           writeHook.getPushReference(scratchClone, getCompleteRef(remotePush), transformResult);
-      console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
       checkCondition(!nonFastForwardPush
           || !Objects.equals(remoteFetch, remotePush), "non fast-forward push is only"
           + " allowed when fetch != push");
+      if (batchPush()) {
+        state.pendingPushes.add(new PendingPush(head, push, originChanges));
+        if (destinationOptions.pushEvery == 0
+            || state.pendingPushes.size() < destinationOptions.pushEvery) {
+          console.infoFmt(
+              "Git Destination: Created commit %s, it will be pushed with the next changes",
+              head.getHash());
+          return ImmutableList.of(
+              new DestinationEffect(
+                  DestinationEffect.Type.PENDING,
+                  String.format(
+                      "Created revision %s, to be pushed to %s %s with the next changes",
+                      head.getHash(), repoUrl, push),
+                  originChanges,
+                  new DestinationEffect.DestinationRef(
+                      head.getHash(), "commit", /* url= */ null)));
+        }
+        ImmutableList<PendingPush> earlier =
+            ImmutableList.copyOf(
+                state.pendingPushes.subList(0, state.pendingPushes.size() - 1));
+        String serverResponse;
+        try {
+          serverResponse = pushPending(scratchClone, console);
+        } catch (RepoException | ValidationException e) {
+          // The error of the current change is reported by the migration
+          state.finalEffects.addAll(errorEffects(earlier, e));
+          throw e;
+        }
+        return ImmutableList.<DestinationEffect>builder()
+            .addAll(createdEffects(earlier))
+            .addAll(writeHook.afterPush(serverResponse, messageInfo, head, originChanges))
+            .build();
+      }
+      console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
 
       String serverResponse =
           generalOptions.repoTask(
@@ -718,6 +843,105 @@ public class GitDestination implements Destination<GitRevision> {
       return writeHook.afterPush(serverResponse, messageInfo, head, originChanges);
     }
 
+    @Override
+    public ImmutableList<DestinationEffect> finishWrites(Console console) {
+      if (!state.pendingPushes.isEmpty()) {
+        ImmutableList<PendingPush> pending = ImmutableList.copyOf(state.pendingPushes);
+        try {
+          pushPending(getRepository(console), console);
+          state.finalEffects.addAll(createdEffects(pending));
+        } catch (RepoException | ValidationException e) {
+          state.pendingPushes.clear();
+          state.finalEffects.addAll(errorEffects(pending, e));
+        }
+      }
+      ImmutableList<DestinationEffect> effects = ImmutableList.copyOf(state.finalEffects);
+      state.finalEffects.clear();
+      return effects;
+    }
+
+    private static ImmutableList<DestinationEffect> createdEffects(List<PendingPush> pushed) {
+      return pushed.stream()
+          .map(
+              p ->
+                  new DestinationEffect(
+                      DestinationEffect.Type.CREATED,
+                      String.format("Created revision %s", p.commit().getHash()),
+                      p.originChanges(),
+                      new DestinationEffect.DestinationRef(
+                          p.commit().getHash(), "commit", /* url= */ null)))
+          .collect(toImmutableList());
+    }
+
+    private static ImmutableList<DestinationEffect> errorEffects(
+        List<PendingPush> failed, Exception e) {
+      return failed.stream()
+          .map(
+              p ->
+                  new DestinationEffect(
+                      e instanceof ValidationException
+                          ? DestinationEffect.Type.ERROR
+                          : DestinationEffect.Type.TEMPORARY_ERROR,
+                      String.format("Could not push revision %s", p.commit().getHash()),
+                      p.originChanges(),
+                      /* destinationRef= */ null,
+                      ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())))
+          .collect(toImmutableList());
+    }
+
+    /**
+     * Whether the commits are pushed every {@code --git-destination-push-every} writes instead of
+     * after each one. Not possible for tags, since they wouldn't be pushed atomically with the
+     * commits, or for write hooks that need each commit to be pushed right after creating it.
+     */
+    private boolean batchPush() {
+      return destinationOptions.pushEvery != 1
+          && tagNameTemplate == null
+          && writeHook.supportsBatchPush();
+    }
+
+    /**
+     * Pushes the chain of commits created locally since the last push. If the push fails, none of
+     * the commits is in the destination and they are forgotten, so that running the migration
+     * again creates them again.
+     */
+    private String pushPending(GitRepository scratchClone, Console console)
+        throws RepoException, ValidationException {
+      PendingPush last = Iterables.getLast(state.pendingPushes);
+      int commits = state.pendingPushes.size();
+      console.progressFmt(
+          "Git Destination: Pushing %d commit(s) to %s %s", commits, repoUrl, last.push());
+      try {
+        return generalOptions.repoTask(
+            "push",
+            () ->
+                scratchClone
+                    .push()
+                    .withRefspecs(
+                        repoUrl,
+                        ImmutableList.of(
+                            scratchClone.createRefSpec(
+                                (nonFastForwardPush ? "+" : "")
+                                    + last.commit().getHash()
+                                    + ":"
+                                    + last.push())))
+                    .withPushOptions(ImmutableList.copyOf(gitOptions.gitPushOptions))
+                    .run());
+      } catch (RepoException | ValidationException e) {
+        console.errorFmt(
+            "Git Destination: Could not push the %d commit(s) created for %s. None of them was"
+                + " pushed, running the migration again will migrate them again.",
+            commits,
+            state.pendingPushes.stream()
+                .flatMap(p -> p.originChanges().stream())
+                .map(c -> c.getRevision().asString())
+                .collect(toImmutableList()));
+        throw e;
+      } finally {
+        state.pendingPushes.clear();
+      }
+    }
+
     private String addDestinationLabels(MessageInfo messageInfo, String summary)
         throws ValidationException {
       ChangeMessage msg = ChangeMessage.parseMessage(summary);
@@ -25,6 +25,7 @@ import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.jcommander.NonNegativeValidator;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -102,11 +103,25 @@ public final class GitDestinationOptions implements Option {
       description = "Use git --first-parent flag when looking for last-rev in previous commits")
   boolean lastRevFirstParent = false;
 
+  @Parameter(names = "--git-destination-label-index", arity = 1,
+      description = "Keep an index of the destination commits with origin labels in the cached"
+          + " repository, so that looking for the last migrated change only reads the commits"
+          + " added since the previous run. Experimental.")
+  boolean labelIndex = false;
+
   @Parameter(names = "--git-destination-non-fast-forward",
       description = "Allow non-fast-forward pushes to the destination. We only allow this when"
           + " used with different push != fetch references.")
   boolean nonFastForwardPush = false;
 
+  @Parameter(names = "--git-destination-push-every",
+      description = "Number of commits to create locally before pushing them together, for"
+          + " migrations that write several changes, like ITERATIVE ones. 0 pushes all the"
+          + " commits once the migration finishes. Only supported by git.destination without"
+          + " tag_name.",
+      validateWith = NonNegativeValidator.class)
+  int pushEvery = 1;
+
   @Parameter(names = "--git-destination-ignore-integration-errors",
       description = "If an integration error occurs, ignore it and continue without the integrate")
   boolean ignoreIntegrationErrors = false;
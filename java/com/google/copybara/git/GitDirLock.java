@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.RepoException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * A lock on a resource of a git directory, held across threads and processes.
+ *
+ * <p>Cached bare repositories are shared by all the Copybara processes of a machine. Git reads of
+ * objects and references are safe to run concurrently with writes, so readers of those never lock.
+ * But git fails, or silently loses updates, when two processes fetch into the same repository,
+ * write its configuration or use its index at the same time. Each of these resources has its own
+ * lock, so a checkout doesn't wait for an unrelated fetch. Operations that only need the resource
+ * not to change while they read it take the lock shared, so they don't wait for each other.
+ *
+ * <p>Locks are reentrant for the thread that holds them, and a thread that holds a lock
+ * exclusively can also take it shared. Other threads of the same process wait like other
+ * processes do. Waits are bounded, so that a stuck holder makes the others fail instead of
+ * blocking them forever.
+ */
+final class GitDirLock implements AutoCloseable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final long POLL_MILLIS = 100;
+
+  /** The resources of a git directory that cannot be written concurrently. */
+  enum Resource {
+    /** References and packs: fetches, reference updates and maintenance. */
+    REFS,
+    /** The configuration file. */
+    CONFIG,
+    /** The index and {@code HEAD}, used by checkouts into work trees of a bare repository. */
+    INDEX;
+
+    @VisibleForTesting
+    String fileName() {
+      return "copybara_" + Ascii.toLowerCase(name()) + ".lock";
+    }
+  }
+
+  /** The state of a lock file in this process, shared by all the threads. */
+  private static final class Holder {
+    private final ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock();
+    // Guarded by this. Open while any thread holds the lock.
+    @Nullable private FileChannel channel;
+    // Guarded by this
+    private int sharedHolds;
+  }
+
+  private static final Map<Path, Holder> holders = new ConcurrentHashMap<>();
+
+  private final Holder holder;
+  private final Path file;
+  private final boolean shared;
+
+  private GitDirLock(Holder holder, Path file, boolean shared) {
+    this.holder = holder;
+    this.file = file;
+    this.shared = shared;
+  }
+
+  /** Returns true if {@code fileName} is the name of one of the lock files. */
+  static boolean isLockFile(String fileName) {
+    for (Resource resource : Resource.values()) {
+      if (resource.fileName().equals(fileName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Waits until the resource of the git directory is locked exclusively by the current thread.
+   *
+   * @throws RepoException if the lock is not released by its holders within {@code timeout}
+   */
+  static GitDirLock lock(Path gitDir, Resource resource, Duration timeout) throws RepoException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    Path file = lockFile(gitDir, resource);
+    Holder holder = holders.computeIfAbsent(file, f -> new Holder());
+    Lock threadLock = holder.threadLock.writeLock();
+    acquire(threadLock, file, timeout, deadline);
+    if (holder.threadLock.getWriteHoldCount() > 1) {
+      return new GitDirLock(holder, file, /*shared=*/ false);
+    }
+    try {
+      synchronized (holder) {
+        if (holder.channel == null) {
+          holder.channel = lockFile(gitDir, file, /*shared=*/ false, timeout, deadline);
+        }
+      }
+    } catch (RepoException | RuntimeException e) {
+      threadLock.unlock();
+      throw e;
+    }
+    return new GitDirLock(holder, file, /*shared=*/ false);
+  }
+
+  /**
+   * Waits until the resource of the git directory is locked shared by the current thread. Other
+   * threads and processes can hold it shared at the same time, but not exclusively.
+   *
+   * @throws RepoException if the lock is not released by its exclusive holder within {@code
+   *     timeout}
+   */
+  static GitDirLock lockShared(Path gitDir, Resource resource, Duration timeout)
+      throws RepoException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    Path file = lockFile(gitDir, resource);
+    Holder holder = holders.computeIfAbsent(file, f -> new Holder());
+    Lock threadLock = holder.threadLock.readLock();
+    acquire(threadLock, file, timeout, deadline);
+    try {
+      synchronized (holder) {
+        if (holder.channel == null) {
+          holder.channel = lockFile(gitDir, file, /*shared=*/ true, timeout, deadline);
+        }
+        holder.sharedHolds++;
+      }
+    } catch (RepoException | RuntimeException e) {
+      threadLock.unlock();
+      throw e;
+    }
+    return new GitDirLock(holder, file, /*shared=*/ true);
+  }
+
+  private static Path lockFile(Path gitDir, Resource resource) {
+    return gitDir.resolve(resource.fileName()).toAbsolutePath().normalize();
+  }
+
+  private static void acquire(Lock threadLock, Path file, Duration timeout, long deadline)
+      throws RepoException {
+    try {
+      if (!threadLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        throw timeoutException(file, timeout);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while waiting for " + file, e);
+    }
+  }
+
+  /** Locks the file, polling until {@code deadline} while another process holds it. */
+  private static FileChannel lockFile(
+      Path gitDir, Path file, boolean shared, Duration timeout, long deadline)
+      throws RepoException {
+    FileChannel channel = null;
+    try {
+      Files.createDirectories(gitDir);
+      // Shared locks need a channel open for reading
+      channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (channel.tryLock(0, Long.MAX_VALUE, shared) == null) {
+        logger.atInfo().log("Waiting for another process to release %s", file);
+        do {
+          if (System.nanoTime() - deadline > 0) {
+            throw timeoutException(file, timeout);
+          }
+          Thread.sleep(POLL_MILLIS);
+        } while (channel.tryLock(0, Long.MAX_VALUE, shared) == null);
+      }
+      return channel;
+    } catch (IOException | RuntimeException | RepoException | InterruptedException e) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException closeException) {
+          e.addSuppressed(closeException);
+        }
+      }
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while waiting for " + file, e);
+      }
+      if (e instanceof RepoException repoException) {
+        throw repoException;
+      }
+      throw new RepoException("Cannot lock " + file, e);
+    }
+  }
+
+  private static RepoException timeoutException(Path file, Duration timeout) {
+    return new RepoException(
+        String.format(
+            "Timed out after %d seconds waiting for another Copybara thread or process to release"
+                + " %s. Check that no other Copybara process is stuck using the repository.",
+            timeout.toSeconds(), file));
+  }
+
+  @Override
+  public void close() {
+    Lock threadLock = shared ? holder.threadLock.readLock() : holder.threadLock.writeLock();
+    try {
+      synchronized (holder) {
+        boolean lastHold;
+        if (shared) {
+          holder.sharedHolds--;
+          lastHold = holder.sharedHolds == 0 && !holder.threadLock.isWriteLockedByCurrentThread();
+        } else {
+          lastHold = holder.threadLock.getWriteHoldCount() == 1 && holder.sharedHolds == 0;
+        }
+        if (lastHold && holder.channel != null) {
+          try {
+            // Closing the channel releases the lock
+            holder.channel.close();
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Cannot release %s", file);
+          }
+          holder.channel = null;
+        }
+      }
+    } finally {
+      threadLock.unlock();
+    }
+  }
+}
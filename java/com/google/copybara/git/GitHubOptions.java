@@ -23,6 +23,7 @@ import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.LazyResourceLoader;
 import com.google.copybara.Option;
@@ -31,6 +32,7 @@ import com.google.copybara.checks.Checker;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApi;
+import com.google.copybara.git.github.api.GitHubApiResponseCache;
 import com.google.copybara.git.github.api.GitHubApiTransport;
 import com.google.copybara.git.github.api.GitHubApiTransportImpl;
 import com.google.copybara.git.github.api.GitHubApiTransportWithChecker;
@@ -51,6 +53,8 @@ import javax.annotation.Nullable;
 @Parameters(separators = "=")
 public class GitHubOptions implements Option {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   protected final GeneralOptions generalOptions;
   protected final GitOptions gitOptions;
 
@@ -86,6 +90,16 @@ public class GitHubOptions implements Option {
       arity = 1)
   public boolean gitHubApiBearerAuth = false;
 
+  @Parameter(
+      names = "--github-api-response-cache",
+      description =
+          "Cache GitHub API GET responses on disk and revalidate them with conditional requests."
+              + " Responses that didn't change (304) don't count against the GitHub rate limit.",
+      arity = 1,
+      hidden = true)
+  public boolean gitHubApiResponseCache = false;
+
+  @Nullable private GitHubApiResponseCache responseCache;
 
   public GitHubOptions(GeneralOptions generalOptions, GitOptions gitOptions) {
     this.generalOptions = Preconditions.checkNotNull(generalOptions);
@@ -199,7 +213,37 @@ public class GitHubOptions implements Option {
   protected GitHubApiTransport newTransport(
       String gitHubHostName, GitRepository repo, String storePath, Console console) {
     return new GitHubApiTransportImpl(
-        repo, newHttpTransport(), storePath, gitHubApiBearerAuth, console, gitHubHostName);
+        repo,
+        newHttpTransport(),
+        storePath,
+        gitHubApiBearerAuth,
+        console,
+        gitHubHostName,
+        getResponseCache());
+  }
+
+  /**
+   * Returns the cache for GitHub API responses, shared by all the transports, or null if it is
+   * disabled.
+   */
+  @Nullable
+  protected synchronized GitHubApiResponseCache getResponseCache() {
+    if (!gitHubApiResponseCache) {
+      return null;
+    }
+    if (responseCache == null) {
+      try {
+        responseCache =
+            new GitHubApiResponseCache(
+                generalOptions.getDirFactory().getCacheDir("github_api"),
+                generalOptions.getDirFactory().getCacheManager(),
+                generalOptions.profiler());
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot create the GitHub API cache directory");
+        return null;
+      }
+    }
+    return responseCache;
   }
 
   protected HttpTransport newHttpTransport() {
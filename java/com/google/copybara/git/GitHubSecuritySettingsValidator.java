@@ -113,8 +113,11 @@ public class GitHubSecuritySettingsValidator {
 
   private boolean hasAllStar(String organization) throws ValidationException, RepoException {
     try {
-      return apiLoader.load(console).getInstallations(organization).stream()
-          .anyMatch(installation -> allStarAppIds.contains(installation.getAppId()));
+      return apiLoader
+          .load(console)
+          .findInstallation(
+              organization, installation -> allStarAppIds.contains(installation.getAppId()))
+          .isPresent();
     } catch (GitHubApiException e) {
       throw handleGitHubException(
           e,
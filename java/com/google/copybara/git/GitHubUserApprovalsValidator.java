@@ -21,6 +21,7 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.copybara.LazyResourceLoader;
@@ -32,18 +33,21 @@ import com.google.copybara.git.github.api.CommitHistoryResponse;
 import com.google.copybara.git.github.api.CommitHistoryResponse.AssociatedPullRequestNode;
 import com.google.copybara.git.github.api.CommitHistoryResponse.AssociatedPullRequests;
 import com.google.copybara.git.github.api.CommitHistoryResponse.HistoryNode;
+import com.google.copybara.git.github.api.CommitHistoryResponse.PullRequestEdges;
 import com.google.copybara.git.github.api.GitHubApi;
 import com.google.copybara.git.github.api.GitHubGraphQLApi;
 import com.google.copybara.git.github.api.GitHubGraphQLApi.GetCommitHistoryParams;
 import com.google.copybara.git.github.util.GitHubHost;
 import com.google.copybara.util.console.Console;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 
 /** Utility class for performing validation for GitHub pull request approvals. */
 public class GitHubUserApprovalsValidator {
   private static final int GET_COMMIT_HISTORY_MAX_RETRIES = 3;
+
   private final LazyResourceLoader<GitHubApi> restApiLoader;
   private final LazyResourceLoader<GitHubGraphQLApi> graphQlApiLoader;
   private final Console console;
@@ -97,41 +101,50 @@ public class GitHubUserApprovalsValidator {
     String repository = projectName.substring(projectName.lastIndexOf("/") + 1);
     ImmutableList.Builder<ChangeWithApprovals> builder = ImmutableList.builder();
 
-    CommitHistoryResponse response = null;
-    for (int i = 0; i < GET_COMMIT_HISTORY_MAX_RETRIES; i++) {
-      response =
-          graphQlApiLoader
-              .load(console)
-              .getCommitHistory(
-                  organization,
-                  repository,
-                  !Strings.isNullOrEmpty(branch) ? branch : getDefaultBranch(projectName),
-                  this.params.getCopyWithCommits(this.params.getCommits() * (i + 1)));
-      if (allCommitsFound(changes, response)) {
+    String resolvedBranch =
+        !Strings.isNullOrEmpty(branch) ? branch : getDefaultBranch(projectName);
+    GitHubGraphQLApi graphQlApi = graphQlApiLoader.load(console);
+    CommitHistoryResponse response =
+        graphQlApi.getCommitHistory(organization, repository, resolvedBranch, this.params);
+    ImmutableMap<String, AssociatedPullRequestNode> pullRequestsOutsideHistory =
+        findPullRequestsOutsideHistory(
+            graphQlApi, organization, repository, resolvedBranch, changes, response);
+    // Commits of pull requests merged with a merge commit or rebased, other than the merge commit,
+    // are only known to be in the branch if they are found in a longer history.
+    for (int i = 1; i < GET_COMMIT_HISTORY_MAX_RETRIES; i++) {
+      if (missingFromHistory(changes, response, pullRequestsOutsideHistory.keySet()).isEmpty()) {
         break;
       }
       console.warnFmt(
           "Commit history response did not contain all commits, retrying with"
               + " larger commit window. Current window: %d",
-          this.params.getCommits() * (i + 1));
+          this.params.getCommits() * i);
+      response =
+          graphQlApi.getCommitHistory(
+              organization,
+              repository,
+              resolvedBranch,
+              this.params.getCopyWithCommits(this.params.getCommits() * (i + 1)));
     }
 
     for (ChangeWithApprovals change : changes) {
       String sha = ((GitRevision) change.getChange().getRevision()).getHash();
 
-      AssociatedPullRequests associatedPullRequests = getAssociatedPullRequest(sha, response);
-      if (associatedPullRequests == null || associatedPullRequests.getEdges().isEmpty()) {
-        console.warnFmt(
-            "Expected to find at least one pull request associated with commit sha '%s', but found"
-                + " 0'. Consider expanding the commit history validation window via"
-                + " --gql-commit-history-override. Skipping authorship and approval predicate"
-                + " provisioning for this commit...",
-            sha);
-        builder.add(change);
-        continue;
+      AssociatedPullRequestNode pullRequest = pullRequestsOutsideHistory.get(sha);
+      if (pullRequest == null) {
+        AssociatedPullRequests associatedPullRequests = getAssociatedPullRequest(sha, response);
+        if (associatedPullRequests == null || associatedPullRequests.getEdges().isEmpty()) {
+          console.warnFmt(
+              "Expected to find a pull request associated with commit sha '%s', but found none"
+                  + " in the last %d commits of '%s' or merged into it with that sha as merge"
+                  + " commit. Skipping authorship and approval predicate provisioning for this"
+                  + " commit...",
+              sha, this.params.getCommits() * GET_COMMIT_HISTORY_MAX_RETRIES, resolvedBranch);
+          builder.add(change);
+          continue;
+        }
+        pullRequest = Iterables.getFirst(associatedPullRequests.getEdges(), null).getNode();
       }
-      AssociatedPullRequestNode pullRequest =
-          Iterables.getFirst(associatedPullRequests.getEdges(), null).getNode();
 
       // now add author
       String author = pullRequest.getAuthor().getLogin();
@@ -161,26 +174,80 @@ public class GitHubUserApprovalsValidator {
     return builder.build();
   }
 
-  private boolean allCommitsFound(
-      ImmutableList<ChangeWithApprovals> changes, CommitHistoryResponse response) {
-    List<HistoryNode> historyNodes =
-        Optional.ofNullable(response)
-            .map(CommitHistoryResponse::getData)
-            .map(CommitHistoryResponse.Data::getRepository)
-            .map(CommitHistoryResponse.Repository::getRef)
-            .map(CommitHistoryResponse.Ref::getTarget)
-            .map(CommitHistoryResponse.Target::getHistoryNodes)
-            .map(CommitHistoryResponse.HistoryNodes::getNodes)
-            .orElse(ImmutableList.of());
-    ImmutableSet<String> responseOids =
-        historyNodes.stream().map(HistoryNode::getOid).collect(toImmutableSet());
-    for (ChangeWithApprovals change : changes) {
-      String sha = ((GitRevision) change.getChange().getRevision()).getHash();
-      if (!responseOids.contains(sha)) {
-        return false;
+  /**
+   * Looks up the pull requests of the commits in {@code changes} that are not in the commit history
+   * {@code response}, batching several commits in each GraphQL query, instead of asking for a
+   * longer history. These commits are not known to be in {@code branch}, so only a pull request
+   * merged into it with the commit as merge commit is accepted for them. Other pull requests that
+   * contain the commit, like squash merged ones whose head commit is not in the branch, could have
+   * been approved for other changes. The rest of the commits are looked up in a longer history.
+   */
+  private ImmutableMap<String, AssociatedPullRequestNode> findPullRequestsOutsideHistory(
+      GitHubGraphQLApi graphQlApi,
+      String organization,
+      String repository,
+      String branch,
+      ImmutableList<ChangeWithApprovals> changes,
+      CommitHistoryResponse response)
+      throws ValidationException, RepoException {
+    ImmutableSet<String> missing = missingFromHistory(changes, response, ImmutableSet.of());
+    if (missing.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    console.verboseFmt(
+        "Looking up the pull requests of %d commits that are not in the last %d commits of '%s'",
+        missing.size(), this.params.getCommits(), branch);
+    String branchName =
+        branch.startsWith("refs/heads/") ? branch.substring("refs/heads/".length()) : branch;
+    ImmutableMap.Builder<String, AssociatedPullRequestNode> result = ImmutableMap.builder();
+    for (Map.Entry<String, AssociatedPullRequests> entry :
+        graphQlApi
+            .getPullRequestsForCommits(organization, repository, missing, this.params)
+            .entrySet()) {
+      List<PullRequestEdges> edges = entry.getValue().getEdges();
+      if (edges == null) {
+        continue;
       }
+      edges.stream()
+          .map(PullRequestEdges::getNode)
+          .filter(
+              pr ->
+                  pr != null
+                      && "MERGED".equals(pr.getState())
+                      && branchName.equals(pr.getBaseRefName())
+                      && pr.getMergeCommit() != null
+                      && entry.getKey().equals(pr.getMergeCommit().getOid()))
+          .findFirst()
+          .ifPresent(pr -> result.put(entry.getKey(), pr));
     }
-    return true;
+    return result.buildOrThrow();
+  }
+
+  /**
+   * Returns the shas of the {@code changes} that are neither in the commit history {@code response}
+   * nor in {@code found}.
+   */
+  private static ImmutableSet<String> missingFromHistory(
+      ImmutableList<ChangeWithApprovals> changes,
+      @Nullable CommitHistoryResponse response,
+      ImmutableSet<String> found) {
+    ImmutableSet<String> inHistory =
+        getHistoryNodes(response).stream().map(HistoryNode::getOid).collect(toImmutableSet());
+    return changes.stream()
+        .map(change -> ((GitRevision) change.getChange().getRevision()).getHash())
+        .filter(sha -> !inHistory.contains(sha) && !found.contains(sha))
+        .collect(toImmutableSet());
+  }
+
+  private static List<HistoryNode> getHistoryNodes(@Nullable CommitHistoryResponse response) {
+    return Optional.ofNullable(response)
+        .map(CommitHistoryResponse::getData)
+        .map(CommitHistoryResponse.Data::getRepository)
+        .map(CommitHistoryResponse.Repository::getRef)
+        .map(CommitHistoryResponse.Ref::getTarget)
+        .map(CommitHistoryResponse.Target::getHistoryNodes)
+        .map(CommitHistoryResponse.HistoryNodes::getNodes)
+        .orElse(ImmutableList.of());
   }
 
   /**
@@ -192,15 +259,7 @@ public class GitHubUserApprovalsValidator {
   @Nullable
   private AssociatedPullRequests getAssociatedPullRequest(
       String sha, CommitHistoryResponse response) {
-    List<HistoryNode> historyNodes =
-        Optional.ofNullable(response)
-            .map(CommitHistoryResponse::getData)
-            .map(CommitHistoryResponse.Data::getRepository)
-            .map(CommitHistoryResponse.Repository::getRef)
-            .map(CommitHistoryResponse.Ref::getTarget)
-            .map(CommitHistoryResponse.Target::getHistoryNodes)
-            .map(CommitHistoryResponse.HistoryNodes::getNodes)
-            .orElse(ImmutableList.of());
+    List<HistoryNode> historyNodes = getHistoryNodes(response);
     HistoryNode history =
         Iterables.tryFind(historyNodes, node -> node.getOid().equals(sha)).orNull();
     console.warnFmtIf(
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * Reads objects from a git repository using long-lived {@code git cat-file --batch} and {@code
+ * --batch-check} processes, instead of forking a git process per read.
+ *
+ * <p>Processes are started lazily, up to {@link #MAX_PROCESSES} of each kind, so that concurrent
+ * reads don't wait for each other. They exit when {@link #close()} is called, which the owner is
+ * expected to do once it is done. If it doesn't, they exit when the owner is garbage collected or
+ * when the JVM exits, since git exits when its stdin is closed.
+ *
+ * <p>Objects that are read using a complete SHA-1 are immutable and small ones are kept in a LRU
+ * cache.
+ */
+final class GitObjectReader implements Closeable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private static final int MAX_PROCESSES = 4;
+  private static final long MAX_CACHE_BYTES = 16 * 1024 * 1024;
+  private static final int MAX_CACHED_OBJECT_BYTES = 1024 * 1024;
+
+  /** A git object: its type (blob, tree, commit or tag) and its raw content. */
+  record GitObject(String type, byte[] content) {}
+
+  private final State state;
+  private final Cleaner.Cleanable cleanable;
+  private final Cache<String, GitObject> cache =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHE_BYTES)
+          .<String, GitObject>weigher((k, v) -> k.length() + v.content().length)
+          .build();
+
+  /**
+   * Creates a reader that runs {@code command} followed by {@code cat-file} arguments.
+   *
+   * @param owner the object whose lifetime bounds the processes. They are stopped when it is
+   *     garbage collected, if the reader was not closed before.
+   * @param command the git binary and the global arguments, like {@code --git-dir}
+   */
+  GitObjectReader(
+      Object owner, List<String> command, ImmutableMap<String, String> environment, Path cwd) {
+    this.state = new State(command, environment, cwd);
+    this.cleanable = CLEANER.register(owner, state);
+  }
+
+  /**
+   * Reads an object using a {@code git cat-file} object name, like {@code <rev>:<path>}.
+   *
+   * @return the object, or null if it doesn't exist
+   * @throws IOException if the object cannot be read using the batch processes. The caller can
+   *     fall back to a regular git command.
+   */
+  @Nullable
+  GitObject read(String objectName) throws IOException {
+    // Callers own the returned content, so the cache keeps its own copy
+    GitObject cached = cache.getIfPresent(objectName);
+    if (cached != null) {
+      return new GitObject(cached.type(), cached.content().clone());
+    }
+    GitObject object = state.contents.request(objectName, /*withContent=*/true);
+    if (object != null
+        && object.content().length <= MAX_CACHED_OBJECT_BYTES
+        && isImmutable(objectName)) {
+      cache.put(objectName, new GitObject(object.type(), object.content().clone()));
+    }
+    return object;
+  }
+
+  /** Returns true if the object name is {@code <complete sha>:<path>}. */
+  private static boolean isImmutable(String objectName) {
+    int colon = objectName.indexOf(':');
+    return colon != -1
+        && GitRevision.COMPLETE_GIT_HASH_PATTERN.matcher(objectName.substring(0, colon)).matches();
+  }
+
+  /**
+   * Returns true if the object exists. Same as {@code git cat-file -e}.
+   *
+   * @throws IOException if the object cannot be checked using the batch processes. The caller can
+   *     fall back to a regular git command.
+   */
+  boolean exists(String objectName) throws IOException {
+    return state.checks.request(objectName, /*withContent=*/false) != null;
+  }
+
+  /** Returns true if the reader was closed. Closed readers fail all the requests. */
+  boolean isClosed() {
+    return state.closed;
+  }
+
+  @Override
+  public void close() {
+    cleanable.clean();
+  }
+
+  /** The processes. Cannot reference the owner, or it would never be garbage collected. */
+  private static final class State implements Runnable {
+    private final Pool contents;
+    private final Pool checks;
+    private volatile boolean closed;
+
+    State(List<String> command, ImmutableMap<String, String> environment, Path cwd) {
+      contents = new Pool(command, environment, cwd, "--batch");
+      checks = new Pool(command, environment, cwd, "--batch-check");
+    }
+
+    @Override
+    public void run() {
+      closed = true;
+      contents.close();
+      checks.close();
+    }
+  }
+
+  /** A bounded pool of cat-file processes of the same kind. */
+  private static final class Pool {
+    private final List<String> command;
+    private final ImmutableMap<String, String> environment;
+    private final Path cwd;
+    private final String mode;
+    private final Semaphore permits = new Semaphore(MAX_PROCESSES);
+    private final BlockingQueue<Session> idle = new LinkedBlockingQueue<>();
+    private final List<Session> all = new ArrayList<>();
+    private boolean closed;
+
+    Pool(List<String> command, ImmutableMap<String, String> environment, Path cwd, String mode) {
+      this.command = ImmutableList.copyOf(command);
+      this.environment = environment;
+      this.cwd = cwd;
+      this.mode = mode;
+    }
+
+    @Nullable
+    GitObject request(String objectName, boolean withContent) throws IOException {
+      // The protocol is line based and the whole line is the object name
+      if (objectName.indexOf('\n') != -1) {
+        throw new IOException("Object names with new lines are not supported: " + objectName);
+      }
+      permits.acquireUninterruptibly();
+      Session session = null;
+      try {
+        session = idle.poll();
+        if (session == null) {
+          session = start();
+        }
+        GitObject result = session.request(objectName, withContent);
+        idle.add(session);
+        session = null;
+        return result;
+      } finally {
+        if (session != null) {
+          // Failed in the middle of a request, the stream cannot be reused
+          session.close();
+        }
+        permits.release();
+      }
+    }
+
+    private Session start() throws IOException {
+      List<String> argv = new ArrayList<>(command);
+      argv.add("cat-file");
+      argv.add(mode);
+      ProcessBuilder builder =
+          new ProcessBuilder(argv)
+              .directory(cwd.toFile())
+              .redirectError(ProcessBuilder.Redirect.DISCARD);
+      builder.environment().clear();
+      builder.environment().putAll(environment);
+      synchronized (this) {
+        if (closed) {
+          throw new IOException("Reader is closed");
+        }
+        logger.atInfo().log("Starting %s", String.join(" ", argv));
+        Session session = new Session(builder.start());
+        all.add(session);
+        return session;
+      }
+    }
+
+    synchronized void close() {
+      closed = true;
+      for (Session session : all) {
+        session.close();
+      }
+      all.clear();
+      idle.clear();
+    }
+  }
+
+  /** A running cat-file process. Only used by one thread at a time. */
+  private static final class Session {
+    private final Process process;
+    private final OutputStream stdin;
+    private final InputStream stdout;
+
+    Session(Process process) {
+      this.process = process;
+      this.stdin = new BufferedOutputStream(process.getOutputStream());
+      this.stdout = new BufferedInputStream(process.getInputStream());
+    }
+
+    @Nullable
+    GitObject request(String objectName, boolean withContent) throws IOException {
+      stdin.write((objectName + "\n").getBytes(UTF_8));
+      stdin.flush();
+      // "<sha> <type> <size>" or "<object name> missing" (Or ambiguous)
+      String header = readLine();
+      if (header.endsWith(" missing")) {
+        return null;
+      }
+      List<String> parts = ImmutableList.copyOf(header.split(" "));
+      if (parts.size() != 3) {
+        throw new IOException(
+            String.format("Unexpected git cat-file output for '%s': %s", objectName, header));
+      }
+      if (!withContent) {
+        return new GitObject(parts.get(1), new byte[0]);
+      }
+      long size;
+      try {
+        size = Long.parseLong(parts.get(2));
+      } catch (NumberFormatException e) {
+        throw new IOException("Unexpected git cat-file output: " + header, e);
+      }
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException(String.format("Object '%s' is too big: %d", objectName, size));
+      }
+      byte[] content = new byte[(int) size];
+      ByteStreams.readFully(stdout, content);
+      if (stdout.read() != '\n') {
+        throw new IOException("Missing new line after the content of " + objectName);
+      }
+      return new GitObject(parts.get(1), content);
+    }
+
+    private String readLine() throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int c;
+      while ((c = stdout.read()) != '\n') {
+        if (c == -1) {
+          throw new EOFException("git cat-file exited with status " + exitStatus());
+        }
+        line.write(c);
+      }
+      return line.toString(UTF_8);
+    }
+
+    private String exitStatus() {
+      try {
+        return process.isAlive() ? "unknown" : String.valueOf(process.waitFor());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return "unknown";
+      }
+    }
+
+    void close() {
+      try {
+        stdin.close();
+      } catch (IOException e) {
+        logger.atFine().withCause(e).log("Cannot close git cat-file stdin");
+      }
+      process.destroy();
+    }
+  }
+}
@@ -30,7 +30,9 @@ import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.jcommander.SemicolonSeparatedListSplitter;
+import com.google.copybara.util.CacheManager;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -38,17 +40,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.annotation.Nullable;
 
 /**
  * Common arguments for {@link GitDestination}, {@link GitOrigin}, and other Git components.
  */
 @Parameters(separators = "=")
-public class GitOptions implements Option {
+public class GitOptions implements Option, Closeable {
 
   public static final String USE_CREDENTIALS_FROM_CONFIG = "--use-credentials-from-config";
   private final GeneralOptions generalOptions;
   private String partialCacheFilePrefix;
+  @Nullable private FetchMemo fetchMemo;
+  private final Set<GitRepository> repos = ConcurrentHashMap.newKeySet();
+  private final Queue<CacheManager.Use> cacheUses = new ConcurrentLinkedQueue<>();
 
   @Nullable
   public String getCredentialHelperStorePath() {
@@ -123,6 +132,22 @@ public class GitOptions implements Option {
       validateWith = GreaterThanZeroValidator.class)
   int visitChangePageSize = 200;
 
+  @Parameter(names = "--git-visit-changes-stream",
+      description = "Read the git log as a stream when visiting changes, and stop it once the"
+          + " visit finishes, instead of running a git log for each page of"
+          + " --git-visit-changes-page-size changes.",
+      hidden = true, arity = 1)
+  boolean visitChangesStream = true;
+
+  @Parameter(
+      names = "--git-cache-maintenance-fetches",
+      description =
+          "Number of fetches into a cached git repository after which Copybara repacks it and"
+              + " writes a commit-graph before using it again. The maintenance runs before the"
+              + " migration uses the repository and can take minutes for big repositories, so"
+              + " it is disabled by default (0).")
+  int cacheMaintenanceFetches = 0;
+
   @Parameter(names = "--git-tag-overwrite",
       description = "If set, copybara will force update existing git tag")
   boolean gitTagOverwrite = false;
@@ -207,8 +232,8 @@ public class GitOptions implements Option {
       throws RepoException {
     Preconditions.checkNotNull(cacheUrl);
     try {
-      return createBareRepo(
-          generalOptions, resolveDirInCache(cacheUrl, getRepoStorage()), fetchUrl);
+      return prepareCachedRepo(
+          createBareRepo(generalOptions, cachedRepoPath(cacheUrl), fetchUrl));
     } catch (IOException e) {
       throw new RepoException("Cannot create a cached repo for " + cacheUrl, e);
     }
@@ -241,16 +266,64 @@ public class GitOptions implements Option {
       throws RepoException {
     Preconditions.checkNotNull(cacheUrl);
     try {
-      return createBareRepo(
-          generalOptions,
-          resolveDirInCache(cacheUrl, getRepoStorage()),
-          gitRepositoryHook,
-          fetchUrl);
+      return prepareCachedRepo(
+          createBareRepo(generalOptions, cachedRepoPath(cacheUrl), gitRepositoryHook, fetchUrl));
     } catch (IOException e) {
       throw new RepoException("Cannot create a cached repo for " + cacheUrl, e);
     }
   }
 
+  /**
+   * Returns the location of the cached repository for the URL, recording its use until these
+   * options are closed.
+   */
+  private Path cachedRepoPath(String cacheUrl) throws IOException {
+    Path path = resolveDirInCache(cacheUrl, getRepoStorage());
+    cacheUses.add(generalOptions.getDirFactory().getCacheManager().recordUse(path));
+    return path;
+  }
+
+  /**
+   * Counts the fetches into a cached repository and, if it was fetched enough times since the last
+   * maintenance, repacks it before it is used. Also skips the fetches already done in this run, if
+   * {@link #deduplicateFetches()} was called.
+   */
+  private GitRepository prepareCachedRepo(GitRepository repo) throws RepoException {
+    repo.setFetchMemo(fetchMemo);
+    GitRepoMaintenance.track(repo);
+    GitRepoMaintenance.maybeRun(repo, cacheMaintenanceFetches, generalOptions.profiler());
+    return repo;
+  }
+
+  /**
+   * Makes the cached repositories returned from now on skip the fetches that already succeeded in
+   * this run, with the same url and arguments, into the same repository. Pushes to a url forget
+   * its fetches.
+   *
+   * <p>Meant for commands that run several migrations, which usually fetch the same references.
+   */
+  public void deduplicateFetches() {
+    if (fetchMemo == null) {
+      fetchMemo = new FetchMemo();
+    }
+  }
+
+  /**
+   * Stops the long-lived git processes of the repositories created by these options, and allows
+   * the eviction of the cached ones. Called when the command finishes.
+   */
+  @Override
+  public void close() throws IOException {
+    for (GitRepository repo : repos) {
+      repos.remove(repo);
+      repo.closeObjectReaders();
+    }
+    CacheManager.Use use;
+    while ((use = cacheUses.poll()) != null) {
+      use.close();
+    }
+  }
+
   /**
    * Rewrite url for subodule fetch
    */
@@ -339,6 +412,7 @@ public class GitOptions implements Option {
   @CanIgnoreReturnValue
   protected GitRepository initRepo(GitRepository repo, @Nullable String fetchUrl)
       throws RepoException {
+    repos.add(repo);
     repo.init(fetchUrl, gitRefFormat);
 
     if (noCredentialHelperStore) {
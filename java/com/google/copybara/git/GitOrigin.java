@@ -18,7 +18,10 @@ package com.google.copybara.git;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.nullToEmpty;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.copybara.Origin.Reader.ChangesResponse.noChanges;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 import static com.google.copybara.git.GitModule.PRIMARY_BRANCHES;
@@ -35,6 +38,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Options;
 import com.google.copybara.Origin;
@@ -45,6 +52,7 @@ import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.GitRepository.ChangedFile;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.Submodule;
 import com.google.copybara.git.GitRepository.TreeElement;
@@ -53,6 +61,7 @@ import com.google.copybara.revision.Change;
 import com.google.copybara.templatetoken.Token;
 import com.google.copybara.templatetoken.Token.TokenType;
 import com.google.copybara.transform.patch.PatchTransformation;
+import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.InsideGitDirException;
 import com.google.copybara.util.console.Console;
@@ -61,9 +70,17 @@ import com.google.copybara.version.VersionSelector.SearchPattern;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 
 /**
@@ -555,20 +572,68 @@ public class GitOrigin implements Origin<GitRevision> {
       }
     }
 
+    /**
+     * Applies the files that changed between {@code previous} and {@code ref} to the work tree.
+     * Not supported if the checkout does more than writing the tree of the revision, like
+     * submodules, rebases, hooks or patches.
+     */
+    @Override
+    public Optional<ImmutableSet<String>> updateCheckout(
+        GitRevision previous, GitRevision ref, Path workdir)
+        throws RepoException, ValidationException {
+      if (submoduleStrategy != SubmoduleStrategy.NO
+          || patchTransformation != null
+          || partialFetch
+          || gitOptions.experimentCheckoutAffectedFiles
+          || gitOriginOptions.originRebaseRef != null
+          || !Strings.isNullOrEmpty(gitOriginOptions.originCheckoutHook)) {
+        return Optional.empty();
+      }
+      GitRepository repo = getRepository().withWorkTree(workdir);
+      ImmutableList<ChangedFile> changed = repo.diffTree(previous.getHash(), ref.getHash());
+      if (changed.stream().anyMatch(f -> f.mode().equals(ChangedFile.GITLINK_MODE))) {
+        return Optional.empty();
+      }
+      try {
+        // Deletions first, since a deleted file might be a directory in the new revision
+        for (ChangedFile file : changed) {
+          if (file.isDeleted()) {
+            FileUtil.deleteFileAndEmptyParents(workdir, file.path());
+          }
+        }
+      } catch (IOException e) {
+        throw new RepoException("Cannot delete the removed files from " + workdir, e);
+      }
+      ImmutableList<String> written =
+          changed.stream().filter(f -> !f.isDeleted()).map(ChangedFile::path)
+              .collect(toImmutableList());
+      if (!written.isEmpty()) {
+        repo.checkoutPaths(ref.getHash(), written, generalOptions.commandsTimeout);
+      }
+      generalOptions.console().verboseFmt(
+          "Updated the checkout of %s to %s: %d files changed", previous.getHash(),
+          ref.getHash(), changed.size());
+      return Optional.of(changed.stream().map(ChangedFile::path).collect(toImmutableSet()));
+    }
+
     private GitRepository checkout(
         GitRepository repository, Path workdir, GitRevision ref)
         throws RepoException, ValidationException {
       GitRepository repo = repository.withWorkTree(workdir);
-      if (partialFetch) {
-        repo.setSparseCheckout(originFiles.tips());
-        repo.forceCheckout(ref.getHash(), generalOptions.commandsTimeout);
+      // The index, HEAD and sparse checkout patterns of the cached repository are shared with
+      // other processes
+      try (GitDirLock ignored = repo.lock(GitDirLock.Resource.INDEX)) {
+        if (partialFetch) {
+          repo.setSparseCheckout(originFiles.tips());
+          repo.forceCheckout(ref.getHash(), generalOptions.commandsTimeout);
+          return repo;
+        }
+        repo.forceCheckout(
+            ref.getHash(),
+            gitOptions.experimentCheckoutAffectedFiles ? originFiles.roots() : ImmutableSet.of(),
+            generalOptions.commandsTimeout);
         return repo;
       }
-      repo.forceCheckout(
-          ref.getHash(),
-          gitOptions.experimentCheckoutAffectedFiles ? originFiles.roots() : ImmutableSet.of(),
-          generalOptions.commandsTimeout);
-      return repo;
     }
 
     /**
@@ -596,6 +661,22 @@ public class GitOrigin implements Origin<GitRevision> {
       if (submoduleStrategy == SubmoduleStrategy.NO) {
         return;
       }
+      checkoutSubmodules(repo, currentRemoteUrl, workdir, submoduleStrategy, ref,
+          new ConcurrentHashMap<>(), /*parallel=*/topLevelCheckout);
+    }
+
+    /**
+     * Checks out the submodules of {@code repo} for {@code ref} under {@code workdir}.
+     *
+     * <p>If {@code parallel} is true, the submodules are fetched and checked out concurrently,
+     * including their own submodules. Nested submodules are always checked out sequentially by the
+     * thread that checked out the parent, so that the pool cannot starve.
+     */
+    private void checkoutSubmodules(GitRepository repo, String currentRemoteUrl, Path workdir,
+        SubmoduleStrategy submoduleStrategy, GitRevision ref,
+        ConcurrentMap<String, SubmoduleRepo> submoduleRepos, boolean parallel)
+        throws RepoException, ValidationException {
+      List<Callable<Void>> checkouts = new ArrayList<>();
       for (Submodule submodule : repo.listSubmodules(currentRemoteUrl, ref)) {
         if (excludedSubmodules.contains(submodule.name())) {
           generalOptions
@@ -612,43 +693,134 @@ public class GitOrigin implements Origin<GitRevision> {
         }
         TreeElement element = Iterables.getOnlyElement(elements);
         Preconditions.checkArgument(element.path().equals(submodule.path()));
+        checkouts.add(() -> {
+          checkoutSubmodule(submodule, element, workdir, submoduleStrategy, submoduleRepos);
+          return null;
+        });
+      }
 
-        generalOptions.console()
-            .verboseFmt(
-                "Checking out submodule '%s' with reference '%s'", submodule, element.ref());
-        String submoduleUrl = gitOptions.rewriteSubmoduleUrl(submodule.url());
-        GitRepository subRepo = gitOptions.cachedBareRepoForUrl(submoduleUrl);
+      int threads = Math.min(gitOriginOptions.submoduleThreads, checkouts.size());
+      if (!parallel || threads <= 1) {
+        for (Callable<Void> checkout : checkouts) {
+          runSubmoduleCheckout(checkout);
+        }
+        return;
+      }
+      ListeningExecutorService executor =
+          MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+      try {
+        List<ListenableFuture<Void>> results = new ArrayList<>();
+        for (Callable<Void> checkout : checkouts) {
+          results.add(executor.submit(checkout));
+        }
+        Futures.allAsList(results).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while checking out submodules", e);
+      } catch (ExecutionException e) {
+        throwIfInstanceOf(e.getCause(), RepoException.class);
+        throwIfInstanceOf(e.getCause(), ValidationException.class);
+        throwIfUnchecked(e.getCause());
+        throw new RepoException("Cannot checkout submodules", e.getCause());
+      } finally {
+        // Stop the rest of the checkouts if one failed
+        executor.shutdownNow();
+      }
+    }
 
+    private static void runSubmoduleCheckout(Callable<Void> checkout)
+        throws RepoException, ValidationException {
+      try {
+        checkout.call();
+      } catch (RepoException | ValidationException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RepoException("Cannot checkout submodule", e);
+      }
+    }
 
-        if (submodule.branch() != null) {
-          subRepo.fetchSingleRef(
-              submoduleUrl, submodule.branch(), partialFetch, Optional.empty());
+    private void checkoutSubmodule(Submodule submodule, TreeElement element, Path workdir,
+        SubmoduleStrategy submoduleStrategy, ConcurrentMap<String, SubmoduleRepo> submoduleRepos)
+        throws RepoException, ValidationException {
+      generalOptions.console()
+          .verboseFmt(
+              "Checking out submodule '%s' with reference '%s'", submodule, element.ref());
+      String submoduleUrl = gitOptions.rewriteSubmoduleUrl(submodule.url());
+      Path subdir = workdir.resolve(submodule.path());
+      GitRevision submoduleRef;
+      GitRepository subCheckout;
+      // The same url can be used by several submodules. They share the cached bare repository
+      // and its index, so only one of them can fetch or checkout at a time.
+      SubmoduleRepo submoduleRepo =
+          submoduleRepos.computeIfAbsent(submoduleUrl, u -> new SubmoduleRepo());
+      synchronized (submoduleRepo) {
+        if (submoduleRepo.repo == null) {
+          submoduleRepo.repo = gitOptions.cachedBareRepoForUrl(submoduleUrl);
+        }
+        GitRepository subRepo = submoduleRepo.repo;
+        // Submodules point to a SHA-1, no need to go to the network if we already have it
+        submoduleRef =
+            partialFetch ? null : maybeResolve(subRepo, element, submodule, submoduleUrl);
+        if (submoduleRef == null) {
+          fetchSubmodule(subRepo, submodule, submoduleUrl, submoduleRepo.fetchedRefs);
+          submoduleRef =
+              subRepo.resolveReferenceWithContext(
+                  element.ref(), submodule.name(), submoduleUrl);
         } else {
-          subRepo.fetch(
-              submoduleUrl, /*prune*/
-              true, /*force*/
-              true,
-              ImmutableList.of("refs/heads/*:refs/heads/*", "refs/tags/*:refs/tags/*"),
-              partialFetch,
-              Optional.empty(),
-              false);
+          generalOptions.console()
+              .verboseFmt("Submodule '%s' reference '%s' is already cached, skipping fetch",
+                  submodule.name(), element.ref());
         }
-        GitRevision submoduleRef =
-            subRepo.resolveReferenceWithContext(
-                element.ref(), submodule.name(), submoduleUrl);
 
-        Path subdir = workdir.resolve(submodule.path());
         try {
-          Files.createDirectories(workdir.resolve(submodule.path()));
+          Files.createDirectories(subdir);
         } catch (IOException e) {
           throw new RepoException(String.format(
               "Cannot create subdirectory %s for submodule: %s", subdir, submodule));
         }
+        subCheckout = checkout(subRepo, subdir, submoduleRef);
+      }
 
-        checkoutRepo(subRepo, submoduleUrl, subdir,
-            submoduleStrategy == SubmoduleStrategy.RECURSIVE
-                ? SubmoduleStrategy.RECURSIVE
-                : SubmoduleStrategy.NO, submoduleRef, /*topLevelCheckout*/ false);
+      if (submoduleStrategy == SubmoduleStrategy.RECURSIVE) {
+        checkoutSubmodules(subCheckout, submoduleUrl, subdir, SubmoduleStrategy.RECURSIVE,
+            submoduleRef, submoduleRepos, /*parallel=*/false);
+      }
+    }
+
+    /** The cached bare repository of a submodule url and the refs fetched during a checkout. */
+    private static final class SubmoduleRepo {
+      @Nullable private GitRepository repo;
+      private final Set<String> fetchedRefs = new HashSet<>();
+    }
+
+    /** Returns the submodule revision if it is already in the cached repository, or null. */
+    @Nullable
+    private static GitRevision maybeResolve(GitRepository subRepo, TreeElement element,
+        Submodule submodule, String submoduleUrl) throws RepoException {
+      try {
+        return subRepo.resolveReferenceWithContext(element.ref(), submodule.name(), submoduleUrl);
+      } catch (CannotResolveRevisionException e) {
+        return null;
+      }
+    }
+
+    /** Fetches the submodule, unless the same refs were already fetched in this checkout. */
+    private void fetchSubmodule(GitRepository subRepo, Submodule submodule, String submoduleUrl,
+        Set<String> fetchedRefs) throws RepoException, ValidationException {
+      if (submodule.branch() != null) {
+        if (fetchedRefs.add("branch:" + submodule.branch())) {
+          subRepo.fetchSingleRef(
+              submoduleUrl, submodule.branch(), partialFetch, Optional.empty());
+        }
+      } else if (fetchedRefs.add("all")) {
+        subRepo.fetch(
+            submoduleUrl, /*prune*/
+            true, /*force*/
+            true,
+            ImmutableList.of("refs/heads/*:refs/heads/*", "refs/tags/*:refs/tags/*"),
+            partialFetch,
+            Optional.empty(),
+            false);
       }
     }
 
@@ -661,11 +833,17 @@ public class GitOrigin implements Origin<GitRevision> {
       generalOptions.console().info(String.format("Rebasing %s to %s", rebaseToRef, rebaseToRef));
       GitRevision rebaseRev = repo.fetchSingleRef(repoUrl, rebaseToRef, partialFetch,
           Optional.empty());
-      repo.simpleCommand("update-ref", COPYBARA_TMP_REF, rebaseRev.getHash());
-      repo.rebaseCmd(COPYBARA_TMP_REF)
-          .errorAdvice(
-              "Please consider not using the flag --git-origin-rebase-ref as a workaround")
-          .run();
+      try (GitDirLock ignored = repo.lock(GitDirLock.Resource.INDEX)) {
+        // Other processes might have checked out something else while we were fetching
+        if (!repo.parseRef("HEAD").equals(ref.getHash())) {
+          checkout(repo, workdir, ref);
+        }
+        repo.simpleCommand("update-ref", COPYBARA_TMP_REF, rebaseRev.getHash());
+        repo.rebaseCmd(COPYBARA_TMP_REF)
+            .errorAdvice(
+                "Please consider not using the flag --git-origin-rebase-ref as a workaround")
+            .run();
+      }
     }
 
     @Override
@@ -760,7 +938,8 @@ public class GitOrigin implements Origin<GitRevision> {
           start, input -> affectsRoots(roots, input.getChangeFiles())
               ? visitor.visit(input)
               : VisitResult.CONTINUE,
-          queryChanges, generalOptions, "origin", gitOptions.visitChangePageSize);
+          queryChanges, generalOptions, "origin", gitOptions.visitChangePageSize,
+          gitOptions.visitChangesStream);
     }
 
     @Override
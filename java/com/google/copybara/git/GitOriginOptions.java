@@ -63,6 +63,11 @@ public class GitOriginOptions implements Option {
           + "a log path.")
   boolean historyIsNonLinear = false;
 
+  @Parameter(names = "--git-origin-submodule-threads",
+      description = "Number of submodules of a git origin that are fetched and checked out"
+          + " concurrently.")
+  int submoduleThreads = 8;
+
   public boolean useGitVersionSelector() {
     return !noGitVersionSelector;
   }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maintenance of the cached bare repositories that are reused across migrations.
+ *
+ * <p>Every fetch into a cached repository adds a pack or loose objects, and nothing writes a
+ * commit-graph, so history and path-limited {@code git log} queries get slower over time. The
+ * fetches into a tracked repository are counted in its git directory, and after a number of them
+ * the objects are repacked geometrically into a few packs, indexed with a multi-pack-index and a
+ * commit-graph with changed-path Bloom filters, and the references are packed.
+ */
+final class GitRepoMaintenance {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final String FETCH_COUNT_FILE = "copybara_fetch_count";
+
+  private static final ImmutableList<ImmutableList<String>> STEPS =
+      ImmutableList.of(
+          ImmutableList.of("repack", "-d", "-l", "-q", "--geometric=2"),
+          ImmutableList.of("multi-pack-index", "write"),
+          ImmutableList.of("commit-graph", "write", "--reachable", "--changed-paths"),
+          ImmutableList.of("pack-refs", "--all"));
+
+  private GitRepoMaintenance() {}
+
+  /** Starts counting the fetches into the repository, if they were not counted already. */
+  static void track(GitRepository repo) throws RepoException {
+    Path file = repo.getGitDir().resolve(FETCH_COUNT_FILE);
+    try {
+      Files.writeString(file, "0\n", UTF_8, StandardOpenOption.CREATE_NEW);
+    } catch (FileAlreadyExistsException e) {
+      // Already tracked
+    } catch (IOException e) {
+      throw new RepoException("Cannot create " + file, e);
+    }
+  }
+
+  /**
+   * Increments the number of fetches into the repository at {@code gitDir} since the last
+   * maintenance. Does nothing if the repository is not tracked. Must be called with the references
+   * of the repository locked.
+   */
+  static void recordFetch(Path gitDir) {
+    Path file = gitDir.resolve(FETCH_COUNT_FILE);
+    if (!Files.exists(file)) {
+      return;
+    }
+    try {
+      write(file, fetchCount(gitDir) + 1);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot update the fetch count of %s", gitDir);
+    }
+  }
+
+  /** Returns the number of fetches since the last maintenance, or 0 if not tracked. */
+  static int fetchCount(Path gitDir) throws IOException {
+    try {
+      return Integer.parseInt(Files.readString(gitDir.resolve(FETCH_COUNT_FILE), UTF_8).trim());
+    } catch (NoSuchFileException e) {
+      return 0;
+    } catch (NumberFormatException e) {
+      logger.atWarning().withCause(e).log("Invalid fetch count in %s", gitDir);
+      return 0;
+    }
+  }
+
+  /**
+   * Runs the maintenance of {@code repo} if there were at least {@code fetchThreshold} fetches
+   * since the last one. Waits for other processes that are fetching into the repository or
+   * maintaining it.
+   *
+   * <p>Failures are logged but not propagated, since the repository is still usable, only slower.
+   *
+   * @return true if the maintenance was run
+   */
+  static boolean maybeRun(GitRepository repo, int fetchThreshold, Profiler profiler)
+      throws RepoException {
+    Path gitDir = repo.getGitDir();
+    if (fetchThreshold <= 0 || !needsMaintenance(gitDir, fetchThreshold)) {
+      return false;
+    }
+    try (GitDirLock ignored = repo.lock(GitDirLock.Resource.REFS)) {
+      // Another process might have maintained it while we waited
+      if (!needsMaintenance(gitDir, fetchThreshold)) {
+        return false;
+      }
+      run(repo, profiler);
+      try {
+        write(gitDir.resolve(FETCH_COUNT_FILE), 0);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot reset the fetch count of %s", gitDir);
+      }
+      return true;
+    }
+  }
+
+  private static boolean needsMaintenance(Path gitDir, int fetchThreshold) {
+    try {
+      return fetchCount(gitDir) >= fetchThreshold;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot check if %s needs maintenance", gitDir);
+      return false;
+    }
+  }
+
+  /** Runs all the maintenance steps, reporting the time of each of them to the profiler. */
+  static void run(GitRepository repo, Profiler profiler) {
+    logger.atInfo().log("Running maintenance of %s", repo.getGitDir());
+    try (ProfilerTask ignore = profiler.start("git_cache_maintenance")) {
+      for (ImmutableList<String> step : STEPS) {
+        try (ProfilerTask ignore2 = profiler.start(step.get(0))) {
+          repo.simpleCommand(step);
+        } catch (RepoException e) {
+          // For example, an old git version that doesn't support the step
+          logger.atWarning().withCause(e).log(
+              "Maintenance step '%s' failed for %s", String.join(" ", step), repo.getGitDir());
+        }
+      }
+    }
+  }
+
+  private static void write(Path file, int count) throws IOException {
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      Files.writeString(tmp, count + "\n", UTF_8);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+}
@@ -42,6 +42,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.AuthorParser;
 import com.google.copybara.authoring.InvalidAuthorException;
@@ -66,7 +67,9 @@ import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -82,6 +85,7 @@ import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -90,8 +94,15 @@ import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -112,6 +123,9 @@ public class GitRepository {
   private static final Pattern LS_REMOTE_OUTPUT_LINE =
       Pattern.compile("([a-f0-9]{40,64}|ref: refs/heads/\\S+)\t(.+)");
 
+  private static final Pattern DIFF_TREE_ELEMENT =
+      Pattern.compile(":[0-9]{6} ([0-9]{6}) [a-f0-9]{40,64} [a-f0-9]{40,64} [A-Z][0-9]*");
+
   private static final Pattern HASH_PATTERN = Pattern.compile("[a-f0-9]{6,64}");
 
   private static final Pattern COMPLETE_HASH_PATTERN =
@@ -194,6 +208,11 @@ public class GitRepository {
   protected final boolean noVerify;
   @Nullable protected final GitRepositoryHook gitRepositoryHook;
 
+  @Nullable private GitObjectReader objectReader;
+  // Shared with the instances returned by withWorkTree, so that closing one closes all of them
+  private Set<GitObjectReader> openObjectReaders = ConcurrentHashMap.newKeySet();
+  @Nullable private FetchMemo fetchMemo;
+
   private static final Map<Character, StatusCode> CHAR_TO_STATUS_CODE =
       Arrays.stream(StatusCode.values())
           .collect(Collectors.toMap(StatusCode::getCode, Function.identity()));
@@ -616,19 +635,40 @@ public class GitRepository {
       args.add("-f");
     }
 
+    FetchMemo.Fetch fetch =
+        new FetchMemo.Fetch(
+            gitDir,
+            url,
+            ImmutableList.copyOf(refspecs),
+            prune,
+            force,
+            partialFetch,
+            depth,
+            tags);
     List<String> requestedRefs = new ArrayList<>();
-    for (String ref : refspecs) {
+    for (String ref : fetch.refspecs()) {
       // Validates refspec:
       Refspec refSpec = createRefSpec(ref);
       requestedRefs.add(refSpec.getOrigin());
       args.add(ref);
     }
 
-    ImmutableMap<String, GitRevision> before = showRef();
-    CommandOutputWithStatus output = gitAllowNonZeroExit(NO_INPUT, args, repoTimeout);
-    if (output.getTerminationStatus().success()) {
-      ImmutableMap<String, GitRevision> after = showRef();
-      return new FetchResult(before, after);
+    CommandOutputWithStatus output;
+    try (GitDirLock ignored = lock(GitDirLock.Resource.REFS)) {
+      ImmutableMap<String, GitRevision> before = showRef();
+      if (fetchMemo != null && fetchMemo.isDone(fetch)) {
+        logger.atInfo().log("Skipping fetch of %s from %s, already fetched", requestedRefs, url);
+        return new FetchResult(before, before);
+      }
+      output = gitAllowNonZeroExit(NO_INPUT, args, repoTimeout);
+      if (output.getTerminationStatus().success()) {
+        GitRepoMaintenance.recordFetch(gitDir);
+        if (fetchMemo != null) {
+          fetchMemo.recordDone(fetch);
+        }
+        ImmutableMap<String, GitRevision> after = showRef();
+        return new FetchResult(before, after);
+      }
     }
     checkFetchError(
         output.getStderr(), url, requestedRefs, output.getTerminationStatus().getExitCode());
@@ -977,15 +1017,39 @@ public class GitRepository {
    * initialize or alter the given work tree.
    */
   public GitRepository withWorkTree(Path newWorkTree) {
-    return new GitRepository(
-        this.gitDir,
-        newWorkTree,
-        this.verbose,
-        this.gitEnv,
-        repoTimeout,
-        this.noVerify,
-        this.pushOptionsValidator,
-        this.gitRepositoryHook);
+    GitRepository repo =
+        new GitRepository(
+            this.gitDir,
+            newWorkTree,
+            this.verbose,
+            this.gitEnv,
+            repoTimeout,
+            this.noVerify,
+            this.pushOptionsValidator,
+            this.gitRepositoryHook);
+    repo.fetchMemo = fetchMemo;
+    repo.openObjectReaders = openObjectReaders;
+    return repo;
+  }
+
+  /**
+   * Stops the long-lived git processes used for reading objects, started by this repository or by
+   * the ones returned by {@link #withWorkTree}. They are started again if the repository is used
+   * after this.
+   */
+  public void closeObjectReaders() {
+    for (GitObjectReader reader : openObjectReaders) {
+      openObjectReaders.remove(reader);
+      reader.close();
+    }
+  }
+
+  /**
+   * Skips the fetches that already succeeded according to {@code fetchMemo}, and records the new
+   * ones in it.
+   */
+  void setFetchMemo(@Nullable FetchMemo fetchMemo) {
+    this.fetchMemo = fetchMemo;
   }
 
   /**
@@ -1494,7 +1558,9 @@ public class GitRepository {
             .add(ref)
             .addAll(checkoutPaths.stream().filter(e -> !e.isEmpty()).collect(toImmutableList()));
 
-    return simpleCommand(commandTimeout, argvBuilder.build());
+    try (GitDirLock ignored = lock(GitDirLock.Resource.INDEX)) {
+      return simpleCommand(commandTimeout, argvBuilder.build());
+    }
   }
 
   /** Set the sparse checkout */
@@ -1506,7 +1572,9 @@ public class GitRepository {
             .filter(s -> !s.isEmpty())
             .collect(Collectors.toList()));
     argv.add("--cone");
-    return simpleCommand(argv.build());
+    try (GitDirLock ignored = lock(GitDirLock.Resource.INDEX)) {
+      return simpleCommand(argv.build());
+    }
   }
 
   // DateTimeFormatter.ISO_OFFSET_DATE_TIME might include subseconds, but Git's ISO8601 format does
@@ -1692,6 +1760,52 @@ public class GitRepository {
     return result.build();
   }
 
+  /**
+   * Returns the files that are different between the trees of {@code from} and {@code to}. Renames
+   * are reported as a deletion and an addition.
+   */
+  ImmutableList<ChangedFile> diffTree(String from, String to) throws RepoException {
+    String stdout =
+        simpleCommand("diff-tree", "-r", "-z", "--no-renames", "--no-commit-id", from, to)
+            .getStdout();
+    ImmutableList.Builder<ChangedFile> result = ImmutableList.builder();
+    Iterator<String> fields = Splitter.on('\0').split(stdout).iterator();
+    while (fields.hasNext()) {
+      String header = fields.next();
+      if (header.isEmpty()) {
+        continue;
+      }
+      Matcher matcher = DIFF_TREE_ELEMENT.matcher(header);
+      if (!matcher.matches() || !fields.hasNext()) {
+        throw new RepoException("Unexpected format for diff-tree output: " + header);
+      }
+      result.add(new ChangedFile(fields.next(), matcher.group(1)));
+    }
+    return result.build();
+  }
+
+  /**
+   * Checks out {@code paths} from {@code ref} in the work tree, throwing away local changes but
+   * not changing HEAD. Paths are matched literally.
+   */
+  void checkoutPaths(String ref, Collection<String> paths, @Nullable Duration commandTimeout)
+      throws RepoException, ValidationException {
+    if (gitRepositoryHook != null) {
+      gitRepositoryHook.beforeCheckout();
+    }
+    // Keep the command lines short for changes with many files
+    for (List<String> batch : Iterables.partition(paths, 500)) {
+      ImmutableList.Builder<String> argv =
+          ImmutableList.<String>builder().add("checkout", "-q", "-f", ref, "--");
+      for (String path : batch) {
+        argv.add(":(literal)" + path);
+      }
+      try (GitDirLock ignored = lock(GitDirLock.Resource.INDEX)) {
+        simpleCommand(commandTimeout, argv.build());
+      }
+    }
+  }
+
   /**
    * Resolves a relative URL for a submodule based on the current remote URL of the parent
    * repository. This method handles both standard URL schemes (http, rpc, sso) and SCP-like URLs.
@@ -1797,6 +1911,21 @@ public class GitRepository {
     return workTree != null ? workTree : gitDir;
   }
 
+  /**
+   * Returns the reader used for reading objects and checking that they exist without forking a
+   * git process each time.
+   */
+  private synchronized GitObjectReader objectReader() {
+    if (objectReader == null || objectReader.isClosed()) {
+      List<String> command = new ArrayList<>();
+      command.add(gitEnv.resolveGitBinary());
+      command.addAll(addGitDirAndWorkTreeParams(ImmutableList.of()));
+      objectReader = new GitObjectReader(this, command, gitEnv.getEnvironment(), getCwd());
+      openObjectReaders.add(objectReader);
+    }
+    return objectReader;
+  }
+
   private List<String> addGitDirAndWorkTreeParams(Iterable<String> argv) {
     Preconditions.checkState(Files.isDirectory(gitDir),
         "git repository dir '%s' doesn't exist or is not a directory", gitDir);
@@ -1867,7 +1996,6 @@ public class GitRepository {
     } catch (IOException e) {
       throw new RepoException("Failed to create cache dir", e);
     }
-
     GitHashAlgorithm remoteFormat = null;
     if (fetchUrl != null) {
       try {
@@ -1877,34 +2005,75 @@ public class GitRepository {
         logger.atInfo().withCause(e).log("Failed to get remote object format for %s", fetchUrl);
       }
     }
-
-    if (isInitialized()) {
-      GitHashAlgorithm localFormat = GitHashAlgorithm.SHA1;
-      try {
-        String stdout = simpleCommand("config", "extensions.objectFormat").getStdout().trim();
-        if (stdout.contains("sha256")) {
-          localFormat = GitHashAlgorithm.SHA256;
-        }
-      } catch (RepoException e) {
-        // Unconfigured, default is sha1
-        logger.atInfo().withCause(e).log("Failed to get local object format, using SHA1");
+    // Cached repositories can be initialized by several processes at the same time. Most of the
+    // time they are already initialized, and checking it doesn't need to wait for the others.
+    try (GitDirLock ignored = lockShared(GitDirLock.Resource.CONFIG)) {
+      if (isInitialized() && !formatMismatch(remoteFormat, refFormat)) {
+        return this;
       }
-      boolean objectFormatMismatch = remoteFormat != null && localFormat != remoteFormat;
-      GitRefFormat localRefFormat = isReftable() ? GitRefFormat.REFTABLE : GitRefFormat.FILES;
-      boolean refFormatMismatch = refFormat != null && localRefFormat != refFormat;
-      if (objectFormatMismatch || refFormatMismatch) {
+    }
+    try (GitDirLock ignored = lock(GitDirLock.Resource.CONFIG)) {
+      if (isInitialized() && formatMismatch(remoteFormat, refFormat)) {
         try {
-          FileUtil.deleteRecursively(gitDir);
+          deleteExceptLockFiles();
         } catch (IOException e) {
           throw new RepoException("Failed to delete stale cache dir", e);
         }
       }
+      if (!isInitialized()) {
+        init(remoteFormat, refFormat);
+      }
     }
+    return this;
+  }
 
-    if (!isInitialized()) {
-      init(remoteFormat, refFormat);
+  /** Returns whether the initialized repository doesn't have the given formats. */
+  private boolean formatMismatch(
+      @Nullable GitHashAlgorithm remoteFormat, @Nullable GitRefFormat refFormat) {
+    GitHashAlgorithm localFormat = GitHashAlgorithm.SHA1;
+    try {
+      String stdout = simpleCommand("config", "extensions.objectFormat").getStdout().trim();
+      if (stdout.contains("sha256")) {
+        localFormat = GitHashAlgorithm.SHA256;
+      }
+    } catch (RepoException e) {
+      // Unconfigured, default is sha1
+      logger.atInfo().withCause(e).log("Failed to get local object format, using SHA1");
     }
-    return this;
+    boolean objectFormatMismatch = remoteFormat != null && localFormat != remoteFormat;
+    GitRefFormat localRefFormat = isReftable() ? GitRefFormat.REFTABLE : GitRefFormat.FILES;
+    boolean refFormatMismatch = refFormat != null && localRefFormat != refFormat;
+    return objectFormatMismatch || refFormatMismatch;
+  }
+
+  /**
+   * Deletes the contents of the git directory. Lock files are kept, since other processes might be
+   * waiting for them.
+   */
+  private void deleteExceptLockFiles() throws IOException {
+    try (Stream<Path> paths = Files.list(gitDir)) {
+      for (Path path : paths.collect(toImmutableList())) {
+        if (!GitDirLock.isLockFile(path.getFileName().toString())) {
+          FileUtil.deleteRecursively(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Locks a resource of the git directory exclusively for this thread and other processes, waiting
+   * at most the repository timeout.
+   */
+  GitDirLock lock(GitDirLock.Resource resource) throws RepoException {
+    return GitDirLock.lock(gitDir, resource, repoTimeout);
+  }
+
+  /**
+   * Locks a resource of the git directory for reading, shared with other readers, waiting at most
+   * the repository timeout.
+   */
+  GitDirLock lockShared(GitDirLock.Resource resource) throws RepoException {
+    return GitDirLock.lockShared(gitDir, resource, repoTimeout);
   }
 
   /** Returns whether the repository is initialized. */
@@ -1960,12 +2129,14 @@ public class GitRepository {
 
   public void replaceLocalConfigField(String category, String field, String value)
       throws RepoException {
-    this.simpleCommand(
-        "config", "--replace-all", "--local", String.format("%s.%s", category, field), value);
+    try (GitDirLock ignored = lock(GitDirLock.Resource.CONFIG)) {
+      this.simpleCommand(
+          "config", "--replace-all", "--local", String.format("%s.%s", category, field), value);
+    }
   }
 
   public GitRepository enablePartialFetch() {
-    try {
+    try (GitDirLock ignored = lock(GitDirLock.Resource.CONFIG)) {
       this.simpleCommand("config", "core.repositoryFormatVersion", "1");
       this.simpleCommand("config", "extensions.partialClone", "origin");
     } catch (Exception e) {
@@ -2270,6 +2441,12 @@ public class GitRepository {
    * Checks if a SHA object exist in the repository
    */
   private boolean checkShaExists(String reference) throws RepoException {
+    try {
+      return objectReader().exists(reference);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot check %s using git cat-file --batch-check", reference);
+    }
     ImmutableList<String> params = ImmutableList.of("cat-file", "-e", reference);
     CommandOutputWithStatus output = gitAllowNonZeroExit(NO_INPUT, params,
         DEFAULT_TIMEOUT);
@@ -2283,8 +2460,21 @@ public class GitRepository {
   }
 
   public byte[] readFileBytes(String revision, String path) throws RepoException {
+    String objectName = String.format("%s:%s", revision, path);
+    try {
+      GitObjectReader.GitObject object = objectReader().read(objectName);
+      if (object == null) {
+        throw new RepoException(String.format("Cannot read file '%s' in '%s'", path, revision));
+      }
+      // Other types are formatted by git show
+      if (object.type().equals("blob")) {
+        return object.content();
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read %s using git cat-file --batch", objectName);
+    }
     CommandOutputWithStatus result = gitAllowNonZeroExit(NO_INPUT,
-        ImmutableList.of("--no-pager", "show", String.format("%s:%s", revision, path)),
+        ImmutableList.of("--no-pager", "show", objectName),
         DEFAULT_TIMEOUT, 0);
     if (!result.getTerminationStatus().success()) {
       throw new RepoException(String.format("Cannot read file '%s' in '%s'", path, revision));
@@ -2403,6 +2593,23 @@ public class GitRepository {
     public static final String SYMLINK_MODE = "120000";
   }
 
+  /**
+   * A file that is different between two trees, with its mode in the new tree, or {@link
+   * #DELETED_MODE} if it doesn't exist there.
+   */
+  static record ChangedFile(String path, String mode) {
+    ChangedFile {
+      checkNotNull(path);
+      checkNotNull(mode);
+    }
+    public static final String DELETED_MODE = "000000";
+    public static final String GITLINK_MODE = "160000";
+
+    boolean isDeleted() {
+      return mode.equals(DELETED_MODE);
+    }
+  }
+
   enum GitObjectType {
     BLOB,
     COMMIT,
@@ -2557,6 +2764,11 @@ public class GitRepository {
         output = repo.runPush(this);
       } catch (RepoException | ValidationException e) {
         repo.handlePushException(e, this);
+      } finally {
+        if (repo.fetchMemo != null) {
+          // Even a failed push might have updated some references
+          repo.fetchMemo.invalidate();
+        }
       }
       checkCondition(
           !PROTECTED_BRANCH.matcher(output).find(),
@@ -2672,6 +2884,12 @@ public class GitRepository {
     private static final String COMMIT_SEPARATOR = "\u0001copybara\u0001";
     private static final Pattern UNINDENT = Pattern.compile("\n    ");
     private static final String GROUP = "--\n";
+    private static final byte[] SEPARATOR_BYTES =
+        ("\0" + COMMIT_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+    // Stops the streamed 'git log' processes that don't finish in time
+    private static final ScheduledExecutorService LOG_TIMEOUTS =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("git-log-timeout-%d").setDaemon(true).build());
 
     static LogCmd create(GitRepository repository, String refExpr) {
       return new LogCmd(
@@ -2953,6 +3171,151 @@ public class GitRepository {
      * Run 'git log' and returns zero or more {@link GitLogEntry}.
      */
     public ImmutableList<GitLogEntry> run() throws RepoException {
+      return runGitLog(createCmd());
+    }
+
+    /** Receives the entries of a 'git log' as they are read. */
+    public interface LogEntryVisitor {
+
+      /** Returns false to stop reading the log. */
+      boolean visit(GitLogEntry entry) throws RepoException, ValidationException;
+    }
+
+    /**
+     * Runs 'git log' and passes the entries to {@code visitor} as they are read from the output of
+     * the process, so that the log is never held in memory. The process is stopped as soon as the
+     * visitor returns false.
+     *
+     * <p>The log is read in a single pass, so {@link #withBatchSize} is ignored.
+     */
+    public void visit(LogEntryVisitor visitor) throws RepoException, ValidationException {
+      List<String> cmd = createCmd();
+      if (skip > 0) {
+        cmd.add("--skip");
+        cmd.add(Integer.toString(skip));
+      }
+      if (limit > 0) {
+        cmd.add("-" + limit);
+      }
+      List<String> argv = new ArrayList<>();
+      argv.add(repo.gitEnv.resolveGitBinary());
+      argv.addAll(repo.addGitDirAndWorkTreeParams(cmd));
+      logger.atInfo().log("Executing: %s", cmd);
+      Path stderr = null;
+      Process process = null;
+      ScheduledFuture<?> timeout = null;
+      AtomicBoolean timedOut = new AtomicBoolean();
+      try {
+        stderr = Files.createTempFile("git_log", ".stderr");
+        ProcessBuilder builder =
+            new ProcessBuilder(argv)
+                .directory(repo.getCwd().toFile())
+                .redirectError(stderr.toFile());
+        builder.environment().clear();
+        builder.environment().putAll(repo.gitEnv.getEnvironment());
+        process = builder.start();
+        // Same timeout as the commands run with CommandRunner
+        Process started = process;
+        timeout =
+            LOG_TIMEOUTS.schedule(
+                () -> {
+                  timedOut.set(true);
+                  started.destroyForcibly();
+                },
+                DEFAULT_TIMEOUT.toMillis(),
+                TimeUnit.MILLISECONDS);
+        process.getOutputStream().close();
+        int count = 0;
+        try (InputStream stdout = new BufferedInputStream(process.getInputStream())) {
+          String msg;
+          while ((msg = readEntry(stdout)) != null) {
+            if (msg.startsWith(COMMIT_SEPARATOR)) {
+              // The first entry is not preceded by a NUL
+              msg = msg.substring(COMMIT_SEPARATOR.length());
+            }
+            count++;
+            if (!visitor.visit(parseEntry(msg))) {
+              logger.atInfo().log("Log visit stopped after %s entries", count);
+              return;
+            }
+          }
+        }
+        int exitCode = process.waitFor();
+        logger.atInfo().log("Log command returned %s entries", count);
+        if (timedOut.get()) {
+          throw logTimeout(cmd);
+        }
+        if (exitCode != 0) {
+          String error = Files.readString(stderr);
+          for (Pattern pattern : REF_NOT_FOUND_ERRORS) {
+            Matcher matcher = pattern.matcher(error);
+            if (matcher.find()) {
+              throw new RepoException("Cannot find reference '" + matcher.group(1) + "'");
+            }
+          }
+          throw new RepoException(
+              String.format(
+                  "Error executing 'git %s'(exit code %d). Stderr: %s\n",
+                  Joiner.on(' ').join(cmd), exitCode, error));
+        }
+      } catch (IOException e) {
+        if (timedOut.get()) {
+          throw logTimeout(cmd);
+        }
+        throw new RepoException("Error executing 'git log': " + e.getMessage(), e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while reading 'git log'", e);
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(/* mayInterruptIfRunning= */ false);
+        }
+        if (process != null) {
+          process.destroy();
+        }
+        if (stderr != null) {
+          try {
+            Files.deleteIfExists(stderr);
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Cannot delete %s", stderr);
+          }
+        }
+      }
+    }
+
+    private static RepoException logTimeout(List<String> cmd) {
+      return new RepoException(
+          String.format(
+              "Command 'git %s' killed by Copybara after timeout (%ds).",
+              Joiner.on(' ').join(cmd), DEFAULT_TIMEOUT.toSeconds()));
+    }
+
+    /**
+     * Reads the next entry of the output of 'git log', up to the next commit separator. Returns
+     * null at the end of the output.
+     */
+    @Nullable
+    private static String readEntry(InputStream stdout) throws IOException {
+      byte[] buf = new byte[8192];
+      int len = 0;
+      int c;
+      while ((c = stdout.read()) != -1) {
+        if (len == buf.length) {
+          buf = Arrays.copyOf(buf, len * 2);
+        }
+        buf[len++] = (byte) c;
+        if (c == SEPARATOR_BYTES[SEPARATOR_BYTES.length - 1]
+            && len >= SEPARATOR_BYTES.length
+            && Arrays.equals(
+                buf, len - SEPARATOR_BYTES.length, len,
+                SEPARATOR_BYTES, 0, SEPARATOR_BYTES.length)) {
+          return new String(buf, 0, len - SEPARATOR_BYTES.length, StandardCharsets.UTF_8);
+        }
+      }
+      return len == 0 ? null : new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private List<String> createCmd() {
       List<String> cmd =
           Lists.newArrayList("log", "--no-color", createFormat(includeBody, includeTags));
 
@@ -2990,14 +3353,18 @@ public class GitRepository {
         cmd.add(grepString);
       }
 
-      cmd.add(refExpr);
+      if (noWalk) {
+        // Several revisions can be shown at once. Reference names cannot contain spaces.
+        cmd.addAll(Splitter.on(' ').omitEmptyStrings().splitToList(refExpr));
+      } else {
+        cmd.add(refExpr);
+      }
 
       if (!paths.isEmpty()) {
         cmd.add("--");
         cmd.addAll(paths);
       }
-
-      return runGitLog(cmd);
+      return cmd;
     }
 
     private ImmutableList<GitLogEntry> runGitLog(List<String> cmd) throws RepoException {
@@ -3056,62 +3423,64 @@ public class GitRepository {
       ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
       for (String msg : Splitter.on("\0" + COMMIT_SEPARATOR).
           split(log.substring(COMMIT_SEPARATOR.length()))) {
+        commits.add(parseEntry(msg));
+      }
+      return commits.build();
+    }
 
-        List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
+    private GitLogEntry parseEntry(String msg) throws RepoException {
+      List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
 
-        Map<String, String> fields = Splitter.on("\n")
-            .withKeyValueSeparator(Splitter.on("=").limit(2))
-            .split(groups.get(0));
+      Map<String, String> fields = Splitter.on("\n")
+          .withKeyValueSeparator(Splitter.on("=").limit(2))
+          .split(groups.get(0));
 
-        String body = null;
-        if (includeBody) {
-          body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
-          body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
-          // Copybara assumes \n as a separator in many places.
-          body = body.replace("\r\n", "\n");
-        }
+      String body = null;
+      if (includeBody) {
+        body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
+        body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
+        // Copybara assumes \n as a separator in many places.
+        body = body.replace("\r\n", "\n");
+      }
 
-        ImmutableSet<String> files = null;
-        if (includeStat) {
-          String fileString = groups.get(2);
-          if (fileString.startsWith("\0\n")) {
-            fileString = fileString.substring(2);
-          }
-          files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
-        }
-        ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
-        for (String parent : Splitter.on(" ").omitEmptyStrings()
-            .split(getField(fields, PARENTS_FIELD))) {
-          parents.add(repo.createReferenceFromCompleteHash(parent));
+      ImmutableSet<String> files = null;
+      if (includeStat) {
+        String fileString = groups.get(2);
+        if (fileString.startsWith("\0\n")) {
+          fileString = fileString.substring(2);
         }
+        files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
+      }
+      ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
+      for (String parent : Splitter.on(" ").omitEmptyStrings()
+          .split(getField(fields, PARENTS_FIELD))) {
+        parents.add(repo.createReferenceFromCompleteHash(parent));
+      }
 
-        String tree = getField(fields, TREE_FIELD);
-        String commit = getField(fields, COMMIT_FIELD);
+      String tree = getField(fields, TREE_FIELD);
+      String commit = getField(fields, COMMIT_FIELD);
 
-        String tagString = includeTags ? getField(fields, TAG_FIELD) : null;
-        GitRevision tag =
-            tagString != null
-                ? repo.createReferenceFromCompleteHash(commit).withContextReference(tagString)
-                : null;
+      String tagString = includeTags ? getField(fields, TAG_FIELD) : null;
+      GitRevision tag =
+          tagString != null
+              ? repo.createReferenceFromCompleteHash(commit).withContextReference(tagString)
+              : null;
 
-        try {
-          commits.add(
-              new GitLogEntry(
-                  repo.createReferenceFromCompleteHash(commit),
-                  parents.build(),
-                  tree,
-                  AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
-                  AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
-                  tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
-                  tryParseDate(fields, COMMITTER_DATE, commit),
-                  body,
-                  files,
-                  tag));
-        } catch (InvalidAuthorException e) {
-          throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
-        }
+      try {
+        return new GitLogEntry(
+            repo.createReferenceFromCompleteHash(commit),
+            parents.build(),
+            tree,
+            AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
+            AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
+            tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
+            tryParseDate(fields, COMMITTER_DATE, commit),
+            body,
+            files,
+            tag);
+      } catch (InvalidAuthorException e) {
+        throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
       }
-      return commits.build();
     }
 
     // Do not change this method since we could have old git commits that have incorrect date
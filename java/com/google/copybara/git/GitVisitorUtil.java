@@ -32,40 +32,88 @@ public class GitVisitorUtil {
 
   private GitVisitorUtil() {}
 
-  /** Visits */
+  /**
+   * Visits the changes reachable from {@code start}, newest first.
+   *
+   * @param stream if true, the log is read as the changes are visited, so it is only read up to
+   *     the change where the visitor terminates. Otherwise it is read in pages of {@code
+   *     visitChangePageSize} changes.
+   */
   static void visitChanges(
       GitRevision start,
       ChangesVisitor visitor,
       ChangeReader.Builder queryChanges,
       GeneralOptions generalOptions,
       String type,
-      int visitChangePageSize)
+      int visitChangePageSize,
+      boolean stream)
       throws RepoException, ValidationException {
     Preconditions.checkNotNull(start);
-    int skip = 0;
-    boolean finished = false;
+    int visited = 0;
     try (ProfilerTask ignore = generalOptions.profiler().start(type + "/visit_changes")) {
-      while (!finished) {
+      if (stream) {
+        visited = queryChanges.build().visit(start, visitor);
+      } else {
+        boolean finished = false;
+        while (!finished) {
+          ImmutableList<Change<GitRevision>> result;
+          try (ProfilerTask ignore2 =
+              generalOptions.profiler().start("git_log_" + visited + "_" + visitChangePageSize)) {
+            result =
+                queryChanges
+                    .setSkip(visited)
+                    .setLimit(visitChangePageSize)
+                    .build()
+                    .run(start)
+                    .reverse();
+          }
+          if (result.isEmpty()) {
+            break;
+          }
+          visited += result.size();
+          for (Change<GitRevision> current : result) {
+            if (visitor.visit(current) == VisitResult.TERMINATE) {
+              finished = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+    if (visited == 0) {
+      throw new CannotResolveRevisionException("Cannot resolve reference " + start.getHash());
+    }
+  }
+
+  /**
+   * Visits the changes of the commits in {@code index} that are reachable from {@code start},
+   * reading them in pages of {@code visitChangePageSize}.
+   */
+  static void visitIndexedChanges(
+      GitRevision start,
+      ChangesVisitor visitor,
+      OriginLabelIndex index,
+      ChangeReader.Builder queryChanges,
+      GeneralOptions generalOptions,
+      String type,
+      int visitChangePageSize)
+      throws RepoException, ValidationException {
+    Preconditions.checkNotNull(start);
+    ChangeReader changeReader = queryChanges.build();
+    try (ProfilerTask ignore = generalOptions.profiler().start(type + "/visit_indexed_changes")) {
+      index.visit(start.getHash(), visitChangePageSize, commits -> {
         ImmutableList<Change<GitRevision>> result;
         try (ProfilerTask ignore2 =
-            generalOptions.profiler().start("git_log_" + skip + "_" + visitChangePageSize)) {
-          result =
-              queryChanges.setSkip(skip).setLimit(visitChangePageSize).build().run(start).reverse();
-        }
-        if (result.isEmpty()) {
-          break;
+            generalOptions.profiler().start("git_log_no_walk_" + commits.size())) {
+          result = changeReader.runForCommits(commits);
         }
-        skip += result.size();
         for (Change<GitRevision> current : result) {
           if (visitor.visit(current) == VisitResult.TERMINATE) {
-            finished = true;
-            break;
+            return false;
           }
         }
-      }
-    }
-    if (skip == 0) {
-      throw new CannotResolveRevisionException("Cannot resolve reference " + start.getHash());
+        return true;
+      });
     }
   }
 }
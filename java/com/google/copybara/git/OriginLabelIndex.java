@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of the commits whose message matches any of a set of {@code git log --grep}
+ * patterns, usually origin labels like {@code GitOrigin-RevId}.
+ *
+ * <p>Finding the last migrated change in a destination requires a {@code git log --grep} of the
+ * history, that can take minutes for repositories with hundreds of thousands of commits. The index
+ * stores the matching commits of the last visited tip, in {@code git log} order, in the git
+ * directory of the repository. When the tip moves forward by a single line of history, only the
+ * commits added since the last indexed tip are read. Otherwise, for example after a merge or a
+ * history rewrite, the index is built again so that the order never differs from {@code git log}.
+ *
+ * <p>Visitors still read the full changes for the indexed commits, so the patterns only need to
+ * match a superset of the commits the visitor is interested in.
+ */
+final class OriginLabelIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final String INDEX_DIR = "copybara_label_index";
+
+  private final GitRepository repo;
+  private final ImmutableList<String> grepPatterns;
+  private final boolean firstParent;
+  private final Path file;
+
+  /**
+   * Creates an index of the commits that match any of {@code grepPatterns}.
+   *
+   * @param ref the reference that is visited, so that the index of different branches that share
+   *     the same git directory don't overwrite each other
+   */
+  OriginLabelIndex(
+      GitRepository repo, String ref, ImmutableList<String> grepPatterns, boolean firstParent) {
+    this.repo = repo;
+    this.grepPatterns = grepPatterns;
+    this.firstParent = firstParent;
+    String key = String.format("%s\n%s\n%s", ref, firstParent, String.join("\n", grepPatterns));
+    this.file = repo.getGitDir()
+        .resolve(INDEX_DIR)
+        .resolve(Hashing.sha256().hashString(key, UTF_8).toString());
+  }
+
+  /**
+   * Returns the grep patterns that match the commits that contain any of {@code labels}, with any
+   * of the supported label separators.
+   */
+  static ImmutableList<String> anyLabelPatterns(Collection<String> labels) {
+    return labels.stream()
+        .sorted()
+        .map(l -> "^" + l.replaceAll("([.\\[\\]*^$\\\\])", "\\\\$1"))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** Visits pages of indexed commits. */
+  interface PageVisitor {
+
+    /**
+     * Receives the next page of complete SHA-1s, in {@code git log} order. Returns false to stop
+     * the visit.
+     */
+    boolean visit(ImmutableList<String> commits) throws RepoException, ValidationException;
+  }
+
+  /**
+   * Updates the index to {@code start}, a complete SHA-1, and visits the matching commits
+   * reachable from it, in {@code git log} order, in pages of {@code pageSize}.
+   */
+  void visit(String start, int pageSize, PageVisitor visitor)
+      throws RepoException, ValidationException {
+    update(start);
+    try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+      String tip = reader.readLine();
+      if (!start.equals(tip)) {
+        // Another process updated the index to a different tip. Read it again from scratch, since
+        // a wrong order would be worse than the slow path.
+        logger.atWarning().log("Label index %s was modified concurrently", file);
+        for (List<String> page : Lists.partition(log(start, null), pageSize)) {
+          if (!visitor.visit(ImmutableList.copyOf(page))) {
+            return;
+          }
+        }
+        return;
+      }
+      List<String> page = new ArrayList<>(pageSize);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        page.add(line);
+        if (page.size() == pageSize) {
+          if (!visitor.visit(ImmutableList.copyOf(page))) {
+            return;
+          }
+          page.clear();
+        }
+      }
+      if (!page.isEmpty()) {
+        visitor.visit(ImmutableList.copyOf(page));
+      }
+    } catch (IOException e) {
+      throw new RepoException("Cannot read label index " + file, e);
+    }
+  }
+
+  private void update(String start) throws RepoException {
+    String tip = readTip();
+    if (start.equals(tip)) {
+      return;
+    }
+    if (tip == null || !canAppend(tip, start)) {
+      logger.atInfo().log("Building label index %s for %s", file, start);
+      write(start, log(start, null), null);
+      return;
+    }
+    ImmutableList<String> added = log(start, tip);
+    logger.atInfo().log(
+        "Updating label index %s from %s to %s: %d new commits",
+        file, tip, start, added.size());
+    if (!write(start, added, tip)) {
+      logger.atWarning().log("Label index %s was modified concurrently, rebuilding it", file);
+      write(start, log(start, null), null);
+    }
+  }
+
+  /**
+   * Returns true if {@code git log start} lists the commits added since {@code tip} and then the
+   * ones of {@code git log tip}, so that they can be prepended to the index.
+   *
+   * <p>That is the case when {@code tip} is an ancestor of {@code start} and the added commits
+   * are a single line of history (Or the first parent chain goes through {@code tip}, when
+   * visiting first parents only). Otherwise, like when a merge brings older commits, git orders
+   * the added commits and the indexed ones by date and the index is built again.
+   */
+  private boolean canAppend(String tip, String start) {
+    try {
+      if (!repo.isAncestor(tip, start)) {
+        return false;
+      }
+      if (!firstParent) {
+        return repo.simpleCommandNoRedirectOutput(
+                "rev-list", "--merges", "--max-count=1", start, "^" + tip, "--")
+            .getStdout().isEmpty();
+      }
+      // The first parent chain of start has to go through tip, and not only merge it
+      ImmutableList<String> added =
+          lines(
+              repo.simpleCommandNoRedirectOutput(
+                      "rev-list", "--first-parent", "--parents", start, "^" + tip, "--")
+                  .getStdout());
+      if (added.isEmpty()) {
+        return false;
+      }
+      List<String> oldest = Splitter.on(' ').splitToList(Iterables.getLast(added));
+      return oldest.size() > 1 && oldest.get(1).equals(tip);
+    } catch (RepoException e) {
+      // For example the old tip was garbage collected
+      logger.atInfo().withCause(e).log("Cannot check if %s is an ancestor of %s", tip, start);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the index for {@code start}: {@code added} followed by the commits of the current
+   * index, if {@code tip} is not null.
+   *
+   * @return false if the current index is not for {@code tip} anymore
+   */
+  @CanIgnoreReturnValue
+  private boolean write(String start, List<String> added, @Nullable String tip)
+      throws RepoException {
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try {
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+          writer.write(start);
+          writer.newLine();
+          for (String commit : added) {
+            writer.write(commit);
+            writer.newLine();
+          }
+          if (tip != null && !copyCommits(writer, tip)) {
+            return false;
+          }
+        }
+        Files.move(
+            tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      throw new RepoException("Cannot write label index " + file, e);
+    }
+  }
+
+  private boolean copyCommits(BufferedWriter writer, String tip) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+      if (!tip.equals(reader.readLine())) {
+        return false;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        writer.write(line);
+        writer.newLine();
+      }
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private String readTip() throws RepoException {
+    try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+      String tip = reader.readLine();
+      return tip != null && GitRevision.COMPLETE_GIT_HASH_PATTERN.matcher(tip).matches()
+          ? tip
+          : null;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new RepoException("Cannot read label index " + file, e);
+    }
+  }
+
+  /**
+   * Returns the matching commits reachable from {@code start} but not from {@code exclude}, newest
+   * first.
+   */
+  private ImmutableList<String> log(String start, @Nullable String exclude) throws RepoException {
+    List<String> cmd = new ArrayList<>();
+    cmd.add("log");
+    cmd.add("--format=%H");
+    if (firstParent) {
+      cmd.add("--first-parent");
+    }
+    for (String pattern : grepPatterns) {
+      cmd.add("--grep=" + pattern);
+    }
+    cmd.add(start);
+    if (exclude != null) {
+      cmd.add("^" + exclude);
+    }
+    cmd.add("--");
+    return lines(repo.simpleCommandNoRedirectOutput(cmd.toArray(new String[0])).getStdout());
+  }
+
+  private static ImmutableList<String> lines(String output) {
+    return ImmutableList.copyOf(Splitter.on('\n').omitEmptyStrings().split(output));
+  }
+}
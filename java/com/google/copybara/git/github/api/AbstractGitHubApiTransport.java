@@ -66,6 +66,7 @@ public abstract class AbstractGitHubApiTransport implements GitHubApiTransport {
   protected final String storePath;
   protected final Console console;
   protected final boolean bearerAuth;
+  @Nullable protected final GitHubApiResponseCache responseCache;
 
   protected AbstractGitHubApiTransport(
       GitRepository repo,
@@ -74,6 +75,17 @@ public abstract class AbstractGitHubApiTransport implements GitHubApiTransport {
       boolean bearerAuth,
       Console console,
       String webUrl) {
+    this(repo, httpTransport, storePath, bearerAuth, console, webUrl, /* responseCache= */ null);
+  }
+
+  protected AbstractGitHubApiTransport(
+      GitRepository repo,
+      HttpTransport httpTransport,
+      String storePath,
+      boolean bearerAuth,
+      Console console,
+      String webUrl,
+      @Nullable GitHubApiResponseCache responseCache) {
     this.repo = Preconditions.checkNotNull(repo);
     this.httpTransport = Preconditions.checkNotNull(httpTransport);
     this.storePath = storePath;
@@ -81,6 +93,7 @@ public abstract class AbstractGitHubApiTransport implements GitHubApiTransport {
     this.bearerAuth = bearerAuth;
     this.webUrl = buildWebUrl(Preconditions.checkNotNull(webUrl));
     this.apiUrl = determineApiUrl(this.webUrl);
+    this.responseCache = responseCache;
   }
 
   protected abstract HttpResponse executeRequest(HttpRequestFactory factory, HttpRequest request)
@@ -94,11 +107,28 @@ public abstract class AbstractGitHubApiTransport implements GitHubApiTransport {
       ImmutableListMultimap<String, String> headers,
       String requestType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentialsIfPresent(), headers);
+    UserPassword credentials = getCredentialsIfPresent();
+    HttpRequestFactory requestFactory = getHttpRequestFactory(credentials, headers);
     GenericUrl url = getFullEndpointUrl(path);
     try {
       console.verboseFmt("Executing %s", requestType);
       HttpRequest httpRequest = requestFactory.buildGetRequest(url);
+      if (responseCache != null) {
+        GitHubApiResponseCache.Response cached =
+            responseCache.execute(
+                httpRequest,
+                credentials == null ? null : credentials.getUsername(),
+                r -> executeRequest(requestFactory, r));
+        if (cached.content() == null) {
+          return null;
+        }
+        Object responseObj =
+            GsonParserUtil.parseBytes(cached.content(), cached.charset(), responseType, false);
+        if (responseObj instanceof PaginatedPayload<?> paginatedPayload) {
+          return (T) paginatedPayload.annotatePayload(apiUrl, cached.linkHeader());
+        }
+        return (T) responseObj;
+      }
       HttpResponse response = executeRequest(requestFactory, httpRequest);
       Object responseObj = GsonParserUtil.parseHttpResponse(response, responseType, false);
       if (responseObj instanceof PaginatedPayload<?> paginatedPayload) {
@@ -19,6 +19,7 @@ package com.google.copybara.git.github.api;
 import com.google.api.client.util.Key;
 import com.google.common.base.MoreObjects;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /** POJO representing the response from GitHubGraphQLApi.GET_COMMIT_HISTORY_QUERY */
 public class CommitHistoryResponse {
@@ -183,6 +184,13 @@ public class CommitHistoryResponse {
 
     @Key private String title;
 
+    // Only requested by GitHubGraphQLApi.getPullRequestsForCommits
+    @Key private String state;
+
+    @Key private String baseRefName;
+
+    @Key private MergeCommit mergeCommit;
+
     public String getReviewDecision() {
       return reviewDecision;
     }
@@ -203,6 +211,21 @@ public class CommitHistoryResponse {
       return title;
     }
 
+    @Nullable
+    public String getState() {
+      return state;
+    }
+
+    @Nullable
+    public String getBaseRefName() {
+      return baseRefName;
+    }
+
+    @Nullable
+    public MergeCommit getMergeCommit() {
+      return mergeCommit;
+    }
+
     @Override
     public String toString() {
       return MoreObjects.toStringHelper(this)
@@ -211,6 +234,9 @@ public class CommitHistoryResponse {
           .add("latestOpinionatedReviews", latestOpinionatedReviews)
           .add("mergedBy", mergedBy)
           .add("title", title)
+          .add("state", state)
+          .add("baseRefName", baseRefName)
+          .add("mergeCommit", mergeCommit)
           .toString();
     }
   }
@@ -290,4 +316,18 @@ public class CommitHistoryResponse {
       return MoreObjects.toStringHelper(this).add("login", login).toString();
     }
   }
+
+  /** Represents the 'mergeCommit' value of a pull request */
+  public static class MergeCommit {
+    @Key private String oid;
+
+    public String getOid() {
+      return oid;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("oid", oid).toString();
+    }
+  }
 }
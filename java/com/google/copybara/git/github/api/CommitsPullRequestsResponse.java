@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Key;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.git.github.api.CommitHistoryResponse.HistoryNode;
+import java.io.IOException;
+import java.util.Map;
+
+/** POJO representing the response from GitHubGraphQLApi.getPullRequestsForCommits */
+public class CommitsPullRequestsResponse {
+  @Key private Data data;
+
+  public Data getData() {
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("data", data).toString();
+  }
+
+  /** Represents 'data' values */
+  public static class Data {
+    @Key private Commits repository;
+
+    public Commits getRepository() {
+      return repository;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("repository", repository).toString();
+    }
+  }
+
+  /**
+   * Represents 'repository' values. Extends GenericJson because each commit is queried with its
+   * own alias.
+   */
+  public static class Commits extends GenericJson {
+
+    /** Returns the commits found. Commits that don't exist in the repository are skipped. */
+    public ImmutableList<HistoryNode> getCommits() throws IOException {
+      GsonFactory factory = GsonFactory.getDefaultInstance();
+      ImmutableList.Builder<HistoryNode> result = ImmutableList.builder();
+      for (Object value : values()) {
+        if (value instanceof Map<?, ?> commit) {
+          result.add(factory.fromString(factory.toString(commit), HistoryNode.class));
+        }
+      }
+      return result.build();
+    }
+  }
+}
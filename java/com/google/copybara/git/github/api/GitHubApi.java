@@ -17,6 +17,8 @@
 package com.google.copybara.git.github.api;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 import static com.google.copybara.git.github.api.GitHubApiException.ResponseCode.CONFLICT;
 import static java.util.stream.Collectors.joining;
@@ -27,6 +29,11 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApiException.ResponseCode;
@@ -37,9 +44,18 @@ import com.google.copybara.util.console.Console;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.FormatMethod;
 import com.google.errorprone.annotations.FormatString;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
@@ -53,7 +69,12 @@ public class GitHubApi {
   @Nullable private final Console console;
 
   public static final int MAX_PER_PAGE = 100;
-  private static final int MAX_PAGES = 10;
+  /** Maximum number of pages of paginated GET requests that are read concurrently. */
+  private static final int MAX_CONCURRENT_PAGES = 4;
+  // Shared by all the paginated requests. Idle threads are stopped.
+  private static final ListeningExecutorService PAGE_EXECUTOR =
+      MoreExecutors.listeningDecorator(newPageExecutor());
+  private static final Pattern PAGE_PARAM = Pattern.compile("([?&]page=)([0-9]{1,9})(&|$)");
 
   public GitHubApi(GitHubApiTransport transport, Profiler profiler) {
     this(transport, profiler, null);
@@ -289,6 +310,13 @@ public class GitHubApi {
         projectId, number, MAX_PER_PAGE);
   }
 
+  /**
+   * Gets all the elements of a paginated GET request.
+   *
+   * <p>The number of pages is discovered from the 'last' link of the first page, and the rest of
+   * the pages are fetched concurrently. Endpoints that don't paginate by page number are read
+   * following the 'next' links.
+   */
   @FormatMethod
   private <T, R extends PaginatedPayload<T>> ImmutableList<T> paginatedGet(String profilerName,
       Type type,
@@ -296,29 +324,150 @@ public class GitHubApi {
       @FormatString String pathTemplate, Object... pathArgs)
       throws RepoException, ValidationException {
     ImmutableList.Builder<T> builder = ImmutableList.builder();
-    int pages = 0;
-    String path = String.format(pathTemplate, pathArgs);
-    while (path != null && pages < MAX_PAGES) {
-      try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, pages))) {
-        R response = transport.get(path, type, headers, "GET " + pathTemplate);
-        PaginatedList<T> page = response.getPayload();
-        builder.addAll(page.getPayload());
-        path = page.getNextUrl();
-        pages++;
-      } catch (GitHubApiException e) {
-        throw treatGitHubException(e, entity);
+    PaginatedList<T> page =
+        this.<T, R>getPage(
+            profilerName, 0, type, entity, headers, pathTemplate,
+            String.format(pathTemplate, pathArgs));
+    builder.addAll(page);
+    int pages = 1;
+    ImmutableList<String> remaining = remainingPages(page);
+    if (!remaining.isEmpty()) {
+      for (PaginatedList<T> p :
+          this.<T, R>getPages(profilerName, pages, type, entity, headers, pathTemplate,
+              remaining)) {
+        builder.addAll(p);
+        page = p;
       }
+      pages += remaining.size();
     }
-    if (pages == MAX_PAGES && console != null && path != null) {
-      console.warnFmt(
-          "Copybara ran a paginated GET request %s to GitHub for %s pages, and that is the maximum"
-              + " number of pages Copybara will read. It is possible that additional pages were not"
-              + " read.",
-          path, MAX_PAGES);
+    // Pages added while reading them or endpoints that don't use page numbers
+    while (page.getNextUrl() != null) {
+      page =
+          this.<T, R>getPage(
+              profilerName, pages++, type, entity, headers, pathTemplate, page.getNextUrl());
+      builder.addAll(page);
     }
     return builder.build();
   }
 
+  /**
+   * Returns the first element of a paginated GET request that matches {@code predicate}. Pages are
+   * read one by one and no more pages are requested once it is found.
+   */
+  @FormatMethod
+  private <T, R extends PaginatedPayload<T>> Optional<T> paginatedFind(String profilerName,
+      Type type,
+      String entity, ImmutableListMultimap<String, String> headers,
+      Predicate<? super T> predicate,
+      @FormatString String pathTemplate, Object... pathArgs)
+      throws RepoException, ValidationException {
+    String path = String.format(pathTemplate, pathArgs);
+    int pages = 0;
+    while (path != null) {
+      PaginatedList<T> page =
+          this.<T, R>getPage(profilerName, pages++, type, entity, headers, pathTemplate, path);
+      for (T element : page) {
+        if (predicate.test(element)) {
+          return Optional.of(element);
+        }
+      }
+      path = page.getNextUrl();
+    }
+    return Optional.empty();
+  }
+
+  private <T, R extends PaginatedPayload<T>> PaginatedList<T> getPage(String profilerName,
+      int pageNumber, Type type, String entity, ImmutableListMultimap<String, String> headers,
+      String pathTemplate, String path)
+      throws RepoException, ValidationException {
+    try (ProfilerTask ignore =
+        profiler.start(String.format("%s_page_%d", profilerName, pageNumber))) {
+      R response = transport.get(path, type, headers, "GET " + pathTemplate);
+      return response.getPayload();
+    } catch (GitHubApiException e) {
+      throw treatGitHubException(e, entity);
+    }
+  }
+
+  /** Fetches {@code paths}, that are pages of the same request, concurrently. */
+  private <T, R extends PaginatedPayload<T>> ImmutableList<PaginatedList<T>> getPages(
+      String profilerName, int firstPage, Type type, String entity,
+      ImmutableListMultimap<String, String> headers, String pathTemplate,
+      ImmutableList<String> paths)
+      throws RepoException, ValidationException {
+    if (paths.size() == 1) {
+      return ImmutableList.of(
+          this.<T, R>getPage(
+              profilerName, firstPage, type, entity, headers, pathTemplate, paths.get(0)));
+    }
+    if (console != null) {
+      console.verboseFmt("Fetching %d more pages of GET %s", paths.size(), pathTemplate);
+    }
+    List<ListenableFuture<PaginatedList<T>>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < paths.size(); i++) {
+        int pageNumber = firstPage + i;
+        String path = paths.get(i);
+        results.add(
+            PAGE_EXECUTOR.submit(
+                () ->
+                    this.<T, R>getPage(
+                        profilerName, pageNumber, type, entity, headers, pathTemplate, path)));
+      }
+      return ImmutableList.copyOf(Futures.allAsList(results).get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while running GET " + pathTemplate, e);
+    } catch (ExecutionException e) {
+      throwIfInstanceOf(e.getCause(), RepoException.class);
+      throwIfInstanceOf(e.getCause(), ValidationException.class);
+      throwIfUnchecked(e.getCause());
+      throw new RepoException("Error running GET " + pathTemplate, e.getCause());
+    } finally {
+      // Stop reading the rest of the pages if one failed
+      for (ListenableFuture<PaginatedList<T>> result : results) {
+        result.cancel(/* mayInterruptIfRunning= */ true);
+      }
+    }
+  }
+
+  private static ThreadPoolExecutor newPageExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            MAX_CONCURRENT_PAGES,
+            MAX_CONCURRENT_PAGES,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("github-api-page-%d").setDaemon(true).build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Returns the paths for the pages after {@code page}, built from its 'next' and 'last' links, or
+   * an empty list if there are no more pages or they are not numbered.
+   */
+  private static ImmutableList<String> remainingPages(PaginatedList<?> page) {
+    String next = page.getNextUrl();
+    String last = page.getLastUrl();
+    if (next == null || last == null) {
+      return ImmutableList.of();
+    }
+    Matcher nextMatcher = PAGE_PARAM.matcher(next);
+    Matcher lastMatcher = PAGE_PARAM.matcher(last);
+    if (!nextMatcher.find() || !lastMatcher.find()) {
+      return ImmutableList.of();
+    }
+    int from = Integer.parseInt(nextMatcher.group(2));
+    int to = Integer.parseInt(lastMatcher.group(2));
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = from; i <= to; i++) {
+      result.add(last.substring(0, lastMatcher.start(2)) + i + last.substring(lastMatcher.end(2)));
+    }
+    return result.build();
+  }
+
   /**
    * Create a pull request
    */
@@ -642,6 +791,27 @@ public class GitHubApi {
     }
   }
 
+  /**
+   * Returns the first app installation of the organization that matches {@code predicate}, without
+   * reading the rest of the installations. Requires the same permissions as {@link
+   * #getInstallations}.
+   */
+  public Optional<Installation> findInstallation(
+      String org, Predicate<? super Installation> predicate)
+      throws RepoException, ValidationException {
+    try (ProfilerTask ignore = profiler.start("github_api_find_installation")) {
+      return paginatedFind(
+          "github_api_find_installation",
+          new TypeToken<Installations>() {}.getType(),
+          "App Installation",
+          ImmutableListMultimap.of("Accept", "application/vnd.github.groot-preview+json"),
+          predicate,
+          "orgs/%s/installations?per_page=%d",
+          org,
+          MAX_PER_PAGE);
+    }
+  }
+
   /**
    * This HTTP request call requires admin:read permissions at the org level for some response
    * values. https://docs.github.com/en/rest/orgs/orgs#get-an-organization
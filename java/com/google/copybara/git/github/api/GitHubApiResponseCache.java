@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.util.CacheManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of GitHub API GET responses that revalidates them with conditional requests.
+ *
+ * <p>Responses are stored together with their ETag and Last-Modified headers. When a cached URL is
+ * requested again, the request carries If-None-Match/If-Modified-Since and a 304 Not Modified
+ * response, that doesn't count against the rate limit, is served from the cache.
+ *
+ * <p>Entries are keyed by the URL, the Accept header and the user name of the credentials, but not
+ * by the token: installation tokens of GitHub Apps rotate every hour, and keying on them would make
+ * every entry miss after a rotation. Serving an entry to other credentials is safe, since GitHub
+ * only answers 304 if the current credentials can read the resource and it didn't change for
+ * them.
+ *
+ * <p>Each request records the use of its entry in the {@link CacheManager}, so that the entry is
+ * not evicted while it is read or written. Entries that are not used for {@link #MAX_UNUSED_AGE}
+ * are deleted. Hits and misses are recorded in the {@link Profiler} as 'github_api_cache' tasks,
+ * with the time of the request, the result and the counts so far.
+ */
+public final class GitHubApiResponseCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final Duration MAX_UNUSED_AGE = Duration.ofDays(7);
+
+  private final Path cacheDir;
+  private final CacheManager cacheManager;
+  private final Profiler profiler;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public GitHubApiResponseCache(Path cacheDir, CacheManager cacheManager, Profiler profiler) {
+    this.cacheDir = Preconditions.checkNotNull(cacheDir);
+    this.cacheManager = Preconditions.checkNotNull(cacheManager);
+    this.profiler = Preconditions.checkNotNull(profiler);
+    deleteUnused(Instant.now().minus(MAX_UNUSED_AGE));
+  }
+
+  /** Executes an HTTP request. */
+  interface RequestExecutor {
+    HttpResponse execute(HttpRequest request) throws IOException;
+  }
+
+  /** The content of a GET response, null if it was empty, and its Link header. */
+  record Response(@Nullable byte[] content, Charset charset, @Nullable String linkHeader) {}
+
+  /**
+   * Executes the GET {@code request}, revalidating the cached response for it if there is one.
+   *
+   * @param user the user name of the credentials of the request, or null if it has none
+   */
+  Response execute(HttpRequest request, @Nullable String user, RequestExecutor executor)
+      throws IOException {
+    long startNanos = System.nanoTime();
+    Path file = cacheDir.resolve(key(request, user));
+    try (CacheManager.Use ignored = cacheManager.recordUse(file)) {
+      return execute(request, executor, file, startNanos);
+    }
+  }
+
+  private Response execute(
+      HttpRequest request, RequestExecutor executor, Path file, long startNanos)
+      throws IOException {
+    Entry cached = read(file);
+    if (cached != null) {
+      if (cached.etag() != null) {
+        request.getHeaders().setIfNoneMatch(cached.etag());
+      }
+      if (cached.lastModified() != null) {
+        request.getHeaders().setIfModifiedSince(cached.lastModified());
+      }
+    }
+    HttpResponse response;
+    try {
+      response = executor.execute(request);
+    } catch (HttpResponseException e) {
+      if (cached == null || e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+        throw e;
+      }
+      hits.incrementAndGet();
+      recordRequest("hit", startNanos);
+      touch(file);
+      return new Response(cached.content(), cached.charset(), cached.linkHeader());
+    }
+    misses.incrementAndGet();
+    recordRequest("miss", startNanos);
+    String linkHeader = AbstractGitHubApiTransport.maybeGetLinkHeader(response);
+    if (response.getContent() == null
+        || response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NO_CONTENT) {
+      return new Response(null, UTF_8, linkHeader);
+    }
+    byte[] content = response.getContent().readAllBytes();
+    Charset charset = response.getContentCharset();
+    HttpHeaders headers = response.getHeaders();
+    if (headers.getETag() != null || headers.getLastModified() != null) {
+      write(
+          file,
+          new Entry(headers.getETag(), headers.getLastModified(), linkHeader, charset, content));
+    }
+    return new Response(content, charset, linkHeader);
+  }
+
+  /** Number of responses served from the cache. */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /** Number of responses that were not cached or had changed. */
+  public int getMisses() {
+    return misses.get();
+  }
+
+  private void recordRequest(String result, long startNanos) {
+    profiler.simpleTask(
+        "github_api_cache",
+        ImmutableMap.of(
+            "result", result,
+            "hits", String.valueOf(hits.get()),
+            "misses", String.valueOf(misses.get())),
+        startNanos,
+        System.nanoTime());
+  }
+
+  private static String key(HttpRequest request, @Nullable String user) {
+    return Hashing.sha256()
+        .newHasher()
+        .putString(request.getUrl().build(), UTF_8)
+        .putString("\naccept: " + Strings.nullToEmpty(request.getHeaders().getAccept()), UTF_8)
+        .putString("\nuser: " + Strings.nullToEmpty(user), UTF_8)
+        .hash()
+        .toString();
+  }
+
+  /** Marks the entry as used, for {@link #deleteUnused} and the eviction of the cache. */
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+    } catch (NoSuchFileException e) {
+      // Deleted concurrently
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot update GitHub API cache entry %s", file);
+    }
+  }
+
+  /** Deletes the entries, and temporary files left behind, that were last used before {@code t}. */
+  private void deleteUnused(Instant t) {
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    int deleted = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir)) {
+      for (Path file : files) {
+        try {
+          if (Files.getLastModifiedTime(file).toInstant().isBefore(t)) {
+            Files.deleteIfExists(file);
+            deleted++;
+          }
+        } catch (NoSuchFileException e) {
+          // Deleted concurrently
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete unused GitHub API cache entries");
+    }
+    logger.atInfo().log("Deleted %d unused GitHub API cache entries", deleted);
+  }
+
+  /**
+   * A cached response. Stored as four header lines (ETag, Last-Modified, Link and charset, empty if
+   * not present) followed by the content.
+   */
+  private record Entry(
+      @Nullable String etag,
+      @Nullable String lastModified,
+      @Nullable String linkHeader,
+      Charset charset,
+      byte[] content) {}
+
+  @Nullable
+  private static Entry read(Path file) {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read GitHub API cache entry %s", file);
+      return null;
+    }
+    String[] headers = new String[4];
+    int start = 0;
+    for (int i = 0; i < headers.length; i++) {
+      int end = indexOf(bytes, (byte) '\n', start);
+      if (end < 0) {
+        logger.atWarning().log("Ignoring corrupt GitHub API cache entry %s", file);
+        return null;
+      }
+      headers[i] = Strings.emptyToNull(new String(bytes, start, end - start, UTF_8));
+      start = end + 1;
+    }
+    try {
+      return new Entry(
+          headers[0],
+          headers[1],
+          headers[2],
+          headers[3] == null ? UTF_8 : Charset.forName(headers[3]),
+          Arrays.copyOfRange(bytes, start, bytes.length));
+    } catch (IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log("Ignoring corrupt GitHub API cache entry %s", file);
+      return null;
+    }
+  }
+
+  private static void write(Path file, Entry entry) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (String header :
+        new String[] {entry.etag(), entry.lastModified(), entry.linkHeader(),
+            entry.charset().name()}) {
+      out.writeBytes((Strings.nullToEmpty(header) + "\n").getBytes(UTF_8));
+    }
+    out.writeBytes(entry.content());
+    try {
+      Files.createDirectories(file.getParent());
+      // Written to a temporary file first so that concurrent readers never see a partial entry
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      Files.write(tmp, out.toByteArray());
+      Files.move(
+          tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot write GitHub API cache entry %s", file);
+    }
+  }
+
+  private static int indexOf(byte[] bytes, byte b, int from) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -28,6 +28,7 @@ import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import javax.annotation.Nullable;
 
 /**
  * An implementation of {@link GitHubApiTransport} that uses Google http client and gson for doing
@@ -45,6 +46,17 @@ public class GitHubApiTransportImpl extends AbstractGitHubApiTransport {
     super(repo, httpTransport, storePath, bearerAuth, console, webUrl);
   }
 
+  public GitHubApiTransportImpl(
+      GitRepository repo,
+      HttpTransport httpTransport,
+      String storePath,
+      boolean bearerAuth,
+      Console console,
+      String webUrl,
+      @Nullable GitHubApiResponseCache responseCache) {
+    super(repo, httpTransport, storePath, bearerAuth, console, webUrl, responseCache);
+  }
+
   @Override
   protected HttpResponse executeRequest(HttpRequestFactory factory, HttpRequest request)
       throws IOException {
@@ -23,11 +23,19 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.github.api.CommitHistoryResponse.AssociatedPullRequests;
+import com.google.copybara.git.github.api.CommitHistoryResponse.HistoryNode;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +47,9 @@ public class GitHubGraphQLApi {
 
   private static final int CHECK_RUNS_MAX_PAGE_SIZE = 10;
 
+  /** Maximum number of commits looked up in the same getPullRequestsForCommits query. */
+  private static final int COMMITS_PER_QUERY = 50;
+
   /** GraphQL request body */
   public static class GraphQLRequest {
     @Key("query")
@@ -191,6 +202,109 @@ public class GitHubGraphQLApi {
     }
   }
 
+  /**
+   * Returns the pull requests associated with each of {@code shas}, keyed by sha. Several commits
+   * are looked up in the same query, using an alias for each one. Commits that don't exist in the
+   * repository are not included.
+   *
+   * <p>Only the pullRequests and reviews fields of {@code params} are used.
+   */
+  public ImmutableMap<String, AssociatedPullRequests> getPullRequestsForCommits(
+      String org, String repo, Collection<String> shas, GetCommitHistoryParams params)
+      throws RepoException, ValidationException {
+    ValidationException.checkCondition(
+        !Strings.isNullOrEmpty(org) && !Strings.isNullOrEmpty(repo),
+        "Attempted to query for GitHub commits, but received a empty/null value: org=%s,"
+            + " repo=%s",
+        org,
+        repo);
+    Map<String, AssociatedPullRequests> result = new LinkedHashMap<>();
+    for (List<String> batch : Iterables.partition(ImmutableSet.copyOf(shas), COMMITS_PER_QUERY)) {
+      StringBuilder declarations = new StringBuilder();
+      StringBuilder commits = new StringBuilder();
+      ImmutableMap.Builder<String, Object> variables =
+          ImmutableMap.<String, Object>builder()
+              .put("repoOwner", org)
+              .put("repoName", repo)
+              .put("numberOfPRs", params.getPullRequests())
+              .put("numberOfReviews", params.getReviews());
+      for (int i = 0; i < batch.size(); i++) {
+        declarations.append(String.format(", $c%d: GitObjectID!", i));
+        commits.append(
+            String.format("    c%d: object(oid: $c%d) { ...commitPullRequests }\n", i, i));
+        variables.put("c" + i, batch.get(i));
+      }
+      String query =
+          String.format(
+              """
+              query ($repoName: String!, $repoOwner: String!, $numberOfPRs: Int,
+                  $numberOfReviews: Int%s) {
+                repository(name: $repoName, owner: $repoOwner) {
+              %s  }
+              }
+
+              fragment commitPullRequests on Commit {
+                oid
+                associatedPullRequests(first: $numberOfPRs) {
+                  edges {
+                    node {
+                      title
+                      state
+                      baseRefName
+                      mergeCommit {
+                        oid
+                      }
+                      mergedBy {
+                        login
+                      }
+                      author {
+                        login
+                      }
+                      reviewDecision
+                      latestOpinionatedReviews(first: $numberOfReviews) {
+                        edges {
+                          node {
+                            author {
+                              login
+                            }
+                            state
+                          }
+                        }
+                      }
+                    }
+                  }
+                }
+              }
+              """,
+              declarations, commits);
+      try (ProfilerTask ignore = profiler.start("github_api_get_pull_requests_for_commits")) {
+        CommitsPullRequestsResponse response =
+            transport.post(
+                "/graphql",
+                new GraphQLRequest(query, variables.buildOrThrow()),
+                CommitsPullRequestsResponse.class,
+                "POST GraphQL");
+        if (response == null
+            || response.getData() == null
+            || response.getData().getRepository() == null) {
+          logger.atInfo().log(
+              "Response was unexpectedly null for getPullRequestsForCommits(org: %s, repo: %s,"
+                  + " shas: %s)",
+              org, repo, batch);
+          continue;
+        }
+        for (HistoryNode commit : response.getData().getRepository().getCommits()) {
+          if (commit.getOid() != null && commit.getAssociatedPullRequests() != null) {
+            result.put(commit.getOid(), commit.getAssociatedPullRequests());
+          }
+        }
+      } catch (IOException e) {
+        throw new RepoException("Cannot parse the GraphQL response for commits " + batch, e);
+      }
+    }
+    return ImmutableMap.copyOf(result);
+  }
+
   public ImmutableList<CheckRun> getCheckRunsByNameFilter(
       String owner, String repo, String sha, Set<String> checkNames)
       throws RepoException, ValidationException {
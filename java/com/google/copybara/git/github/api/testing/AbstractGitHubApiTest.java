@@ -283,6 +283,45 @@ public abstract class AbstractGitHubApiTest {
     }
   }
 
+  @Test
+  public void testGetPullReviews_manyPagesInParallel() throws Exception {
+    int lastPage = 15;
+    trainMockGetWithHeaders("/repos/octocat/Hello-World/pulls/12/reviews?per_page=100",
+        getResource("pulls_12345_reviews_testdata.json"),
+        ImmutableMap.of("Link", String.format(""
+            + "<https://api.github.com/repositories/123/pulls?per_page=100&page=2>; rel=\"next\", "
+            + "<https://api.github.com/repositories/123/pulls?per_page=100&page=%d>; rel=\"last\"",
+            lastPage)), 200);
+    for (int page = 2; page <= lastPage; page++) {
+      trainMockGetWithHeaders(
+          String.format("/repositories/123/pulls?per_page=100&page=%d", page),
+          getResource("pulls_12345_reviews_testdata.json"),
+          ImmutableMap.of(), 200);
+    }
+
+    List<Review> reviews = api.getReviews("octocat/Hello-World", 12);
+
+    assertThat(reviews).hasSize(lastPage);
+  }
+
+  @Test
+  public void testFindInstallation_stopsReadingPages() throws Exception {
+    // The second page is not trained, so reading it would fail
+    trainMockGetWithHeaders(
+        "/orgs/octo-org/installations?per_page=100",
+        getResource("get_installations_testdata.json"),
+        ImmutableMap.of("Link", ""
+            + "<https://api.github.com/orgs/octo-org/installations?per_page=100&page=2>;"
+            + " rel=\"next\", "
+            + "<https://api.github.com/orgs/octo-org/installations?per_page=100&page=2>;"
+            + " rel=\"last\""), 200);
+
+    assertThat(
+            api.findInstallation("octo-org", i -> i.getAppSlug().equals("github-actions"))
+                .map(Installation::getTargetType))
+        .hasValue("Organization");
+  }
+
   @Test
   public void testGetRepository() throws Exception {
     trainMockGet("/repos/copybara-test/copybara", getResource("get_repository_testdata.json"));
@@ -19,9 +19,11 @@ package com.google.copybara.git.github.api.testing;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.testing.git.GitTestUtil.createValidator;
 import static com.google.copybara.testing.git.GitTestUtil.getResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.copybara.git.github.api.CheckRun;
@@ -29,6 +31,7 @@ import com.google.copybara.git.github.api.CheckRun.Conclusion;
 import com.google.copybara.git.github.api.CheckRun.Status;
 import com.google.copybara.git.github.api.CommitHistoryResponse;
 import com.google.copybara.git.github.api.CommitHistoryResponse.AssociatedPullRequestNode;
+import com.google.copybara.git.github.api.CommitHistoryResponse.AssociatedPullRequests;
 import com.google.copybara.git.github.api.CommitHistoryResponse.HistoryNode;
 import com.google.copybara.git.github.api.GitHubApiTransport;
 import com.google.copybara.git.github.api.GitHubApp;
@@ -113,6 +116,62 @@ public abstract class AbstractGitHubGraphQLApiTest {
         .isTrue();
   }
 
+  @Test
+  public void testGetPullRequestsForCommits() throws Exception {
+    JsonValidator<GraphQLRequest> validator =
+        createValidator(
+            GraphQLRequest.class,
+            (r) -> {
+              assertThat(r.getVariables()).containsEntry("c0", "aaaa");
+              assertThat(r.getVariables()).containsEntry("c1", "bbbb");
+              assertThat(r.getQuery()).contains("c1: object(oid: $c1)");
+              return true;
+            });
+    trainMockPost(
+        validator,
+        """
+        {
+          "data": {
+            "repository": {
+              "c0": {
+                "oid": "aaaa",
+                "associatedPullRequests": {
+                  "edges": [
+                    {
+                      "node": {
+                        "title": "a title",
+                        "state": "MERGED",
+                        "baseRefName": "main",
+                        "author": {
+                          "login": "copybara_author"
+                        }
+                      }
+                    }
+                  ]
+                }
+              },
+              "c1": null
+            }
+          }
+        }
+        """
+            .getBytes(UTF_8));
+
+    ImmutableMap<String, AssociatedPullRequests> response =
+        api.getPullRequestsForCommits(
+            "org_name",
+            "repo_name",
+            ImmutableList.of("aaaa", "bbbb"),
+            new GitHubGraphQLApi.GetCommitHistoryParams(5, 5, 5));
+
+    assertThat(response.keySet()).containsExactly("aaaa");
+    AssociatedPullRequestNode pullRequest =
+        Iterables.getOnlyElement(response.get("aaaa").getEdges()).getNode();
+    assertThat(pullRequest.getState()).isEqualTo("MERGED");
+    assertThat(pullRequest.getBaseRefName()).isEqualTo("main");
+    assertThat(pullRequest.getAuthor().getLogin()).isEqualTo("copybara_author");
+  }
+
   @Test
   public void testGetCheckRuns() throws Exception {
     JsonValidator<GraphQLRequest> initialValidator =
@@ -23,19 +23,24 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.util.CacheManager;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Common arguments for Hg components
  */
 @Parameters(separators = "=")
-public class HgOptions implements Option {
+public class HgOptions implements Option, Closeable {
 
   private static final String HGDIR_PATH = ".hg";
 
   private final GeneralOptions generalOptions;
+  private final Queue<CacheManager.Use> cacheUses = new ConcurrentLinkedQueue<>();
 
   /**
    * Depth of hg changes to visit at a time. For example, if depth is set to 2, visit the start
@@ -64,6 +69,11 @@ public class HgOptions implements Option {
   private HgRepository createBareRepo(String url, Path path)
       throws RepoException {
     Path repoPath = resolveDirInCache(url, path);
+    try {
+      cacheUses.add(generalOptions.getDirFactory().getCacheManager().recordUse(repoPath));
+    } catch (IOException e) {
+      throw new RepoException("Cannot use the cached repo for " + url, e);
+    }
     Path hgDir = repoPath.resolve(HGDIR_PATH);
 
     HgRepository repo =
@@ -76,6 +86,15 @@ public class HgOptions implements Option {
     return repo;
   }
 
+  /** Allows the eviction of the cached repositories used. Called when the command finishes. */
+  @Override
+  public void close() throws IOException {
+    CacheManager.Use use;
+    while ((use = cacheUses.poll()) != null) {
+      use.close();
+    }
+  }
+
   private Path getRepoStorage() throws IOException {
     return generalOptions.getDirFactory().getCacheDir("hg_repos");
   }
@@ -172,13 +172,22 @@ public final class Profiler {
    * Record a simple task metric. The user is in charge of providing its own time.
    */
   public void simpleTask(String description, long startNanos, long endNanos) {
+    simpleTask(description, ImmutableMap.of(), startNanos, endNanos);
+  }
+
+  /**
+   * Overloaded method for {@link #simpleTask(String, long, long)}, that allows adding {@code
+   * fields} to the context of this task. Useful for recording counters computed by the task.
+   */
+  public void simpleTask(
+      String description, ImmutableMap<String, String> fields, long startNanos, long endNanos) {
     if (stopped || listeners.isEmpty()) {
       return;
     }
     Deque<Task> tasks = taskQueue.get();
     Preconditions.checkState(!tasks.isEmpty());
     Task parent = tasks.element();
-    Task child  = new Task(parent.getDescription() + "/" + description, startNanos);
+    Task child  = new Task(parent.getDescription() + "/" + description, fields, startNanos);
     Task finishedChild = child.finish(endNanos);
     for (Listener listener : listeners) {
       listener.taskStarted(child);
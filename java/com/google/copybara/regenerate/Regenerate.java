@@ -229,7 +229,8 @@ public class Regenerate<O extends Revision, D extends Revision> {
                 workflow.getMainConfigFile().getIdentifier(),
                 workflow.getName(),
                 excludeBuildFiles,
-                excludedFilesBuilder.build());
+                excludedFilesBuilder.build(),
+                workflow.getGeneralOptions().getDiffEngine());
       } catch (InsideGitDirException e) {
         throw new ValidationException("Error generating consistency file", e);
       }
@@ -251,7 +252,8 @@ public class Regenerate<O extends Revision, D extends Revision> {
             nextPath,
             autopatchConfig.stripFilenames(),
             autopatchConfig.stripLineNumbers(),
-            autopatchConfig.glob());
+            autopatchConfig.glob(),
+            workflow.getGeneralOptions().getDiffEngine());
       } catch (InsideGitDirException e) {
         throw new ValidationException(
             String.format(
@@ -99,6 +99,20 @@ public final class RegexTemplateTokens {
         || (this.tokens.size() == 1 && this.tokens.get(0).getType() == TokenType.LITERAL);
   }
 
+  /**
+   * Returns the longest literal that any match of {@link #getBefore()} contains, or an empty
+   * string if the template doesn't have literals. Content that doesn't contain it cannot match.
+   */
+  public String longestLiteral() {
+    String result = "";
+    for (Token token : tokens) {
+      if (token.getType() == TokenType.LITERAL && token.getValue().length() > result.length()) {
+        result = token.getValue();
+      }
+    }
+    return result;
+  }
+
   public ImmutableListMultimap<String, Integer> getGroupIndexes() {
     return ImmutableListMultimap.copyOf(groupIndexes);
   }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.Glob;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+
+/**
+ * Common interface implemented by transformations that only rewrite the content of the files
+ * matched by a glob, one file at a time, without looking at any other file.
+ *
+ * <p>Used by {@link ReplaceBatch} to apply many of them in a single read and write of each file.
+ */
+public interface FileContentTransformation extends Transformation {
+
+  /** Files that this transformation applies to. */
+  Glob getPaths();
+
+  @Override
+  default boolean isPathLocal() {
+    return true;
+  }
+
+  /** Actions to run before processing the files. For example logging or warnings. */
+  default void beforeRun(TransformWork work) {}
+
+  /**
+   * Creates a function that transforms the content of one file. The function doesn't need to be
+   * thread-safe, a new one is created for each batch of files processed in parallel.
+   */
+  ContentFunction newContentFunction();
+
+  /**
+   * A literal that any file changed by this transformation contains, used for skipping the files
+   * that cannot match without decoding them. Null if the transformation doesn't have one.
+   */
+  @Nullable
+  default LiteralPrefilter prefilter() {
+    return null;
+  }
+
+  /** Transforms the content of a file. */
+  interface ContentFunction {
+
+    /** Returns the new content of {@code file}. */
+    String apply(Path file, String content) throws ValidationException;
+  }
+}
@@ -28,6 +28,7 @@ import com.google.copybara.TransformationStatus;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.NonReversibleValidationException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.transform.FileContentTransformation.ContentFunction;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.re2j.Matcher;
@@ -45,7 +46,8 @@ import net.starlark.java.syntax.Location;
 // neither of them extend each other
 @StarlarkBuiltin(name = "filter_replace",
     doc = "A core.filter_replace transformation")
-public class FilterReplace implements Transformation, ReversibleFunction<String, String>{
+public class FilterReplace
+    implements FileContentTransformation, ReversibleFunction<String, String> {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -78,7 +80,7 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
 
     Iterable<FileState> files = work.getTreeState().find(glob.relativeTo(checkoutDir));
     BatchReplace batchReplace = new BatchReplace();
-    workflowOptions.parallelizer().run(files, batchReplace);
+    workflowOptions.parallelizer().run(files, FileState::getSize, batchReplace);
     List<FileState> changed = batchReplace.getChanged();
     boolean matchedFile = batchReplace.matchedFile;
     logger.atInfo().log("Applied %s to %d files. %d changed.",
@@ -93,6 +95,26 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
     return TransformationStatus.success();
   }
 
+  @Override
+  public Glob getPaths() {
+    return glob;
+  }
+
+  @Override
+  public ContentFunction newContentFunction() {
+    return (file, content) -> replaceString(content);
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return transformation instanceof FileContentTransformation;
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return ReplaceBatch.join(workflowOptions, this, (FileContentTransformation) next);
+  }
+
   @Override
   public Transformation reverse() throws NonReversibleValidationException {
     return internalReverse();
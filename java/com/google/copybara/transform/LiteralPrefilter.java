@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * A literal that every match of a transformation contains. Used for discarding the files that
+ * cannot match by looking at the raw bytes, before decoding them to a String.
+ *
+ * <p>Because the content is UTF-8 (Or treated as such), a file contains the literal if and only if
+ * its bytes contain the UTF-8 encoding of the literal.
+ */
+public final class LiteralPrefilter {
+
+  /** Files of this size or bigger are scanned in chunks of this size instead of read at once. */
+  @VisibleForTesting
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  /** Same limit as {@link Replace#readContent(Path)}. Bigger files are not prefiltered. */
+  private static final long MAX_SIZE = Integer.MAX_VALUE >> 1;
+
+  private final String literal;
+  private final byte[] needle;
+  // Boyer-Moore-Horspool bad character shift table
+  private final int[] shift = new int[256];
+
+  private LiteralPrefilter(String literal) {
+    this.literal = literal;
+    this.needle = literal.getBytes(UTF_8);
+    Arrays.fill(shift, needle.length);
+    for (int i = 0; i < needle.length - 1; i++) {
+      shift[needle[i] & 0xff] = needle.length - 1 - i;
+    }
+  }
+
+  /**
+   * Creates a prefilter for {@code literal} or returns null if the literal cannot be used for
+   * filtering, for example if it is empty.
+   */
+  @Nullable
+  public static LiteralPrefilter forLiteral(String literal) {
+    // Malformed input is decoded as U+FFFD, so we cannot look for it in the raw bytes.
+    if (literal.isEmpty() || literal.indexOf('\uFFFD') != -1) {
+      return null;
+    }
+    return new LiteralPrefilter(literal);
+  }
+
+  /** Returns false if {@code content} cannot match the transformation. */
+  public boolean mayMatch(String content) {
+    return content.contains(literal);
+  }
+
+  /**
+   * Returns false if the UTF-8 {@code content}, from its position to its limit, cannot match the
+   * transformation. The position of the buffer is not modified.
+   */
+  public boolean mayMatch(ByteBuffer content) {
+    int last = needle.length - 1;
+    int end = content.limit() - last;
+    int i = content.position();
+    while (i < end) {
+      int j = last;
+      while (content.get(i + j) == needle[j]) {
+        if (j == 0) {
+          return true;
+        }
+        j--;
+      }
+      i += shift[content.get(i + last) & 0xff];
+    }
+    return false;
+  }
+
+  /**
+   * Returns false if the UTF-8 content of {@code file} cannot match the transformation. The file
+   * is read in chunks of {@link #CHUNK_SIZE} bytes, so that the common case of a big file that
+   * doesn't match doesn't load all its content.
+   *
+   * <p>Returns true for files that are too big to be transformed, so that they are read and
+   * rejected like without prefilter.
+   */
+  public boolean mayMatch(Path file) throws IOException {
+    if (Files.size(file) > MAX_SIZE) {
+      return true;
+    }
+    // Keep the last bytes of each chunk, in case the literal crosses the chunk boundary
+    int overlap = needle.length - 1;
+    ByteBuffer buffer = ByteBuffer.allocate(Math.max(CHUNK_SIZE, needle.length * 2));
+    try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        if (mayMatch(buffer)) {
+          return true;
+        }
+        buffer.position(Math.max(0, buffer.limit() - overlap));
+        buffer.compact();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads {@code file} for being scanned with {@link #mayMatch(ByteBuffer)}. Returns null if the
+   * file has {@link #CHUNK_SIZE} bytes or more. Those files should be scanned with {@link
+   * #mayMatch(Path)} instead, before reading them.
+   */
+  @Nullable
+  public static ByteBuffer read(Path file) throws IOException {
+    if (Files.size(file) >= CHUNK_SIZE) {
+      return null;
+    }
+    return ByteBuffer.wrap(Files.readAllBytes(file));
+  }
+
+  /** Decodes the content read by {@link #read(Path)}. */
+  public static String decode(ByteBuffer content) {
+    checkArgument(content.position() == 0, "Unexpected position %s", content.position());
+    return new String(content.array(), content.arrayOffset(), content.limit(), UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    return literal;
+  }
+}
@@ -33,11 +33,13 @@ import com.google.copybara.exception.NonReversibleValidationException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.templatetoken.RegexTemplateTokens;
 import com.google.copybara.templatetoken.RegexTemplateTokens.Replacer;
+import com.google.copybara.transform.FileContentTransformation.ContentFunction;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.re2j.Pattern;
 import com.google.re2j.PatternSyntaxException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -46,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import net.starlark.java.eval.EvalException;
 import net.starlark.java.eval.Starlark;
 import net.starlark.java.syntax.Location;
@@ -70,7 +73,7 @@ import net.starlark.java.syntax.Location;
  *
  * TODO(copybara-team): Consider making this configurable to replace multiple matches.
  */
-public final class Replace implements Transformation {
+public final class Replace implements FileContentTransformation {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -120,19 +123,13 @@ public final class Replace implements Transformation {
   @Override
   public TransformationStatus transform(TransformWork work)
       throws IOException, ValidationException {
-
-    work.getConsole().verboseFmt("Running Replace %s", this);
-    if (before.getBefore().matches("") && !firstOnly) {
-      work.getConsole().warnFmt("Replace %s matches the empty String, this is likely to cause"
-          + " unintended behavior, unless it is a no-op.", this);
-    }
+    beforeRun(work);
     Path checkoutDir = work.getCheckoutDir();
 
     Iterable<FileState> files = work.getTreeState().find(
         paths.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace(this::createReplacer,
-        before.getBefore().toString());
-    workflowOptions.parallelizer().run(files, batchReplace);
+    BatchReplace batchReplace = new BatchReplace(this::newContentFunction, prefilter());
+    workflowOptions.parallelizer().run(files, FileState::getSize, batchReplace);
     List<FileState> changed = batchReplace.getChanged();
     boolean matchedFile = batchReplace.isMatchedFile();
     logger.atInfo().log( "Applied %s to %d files. %d changed.",
@@ -147,6 +144,54 @@ public final class Replace implements Transformation {
     return TransformationStatus.success();
   }
 
+  @Override
+  public void beforeRun(TransformWork work) {
+    work.getConsole().verboseFmt("Running Replace %s", this);
+    if (before.getBefore().matches("") && !firstOnly) {
+      work.getConsole().warnFmt("Replace %s matches the empty String, this is likely to cause"
+          + " unintended behavior, unless it is a no-op.", this);
+    }
+  }
+
+  @Override
+  public ContentFunction newContentFunction() {
+    Replacer replacer = createReplacer();
+    boolean emptyBefore = before.getBefore().toString().equals("");
+    return (file, content) -> {
+      if (!firstOnly && emptyBefore && content.length() > 10_000) {
+        throw new ValidationException(
+            "Error trying to replace empty string with text on a big file, this usually"
+                + " happens if you use the transform"
+                + " core.replace(before = '', after = 'some text') or, more commonly, when"
+                + " a you have a transform like core.replace(before = 'some text', after = '')"
+                + " and is reversed in another workflow. The effect of this transform is not"
+                + " what you want, as it will replace every single character with 'some text'."
+                + " In the case of the reverse, the fix is to either wrap the core.replace in:"
+                + " core.transform([core.replace(...)], reversal =[]) so that it doesn't do"
+                + " anything on the reversal or, even better, to use a reversible scrubber like"
+                + " core.replace(before = 'confidential text', after = 'some text that is safe"
+                + " to be public'): " + location);
+      }
+      return replacer.replace(content);
+    };
+  }
+
+  @Nullable
+  @Override
+  public LiteralPrefilter prefilter() {
+    return LiteralPrefilter.forLiteral(before.longestLiteral());
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return transformation instanceof FileContentTransformation;
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return ReplaceBatch.join(workflowOptions, this, (FileContentTransformation) next);
+  }
+
   @Override
   public String describe() {
     // before should be almost always unique so it is good enough for identifying the
@@ -218,19 +263,53 @@ public final class Replace implements Transformation {
     return parsedGroups;
   }
 
+  /**
+   * Reads the content of a file to be transformed by core.replace like transformations, failing
+   * for files that are too big to be loaded as a String.
+   */
+  static String readContent(Path file) throws IOException, ValidationException {
+    byte[] bytes = Files.readAllBytes(file);
+    // This duplicates the check in StringUTF16#newBytesFor
+    if (bytes.length < 0 || bytes.length > Integer.MAX_VALUE >> 1) {
+      throw new ValidationException(
+          String.format(
+              "Cannot read file '%s' because it is too big for core.replace(). You can exclude"
+                  + " running for this file by adding core.replace(..., paths = glob(['**'],"
+                  + " exclude = ['big/file/path'])). another option, if the file is not"
+                  + " needed, is to exclude it in origin_files.",
+              file));
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Reads the content of a file to be transformed only if {@code prefilter} says that it may
+   * match. Otherwise returns null without decoding the file.
+   */
+  @Nullable
+  static String readContentIfMayMatch(Path file, LiteralPrefilter prefilter)
+      throws IOException, ValidationException {
+    ByteBuffer bytes = LiteralPrefilter.read(file);
+    if (bytes == null) {
+      // Big file. Only read it if it may match.
+      return prefilter.mayMatch(file) ? readContent(file) : null;
+    }
+    return prefilter.mayMatch(bytes) ? LiteralPrefilter.decode(bytes) : null;
+  }
+
   private final static class BatchReplace
       implements LocalParallelizer.TransformFunc<FileState, Boolean> {
 
-
-    private final Supplier<Replacer> replacerSupplier;
+    private final Supplier<ContentFunction> contentFunctionSupplier;
+    @Nullable private final LiteralPrefilter prefilter;
 
     private final List<FileState> changed = new ArrayList<>();
     private boolean matchedFile = false;
-    private final boolean emptyBefore;
 
-    BatchReplace(Supplier<Replacer> replacerSupplier, String before) {
-      this.replacerSupplier = checkNotNull(replacerSupplier);
-      emptyBefore = before.equals("");
+    BatchReplace(Supplier<ContentFunction> contentFunctionSupplier,
+        @Nullable LiteralPrefilter prefilter) {
+      this.contentFunctionSupplier = checkNotNull(contentFunctionSupplier);
+      this.prefilter = prefilter;
     }
 
     public List<FileState> getChanged() {
@@ -243,7 +322,7 @@ public final class Replace implements Transformation {
 
     @Override
     public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
-      Replacer replacer = replacerSupplier.get();
+      ContentFunction contentFunction = contentFunctionSupplier.get();
       List<FileState> changed = new ArrayList<>();
       boolean matchedFile = false;
       for (FileState file : elements) {
@@ -251,38 +330,15 @@ public final class Replace implements Transformation {
           continue;
         }
         matchedFile = true;
-        byte[] bytes = Files.readAllBytes(file.getPath());
-        // This duplicates the check in StringUTF16#newBytesFor
-        if (bytes.length < 0 || bytes.length > Integer.MAX_VALUE >> 1) {
-          throw new ValidationException(
-              String.format(
-                  "Cannot read file '%s' because it is too big for core.replace(). You can exclude"
-                      + " running for this file by adding core.replace(..., paths = glob(['**'],"
-                      + " exclude = ['big/file/path'])). another option, if the file is not"
-                      + " needed, is to exclude it in origin_files.",
-                  file.getPath()));
-        }
-        String originalFileContent = new String(bytes, UTF_8);
-
-        if (!replacer.isFirstOnly() && emptyBefore && originalFileContent.length() > 10_000) {
-          throw new ValidationException(
-              "Error trying to replace empty string with text on a big file, this usually"
-                  + " happens if you use the transform"
-                  + " core.replace(before = '', after = 'some text') or, more commonly, when"
-                  + " a you have a transform like core.replace(before = 'some text', after = '')"
-                  + " and is reversed in another workflow. The effect of this transform is not"
-                  + " what you want, as it will replace every single character with 'some text'."
-                  + " In the case of the reverse, the fix is to either wrap the core.replace in:"
-                  + " core.transform([core.replace(...)], reversal =[]) so that it doesn't do"
-                  + " anything on the reversal or, even better, to use a reversible scrubber like"
-                  + " core.replace(before = 'confidential text', after = 'some text that is safe"
-                  + " to be public'): " + replacer.getLocation());
+        String originalFileContent = prefilter == null
+            ? readContent(file.getPath())
+            : readContentIfMayMatch(file.getPath(), prefilter);
+        if (originalFileContent == null) {
+          continue;
         }
-        String transformed = replacer.replace(originalFileContent);
+        String transformed = contentFunction.apply(file.getPath(), originalFileContent);
         if (!originalFileContent.equals(transformed)) {
-          synchronized (this) {
-            changed.add(file);
-          }
+          changed.add(file);
           Files.write(file.getPath(), transformed.getBytes(UTF_8));
         }
       }
@@ -300,6 +356,7 @@ public final class Replace implements Transformation {
     return before.replacer(after, firstOnly, multiline, patternsToIgnore);
   }
 
+  @Override
   public Glob getPaths() {
     return paths;
   }
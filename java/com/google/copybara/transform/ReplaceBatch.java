@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.LocalParallelizer.TransformFunc;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.TransformationStatus;
+import com.google.copybara.WorkflowOptions;
+import com.google.copybara.exception.NonReversibleValidationException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.transform.FileContentTransformation.ContentFunction;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import net.starlark.java.syntax.Location;
+
+/**
+ * A transformation that runs a sequence of {@link FileContentTransformation}s (For example
+ * core.replace and core.filter_replace) reading, decoding and writing each file only once.
+ *
+ * <p>The transformations are still applied in order to the in-memory content of each file, so
+ * that the result is the same as running them one after the other: a transformation can match
+ * text produced by a previous one.
+ */
+public class ReplaceBatch implements Transformation {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final WorkflowOptions workflowOptions;
+  private final ImmutableList<FileContentTransformation> transformations;
+
+  private ReplaceBatch(WorkflowOptions workflowOptions,
+      ImmutableList<FileContentTransformation> transformations) {
+    this.workflowOptions = Preconditions.checkNotNull(workflowOptions);
+    this.transformations = Preconditions.checkNotNull(transformations);
+  }
+
+  @Override
+  public TransformationStatus transform(TransformWork work)
+      throws IOException, ValidationException {
+    for (TransformationStatus status : transformAll(work)) {
+      if (status.isNoop()) {
+        return status;
+      }
+    }
+    return TransformationStatus.success();
+  }
+
+  /**
+   * Runs all the transformations and returns the status that each one of them would have
+   * returned if run on its own, in the same order.
+   */
+  ImmutableList<TransformationStatus> transformAll(TransformWork work)
+      throws IOException, ValidationException {
+    Path checkoutDir = work.getCheckoutDir();
+    List<PathMatcher> matchers = new ArrayList<>(transformations.size());
+    for (FileContentTransformation transformation : transformations) {
+      transformation.beforeRun(work);
+      matchers.add(transformation.getPaths().relativeTo(checkoutDir));
+    }
+    Iterable<FileState> files = work.getTreeState().find(
+        path -> matchers.stream().anyMatch(m -> m.matches(path)));
+
+    BatchRun batchRun = new BatchRun(matchers);
+    workflowOptions.parallelizer().run(files, FileState::getSize, batchRun);
+    logger.atInfo().log("Applied %s to %d files. %d changed.",
+        describe(), Iterables.size(files), batchRun.changed.size());
+    work.getTreeState().notifyModify(batchRun.changed);
+
+    ImmutableList.Builder<TransformationStatus> result = ImmutableList.builder();
+    for (int i = 0; i < transformations.size(); i++) {
+      result.add(batchRun.changedAny[i]
+          ? TransformationStatus.success()
+          : TransformationStatus.noop(
+              "Transformation '" + transformations.get(i) + "' was a no-op because it didn't "
+                  + (batchRun.matchedAny[i]
+                      ? "change any of the matching files"
+                      : "match any file")));
+    }
+    return result.build();
+  }
+
+  @Override
+  public Transformation reverse() throws NonReversibleValidationException {
+    throw new IllegalStateException("Reverse should never be called for join transformations");
+  }
+
+  @Override
+  public String describe() {
+    return "replace batch of " + transformations.size() + " transformations";
+  }
+
+  @Override
+  public Location location() {
+    return transformations.get(0).location();
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return transformation instanceof FileContentTransformation;
+  }
+
+  @Override
+  public boolean isPathLocal() {
+    return true;
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return join(workflowOptions, this, (FileContentTransformation) next);
+  }
+
+  static ReplaceBatch join(WorkflowOptions workflowOptions, Transformation current,
+      FileContentTransformation next) {
+    ImmutableList.Builder<FileContentTransformation> transformationBuilder =
+        ImmutableList.builder();
+    if (current instanceof ReplaceBatch batch) {
+      transformationBuilder.addAll(batch.transformations);
+    } else {
+      transformationBuilder.add((FileContentTransformation) current);
+    }
+    transformationBuilder.add(next);
+    return new ReplaceBatch(workflowOptions, transformationBuilder.build());
+  }
+
+  @Override
+  public String toString() {
+    return "ReplaceBatch" + transformations;
+  }
+
+  private class BatchRun implements TransformFunc<FileState, Boolean> {
+
+    private final List<PathMatcher> matchers;
+    private final List<FileState> changed = new ArrayList<>();
+    private final boolean[] matchedAny;
+    private final boolean[] changedAny;
+
+    BatchRun(List<PathMatcher> matchers) {
+      this.matchers = matchers;
+      this.matchedAny = new boolean[matchers.size()];
+      this.changedAny = new boolean[matchers.size()];
+    }
+
+    @Override
+    public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
+      List<ContentFunction> functions = new ArrayList<>(transformations.size());
+      List<LiteralPrefilter> prefilters = new ArrayList<>(transformations.size());
+      for (FileContentTransformation transformation : transformations) {
+        functions.add(transformation.newContentFunction());
+        prefilters.add(transformation.prefilter());
+      }
+      List<FileState> changed = new ArrayList<>();
+      boolean[] matchedAny = new boolean[matchers.size()];
+      boolean[] changedAny = new boolean[matchers.size()];
+      for (FileState file : elements) {
+        if (Files.isSymbolicLink(file.getPath())) {
+          continue;
+        }
+        ByteBuffer bytes = null;
+        String content = null;
+        boolean fileChanged = false;
+        for (int i = 0; i < matchers.size(); i++) {
+          if (!matchers.get(i).matches(file.getPath())) {
+            continue;
+          }
+          matchedAny[i] = true;
+          LiteralPrefilter prefilter = prefilters.get(i);
+          if (content == null) {
+            if (prefilter != null) {
+              // Nothing changed the file yet, so we can look at the raw bytes and avoid decoding
+              // the file if none of the transformations can change it.
+              if (bytes == null) {
+                bytes = LiteralPrefilter.read(file.getPath());
+              }
+              // Big files are not read, but scanned in chunks
+              boolean mayMatch =
+                  bytes != null ? prefilter.mayMatch(bytes) : prefilter.mayMatch(file.getPath());
+              if (!mayMatch) {
+                continue;
+              }
+            }
+            content = bytes != null
+                ? LiteralPrefilter.decode(bytes)
+                : Replace.readContent(file.getPath());
+          } else if (prefilter != null && !prefilter.mayMatch(content)) {
+            continue;
+          }
+          String transformed = functions.get(i).apply(file.getPath(), content);
+          //noinspection StringEquality
+          if (transformed != content && !transformed.equals(content)) {
+            changedAny[i] = true;
+            fileChanged = true;
+            content = transformed;
+          }
+        }
+        if (fileChanged) {
+          changed.add(file);
+          Files.write(file.getPath(), content.getBytes(UTF_8));
+        }
+      }
+      synchronized (this) {
+        this.changed.addAll(changed);
+        for (int i = 0; i < matchers.size(); i++) {
+          this.matchedAny[i] |= matchedAny[i];
+          this.changedAny[i] |= changedAny[i];
+        }
+      }
+      // We cannot return null here.
+      return true;
+    }
+  }
+}
@@ -50,6 +50,7 @@ public class Sequence implements Transformation {
   private final WorkflowOptions workflowOptions;
   private final ImmutableList<Transformation> sequence;
   private final NoopBehavior noopBehavior;
+  private final boolean topLevel;
 
   protected final Logger logger = Logger.getLogger(Sequence.class.getName());
 
@@ -60,11 +61,31 @@ public class Sequence implements Transformation {
       WorkflowOptions workflowOptions,
       ImmutableList<Transformation> sequence,
       NoopBehavior noopBehavior) {
+    this(profiler, name, workflowOptions, sequence, noopBehavior, /* topLevel= */ false);
+  }
+
+  private Sequence(
+      Profiler profiler,
+      Optional<String> name,
+      WorkflowOptions workflowOptions,
+      ImmutableList<Transformation> sequence,
+      NoopBehavior noopBehavior,
+      boolean topLevel) {
     this.profiler = Preconditions.checkNotNull(profiler);
     this.name = Preconditions.checkNotNull(name);
     this.workflowOptions = workflowOptions;
     this.sequence = Preconditions.checkNotNull(sequence);
     this.noopBehavior = noopBehavior;
+    this.topLevel = topLevel;
+  }
+
+  /**
+   * Returns a copy of this sequence marked as the top-level transformation of a workflow. A no-op
+   * there ends the migration, so which of the remaining transformations run after it doesn't
+   * matter.
+   */
+  public Sequence asTopLevel() {
+    return new Sequence(profiler, name, workflowOptions, sequence, noopBehavior, true);
   }
 
   @Override
@@ -74,6 +95,8 @@ public class Sequence implements Transformation {
     List<Transformation> transformationList = getTransformations();
 
     boolean someTransformWasSuccess = false;
+    // Transformations that only see the changed files can be no-ops for them
+    boolean ignoreNoop = workflowOptions.ignoreNoop || work.getTreeState().isPartial();
 
     if (name.isPresent()) {
       if (workflowOptions.skipTransforms.contains(name.get())) {
@@ -90,23 +113,24 @@ public class Sequence implements Transformation {
 
       Transformation transformation = transformationList.get(i);
       work.getConsole().progress(getTransformMessage(transformation, i, transformationList.size()));
-      TransformationStatus status = runOneTransform(work, transformation);
-
-      if (status.isNoop()) {
-        if (noopBehavior == NoopBehavior.FAIL_IF_ANY_NOOP) {
-          status.throwException(work.getConsole(), workflowOptions.ignoreNoop);
-        } else if (noopBehavior == NoopBehavior.NOOP_IF_ANY_NOOP) {
-          if (workflowOptions.ignoreNoop) {
+      // Joined transformations report one status per original transformation
+      for (TransformationStatus status : runOneTransform(work, transformation)) {
+        if (status.isNoop()) {
+          if (noopBehavior == NoopBehavior.FAIL_IF_ANY_NOOP) {
+            status.throwException(work.getConsole(), ignoreNoop);
+          } else if (noopBehavior == NoopBehavior.NOOP_IF_ANY_NOOP) {
+            if (ignoreNoop) {
+              status.warn(work.getConsole());
+            } else {
+              return status;
+            }
+          } else if (work.getConsole().isVerbose()) {
             status.warn(work.getConsole());
-          } else {
-            return status;
           }
-        } else if (work.getConsole().isVerbose()) {
-          status.warn(work.getConsole());
         }
-      }
 
-      someTransformWasSuccess |= status.isSuccess();
+        someTransformWasSuccess |= status.isSuccess();
+      }
     }
 
     if (noopBehavior == NoopBehavior.NOOP_IF_ALL_NOOP && !someTransformWasSuccess) {
@@ -138,7 +162,8 @@ public class Sequence implements Transformation {
     List<Transformation> result = new ArrayList<>(sequence.size());
     Transformation prev = null;
     for (Transformation transformation : sequence) {
-      if (prev != null && prev.canJoin(transformation)) {
+      if (prev != null && prev.canJoin(transformation)
+          && (noopCannotStopSequence() || !(transformation instanceof FileContentTransformation))) {
         prev = prev.join(transformation);
       } else {
         if (prev != null) {
@@ -153,10 +178,26 @@ public class Sequence implements Transformation {
     return ImmutableList.copyOf(result);
   }
 
-  private TransformationStatus runOneTransform(TransformWork work, Transformation transform)
+  /**
+   * {@link ReplaceBatch} applies all its transformations even if one of them is a no-op. We can
+   * only use it when a no-op doesn't prevent the rest of the transformations from running, or when
+   * it ends the migration anyway.
+   */
+  private boolean noopCannotStopSequence() {
+    return topLevel
+        || workflowOptions.ignoreNoop
+        || noopBehavior == NoopBehavior.IGNORE_NOOP
+        || noopBehavior == NoopBehavior.NOOP_IF_ALL_NOOP;
+  }
+
+  private ImmutableList<TransformationStatus> runOneTransform(
+      TransformWork work, Transformation transform)
       throws IOException, ValidationException, RepoException {
     try (ProfilerTask ignored = profiler.start(transform.describe().replace('/', ' '))) {
-      return transform.transform(work);
+      if (transform instanceof ReplaceBatch batch) {
+        return batch.transformAll(work);
+      }
+      return ImmutableList.of(transform.transform(work));
     }
   }
 
@@ -166,7 +207,8 @@ public class Sequence implements Transformation {
     for (Transformation element : sequence) {
       list.add(element.reverse());
     }
-    return new Sequence(profiler, name, workflowOptions, list.build().reverse(), noopBehavior);
+    return new Sequence(
+        profiler, name, workflowOptions, list.build().reverse(), noopBehavior, topLevel);
   }
 
   @VisibleForTesting
@@ -187,6 +229,11 @@ public class Sequence implements Transformation {
     return "sequence";
   }
 
+  @Override
+  public boolean isPathLocal() {
+    return sequence.stream().allMatch(Transformation::isPathLocal);
+  }
+
   /**
    * Create a sequence from a list of native and Skylark transforms.
    *
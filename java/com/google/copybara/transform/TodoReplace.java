@@ -107,6 +107,7 @@ public class TodoReplace implements Transformation {
         Iterables.concat(
             parallelizer.run(
                 work.getTreeState().find(glob.relativeTo(work.getCheckoutDir())),
+                FileState::getSize,
                 files -> run(files, work.getConsole()))));
     return TransformationStatus.success();
   }
@@ -228,6 +229,11 @@ public class TodoReplace implements Transformation {
     return "Replacing " + todoTags;
   }
 
+  @Override
+  public boolean isPathLocal() {
+    return true;
+  }
+
   @Override
   public Location location() {
     return location;
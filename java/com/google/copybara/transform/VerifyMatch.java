@@ -89,7 +89,7 @@ public final class VerifyMatch implements Transformation {
         fileMatcherBuilder.relativeTo(checkoutDir));
 
     Iterable<String> errors = Iterables.concat(
-        parallelizer.run(files, new BatchRun(work.getCheckoutDir())));
+        parallelizer.run(files, FileState::getSize, new BatchRun(work.getCheckoutDir())));
 
     int size = 0;
     for (String error : errors) {
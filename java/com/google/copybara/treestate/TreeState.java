@@ -22,41 +22,75 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * An object that allows to do potentially cached filesystem lookups.
  *
  * <p>In particular, if a transform does lookups (using find) and then notifies the affected files,
  * the next transform gets a cached version of the TreeState.
+ *
+ * <p>Each file records its size and modification time when it is found. The state of the checkout
+ * can be persisted to an index file (See {@link #withIndex}) so that the next checkout only needs
+ * to read the files that changed.
  */
 public class TreeState {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int INDEX_VERSION = 3;
+  private static final long UNKNOWN = -1;
+
   /**
-   * An object that contains a path found in the {@link TreeState}.
-   *
-   * <p>Wrapped so that we can include things like the hash of the file in the future.
+   * An object that contains a path found in the {@link TreeState}, together with the size and
+   * modification time it had when it was found.
    */
   public static class FileState {
     private final Path path;
+    private final long size;
+    private final long lastModified;
 
     FileState(Path path) {
+      this(path, UNKNOWN, UNKNOWN);
+    }
+
+    FileState(Path path, long size, long lastModified) {
       this.path = Preconditions.checkNotNull(path);
+      this.size = size;
+      this.lastModified = lastModified;
     }
 
     public Path getPath() {
       return path;
     }
 
+    /** Size of the file when it was found or -1 if unknown (For example, after a modification). */
+    public long getSize() {
+      return size;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -81,6 +115,13 @@ public class TreeState {
   }
 
   private final Path checkoutDir;
+  @Nullable private final Path indexFile;
+  /** If not null, the only files that can be found, relative to the checkout dir. */
+  @Nullable private final ImmutableSet<String> onlyPaths;
+  /** The state of the checkout before any transformation ran, written by {@link #saveIndex()}. */
+  private ImmutableMap<Path, FileState> indexed = ImmutableMap.of();
+  private String revision = "";
+  private int filesRead = 0;
   private boolean isCached = false;
   private boolean notified = false;
   private Map<Path, FileState> files = new HashMap<>();
@@ -97,7 +138,89 @@ public class TreeState {
               });
 
   public TreeState(Path checkoutDir) {
+    this(checkoutDir, /* indexFile= */ null, /* onlyPaths= */ null);
+  }
+
+  private TreeState(
+      Path checkoutDir, @Nullable Path indexFile, @Nullable ImmutableSet<String> onlyPaths) {
     this.checkoutDir = checkoutDir;
+    this.indexFile = indexFile;
+    this.onlyPaths = onlyPaths;
+  }
+
+  /**
+   * Creates a {@link TreeState} for the checkout of {@code revision}, that reuses the state stored
+   * in {@code indexFile} by {@link #saveIndex()} for the previous checkout.
+   *
+   * <p>If the index was saved for {@code previousRevision}, the checkout dir is expected to contain
+   * the same files, with the same size and modification time, except for {@code changedPaths}. In
+   * that case only {@code changedPaths} are read from the file system. Otherwise the checkout dir
+   * is walked. A missing or unreadable index is ignored.
+   *
+   * <p>The checkout dir is read when this method is called, so it must be called before running
+   * any transformation.
+   */
+  public static TreeState withIndex(
+      Path checkoutDir,
+      Path indexFile,
+      String revision,
+      @Nullable String previousRevision,
+      Set<String> changedPaths)
+      throws IOException {
+    TreeState treeState =
+        new TreeState(checkoutDir, Preconditions.checkNotNull(indexFile), /* onlyPaths= */ null);
+    treeState.revision = Preconditions.checkNotNull(revision);
+    Index index = null;
+    if (Files.exists(indexFile)) {
+      try {
+        index = readIndex(checkoutDir, indexFile);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Ignoring unreadable tree state index %s", indexFile);
+      }
+    }
+    if (index != null && index.revision().equals(previousRevision)) {
+      treeState.files = new HashMap<>(index.files());
+      treeState.readPaths(treeState.files, changedPaths);
+    } else {
+      treeState.files = treeState.readFileSystem();
+    }
+    treeState.isCached = true;
+    treeState.indexed = ImmutableMap.copyOf(treeState.files);
+    return treeState;
+  }
+
+  /**
+   * Same as {@link #withIndex(Path, Path, String, String, Set)} for a checkout whose previous
+   * revision is not known, that is always walked.
+   */
+  public static TreeState withIndex(Path checkoutDir, Path indexFile) throws IOException {
+    return withIndex(
+        checkoutDir,
+        indexFile,
+        /* revision= */ "",
+        /* previousRevision= */ null,
+        /* changedPaths= */ ImmutableSet.of());
+  }
+
+  /**
+   * Creates a {@link TreeState} that only finds the files of {@code paths}, relative to {@code
+   * checkoutDir}, that exist. Used for running path-local transformations only over the files that
+   * changed.
+   */
+  public static TreeState forPaths(Path checkoutDir, Set<String> paths) {
+    return new TreeState(checkoutDir, /* indexFile= */ null, ImmutableSet.copyOf(paths));
+  }
+
+  /**
+   * Returns true if the tree state only finds some of the files of the checkout dir. In that case
+   * a transformation that doesn't find files to modify is not a no-op for the whole checkout.
+   */
+  public boolean isPartial() {
+    return onlyPaths != null;
+  }
+
+  public Path getCheckoutDir() {
+    return checkoutDir;
   }
 
   /** Find a a set of files in the checkout dir, using a {@link PathMatcher}. */
@@ -111,24 +234,57 @@ public class TreeState {
 
   private Map<Path, FileState> readFileSystem() throws IOException {
     Map<Path, FileState> result = new HashMap<>();
+    if (onlyPaths != null) {
+      readPaths(result, onlyPaths);
+      return result;
+    }
     Files.walkFileTree(
         checkoutDir,
         new SimpleFileVisitor<Path>() {
           @Override
           public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            result.put(file, new FileState(file));
+            result.put(file, newFileState(file, attrs));
             return FileVisitResult.CONTINUE;
           }
         });
     return result;
   }
 
+  /**
+   * Updates {@code result} with the current state of {@code paths}, relative to the checkout dir,
+   * removing the ones that don't exist or are directories.
+   */
+  private void readPaths(Map<Path, FileState> result, Iterable<String> paths) throws IOException {
+    for (String path : paths) {
+      Path file = checkoutDir.resolve(path);
+      result.remove(file);
+      if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)
+          && !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+        result.put(file, newFileState(file,
+            Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+      }
+    }
+  }
+
+  private FileState newFileState(Path file, BasicFileAttributes attrs) {
+    filesRead++;
+    return new FileState(file, attrs.size(), attrs.lastModifiedTime().toMillis());
+  }
+
   /** Notify the {@link TreeState} that {@code paths} have been modified. */
   public void notifyModify(Iterable<FileState> paths) {
     notified = true;
+    List<Path> modified = new ArrayList<>();
     for (FileState path : paths) {
-      files.put(path.getPath(), path);
+      // Content changed, so we cannot trust the recorded stat anymore.
+      files.put(path.getPath(), new FileState(path.getPath()));
+      modified.add(path.getPath());
     }
+    // Only the find results that contain a modified file have stale FileState instances.
+    cachedMatches
+        .asMap()
+        .keySet()
+        .removeIf(pathMatcher -> Iterables.any(modified, pathMatcher::matches));
   }
 
   /** Not implemented for now. */
@@ -149,6 +305,11 @@ public class TreeState {
     return isCached;
   }
 
+  /** Number of files whose size and modification time were read from the file system. */
+  public int getFilesRead() {
+    return filesRead;
+  }
+
   public void clearCache() {
     isCached = false;
     files = new HashMap<>();
@@ -171,4 +332,49 @@ public class TreeState {
     notified = false;
     return;
   }
+
+  /**
+   * Writes the state of the checkout before running the transformations to the index file. Only
+   * valid for {@link TreeState}s created with {@link #withIndex}.
+   */
+  public void saveIndex() throws IOException {
+    Preconditions.checkState(indexFile != null, "TreeState was created without an index file");
+    Files.createDirectories(indexFile.getParent());
+    Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(INDEX_VERSION);
+      out.writeUTF(revision);
+      out.writeInt(indexed.size());
+      for (FileState state : indexed.values()) {
+        out.writeUTF(checkoutDir.relativize(state.getPath()).toString());
+        out.writeLong(state.size);
+        out.writeLong(state.lastModified);
+      }
+    }
+    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** The contents of an index file: the revision it was saved for and the state of its files. */
+  private record Index(String revision, Map<Path, FileState> files) {}
+
+  @Nullable
+  private static Index readIndex(Path checkoutDir, Path indexFile) throws IOException {
+    Map<Path, FileState> result = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != INDEX_VERSION) {
+        return null;
+      }
+      String revision = in.readUTF();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        Path path = checkoutDir.resolve(in.readUTF());
+        long fileSize = in.readLong();
+        long lastModified = in.readLong();
+        result.put(path, new FileState(path, fileSize, lastModified));
+      }
+      return new Index(revision, result);
+    }
+  }
 }
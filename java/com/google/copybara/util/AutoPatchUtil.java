@@ -22,6 +22,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.copybara.util.DiffUtil.DiffEngine;
 import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.DiffUtil.DiffFile.Operation;
 import java.io.IOException;
@@ -76,6 +77,38 @@ public final class AutoPatchUtil {
       boolean stripLineNumbers,
       Glob fileMatcher)
       throws IOException, InsideGitDirException {
+    generatePatchFiles(
+        originWorkdir,
+        destinationWorkdir,
+        directoryPrefix,
+        patchFileDirectory,
+        verbose,
+        environment,
+        patchFilePrefix,
+        patchFileNameSuffix,
+        rootDirectory,
+        stripFileNames,
+        stripLineNumbers,
+        fileMatcher,
+        DiffEngine.fromEnvironment(environment));
+  }
+
+  /** Same as the method above, but computing the diffs with {@code diffEngine}. */
+  public static void generatePatchFiles(
+      Path originWorkdir,
+      Path destinationWorkdir,
+      Path directoryPrefix,
+      @Nullable String patchFileDirectory,
+      boolean verbose,
+      Map<String, String> environment,
+      @Nullable String patchFilePrefix,
+      String patchFileNameSuffix,
+      Path rootDirectory,
+      boolean stripFileNames,
+      boolean stripLineNumbers,
+      Glob fileMatcher,
+      DiffEngine diffEngine)
+      throws IOException, InsideGitDirException {
     if (patchFilePrefix == null) {
       patchFilePrefix = "";
     }
@@ -83,7 +116,7 @@ public final class AutoPatchUtil {
       patchFileDirectory = "";
     }
     ImmutableList<DiffFile> diffFiles =
-        DiffUtil.diffFiles(originWorkdir, destinationWorkdir, verbose, environment);
+        DiffUtil.diffFiles(originWorkdir, destinationWorkdir, verbose, environment, diffEngine);
     ImmutableSet<String> diffFileNames =
         diffFiles.stream().map(DiffFile::getName).collect(toImmutableSet());
     // TODO: make this configurable
@@ -103,7 +136,8 @@ public final class AutoPatchUtil {
       String diffString =
           new String(
               DiffUtil.diffFileWithIgnoreCrAtEol(
-                  originWorkdir.getParent(), onePath, otherPath, verbose, environment),
+                  originWorkdir.getParent(), onePath, otherPath, verbose, environment,
+                  diffEngine),
               UTF_8);
       if (Strings.isNullOrEmpty(diffString)) {
         // diff was carriage return at end of line
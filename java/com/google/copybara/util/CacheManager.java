@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the size of the cache directory of {@link DirFactory} within a budget, evicting the least
+ * recently used entries.
+ *
+ * <p>An entry is a file or directory directly under a cache directory, like a bare repository in
+ * {@code <cache>/git_repos}. Users of an entry call {@link #recordUse} before using it and close
+ * the returned {@link Use} once they are done. That records the time of the use and takes a shared
+ * file lock on the entry while it is in use, so that no Copybara process sharing the cache evicts
+ * an entry in use. Eviction takes the lock exclusively and renames the entry out of the way before
+ * deleting it.
+ *
+ * <p>There is a single instance per cache root in the process, see {@link DirFactory}.
+ *
+ * <p>The bookkeeping is stored in hidden directories in the cache root: the modification time of
+ * {@code .usage/<cache dir>/<entry>} is the last use of the entry and its content is the size of
+ * the entry, computed lazily when evicting.
+ */
+public final class CacheManager {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String USAGE_DIR = ".usage";
+  private static final String LOCK_DIR = ".locks";
+  private static final String TRASH_DIR = ".trash";
+
+  /**
+   * Shared locks held by this process and their number of open uses, by entry. File locks are held
+   * on behalf of the whole JVM, so they cannot be taken twice. Guarded by itself.
+   */
+  private final Map<Path, SharedLock> locksInUse = new HashMap<>();
+
+  private final Path cacheRoot;
+
+  CacheManager(Path cacheRoot) {
+    this.cacheRoot = Preconditions.checkNotNull(cacheRoot);
+  }
+
+  private static final class SharedLock {
+    private final FileLock lock;
+    private int uses;
+
+    SharedLock(FileLock lock) {
+      this.lock = lock;
+    }
+  }
+
+  /** A use of a cache entry. The entry cannot be evicted until all its uses are closed. */
+  public final class Use implements Closeable {
+    @Nullable private Path key;
+
+    private Use(@Nullable Path key) {
+      this.key = key;
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (locksInUse) {
+        if (key == null) {
+          return;
+        }
+        SharedLock shared = locksInUse.get(key);
+        key = null;
+        if (--shared.uses > 0) {
+          return;
+        }
+        locksInUse.values().remove(shared);
+        try {
+          shared.lock.release();
+        } finally {
+          shared.lock.channel().close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that {@code entry} is being used and protects it from eviction until the returned
+   * {@link Use} is closed.
+   *
+   * <p>Blocks while another process is evicting the entry, so the entry might not exist anymore
+   * when this method returns. Paths that are not entries of the cache are ignored.
+   */
+  public Use recordUse(Path entry) throws IOException {
+    Path key = entry.toAbsolutePath().normalize();
+    Path cacheDir = key.getParent();
+    if (cacheDir == null || !cacheRoot.toAbsolutePath().normalize().equals(cacheDir.getParent())) {
+      // For example, a cache location overridden by a subclass of the options
+      logger.atFine().log("%s is not an entry of the cache %s", entry, cacheRoot);
+      return new Use(null);
+    }
+    synchronized (locksInUse) {
+      SharedLock shared = locksInUse.get(key);
+      if (shared == null) {
+        FileChannel channel = openLock(key);
+        try {
+          shared = new SharedLock(channel.lock(0, Long.MAX_VALUE, /*shared=*/ true));
+        } catch (IOException | RuntimeException e) {
+          channel.close();
+          throw e;
+        }
+        locksInUse.put(key, shared);
+      }
+      shared.uses++;
+    }
+    Use use = new Use(key);
+    try {
+      Path usage = usageFile(key);
+      Files.createDirectories(usage.getParent());
+      // The size is unknown after a use
+      Files.write(usage, new byte[0]);
+    } catch (IOException | RuntimeException e) {
+      use.close();
+      throw e;
+    }
+    return use;
+  }
+
+  /** Returns true if this process is using the entry. */
+  private boolean inUse(Path entry) {
+    synchronized (locksInUse) {
+      return locksInUse.containsKey(entry);
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries until the total size of the cache is at most {@code
+   * maxBytes}. Entries that are in use by any process are never evicted.
+   *
+   * @return the evicted entries
+   */
+  @CanIgnoreReturnValue
+  public ImmutableList<Path> evict(long maxBytes) throws IOException {
+    deleteTrash();
+    List<Entry> entries = listEntries();
+    long total = entries.stream().mapToLong(Entry::size).sum();
+    logger.atInfo().log(
+        "Cache %s uses %d bytes in %d entries. Budget: %d bytes",
+        cacheRoot, total, entries.size(), maxBytes);
+    ImmutableList.Builder<Path> evicted = ImmutableList.builder();
+    entries.sort(Comparator.comparing(Entry::lastUse));
+    for (Entry entry : entries) {
+      if (total <= maxBytes) {
+        break;
+      }
+      if (tryEvict(entry)) {
+        logger.atInfo().log(
+            "Evicted %s from the cache (%d bytes, last used %s)",
+            entry.path(), entry.size(), entry.lastUse());
+        evicted.add(entry.path());
+        total -= entry.size();
+      }
+    }
+    if (total > maxBytes) {
+      logger.atWarning().log(
+          "Cache %s uses %d bytes after the eviction, over the budget of %d bytes",
+          cacheRoot, total, maxBytes);
+    }
+    return evicted.build();
+  }
+
+  private record Entry(Path path, long size, FileTime lastUse) {}
+
+  private List<Entry> listEntries() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    if (!Files.isDirectory(cacheRoot)) {
+      return entries;
+    }
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(cacheRoot)) {
+      for (Path dir : dirs) {
+        if (isHidden(dir) || !Files.isDirectory(dir)) {
+          continue;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+          for (Path path : paths) {
+            Entry entry = readEntry(path.toAbsolutePath().normalize());
+            if (entry != null) {
+              entries.add(entry);
+            }
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  /** Returns the size and last use of the entry, or null if it was deleted concurrently. */
+  @Nullable
+  private Entry readEntry(Path path) throws IOException {
+    Path usage = usageFile(path);
+    try {
+      FileTime lastUse;
+      Long size = null;
+      if (Files.exists(usage)) {
+        lastUse = Files.getLastModifiedTime(usage);
+        size = parseSize(Files.readString(usage, UTF_8));
+      } else {
+        // Created before the cache was managed, or by a tool that doesn't record its uses
+        lastUse = Files.getLastModifiedTime(path);
+      }
+      if (size == null) {
+        size = size(path);
+        Files.createDirectories(usage.getParent());
+        Files.writeString(usage, Long.toString(size), UTF_8);
+        Files.setLastModifiedTime(usage, lastUse);
+      }
+      return new Entry(path, size, lastUse);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static Long parseSize(String content) {
+    try {
+      return content.isEmpty() ? null : Long.parseLong(content.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private boolean tryEvict(Entry entry) throws IOException {
+    if (inUse(entry.path())) {
+      return false;
+    }
+    try (FileChannel channel = openLock(entry.path())) {
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        return false;
+      }
+      if (lock == null) {
+        logger.atInfo().log("Not evicting %s, in use by another process", entry.path());
+        return false;
+      }
+      try {
+        Path usage = usageFile(entry.path());
+        if (Files.exists(usage) && !Files.getLastModifiedTime(usage).equals(entry.lastUse())) {
+          // Used since it was listed
+          return false;
+        }
+        Path trash = cacheRoot.resolve(TRASH_DIR).resolve(UUID.randomUUID().toString());
+        Files.createDirectories(trash.getParent());
+        try {
+          Files.move(entry.path(), trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+          return false;
+        }
+        Files.deleteIfExists(usage);
+        FileUtil.deleteRecursively(trash);
+        return true;
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /** Deletes the entries left by evictions that were interrupted. */
+  private void deleteTrash() {
+    Path trash = cacheRoot.resolve(TRASH_DIR);
+    try {
+      if (Files.exists(trash)) {
+        FileUtil.deleteRecursively(trash);
+      }
+    } catch (IOException e) {
+      // Probably another process deleting it too
+      logger.atWarning().withCause(e).log("Cannot delete %s", trash);
+    }
+  }
+
+  private FileChannel openLock(Path entry) throws IOException {
+    Path lock = cacheRoot.resolve(LOCK_DIR).resolve(relativize(entry));
+    Files.createDirectories(lock.getParent());
+    // Lock files are never deleted, since another process could be waiting for them
+    return FileChannel.open(
+        lock, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private Path usageFile(Path entry) {
+    return cacheRoot.resolve(USAGE_DIR).resolve(relativize(entry));
+  }
+
+  private Path relativize(Path entry) {
+    return cacheRoot.toAbsolutePath().normalize().relativize(entry);
+  }
+
+  private static boolean isHidden(Path path) {
+    return path.getFileName().toString().startsWith(".");
+  }
+
+  /** Returns the total size of the files in {@code path}, ignoring concurrent modifications. */
+  @VisibleForTesting
+  static long size(Path path) throws IOException {
+    long[] size = {0};
+    Files.walkFileTree(
+        path,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            size[0] += attrs.size();
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            if (e instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw e;
+          }
+        });
+    return size[0];
+  }
+}
@@ -30,6 +30,7 @@ import com.google.common.hash.HashFunction;
 import com.google.common.io.MoreFiles;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.DiffUtil.DiffEngine;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -127,9 +128,36 @@ public class ConsistencyFile {
       boolean excludeBuildFiles,
       @Nullable Iterable<String> excludedFiles)
       throws IOException, InsideGitDirException, ValidationException {
+    return generate(
+        baseline,
+        destination,
+        hashFunction,
+        environment,
+        verbose,
+        configPath,
+        workflowName,
+        excludeBuildFiles,
+        excludedFiles,
+        DiffEngine.fromEnvironment(environment));
+  }
+
+  /** Same as the method above, but computing the diff with {@code diffEngine}. */
+  public static ConsistencyFile generate(
+      Path baseline,
+      Path destination,
+      HashFunction hashFunction,
+      Map<String, String> environment,
+      boolean verbose,
+      @Nullable String configPath,
+      @Nullable String workflowName,
+      boolean excludeBuildFiles,
+      @Nullable Iterable<String> excludedFiles,
+      DiffEngine diffEngine)
+      throws IOException, InsideGitDirException, ValidationException {
     ImmutableSet<String> excludedFromDiff =
         excludedFiles == null ? ImmutableSet.of() : ImmutableSet.copyOf(excludedFiles);
-    byte[] diff = DiffUtil.diffWithIgnoreCrAtEol(baseline, destination, verbose, environment);
+    byte[] diff =
+        DiffUtil.diffWithIgnoreCrAtEol(baseline, destination, verbose, environment, diffEngine);
     diff =
         DiffUtil.filterDiff(
             diff,
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.util.MergeImportTool.MergeResult;
+import com.google.copybara.util.MergeImportTool.MergeResultCode;
+import com.google.copybara.util.MergeImportTool.MergeRunner;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link MergeRunner} that merges the files in-process, with the same output and result codes as
+ * {@code diff3 -m}, instead of forking a diff3 process per file.
+ *
+ * <p>Like diff3, conflicts are bracketed with the labels of the files and changes that are the same
+ * in both sides are also reported as conflicts, showing only the baseline and the rhs content.
+ */
+public final class Diff3Merge implements MergeRunner {
+
+  /**
+   * GNU diff considers a file binary if it has a NUL byte in the first block that it reads, that is
+   * usually this size.
+   */
+  private static final int BINARY_CHECK_SIZE = 4096;
+
+  /** A change between the baseline and one of the sides, as half-open line ranges. */
+  private record Hunk(int baseStart, int baseEnd, int sideStart, int sideEnd) {}
+
+  // Remove the workdir path prefix from the merge marker label, like CommandLineDiffUtil
+  private static String label(Path file, Path workdir) {
+    return workdir.getParent().relativize(file).toString();
+  }
+
+  @Override
+  public MergeResult merge(Path lhs, Path rhs, Path baseline, Path workdir) throws IOException {
+    return merge(
+        Files.readAllBytes(lhs), label(lhs, workdir),
+        Files.readAllBytes(baseline), label(baseline, workdir),
+        Files.readAllBytes(rhs), label(rhs, workdir));
+  }
+
+  /** Same as {@code diff3 -m --label lhsLabel lhs --label baselineLabel baseline ...}. */
+  @VisibleForTesting
+  static MergeResult merge(byte[] lhs, String lhsLabel, byte[] baseline, String baselineLabel,
+      byte[] rhs, String rhsLabel) {
+    // diff3 fails if the diff of a side with the baseline fails
+    if ((isBinary(baseline) || isBinary(lhs)) && !Arrays.equals(lhs, baseline)
+        || (isBinary(baseline) || isBinary(rhs)) && !Arrays.equals(rhs, baseline)) {
+      return MergeResult.create(ByteString.EMPTY, MergeResultCode.TROUBLE);
+    }
+    LineDiff.Lines mine = new LineDiff.Lines(lhs);
+    LineDiff.Lines older = new LineDiff.Lines(baseline);
+    LineDiff.Lines yours = new LineDiff.Lines(rhs);
+    List<List<Hunk>> threads = ImmutableList.of(hunks(mine, older), hunks(yours, older));
+
+    ByteString.Output out = ByteString.newOutput(lhs.length);
+    boolean conflicts = false;
+    int[] pos = new int[2];
+    // Last block ends, for the sides that didn't change in a block
+    int lastBaseEnd = 0;
+    int[] lastSideEnd = new int[2];
+    int mineRead = 0;
+    try {
+      while (pos[0] < threads.get(0).size() || pos[1] < threads.get(1).size()) {
+        // Join the hunks of both sides that overlap or are adjacent in the baseline
+        int low;
+        if (pos[0] == threads.get(0).size()) {
+          low = 1;
+        } else if (pos[1] == threads.get(1).size()) {
+          low = 0;
+        } else {
+          low = threads.get(0).get(pos[0]).baseStart() > threads.get(1).get(pos[1]).baseStart()
+              ? 1 : 0;
+        }
+        Hunk[] first = new Hunk[2];
+        Hunk[] last = new Hunk[2];
+        int high = low;
+        first[high] = last[high] = threads.get(high).get(pos[high]++);
+        int highMark = last[high].baseEnd();
+        int other = high ^ 1;
+        while (pos[other] < threads.get(other).size()
+            && threads.get(other).get(pos[other]).baseStart() <= highMark) {
+          Hunk hunk = threads.get(other).get(pos[other]++);
+          if (first[other] == null) {
+            first[other] = hunk;
+          }
+          last[other] = hunk;
+          if (highMark < hunk.baseEnd()) {
+            high ^= 1;
+            highMark = hunk.baseEnd();
+          }
+          other = high ^ 1;
+        }
+        int baseStart = first[low].baseStart();
+        int baseEnd = highMark;
+        int[] start = new int[2];
+        int[] end = new int[2];
+        for (int d = 0; d < 2; d++) {
+          if (first[d] != null) {
+            start[d] = baseStart - first[d].baseStart() + first[d].sideStart();
+            end[d] = baseEnd - last[d].baseEnd() + last[d].sideEnd();
+          } else {
+            start[d] = baseStart - lastBaseEnd + lastSideEnd[d];
+            end[d] = baseEnd - lastBaseEnd + lastSideEnd[d];
+          }
+          lastSideEnd[d] = end[d];
+        }
+        lastBaseEnd = baseEnd;
+
+        // Only lhs changed: keep it
+        if (first[1] == null) {
+          continue;
+        }
+        mine.write(out, mineRead, start[0]);
+        if (first[0] == null) {
+          yours.write(out, start[1], end[1]);
+        } else {
+          conflicts = true;
+          if (!mine.rangeEquals(start[0], end[0], yours, start[1], end[1])) {
+            writeMarker(out, "<<<<<<< ", lhsLabel);
+            mine.write(out, start[0], end[0]);
+            writeMarker(out, "||||||| ", baselineLabel);
+          } else {
+            // Same change in both sides
+            writeMarker(out, "<<<<<<< ", baselineLabel);
+          }
+          older.write(out, baseStart, baseEnd);
+          writeMarker(out, "=======", "");
+          yours.write(out, start[1], end[1]);
+          writeMarker(out, ">>>>>>> ", rhsLabel);
+        }
+        mineRead = end[0];
+      }
+      mine.write(out, mineRead, mine.size());
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot happen for in-memory output", e);
+    }
+    return MergeResult.create(
+        out.toByteString(), conflicts ? MergeResultCode.MERGE_CONFLICT : MergeResultCode.SUCCESS);
+  }
+
+  /** Changes from {@code base} to {@code side}, computed like diff3 does: diff side base. */
+  private static List<Hunk> hunks(LineDiff.Lines side, LineDiff.Lines base) {
+    List<Hunk> result = new ArrayList<>();
+    for (LineDiff.Change change : LineDiff.gnuDiff(side, base)) {
+      result.add(new Hunk(change.i2(), change.i2() + change.chg2(),
+          change.i1(), change.i1() + change.chg1()));
+    }
+    return result;
+  }
+
+  private static void writeMarker(ByteString.Output out, String marker, String label)
+      throws IOException {
+    out.write((marker + label + "\n").getBytes(UTF_8));
+  }
+
+  private static boolean isBinary(byte[] content) {
+    int len = Math.min(content.length, BINARY_CHECK_SIZE);
+    for (int i = 0; i < len; i++) {
+      if (content[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -24,6 +24,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.auto.value.AutoBuilder;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Enums;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
@@ -32,6 +33,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.copybara.LocalParallelizer;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitEnvironment;
 import com.google.copybara.util.DiffUtil.DiffFile.Operation;
@@ -39,7 +41,9 @@ import com.google.copybara.util.console.AnsiColor;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.util.Iterator;
@@ -63,6 +67,29 @@ public class DiffUtil {
   public static final String DIFF_HUNK_HEADER_START = "@@ -";
   public static final String DIFF_HUNK_HEADER_END = "@@";
 
+  /** Environment variable that selects the {@link DiffEngine} used for diffing trees. */
+  public static final String DIFF_ENGINE_ENV = "COPYBARA_DIFF_ENGINE";
+
+  private static final LocalParallelizer PARALLELIZER =
+      new LocalParallelizer(Math.min(Runtime.getRuntime().availableProcessors(), 32), 16);
+
+  /** Implementation used for computing the diff of two trees. */
+  public enum DiffEngine {
+    /** Forks {@code git diff --no-index}. */
+    GIT,
+    /**
+     * Computes the same diff as {@code git diff --no-index} in-process. Uses git for the cases that
+     * are not supported, like rename detection.
+     */
+    JAVA;
+
+    /** Returns the engine selected by {@link #DIFF_ENGINE_ENV} in {@code environment} or GIT. */
+    public static DiffEngine fromEnvironment(@Nullable Map<String, String> environment) {
+      String value = environment == null ? null : environment.get(DIFF_ENGINE_ENV);
+      return value == null ? GIT : Enums.getIfPresent(DiffEngine.class, value).or(GIT);
+    }
+  }
+
   /**
    * Calculates the diff between two sibling directory trees.
    *
@@ -70,7 +97,36 @@ public class DiffUtil {
    */
   public static byte[] diff(Path one, Path other, boolean verbose, Map<String, String> environment)
       throws IOException, InsideGitDirException {
-    return FoldersDiff.builder(verbose, environment).build().run(one.getParent(), one, other);
+    return diff(one, other, verbose, environment, DiffEngine.fromEnvironment(environment));
+  }
+
+  /**
+   * Calculates the diff between two sibling directory trees using {@code engine}.
+   *
+   * <p>Returns the diff as an encoding-independent {@code byte[]}.
+   */
+  public static byte[] diff(
+      Path one, Path other, boolean verbose, Map<String, String> environment, DiffEngine engine)
+      throws IOException, InsideGitDirException {
+    return FoldersDiff.builder(verbose, environment)
+        .setEngine(engine)
+        .build()
+        .run(one.getParent(), one, other);
+  }
+
+  /**
+   * Calculates the diff between two sibling directory trees using {@code engine}, writing it to
+   * {@code out}.
+   *
+   * <p>Unlike {@link #diff(Path, Path, boolean, Map)}, the {@link DiffEngine#JAVA} engine doesn't
+   * keep the whole diff in memory.
+   */
+  public static void diff(Path one, Path other, boolean verbose, Map<String, String> environment,
+      DiffEngine engine, OutputStream out) throws IOException, InsideGitDirException {
+    FoldersDiff.builder(verbose, environment)
+        .setEngine(engine)
+        .build()
+        .run(one.getParent(), one, other, out);
   }
 
   /**
@@ -81,7 +137,21 @@ public class DiffUtil {
   public static byte[] diffWithIgnoreCrAtEol(
       Path one, Path other, boolean verbose, Map<String, String> environment)
       throws IOException, InsideGitDirException {
+    return diffWithIgnoreCrAtEol(
+        one, other, verbose, environment, DiffEngine.fromEnvironment(environment));
+  }
+
+  /**
+   * Calculates the diff between two sibling directory trees using {@code engine} while setting
+   * --ignore-cr-at-eol.
+   *
+   * <p>Returns the diff as an encoding-independent {@code byte[]}.
+   */
+  public static byte[] diffWithIgnoreCrAtEol(
+      Path one, Path other, boolean verbose, Map<String, String> environment, DiffEngine engine)
+      throws IOException, InsideGitDirException {
     return FoldersDiff.builder(verbose, environment)
+        .setEngine(engine)
         .setIgnoreCrAtEol(true)
         .build()
         .run(one.getParent(), one, other);
@@ -95,7 +165,25 @@ public class DiffUtil {
   public static byte[] diffFileWithIgnoreCrAtEol(
       Path root, Path one, Path other, boolean verbose, Map<String, String> environment)
       throws IOException, InsideGitDirException {
+    return diffFileWithIgnoreCrAtEol(
+        root, one, other, verbose, environment, DiffEngine.fromEnvironment(environment));
+  }
+
+  /**
+   * Calculates the diff between two files using {@code engine} with --ignore-cr-at-eol set
+   *
+   * <p>Returns the single file diff as an encoding-independent {@code byte[]}
+   */
+  public static byte[] diffFileWithIgnoreCrAtEol(
+      Path root,
+      Path one,
+      Path other,
+      boolean verbose,
+      Map<String, String> environment,
+      DiffEngine engine)
+      throws IOException, InsideGitDirException {
     return FoldersDiff.builder(verbose, environment)
+        .setEngine(engine)
         .setIgnoreCrAtEol(true)
         .setSingleFile(true)
         .build()
@@ -151,9 +239,25 @@ public class DiffUtil {
   public static ImmutableList<DiffFile> diffFiles(
       Path one, Path other, boolean verbose, @Nullable Map<String, String> environment)
       throws IOException, InsideGitDirException {
+    return diffFiles(one, other, verbose, environment, DiffEngine.fromEnvironment(environment));
+  }
+
+  /**
+   * Return the changed files without computing renames/copies, using {@code engine}.
+   *
+   * <p>Each file name is relative to one/other paths.
+   */
+  public static ImmutableList<DiffFile> diffFiles(
+      Path one,
+      Path other,
+      boolean verbose,
+      @Nullable Map<String, String> environment,
+      DiffEngine engine)
+      throws IOException, InsideGitDirException {
     String cmdResult =
         new String(
             FoldersDiff.builder(verbose, environment)
+                .setEngine(engine)
                 .setZOption(true)
                 .setNameStatus(true)
                 .setNoRenames(true)
@@ -279,6 +383,7 @@ public class DiffUtil {
       boolean verbose,
       boolean ignoreCrAtEol,
       boolean singleFile,
+      DiffEngine engine,
       @Nullable Map<String, String> environment) {
 
     private static final Pattern OUTPUT_ERROR_PATTERN =
@@ -293,7 +398,8 @@ public class DiffUtil {
           .setZOption(false)
           .setNoIndex(false)
           .setIgnoreCrAtEol(false)
-          .setSingleFile(false);
+          .setSingleFile(false)
+          .setEngine(DiffEngine.fromEnvironment(environment));
     }
 
     @AutoBuilder(ofClass = FoldersDiff.class)
@@ -312,15 +418,35 @@ public class DiffUtil {
 
       abstract Builder setSingleFile(boolean singleFile);
 
+      abstract Builder setEngine(DiffEngine engine);
+
       abstract Builder setEnvironment(@Nullable Map<String, String> environment);
 
       abstract FoldersDiff build();
     }
 
     private byte[] run(Path root, Path one, Path other) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      run(root, one, other, out);
+      return out.size() == 0 ? EMPTY_DIFF : out.toByteArray();
+    }
+
+    private void run(Path root, Path one, Path other, OutputStream out) throws IOException {
       Preconditions.checkArgument(
           singleFile || one.getParent().equals(other.getParent()),
           "Paths 'one' and 'other' must be sibling directories.");
+      if (engine == DiffEngine.JAVA && (!nameStatus || zOption)) {
+        TreeDiff treeDiff =
+            TreeDiff.create(root, one, other, ignoreCrAtEol, !noRenames, nameStatus);
+        if (treeDiff != null) {
+          treeDiff.write(out, PARALLELIZER);
+          return;
+        }
+      }
+      out.write(runGit(root, one, other));
+    }
+
+    private byte[] runGit(Path root, Path one, Path other) throws IOException {
       GitEnvironment gitEnv = new GitEnvironment(environment);
 
       List<String> params =
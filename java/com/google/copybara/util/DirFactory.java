@@ -20,6 +20,8 @@ import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A supplier of output directories under a given root.
@@ -32,11 +34,26 @@ import java.nio.file.Path;
 public class DirFactory {
   @VisibleForTesting public static final String TMP = "temp";
   private static final String CACHE = "cache";
+  private static final Map<Path, CacheManager> CACHE_MANAGERS = new ConcurrentHashMap<>();
 
   private final Path rootPath;
+  private final Path tmpRoot;
 
   public DirFactory(Path rootPath) {
+    this(rootPath, rootPath.resolve(TMP));
+  }
+
+  private DirFactory(Path rootPath, Path tmpRoot) {
     this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.tmpRoot = Preconditions.checkNotNull(tmpRoot);
+  }
+
+  /**
+   * Returns a factory with the same cache, whose temp directories are created and cleaned up in
+   * their own subdirectory {@code name} of the temp root.
+   */
+  public DirFactory withTmpSubdir(String name) {
+    return new DirFactory(rootPath, tmpRoot.resolve(name));
   }
 
   /** Get the cache directory for {@code name} */
@@ -44,6 +61,18 @@ public class DirFactory {
     return Files.createDirectories(rootPath.resolve(CACHE).resolve(name));
   }
 
+  /**
+   * Returns the manager that keeps the cache directories within a size budget. Users of cache
+   * entries that can be evicted should record their uses with it.
+   *
+   * <p>The manager is shared by all the factories with the same root in the process, since it
+   * keeps track of the entries in use.
+   */
+  public CacheManager getCacheManager() {
+    return CACHE_MANAGERS.computeIfAbsent(
+        rootPath.resolve(CACHE).toAbsolutePath().normalize(), CacheManager::new);
+  }
+
   /** Creates a temp directory in the root path. */
   public Path newTempDir(String name) throws IOException {
     Path outputPath = getTmpRoot();
@@ -60,6 +89,6 @@ public class DirFactory {
   }
 
   public Path getTmpRoot() {
-    return rootPath.resolve(TMP);
+    return tmpRoot;
   }
 }
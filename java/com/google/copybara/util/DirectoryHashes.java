@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.copybara.LocalParallelizer;
+import com.google.copybara.exception.ValidationException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A snapshot of the content of a directory tree, represented as a hash per file. Allows comparing
+ * two trees in-process and only looking at the content of the files that are different.
+ *
+ * <p>The hash of a file includes its executable bit, and symlinks are hashed by their target (They
+ * are not followed), so that two trees are equal if {@code git diff --no-index} would report an
+ * empty diff. Empty directories are ignored, as git does.
+ */
+public final class DirectoryHashes {
+
+  private final ImmutableMap<String, HashCode> hashes;
+
+  private DirectoryHashes(ImmutableMap<String, HashCode> hashes) {
+    this.hashes = hashes;
+  }
+
+  /** Computes the hashes of all the files under {@code root}, in parallel. */
+  public static DirectoryHashes compute(Path root, LocalParallelizer parallelizer)
+      throws IOException, ValidationException {
+    checkArgument(Files.isDirectory(root), "%s is not a directory", root);
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    List<Map<String, HashCode>> batches = parallelizer.run(files, batch -> {
+      Map<String, HashCode> result = new HashMap<>();
+      for (Path file : batch) {
+        result.put(root.relativize(file).toString(), hash(file));
+      }
+      return result;
+    });
+    ImmutableMap.Builder<String, HashCode> hashes = ImmutableMap.builder();
+    for (Map<String, HashCode> batch : batches) {
+      hashes.putAll(batch);
+    }
+    return new DirectoryHashes(hashes.buildOrThrow());
+  }
+
+  private static HashCode hash(Path file) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    if (Files.isSymbolicLink(file)) {
+      return hasher.putChar('l')
+          .putUnencodedChars(Files.readSymbolicLink(file).toString())
+          .hash();
+    }
+    hasher.putChar(Files.isExecutable(file) ? 'x' : 'f');
+    try (OutputStream out = Funnels.asOutputStream(hasher)) {
+      MoreFiles.asByteSource(file).copyTo(out);
+    }
+    return hasher.hash();
+  }
+
+  /** Number of files in the snapshot. */
+  public int size() {
+    return hashes.size();
+  }
+
+  /**
+   * Returns the relative paths of the files that are different, only present in this tree or only
+   * present in {@code other}.
+   */
+  public ImmutableSortedSet<String> differences(DirectoryHashes other) {
+    ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+    for (String path : Sets.union(hashes.keySet(), other.hashes.keySet())) {
+      if (!Objects.equals(hashes.get(path), other.hashes.get(path))) {
+        result.add(path);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Links (Or copies if the file system doesn't support hard links) the files in {@code paths}
+   * from {@code from} to {@code to}, skipping the ones that don't exist. Symlinks are copied as
+   * symlinks.
+   *
+   * <p>Useful for computing a textual diff of only the files that are different, since neither
+   * {@code from} nor {@code to} files are modified afterwards.
+   */
+  public static void linkFiles(Path from, Path to, Iterable<String> paths)
+      throws IOException {
+    for (String path : paths) {
+      Path src = from.resolve(path);
+      if (!Files.exists(src, LinkOption.NOFOLLOW_LINKS)) {
+        continue;
+      }
+      Path dest = to.resolve(path);
+      Files.createDirectories(dest.getParent());
+      if (Files.isSymbolicLink(src)) {
+        Files.createSymbolicLink(dest, Files.readSymbolicLink(src));
+        continue;
+      }
+      try {
+        Files.createLink(dest, src);
+      } catch (UnsupportedOperationException | IOException e) {
+        Files.copy(src, dest, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+}
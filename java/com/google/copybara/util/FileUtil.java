@@ -49,6 +49,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * Utility methods for files
@@ -274,6 +275,26 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Deletes the file {@code relativePath} under {@code root}, if it exists, and then the parent
+   * directories that became empty, up to {@code root} excluded.
+   */
+  public static void deleteFileAndEmptyParents(Path root, String relativePath)
+      throws IOException {
+    Path file = root.resolve(relativePath);
+    if (!Files.deleteIfExists(file)) {
+      return;
+    }
+    for (Path dir = file.getParent(); !dir.equals(root); dir = dir.getParent()) {
+      try (Stream<Path> entries = Files.list(dir)) {
+        if (entries.findAny().isPresent()) {
+          return;
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
   /**
    * A {@link PathMatcher} that returns true if any of the delegate {@code pathMatchers} returns
    * true.
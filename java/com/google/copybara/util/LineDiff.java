@@ -0,0 +1,1125 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A line based diff that produces the same unified output as git's xdiff library with git's
+ * default options: Myers algorithm with xdiff's heuristics for big inputs, the indent heuristic
+ * for sliding the changes, three lines of context and the default function name detection for the
+ * hunk headers.
+ *
+ * <p>The implementation follows xdiff closely (xprepare.c, xdiffi.c and xemit.c), since any
+ * deviation in the heuristics would produce a different, but equally valid, diff.
+ */
+final class LineDiff {
+
+  private static final int CONTEXT = 3;
+  private static final int MAX_COMMON = 2 * CONTEXT;
+
+  // xprepare.c
+  private static final int KPDIS_RUN = 4;
+  private static final int MAX_EQLIMIT = 1024;
+  private static final int SIMSCAN_WINDOW = 100;
+
+  // xdiffi.c
+  private static final int MAX_COST_MIN = 256;
+  private static final int HEUR_MIN_COST = 256;
+  private static final int SNAKE_CNT = 20;
+  private static final int K_HEUR = 4;
+  private static final int LINE_MAX = Integer.MAX_VALUE;
+
+  // GNU diff analyze.c and the --horizon-lines used by diff3
+  private static final int GNU_TOO_EXPENSIVE_MIN = 4096;
+  private static final int HORIZON_LINES = 100;
+
+  // Indent heuristic
+  private static final int MAX_INDENT = 200;
+  private static final int MAX_BLANKS = 20;
+  private static final int INDENT_HEURISTIC_MAX_SLIDING = 100;
+  private static final int START_OF_FILE_PENALTY = 1;
+  private static final int END_OF_FILE_PENALTY = 21;
+  private static final int TOTAL_BLANK_WEIGHT = -30;
+  private static final int POST_BLANK_WEIGHT = 6;
+  private static final int RELATIVE_INDENT_PENALTY = -4;
+  private static final int RELATIVE_INDENT_WITH_BLANK_PENALTY = 10;
+  private static final int RELATIVE_OUTDENT_PENALTY = 24;
+  private static final int RELATIVE_OUTDENT_WITH_BLANK_PENALTY = 17;
+  private static final int RELATIVE_DEDENT_PENALTY = 23;
+  private static final int RELATIVE_DEDENT_WITH_BLANK_PENALTY = 17;
+  private static final int INDENT_WEIGHT = 60;
+
+  // xemit.c
+  private static final int FUNC_LINE_MAX = 80;
+  private static final int HUNK_HEADER_MAX = 128;
+  private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(UTF_8);
+
+  private LineDiff() {}
+
+  /** A group of consecutive changed lines. {@code i1} and {@code i2} are zero based. */
+  record Change(int i1, int i2, int chg1, int chg2) {}
+
+  /** The lines of a file. Each line includes its trailing new line, if any. */
+  static final class Lines {
+
+    private final byte[] data;
+    private final int[] starts;
+
+    Lines(byte[] data) {
+      this.data = data;
+      int count = 0;
+      for (byte b : data) {
+        if (b == '\n') {
+          count++;
+        }
+      }
+      if (data.length > 0 && data[data.length - 1] != '\n') {
+        count++;
+      }
+      starts = new int[count + 1];
+      int line = 0;
+      for (int i = 0; i < data.length; i++) {
+        if (data[i] == '\n') {
+          starts[++line] = i + 1;
+        }
+      }
+      starts[count] = data.length;
+    }
+
+    int size() {
+      return starts.length - 1;
+    }
+
+    int start(int line) {
+      return starts[line];
+    }
+
+    int end(int line) {
+      return starts[line + 1];
+    }
+
+    byte get(int pos) {
+      return data[pos];
+    }
+
+    void write(OutputStream out, int line) throws IOException {
+      write(out, line, line + 1);
+    }
+
+    /** Writes the lines in [from, to). */
+    void write(OutputStream out, int from, int to) throws IOException {
+      out.write(data, starts[from], starts[to] - starts[from]);
+    }
+
+    /** Returns true if the lines [from, to) are the same as [otherFrom, otherTo) in other. */
+    boolean rangeEquals(int from, int to, Lines other, int otherFrom, int otherTo) {
+      return Arrays.equals(data, starts[from], starts[to],
+          other.data, other.starts[otherFrom], other.starts[otherTo]);
+    }
+  }
+
+  /**
+   * The state of one of the files during the diff. {@code ha} contains the equivalence class of
+   * each line and {@code rchg} marks the changed lines, with a sentinel before and after.
+   */
+  private static final class XdFile {
+    @Nullable final Lines lines;
+    final int nrec;
+    final int[] ha;
+    final boolean[] rchgBuf;
+    int dstart;
+    int dend;
+    int[] rindex;
+    int[] rha;
+    int nreff;
+
+    XdFile(@Nullable Lines lines, int[] ha) {
+      this.lines = lines;
+      this.nrec = ha.length;
+      this.ha = ha;
+      this.rchgBuf = new boolean[nrec + 2];
+    }
+
+    boolean rchg(int i) {
+      return i >= -1 && i <= nrec && rchgBuf[i + 1];
+    }
+
+    void setRchg(int i, boolean value) {
+      rchgBuf[i + 1] = value;
+    }
+  }
+
+  /** Computes the changes between {@code one} and {@code other}. */
+  static ImmutableList<Change> diff(Lines one, Lines other, boolean ignoreCrAtEol) {
+    Map<ByteBuffer, Integer> classes = new HashMap<>();
+    List<int[]> counts = new ArrayList<>();
+    XdFile xdf1 = new XdFile(one, classify(one, ignoreCrAtEol, classes, counts, 0));
+    XdFile xdf2 = new XdFile(other, classify(other, ignoreCrAtEol, classes, counts, 1));
+
+    trimEnds(xdf1, xdf2);
+    cleanupRecords(xdf1, xdf2, counts);
+    recsCmp(xdf1, xdf2, /*heuristic=*/true, MAX_COST_MIN);
+
+    changeCompact(xdf1, xdf2, /*indentHeuristic=*/true);
+    changeCompact(xdf2, xdf1, /*indentHeuristic=*/true);
+    return buildScript(xdf1, xdf2);
+  }
+
+  /**
+   * Computes the changes between {@code one} and {@code other} like GNU diff does. This is what
+   * diff3 uses, and it differs from xdiff in the lines that are discarded before running Myers and
+   * in the heuristics used for big files, so the changes can be aligned differently.
+   */
+  static ImmutableList<Change> gnuDiff(Lines one, Lines other) {
+    Map<ByteBuffer, Integer> classes = new HashMap<>();
+    List<int[]> counts = new ArrayList<>();
+    int[] ha1 = classify(one, /*ignoreCrAtEol=*/false, classes, counts, 0);
+    int[] ha2 = classify(other, /*ignoreCrAtEol=*/false, classes, counts, 1);
+
+    // GNU diff skips the identical prefix and suffix, but keeps some lines of them for the analysis
+    int lim = Math.min(ha1.length, ha2.length);
+    int prefix = 0;
+    while (prefix < lim && ha1[prefix] == ha2[prefix]) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < lim - prefix
+        && ha1[ha1.length - 1 - suffix] == ha2[ha2.length - 1 - suffix]) {
+      suffix++;
+    }
+    int start = Math.max(prefix - HORIZON_LINES, 0);
+    int skippedSuffix = Math.max(suffix - HORIZON_LINES, 0);
+    XdFile xdf1 = new XdFile(null, Arrays.copyOfRange(ha1, start, ha1.length - skippedSuffix));
+    XdFile xdf2 = new XdFile(null, Arrays.copyOfRange(ha2, start, ha2.length - skippedSuffix));
+
+    discardConfusingLines(xdf1, xdf2, counts.size());
+    recsCmp(xdf1, xdf2, /*heuristic=*/false, GNU_TOO_EXPENSIVE_MIN);
+
+    changeCompact(xdf1, xdf2, /*indentHeuristic=*/false);
+    changeCompact(xdf2, xdf1, /*indentHeuristic=*/false);
+    ImmutableList.Builder<Change> result = ImmutableList.builder();
+    for (Change change : buildScript(xdf1, xdf2)) {
+      result.add(new Change(change.i1() + start, change.i2() + start, change.chg1(),
+          change.chg2()));
+    }
+    return result.build();
+  }
+
+  private static int[] classify(Lines lines, boolean ignoreCrAtEol,
+      Map<ByteBuffer, Integer> classes, List<int[]> counts, int side) {
+    int[] ha = new int[lines.size()];
+    for (int i = 0; i < ha.length; i++) {
+      int start = lines.start(i);
+      int end = lines.end(i);
+      if (ignoreCrAtEol && end > start && lines.get(end - 1) == '\n') {
+        end--;
+        // Only ignore the CR of complete lines, as xdiff does.
+        if (end > start && lines.get(end - 1) == '\r') {
+          end--;
+        }
+      }
+      Integer idx = classes.get(ByteBuffer.wrap(lines.data, start, end - start));
+      if (idx == null) {
+        idx = counts.size();
+        classes.put(ByteBuffer.wrap(lines.data, start, end - start), idx);
+        counts.add(new int[2]);
+      }
+      counts.get(idx)[side]++;
+      ha[i] = idx;
+    }
+    return ha;
+  }
+
+  private static void trimEnds(XdFile xdf1, XdFile xdf2) {
+    int lim = Math.min(xdf1.nrec, xdf2.nrec);
+    int i = 0;
+    while (i < lim && xdf1.ha[i] == xdf2.ha[i]) {
+      i++;
+    }
+    xdf1.dstart = xdf2.dstart = i;
+    lim -= i;
+    i = 0;
+    while (i < lim && xdf1.ha[xdf1.nrec - 1 - i] == xdf2.ha[xdf2.nrec - 1 - i]) {
+      i++;
+    }
+    xdf1.dend = xdf1.nrec - i - 1;
+    xdf2.dend = xdf2.nrec - i - 1;
+  }
+
+  /**
+   * Discards the lines that don't have a match in the other file (They are obviously changed),
+   * and the lines with too many matches that are surrounded by discarded lines.
+   */
+  private static void cleanupRecords(XdFile xdf1, XdFile xdf2, List<int[]> counts) {
+    byte[] dis1 = discards(xdf1, counts, 1);
+    byte[] dis2 = discards(xdf2, counts, 0);
+    reduce(xdf1, dis1);
+    reduce(xdf2, dis2);
+  }
+
+  private static byte[] discards(XdFile xdf, List<int[]> counts, int otherSide) {
+    byte[] dis = new byte[xdf.nrec + 1];
+    int mlim = Math.min(bogoSqrt(xdf.nrec), MAX_EQLIMIT);
+    for (int i = xdf.dstart; i <= xdf.dend; i++) {
+      int nm = counts.get(xdf.ha[i])[otherSide];
+      dis[i] = (byte) (nm == 0 ? 0 : nm >= mlim ? 2 : 1);
+    }
+    return dis;
+  }
+
+  private static void reduce(XdFile xdf, byte[] dis) {
+    int size = Math.max(xdf.dend - xdf.dstart + 1, 0);
+    xdf.rindex = new int[size];
+    xdf.rha = new int[size];
+    int nreff = 0;
+    for (int i = xdf.dstart; i <= xdf.dend; i++) {
+      if (dis[i] == 1 || (dis[i] == 2 && !cleanMmatch(dis, i, xdf.dstart, xdf.dend))) {
+        xdf.rindex[nreff] = i;
+        xdf.rha[nreff] = xdf.ha[i];
+        nreff++;
+      } else {
+        xdf.setRchg(i, true);
+      }
+    }
+    xdf.nreff = nreff;
+  }
+
+  private static boolean cleanMmatch(byte[] dis, int i, int s, int e) {
+    if (i - s > SIMSCAN_WINDOW) {
+      s = i - SIMSCAN_WINDOW;
+    }
+    if (e - i > SIMSCAN_WINDOW) {
+      e = i + SIMSCAN_WINDOW;
+    }
+    int rdis0 = 0;
+    int rpdis0 = 1;
+    for (int r = 1; i - r >= s; r++) {
+      if (dis[i - r] == 0) {
+        rdis0++;
+      } else if (dis[i - r] == 2) {
+        rpdis0++;
+      } else {
+        break;
+      }
+    }
+    if (rdis0 == 0) {
+      return false;
+    }
+    int rdis1 = 0;
+    int rpdis1 = 1;
+    for (int r = 1; i + r <= e; r++) {
+      if (dis[i + r] == 0) {
+        rdis1++;
+      } else if (dis[i + r] == 2) {
+        rpdis1++;
+      } else {
+        break;
+      }
+    }
+    if (rdis1 == 0) {
+      return false;
+    }
+    rdis1 += rdis0;
+    rpdis1 += rpdis0;
+    return rpdis1 * KPDIS_RUN < (rpdis1 + rdis1);
+  }
+
+  /**
+   * GNU diff version of {@link #cleanupRecords}: Discards the lines that don't have a match in the
+   * other file, and the lines with many matches that are in the middle of a run of discarded lines.
+   */
+  private static void discardConfusingLines(XdFile xdf1, XdFile xdf2, int classCount) {
+    int[] count1 = new int[classCount];
+    int[] count2 = new int[classCount];
+    for (int ha : xdf1.ha) {
+      count1[ha]++;
+    }
+    for (int ha : xdf2.ha) {
+      count2[ha]++;
+    }
+    byte[] dis1 = gnuDiscards(xdf1, count2);
+    byte[] dis2 = gnuDiscards(xdf2, count1);
+    for (XdFile xdf : ImmutableList.of(xdf1, xdf2)) {
+      byte[] dis = xdf == xdf1 ? dis1 : dis2;
+      xdf.dstart = 0;
+      xdf.dend = xdf.nrec - 1;
+      xdf.rindex = new int[xdf.nrec];
+      xdf.rha = new int[xdf.nrec];
+      int nreff = 0;
+      for (int i = 0; i < xdf.nrec; i++) {
+        if (dis[i] == 0) {
+          xdf.rindex[nreff] = i;
+          xdf.rha[nreff] = xdf.ha[i];
+          nreff++;
+        } else {
+          xdf.setRchg(i, true);
+        }
+      }
+      xdf.nreff = nreff;
+    }
+  }
+
+  /** Returns 1 for the lines to discard, following discard_confusing_lines. */
+  private static byte[] gnuDiscards(XdFile xdf, int[] otherCounts) {
+    int end = xdf.nrec;
+    byte[] discards = new byte[end];
+    // Approximate square root of the number of lines
+    int many = 5;
+    for (int tem = end / 64; (tem >>= 2) > 0; ) {
+      many *= 2;
+    }
+    for (int i = 0; i < end; i++) {
+      int nmatch = otherCounts[xdf.ha[i]];
+      if (nmatch == 0) {
+        discards[i] = 1;
+      } else if (nmatch > many) {
+        discards[i] = 2;
+      }
+    }
+
+    // Provisional discards (2) only stand in the middle of a run of discards
+    for (int i = 0; i < end; i++) {
+      if (discards[i] == 2) {
+        discards[i] = 0;
+      } else if (discards[i] != 0) {
+        int j;
+        int provisional = 0;
+        for (j = i; j < end && discards[j] != 0; j++) {
+          if (discards[j] == 2) {
+            provisional++;
+          }
+        }
+        while (j > i && discards[j - 1] == 2) {
+          discards[--j] = 0;
+          provisional--;
+        }
+        int length = j - i;
+        if (provisional * 4 > length) {
+          while (j > i) {
+            if (discards[--j] == 2) {
+              discards[j] = 0;
+            }
+          }
+        } else {
+          // Subruns of 'minimum' or more provisionals are not discarded
+          int minimum = 1;
+          for (int tem = length >> 2; (tem >>= 2) > 0; ) {
+            minimum <<= 1;
+          }
+          minimum++;
+          int consec = 0;
+          for (j = 0; j < length; j++) {
+            if (discards[i + j] != 2) {
+              consec = 0;
+            } else if (minimum == ++consec) {
+              j -= consec;
+            } else if (minimum < consec) {
+              discards[i + j] = 0;
+            }
+          }
+          // Neither at the start or the end of the run, until 3 nonprovisionals in a row or the
+          // first nonprovisional 8 lines in.
+          consec = 0;
+          for (j = 0; j < length; j++) {
+            if (j >= 8 && discards[i + j] == 1) {
+              break;
+            }
+            if (discards[i + j] == 2) {
+              consec = 0;
+              discards[i + j] = 0;
+            } else if (discards[i + j] == 0) {
+              consec = 0;
+            } else {
+              consec++;
+            }
+            if (consec == 3) {
+              break;
+            }
+          }
+          i += length - 1;
+          consec = 0;
+          for (j = 0; j < length; j++) {
+            if (j >= 8 && discards[i - j] == 1) {
+              break;
+            }
+            if (discards[i - j] == 2) {
+              consec = 0;
+              discards[i - j] = 0;
+            } else if (discards[i - j] == 0) {
+              consec = 0;
+            } else {
+              consec++;
+            }
+            if (consec == 3) {
+              break;
+            }
+          }
+        }
+      }
+    }
+    return discards;
+  }
+
+  private static int bogoSqrt(int n) {
+    int i = 1;
+    for (; n > 0; n >>= 2) {
+      i <<= 1;
+    }
+    return i;
+  }
+
+  /** Box of the edit graph to compare and whether it has to be compared minimally. */
+  private record Box(int off1, int lim1, int off2, int lim2, boolean needMin) {}
+
+  /** Result of splitting a box. */
+  private static final class Split {
+    int i1;
+    int i2;
+    boolean minLo;
+    boolean minHi;
+  }
+
+  /**
+   * Divide and conquer Myers algorithm. xdiff does this recursively, but we use an explicit stack
+   * so that big files don't overflow the Java stack. The order doesn't matter since each box
+   * only marks its own lines.
+   */
+  private static void recsCmp(XdFile xdf1, XdFile xdf2, boolean heuristic, int minCost) {
+    int[] ha1 = xdf1.rha;
+    int[] ha2 = xdf2.rha;
+    int ndiags = xdf1.nreff + xdf2.nreff + 3;
+    int[] kv = new int[2 * ndiags + 2];
+    int fOff = xdf2.nreff + 1;
+    int bOff = ndiags + xdf2.nreff + 1;
+    int mxcost = Math.max(bogoSqrt(ndiags), minCost);
+
+    Deque<Box> boxes = new ArrayDeque<>();
+    boxes.push(new Box(0, xdf1.nreff, 0, xdf2.nreff, false));
+    Split spl = new Split();
+    while (!boxes.isEmpty()) {
+      Box box = boxes.pop();
+      int off1 = box.off1();
+      int lim1 = box.lim1();
+      int off2 = box.off2();
+      int lim2 = box.lim2();
+      while (off1 < lim1 && off2 < lim2 && ha1[off1] == ha2[off2]) {
+        off1++;
+        off2++;
+      }
+      while (off1 < lim1 && off2 < lim2 && ha1[lim1 - 1] == ha2[lim2 - 1]) {
+        lim1--;
+        lim2--;
+      }
+      if (off1 == lim1) {
+        for (; off2 < lim2; off2++) {
+          xdf2.setRchg(xdf2.rindex[off2], true);
+        }
+      } else if (off2 == lim2) {
+        for (; off1 < lim1; off1++) {
+          xdf1.setRchg(xdf1.rindex[off1], true);
+        }
+      } else {
+        spl.i1 = spl.i2 = 0;
+        split(ha1, off1, lim1, ha2, off2, lim2, kv, fOff, bOff, box.needMin(), heuristic, spl,
+            mxcost);
+        boxes.push(new Box(spl.i1, lim1, spl.i2, lim2, spl.minHi));
+        boxes.push(new Box(off1, spl.i1, off2, spl.i2, spl.minLo));
+      }
+    }
+  }
+
+  /**
+   * Finds the middle snake of the box (Or a good enough split point if the cost is too high) using
+   * a forward and a backward search. {@code kv} contains both the forward and backward diagonals,
+   * starting at {@code fOff} and {@code bOff}.
+   */
+  private static void split(int[] ha1, int off1, int lim1, int[] ha2, int off2, int lim2,
+      int[] kv, int fOff, int bOff, boolean needMin, boolean heuristic, Split spl, int mxcost) {
+    int dmin = off1 - lim2;
+    int dmax = lim1 - off2;
+    int fmid = off1 - off2;
+    int bmid = lim1 - lim2;
+    boolean odd = ((fmid - bmid) & 1) != 0;
+    int fmin = fmid;
+    int fmax = fmid;
+    int bmin = bmid;
+    int bmax = bmid;
+
+    kv[fOff + fmid] = off1;
+    kv[bOff + bmid] = lim1;
+
+    for (int ec = 1; ; ec++) {
+      boolean gotSnake = false;
+
+      if (fmin > dmin) {
+        kv[fOff + --fmin - 1] = -1;
+      } else {
+        ++fmin;
+      }
+      if (fmax < dmax) {
+        kv[fOff + ++fmax + 1] = -1;
+      } else {
+        --fmax;
+      }
+      for (int d = fmax; d >= fmin; d -= 2) {
+        int i1 = kv[fOff + d - 1] >= kv[fOff + d + 1]
+            ? kv[fOff + d - 1] + 1
+            : kv[fOff + d + 1];
+        int prev1 = i1;
+        int i2 = i1 - d;
+        while (i1 < lim1 && i2 < lim2 && ha1[i1] == ha2[i2]) {
+          i1++;
+          i2++;
+        }
+        if (i1 - prev1 > SNAKE_CNT) {
+          gotSnake = true;
+        }
+        kv[fOff + d] = i1;
+        if (odd && bmin <= d && d <= bmax && kv[bOff + d] <= i1) {
+          spl.i1 = i1;
+          spl.i2 = i2;
+          spl.minLo = spl.minHi = true;
+          return;
+        }
+      }
+
+      if (bmin > dmin) {
+        kv[bOff + --bmin - 1] = LINE_MAX;
+      } else {
+        ++bmin;
+      }
+      if (bmax < dmax) {
+        kv[bOff + ++bmax + 1] = LINE_MAX;
+      } else {
+        --bmax;
+      }
+      for (int d = bmax; d >= bmin; d -= 2) {
+        int i1 = kv[bOff + d - 1] < kv[bOff + d + 1]
+            ? kv[bOff + d - 1]
+            : kv[bOff + d + 1] - 1;
+        int prev1 = i1;
+        int i2 = i1 - d;
+        while (i1 > off1 && i2 > off2 && ha1[i1 - 1] == ha2[i2 - 1]) {
+          i1--;
+          i2--;
+        }
+        if (prev1 - i1 > SNAKE_CNT) {
+          gotSnake = true;
+        }
+        kv[bOff + d] = i1;
+        if (!odd && fmin <= d && d <= fmax && i1 <= kv[fOff + d]) {
+          spl.i1 = i1;
+          spl.i2 = i2;
+          spl.minLo = spl.minHi = true;
+          return;
+        }
+      }
+
+      if (needMin) {
+        continue;
+      }
+
+      // If the edit cost is above the heuristic trigger and we got a good snake, look for a
+      // diagonal that reached an "interesting" path.
+      if (heuristic && gotSnake && ec > HEUR_MIN_COST) {
+        int best = 0;
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int dd = d > fmid ? d - fmid : fmid - d;
+          int i1 = kv[fOff + d];
+          int i2 = i1 - d;
+          int v = (i1 - off1) + (i2 - off2) - dd;
+          if (v > K_HEUR * ec && v > best
+              && off1 + SNAKE_CNT <= i1 && i1 < lim1
+              && off2 + SNAKE_CNT <= i2 && i2 < lim2) {
+            for (int k = 1; ha1[i1 - k] == ha2[i2 - k]; k++) {
+              if (k == SNAKE_CNT) {
+                best = v;
+                spl.i1 = i1;
+                spl.i2 = i2;
+                break;
+              }
+            }
+          }
+        }
+        if (best > 0) {
+          spl.minLo = true;
+          spl.minHi = false;
+          return;
+        }
+
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int dd = d > bmid ? d - bmid : bmid - d;
+          int i1 = kv[bOff + d];
+          int i2 = i1 - d;
+          int v = (lim1 - i1) + (lim2 - i2) - dd;
+          if (v > K_HEUR * ec && v > best
+              && off1 < i1 && i1 <= lim1 - SNAKE_CNT
+              && off2 < i2 && i2 <= lim2 - SNAKE_CNT) {
+            for (int k = 0; ha1[i1 + k] == ha2[i2 + k]; k++) {
+              if (k == SNAKE_CNT - 1) {
+                best = v;
+                spl.i1 = i1;
+                spl.i2 = i2;
+                break;
+              }
+            }
+          }
+        }
+        if (best > 0) {
+          spl.minLo = false;
+          spl.minHi = true;
+          return;
+        }
+      }
+
+      // Enough is enough. Collect the furthest reaching path using the (i1 + i2) measure.
+      if (ec >= mxcost) {
+        int fbest = -1;
+        int fbest1 = -1;
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int i1 = Math.min(kv[fOff + d], lim1);
+          int i2 = i1 - d;
+          if (lim2 < i2) {
+            i1 = lim2 + d;
+            i2 = lim2;
+          }
+          if (fbest < i1 + i2) {
+            fbest = i1 + i2;
+            fbest1 = i1;
+          }
+        }
+        int bbest = LINE_MAX;
+        int bbest1 = LINE_MAX;
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int i1 = Math.max(off1, kv[bOff + d]);
+          int i2 = i1 - d;
+          if (i2 < off2) {
+            i1 = off2 + d;
+            i2 = off2;
+          }
+          if (i1 + i2 < bbest) {
+            bbest = i1 + i2;
+            bbest1 = i1;
+          }
+        }
+        if ((lim1 + lim2) - bbest < fbest - (off1 + off2)) {
+          spl.i1 = fbest1;
+          spl.i2 = fbest - fbest1;
+          spl.minLo = true;
+          spl.minHi = false;
+        } else {
+          spl.i1 = bbest1;
+          spl.i2 = bbest - bbest1;
+          spl.minLo = false;
+          spl.minHi = true;
+        }
+        return;
+      }
+    }
+  }
+
+  /** A group of changed lines in a file: [start, end). Empty groups have start == end. */
+  private static final class Group {
+    int start;
+    int end;
+
+    Group(XdFile xdf) {
+      start = end = 0;
+      while (xdf.rchg(end)) {
+        end++;
+      }
+    }
+
+    boolean next(XdFile xdf) {
+      if (end == xdf.nrec) {
+        return false;
+      }
+      start = end + 1;
+      for (end = start; xdf.rchg(end); end++) {}
+      return true;
+    }
+
+    boolean previous(XdFile xdf) {
+      if (start == 0) {
+        return false;
+      }
+      end = start - 1;
+      for (start = end; xdf.rchg(start - 1); start--) {}
+      return true;
+    }
+
+    boolean slideDown(XdFile xdf) {
+      if (end < xdf.nrec && xdf.ha[start] == xdf.ha[end]) {
+        xdf.setRchg(start++, false);
+        xdf.setRchg(end++, true);
+        while (xdf.rchg(end)) {
+          end++;
+        }
+        return true;
+      }
+      return false;
+    }
+
+    boolean slideUp(XdFile xdf) {
+      if (start > 0 && xdf.ha[start - 1] == xdf.ha[end - 1]) {
+        xdf.setRchg(--start, true);
+        xdf.setRchg(--end, false);
+        while (xdf.rchg(start - 1)) {
+          start--;
+        }
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Moves the groups of changes up and down for a consistent output, aligning them with the
+   * changes in the other file when possible or using the indent heuristic otherwise (If enabled).
+   */
+  private static void changeCompact(XdFile xdf, XdFile xdfo, boolean indentHeuristic) {
+    Group g = new Group(xdf);
+    Group go = new Group(xdfo);
+
+    while (true) {
+      if (g.end != g.start) {
+        int groupsize;
+        int earliestEnd;
+        int endMatchingOther;
+        do {
+          groupsize = g.end - g.start;
+          endMatchingOther = -1;
+
+          while (g.slideUp(xdf)) {
+            checkSync(go.previous(xdfo));
+          }
+          earliestEnd = g.end;
+          if (go.end > go.start) {
+            endMatchingOther = g.end;
+          }
+          while (g.slideDown(xdf)) {
+            checkSync(go.next(xdfo));
+            if (go.end > go.start) {
+              endMatchingOther = g.end;
+            }
+          }
+        } while (groupsize != g.end - g.start);
+
+        if (g.end == earliestEnd) {
+          // No shifting was possible
+        } else if (endMatchingOther != -1) {
+          // Align with the last group of changes of the other file that it can align with.
+          while (go.end == go.start) {
+            checkSync(g.slideUp(xdf));
+            checkSync(go.previous(xdfo));
+          }
+        } else if (indentHeuristic) {
+          int bestShift = -1;
+          int bestIndent = 0;
+          int bestPenalty = 0;
+          int shift = earliestEnd;
+          if (g.end - groupsize - 1 > shift) {
+            shift = g.end - groupsize - 1;
+          }
+          if (g.end - INDENT_HEURISTIC_MAX_SLIDING > shift) {
+            shift = g.end - INDENT_HEURISTIC_MAX_SLIDING;
+          }
+          for (; shift <= g.end; shift++) {
+            int[] score = new int[2];
+            scoreAddSplit(measureSplit(xdf, shift), score);
+            scoreAddSplit(measureSplit(xdf, shift - groupsize), score);
+            if (bestShift == -1
+                || scoreCmp(score[0], score[1], bestIndent, bestPenalty) <= 0) {
+              bestIndent = score[0];
+              bestPenalty = score[1];
+              bestShift = shift;
+            }
+          }
+          while (g.end > bestShift) {
+            checkSync(g.slideUp(xdf));
+            checkSync(go.previous(xdfo));
+          }
+        }
+      }
+      if (!g.next(xdf)) {
+        break;
+      }
+      checkSync(go.next(xdfo));
+    }
+    checkSync(!go.next(xdfo));
+  }
+
+  private static void checkSync(boolean expected) {
+    if (!expected) {
+      throw new IllegalStateException("Group sync broken");
+    }
+  }
+
+  private record SplitMeasurement(
+      boolean endOfFile, int indent, int preBlank, int preIndent, int postBlank, int postIndent) {}
+
+  private static SplitMeasurement measureSplit(XdFile xdf, int split) {
+    boolean endOfFile;
+    int indent;
+    if (split >= xdf.nrec) {
+      endOfFile = true;
+      indent = -1;
+    } else {
+      endOfFile = false;
+      indent = getIndent(xdf.lines, split);
+    }
+    int preBlank = 0;
+    int preIndent = -1;
+    for (int i = split - 1; i >= 0; i--) {
+      preIndent = getIndent(xdf.lines, i);
+      if (preIndent != -1) {
+        break;
+      }
+      preBlank++;
+      if (preBlank == MAX_BLANKS) {
+        preIndent = 0;
+        break;
+      }
+    }
+    int postBlank = 0;
+    int postIndent = -1;
+    for (int i = split + 1; i < xdf.nrec; i++) {
+      postIndent = getIndent(xdf.lines, i);
+      if (postIndent != -1) {
+        break;
+      }
+      postBlank++;
+      if (postBlank == MAX_BLANKS) {
+        postIndent = 0;
+        break;
+      }
+    }
+    return new SplitMeasurement(endOfFile, indent, preBlank, preIndent, postBlank, postIndent);
+  }
+
+  /** Returns the indentation of the line or -1 if it only contains whitespace. */
+  private static int getIndent(Lines lines, int line) {
+    int ret = 0;
+    for (int i = lines.start(line); i < lines.end(line); i++) {
+      byte c = lines.get(i);
+      if (!isSpace(c)) {
+        return ret;
+      } else if (c == ' ') {
+        ret += 1;
+      } else if (c == '\t') {
+        ret += 8 - ret % 8;
+      }
+      if (ret >= MAX_INDENT) {
+        return MAX_INDENT;
+      }
+    }
+    return -1;
+  }
+
+  /** Adds the score of the split to {effective_indent, penalty}. */
+  private static void scoreAddSplit(SplitMeasurement m, int[] score) {
+    if (m.preIndent() == -1 && m.preBlank() == 0) {
+      score[1] += START_OF_FILE_PENALTY;
+    }
+    if (m.endOfFile()) {
+      score[1] += END_OF_FILE_PENALTY;
+    }
+    int postBlank = m.indent() == -1 ? 1 + m.postBlank() : 0;
+    int totalBlank = m.preBlank() + postBlank;
+    score[1] += TOTAL_BLANK_WEIGHT * totalBlank;
+    score[1] += POST_BLANK_WEIGHT * postBlank;
+
+    int indent = m.indent() != -1 ? m.indent() : m.postIndent();
+    boolean anyBlanks = totalBlank != 0;
+    score[0] += indent;
+
+    if (indent == -1 || m.preIndent() == -1) {
+      // No additional adjustments needed.
+    } else if (indent > m.preIndent()) {
+      score[1] += anyBlanks ? RELATIVE_INDENT_WITH_BLANK_PENALTY : RELATIVE_INDENT_PENALTY;
+    } else if (indent == m.preIndent()) {
+      // Same indentation as its predecessor.
+    } else if (m.postIndent() != -1 && m.postIndent() > indent) {
+      score[1] += anyBlanks ? RELATIVE_OUTDENT_WITH_BLANK_PENALTY : RELATIVE_OUTDENT_PENALTY;
+    } else {
+      score[1] += anyBlanks ? RELATIVE_DEDENT_WITH_BLANK_PENALTY : RELATIVE_DEDENT_PENALTY;
+    }
+  }
+
+  private static int scoreCmp(int indent1, int penalty1, int indent2, int penalty2) {
+    int cmpIndents = Integer.compare(indent1, indent2);
+    return INDENT_WEIGHT * cmpIndents + (penalty1 - penalty2);
+  }
+
+  private static ImmutableList<Change> buildScript(XdFile xdf1, XdFile xdf2) {
+    List<Change> reversed = new ArrayList<>();
+    for (int i1 = xdf1.nrec, i2 = xdf2.nrec; i1 >= 0 || i2 >= 0; i1--, i2--) {
+      if (xdf1.rchg(i1 - 1) || xdf2.rchg(i2 - 1)) {
+        int l1 = i1;
+        while (xdf1.rchg(i1 - 1)) {
+          i1--;
+        }
+        int l2 = i2;
+        while (xdf2.rchg(i2 - 1)) {
+          i2--;
+        }
+        reversed.add(new Change(i1, i2, l1 - i1, l2 - i2));
+      }
+    }
+    return ImmutableList.copyOf(reversed).reverse();
+  }
+
+  /** Writes the hunks of the changes in unified format, without the file headers. */
+  static void writeHunks(Lines one, Lines other, List<Change> changes, OutputStream out)
+      throws IOException {
+    int funcLinePrev = -1;
+    byte[] funcLine = new byte[0];
+    int first = 0;
+    while (first < changes.size()) {
+      // Find the last change of the hunk
+      int last = first;
+      while (last + 1 < changes.size()) {
+        Change prev = changes.get(last);
+        if (changes.get(last + 1).i1() - (prev.i1() + prev.chg1()) > MAX_COMMON) {
+          break;
+        }
+        last++;
+      }
+      Change xch = changes.get(first);
+      Change xche = changes.get(last);
+
+      int s1 = Math.max(xch.i1() - CONTEXT, 0);
+      int s2 = Math.max(xch.i2() - CONTEXT, 0);
+      int lctx = CONTEXT;
+      lctx = Math.min(lctx, one.size() - (xche.i1() + xche.chg1()));
+      lctx = Math.min(lctx, other.size() - (xche.i2() + xche.chg2()));
+      int e1 = xche.i1() + xche.chg1() + lctx;
+      int e2 = xche.i2() + xche.chg2() + lctx;
+
+      for (int l = s1 - 1; l != funcLinePrev && l >= 0 && l < one.size(); l--) {
+        byte[] found = funcName(one, l);
+        if (found != null) {
+          funcLine = found;
+          break;
+        }
+      }
+      funcLinePrev = s1 - 1;
+      writeHunkHeader(out, s1 + 1, e1 - s1, s2 + 1, e2 - s2, funcLine);
+
+      for (; s2 < xch.i2(); s2++) {
+        writeRecord(out, other, s2, ' ');
+      }
+      for (int c = first; ; c++) {
+        Change change = changes.get(c);
+        for (; s2 < change.i2(); s2++) {
+          writeRecord(out, other, s2, ' ');
+        }
+        for (int i = change.i1(); i < change.i1() + change.chg1(); i++) {
+          writeRecord(out, one, i, '-');
+        }
+        for (int i = change.i2(); i < change.i2() + change.chg2(); i++) {
+          writeRecord(out, other, i, '+');
+        }
+        s2 = change.i2() + change.chg2();
+        if (c == last) {
+          break;
+        }
+      }
+      for (s2 = xche.i2() + xche.chg2(); s2 < e2; s2++) {
+        writeRecord(out, other, s2, ' ');
+      }
+      first = last + 1;
+    }
+  }
+
+  /**
+   * Returns the function name for the hunk header if the line starts with an identifier, using
+   * xdiff's default rule, or null otherwise.
+   */
+  private static byte[] funcName(Lines lines, int line) {
+    int start = lines.start(line);
+    int len = lines.end(line) - start;
+    if (len == 0) {
+      return null;
+    }
+    byte c = lines.get(start);
+    if (!isAlpha(c) && c != '_' && c != '$') {
+      return null;
+    }
+    len = Math.min(len, FUNC_LINE_MAX);
+    while (len > 0 && isSpace(lines.get(start + len - 1))) {
+      len--;
+    }
+    byte[] result = new byte[len];
+    System.arraycopy(lines.data, start, result, 0, len);
+    return result;
+  }
+
+  private static void writeHunkHeader(OutputStream out, int s1, int c1, int s2, int c2,
+      byte[] func) throws IOException {
+    StringBuilder sb = new StringBuilder("@@ -");
+    sb.append(c1 != 0 ? s1 : s1 - 1);
+    if (c1 != 1) {
+      sb.append(',').append(c1);
+    }
+    sb.append(" +").append(c2 != 0 ? s2 : s2 - 1);
+    if (c2 != 1) {
+      sb.append(',').append(c2);
+    }
+    sb.append(" @@");
+    byte[] header = sb.toString().getBytes(UTF_8);
+    out.write(header);
+    if (func.length > 0) {
+      out.write(' ');
+      out.write(func, 0, Math.min(func.length, HUNK_HEADER_MAX - header.length - 2));
+    }
+    out.write('\n');
+  }
+
+  private static void writeRecord(OutputStream out, Lines lines, int line, char prefix)
+      throws IOException {
+    out.write(prefix);
+    lines.write(out, line);
+    int end = lines.end(line);
+    if (end > lines.start(line) && lines.get(end - 1) != '\n') {
+      out.write(NO_NEWLINE);
+    }
+  }
+
+  /** Same definition as git's sane_ctype, that only considers ASCII. */
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  private static boolean isAlpha(byte c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+}
@@ -20,16 +20,21 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
 import com.google.copybara.LocalParallelizer;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.profiler.Profiler;
 import com.google.copybara.util.console.Console;
 import com.google.protobuf.ByteString;
 import com.google.re2j.Pattern;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
@@ -37,8 +42,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /**
@@ -53,6 +60,7 @@ public final class MergeImportTool {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final Console console;
+  private final Profiler profiler;
   private final MergeRunner mergeRunner;
   private final int threadsForMergeImport;
   @Nullable
@@ -61,10 +69,12 @@ public final class MergeImportTool {
 
   public MergeImportTool(
       Console console,
+      Profiler profiler,
       MergeRunner mergeRunner,
       int threadsForMergeImport,
       @Nullable Pattern debugMergeImport) {
     this.console = console;
+    this.profiler = profiler;
     this.mergeRunner = mergeRunner;
     this.threadsForMergeImport = threadsForMergeImport;
     this.debugMergeImport = debugMergeImport;
@@ -93,96 +103,105 @@ public final class MergeImportTool {
       Glob matcher,
       Path packagePath)
       throws IOException, ValidationException {
+    long startNanos = System.nanoTime();
     HashSet<Path> visitedSet = new HashSet<>();
     HashSet<Path> mergeErrorPaths = new HashSet<>();
     HashSet<Path> troublePaths = new HashSet<>();
-    HashSet<FilePathInformation> filesToProcess = new HashSet<>();
     maybeDebugFolder(originWorkdir, "current");
     maybeDebugFolder(baselineWorkdir, "baseline");
     maybeDebugFolder(destinationWorkdir, "destination");
-    SimpleFileVisitor<Path> originWorkdirFileVisitor =
-        new SimpleFileVisitor<>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            if (attrs.isSymbolicLink()) {
-              return FileVisitResult.CONTINUE;
-            }
-            Path relativeFile = originWorkdir.relativize(file);
-            Path baselineFile = baselineWorkdir.resolve(relativeFile);
-            Path destinationFile = destinationWorkdir.resolve(relativeFile);
-            Path relativizedFile = packagePath.relativize(relativeFile);
-            boolean match = matcher.relativeTo(Path.of("")).matches(relativizedFile);
-
-            // All 3 files must be present to merge
-            if (!Files.exists(destinationFile) || !Files.exists(baselineFile) || !match) {
-              return FileVisitResult.CONTINUE;
-            }
-            // No internal-only modifications, no need to merge
-            try {
-              if (compareFileContents(destinationFile, baselineFile)) {
-                return FileVisitResult.CONTINUE;
+    LocalParallelizer parallelizer = new LocalParallelizer(threadsForMergeImport, THREADS_MIN_SIZE);
+    ContentHashes hashes = new ContentHashes();
+    ConcurrentHashMultiset<FileBucket> buckets = ConcurrentHashMultiset.create();
+
+    List<List<FilePathInformation>> toMerge =
+        parallelizer.run(
+            listFiles(originWorkdir),
+            batch -> {
+              List<FilePathInformation> result = new ArrayList<>();
+              for (Path file : batch) {
+                Path relativeFile = originWorkdir.relativize(file);
+                Path relativizedFile = packagePath.relativize(relativeFile);
+                if (!matcher.relativeTo(Path.of("")).matches(relativizedFile)) {
+                  continue;
+                }
+                Path baselineFile = baselineWorkdir.resolve(relativeFile);
+                Path destinationFile = destinationWorkdir.resolve(relativeFile);
+                // All 3 files must be present to merge
+                if (!Files.exists(destinationFile) || !Files.exists(baselineFile)) {
+                  continue;
+                }
+                try {
+                  // No internal-only modifications or same changes to both upstream and
+                  // downstream, no need to merge
+                  if (hashes.sameContent(destinationFile, baselineFile)
+                      || hashes.sameContent(destinationFile, file)) {
+                    buckets.add(FileBucket.IDENTICAL);
+                    continue;
+                  }
+                } catch (IOException e) {
+                  logger.atWarning().withCause(e).log(
+                      "Cannot read one of (%s, %s, %s) - will not attempt to merge",
+                      file, baselineFile, destinationFile);
+                  continue;
+                }
+                buckets.add(FileBucket.NEEDS_MERGE);
+                result.add(
+                    FilePathInformation.create(file, relativeFile, baselineFile, destinationFile));
               }
-            } catch (IOException e) {
-              logger.atWarning().withCause(e).log(
-                  "Cannot read one of (%s, %s) - will not attempt to merge",
-                  baselineFile, destinationFile);
-              return FileVisitResult.CONTINUE;
-            }
-            try {
-              // same changes to both upstream and downstream, no need to merge
-              if (compareFileContents(destinationFile, file)) {
-                return FileVisitResult.CONTINUE;
-              }
-            } catch (IOException e) {
-              logger.atWarning().withCause(e).log(
-                  "Cannot read one of (%s, %s) - will not attempt to merge", file, destinationFile);
-              return FileVisitResult.CONTINUE;
-            }
-            filesToProcess.add(
-                FilePathInformation.create(file, relativeFile, baselineFile, destinationFile));
+              return result;
+            });
 
-            return FileVisitResult.CONTINUE;
-          }
-        };
+    logger.atInfo().log("Using %d thread(s) for merging files", threadsForMergeImport);
+    List<OperationResults> results =
+        parallelizer.run(
+            ImmutableList.copyOf(Iterables.concat(toMerge)), new BatchCaller(diffToolWorkdir));
+    for (OperationResults result : results) {
+      visitedSet.addAll(result.visitedFiles());
+      mergeErrorPaths.addAll(result.mergeErrorPaths());
+      troublePaths.addAll(result.troublePaths());
+    }
 
-    SimpleFileVisitor<Path> destinationWorkdirFileVisitor =
-        new SimpleFileVisitor<>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-              throws IOException {
-            if (attrs.isSymbolicLink()) {
-              return FileVisitResult.CONTINUE;
-            }
+    parallelizer.run(
+        listFiles(destinationWorkdir),
+        batch -> {
+          for (Path file : batch) {
             Path relativeFile = destinationWorkdir.relativize(file);
-            Path originFile = originWorkdir.resolve(relativeFile);
-            Path baselineFile = baselineWorkdir.resolve(relativeFile);
             if (visitedSet.contains(relativeFile)) {
-              return FileVisitResult.CONTINUE;
+              continue;
             }
-            // destination only file - keep it
-            if (!Files.exists(originFile) && !Files.exists(baselineFile)) {
-              Files.createDirectories(originWorkdir.resolve(relativeFile).getParent());
-              Files.copy(file, originWorkdir.resolve(relativeFile));
+            Path originFile = originWorkdir.resolve(relativeFile);
+            if (Files.exists(originFile)) {
+              continue;
             }
-            // file was deleted in origin, propagate to destination
-            if (!Files.exists(originFile) && Files.exists(baselineFile)) {
+            if (Files.exists(baselineWorkdir.resolve(relativeFile))) {
+              // file was deleted in origin, propagate to destination
               Files.delete(file);
+              buckets.add(FileBucket.DELETED);
+            } else {
+              // destination only file - keep it
+              Files.createDirectories(originFile.getParent());
+              Files.copy(file, originFile);
+              buckets.add(FileBucket.DESTINATION_ONLY);
             }
-            return FileVisitResult.CONTINUE;
           }
-        };
-
-    Files.walkFileTree(originWorkdir, originWorkdirFileVisitor);
-    logger.atInfo().log("Using %d thread(s) for merging files", threadsForMergeImport);
-    List<OperationResults> results =
-        new LocalParallelizer(threadsForMergeImport, THREADS_MIN_SIZE).run(
-            ImmutableSet.copyOf(filesToProcess), new BatchCaller(diffToolWorkdir));
-    for (OperationResults result : results) {
-      visitedSet.addAll(result.visitedFiles());
-      mergeErrorPaths.addAll(result.mergeErrorPaths());
-      troublePaths.addAll(result.troublePaths());
-    }
-    Files.walkFileTree(destinationWorkdir, destinationWorkdirFileVisitor);
+          return true;
+        });
+    profiler.simpleTask(
+        "merge_import_files",
+        ImmutableMap.of(
+            "identical", String.valueOf(buckets.count(FileBucket.IDENTICAL)),
+            "destination_only", String.valueOf(buckets.count(FileBucket.DESTINATION_ONLY)),
+            "deleted", String.valueOf(buckets.count(FileBucket.DELETED)),
+            "merged", String.valueOf(buckets.count(FileBucket.NEEDS_MERGE))),
+        startNanos,
+        System.nanoTime());
+    console.verboseFmt(
+        "Merge import files: %d identical, %d destination only, %d deleted, %d merged",
+        buckets.count(FileBucket.IDENTICAL),
+        buckets.count(FileBucket.DESTINATION_ONLY),
+        buckets.count(FileBucket.DELETED),
+        buckets.count(FileBucket.NEEDS_MERGE));
     if (!mergeErrorPaths.isEmpty()) {
       mergeErrorPaths.forEach(path -> console.warn(String.format("Merge error for path %s", path)));
     }
@@ -332,23 +351,56 @@ public final class MergeImportTool {
     MergeResult merge(Path lhs, Path rhs, Path baseline, Path workdir) throws IOException;
   }
 
-  private static boolean compareFileContents(Path file1, Path file2) throws IOException {
-    try (BufferedInputStream inputStream =
-            new BufferedInputStream(new FileInputStream(file1.toFile()));
-        BufferedInputStream inputStream2 =
-            new BufferedInputStream(new FileInputStream(file2.toFile()))) {
+  /** Lists the files under {@code root}, excluding symlinks. */
+  private static List<Path> listFiles(Path root) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (!attrs.isSymbolicLink()) {
+              files.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return files;
+  }
+
+  /** The outcome for a file during the merge import, recorded in the profiler. */
+  private enum FileBucket {
+    /** Destination has no changes or the same changes as the origin. */
+    IDENTICAL,
+    /** Only exists in the destination. Kept. */
+    DESTINATION_ONLY,
+    /** Deleted in the origin. Deleted in the destination too. */
+    DELETED,
+    /** Changed in both origin and destination. */
+    NEEDS_MERGE
+  }
 
-      int ptr;
-      while ((ptr = inputStream.read()) != -1) {
-        if (ptr != inputStream2.read()) {
-          return false;
-        }
-      }
-      // file2 has contents remaining
-      if (inputStream2.read() != -1) {
+  /**
+   * Compares files by size and content hash, so that the files that are compared with more than one
+   * file (The destination one is compared with the baseline and the origin) are only read once.
+   */
+  private static final class ContentHashes {
+    private final ConcurrentHashMap<Path, HashCode> hashes = new ConcurrentHashMap<>();
+
+    boolean sameContent(Path file1, Path file2) throws IOException {
+      if (Files.size(file1) != Files.size(file2)) {
         return false;
       }
+      return hash(file1).equals(hash(file2));
+    }
+
+    private HashCode hash(Path file) throws IOException {
+      HashCode hash = hashes.get(file);
+      if (hash == null) {
+        hash = MoreFiles.asByteSource(file).hash(Hashing.sha256());
+        hashes.put(file, hash);
+      }
+      return hash;
     }
-    return true;
   }
 }
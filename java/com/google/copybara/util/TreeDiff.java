@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.copybara.LocalParallelizer;
+import com.google.copybara.exception.ValidationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Computes the diff of two trees in-process, producing the same output as {@code git diff
+ * --no-index} with the default git configuration, without forking a git process.
+ *
+ * <p>Files are diffed in parallel and written in order to the output as they are computed, so the
+ * whole diff is never kept in memory. Files that are identical are skipped without reading them in
+ * memory.
+ *
+ * <p>Rename detection is not implemented: {@link #create} returns null when renames could be
+ * found, so that the caller can use git instead.
+ */
+final class TreeDiff {
+
+  /** git's core.bigFileThreshold default. Bigger files are treated as binary by git. */
+  private static final long BIG_FILE_THRESHOLD = 512L * 1024 * 1024;
+  /** git looks for NUL bytes in this many bytes to decide if a file is binary. */
+  private static final int FIRST_FEW_BYTES = 8000;
+  /** Pairs of files diffed in parallel before writing their output. */
+  private static final int WINDOW_SIZE = 1024;
+  private static final long WINDOW_WEIGHT = 64L * 1024 * 1024;
+
+  private static final int MODE_DIR = 040000;
+  private static final int MODE_FILE = 0100644;
+  private static final int MODE_EXECUTABLE = 0100755;
+  private static final int MODE_SYMLINK = 0120000;
+  private static final int MODE_TYPE_MASK = 0170000;
+
+  private static final String DEV_NULL = "/dev/null";
+  private static final String NULL_ID = "0000000";
+  private static final int ABBREV = 7;
+
+  private static final Comparator<String> GIT_ORDER =
+      Comparator.comparing(s -> s.getBytes(UTF_8), UnsignedBytes.lexicographicalComparator());
+
+  /** A file in one of the trees. {@code name} is the path as printed by git. */
+  private record Entry(Path path, String name, int mode, long size) {}
+
+  /** A file to diff. One of the sides is null for additions and deletions. */
+  private record FilePair(@Nullable Entry one, @Nullable Entry two) {
+    long weight() {
+      return (one == null ? 0 : one.size()) + (two == null ? 0 : two.size());
+    }
+  }
+
+  private final ImmutableList<FilePair> pairs;
+  private final boolean ignoreCrAtEol;
+  private final boolean nameStatus;
+
+  private TreeDiff(ImmutableList<FilePair> pairs, boolean ignoreCrAtEol, boolean nameStatus) {
+    this.pairs = pairs;
+    this.ignoreCrAtEol = ignoreCrAtEol;
+    this.nameStatus = nameStatus;
+  }
+
+  /**
+   * Prepares the diff of {@code one} and {@code other}, that can be files or directories. Paths in
+   * the output are relative to {@code root}.
+   *
+   * <p>Returns null if the diff cannot be computed in-process with the same result as git, for
+   * example if renames could be detected or there are special files.
+   *
+   * @param nameStatus output the status and name of the changed files, separated by NUL, like
+   *     {@code git diff --name-status -z}, instead of a patch
+   */
+  @Nullable
+  static TreeDiff create(Path root, Path one, Path other, boolean ignoreCrAtEol,
+      boolean detectRenames, boolean nameStatus) throws IOException {
+    Entry entry1 = entry(root, one);
+    Entry entry2 = entry(root, other);
+    // Let git report the error
+    if (entry1 == null || entry2 == null) {
+      return null;
+    }
+    ImmutableList.Builder<FilePair> pairs = ImmutableList.builder();
+    if (!walk(pairs, entry1, entry2)) {
+      return null;
+    }
+    ImmutableList<FilePair> result = pairs.build();
+    if (detectRenames
+        && result.stream().anyMatch(p -> p.one() == null)
+        && result.stream().anyMatch(p -> p.two() == null)) {
+      return null;
+    }
+    return new TreeDiff(result, ignoreCrAtEol, nameStatus);
+  }
+
+  @Nullable
+  private static Entry entry(Path root, Path path) throws IOException {
+    return entry(path, root.relativize(path).toString());
+  }
+
+  /** Returns the entry for the path, null if it doesn't exist, or mode 0 if not supported. */
+  @Nullable
+  private static Entry entry(Path path, String name) throws IOException {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      return null;
+    }
+    BasicFileAttributes attrs =
+        Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    int mode = 0;
+    if (attrs.isDirectory()) {
+      mode = MODE_DIR;
+    } else if (attrs.isSymbolicLink()) {
+      mode = MODE_SYMLINK;
+    } else if (attrs.isRegularFile()) {
+      mode = isExecutable(path) ? MODE_EXECUTABLE : MODE_FILE;
+    }
+    return new Entry(path, name, mode, attrs.size());
+  }
+
+  /** git only looks at the owner executable bit. */
+  private static boolean isExecutable(Path path) throws IOException {
+    PosixFileAttributeView posix = Files.getFileAttributeView(
+        path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (posix == null) {
+      return Files.isExecutable(path);
+    }
+    return posix.readAttributes().permissions().contains(PosixFilePermission.OWNER_EXECUTE);
+  }
+
+  /**
+   * Walks both trees in the same order as git, adding the pairs of files to diff. Returns false if
+   * a file is not supported.
+   */
+  private static boolean walk(ImmutableList.Builder<FilePair> pairs, @Nullable Entry one,
+      @Nullable Entry two) throws IOException {
+    if ((one != null && one.mode() == 0) || (two != null && two.mode() == 0)) {
+      return false;
+    }
+    if ((one != null && one.size() > BIG_FILE_THRESHOLD)
+        || (two != null && two.size() > BIG_FILE_THRESHOLD)) {
+      return false;
+    }
+    boolean dir1 = one != null && one.mode() == MODE_DIR;
+    boolean dir2 = two != null && two.mode() == MODE_DIR;
+    if (!dir1 && !dir2) {
+      pairs.add(new FilePair(one, two));
+      return true;
+    }
+    // A file replaced by a directory or vice versa. The file goes first.
+    if (one != null && two != null && dir1 != dir2) {
+      if (dir1) {
+        pairs.add(new FilePair(null, two));
+        two = null;
+      } else {
+        pairs.add(new FilePair(one, null));
+        one = null;
+      }
+    }
+    List<String> names1 = list(one);
+    List<String> names2 = list(two);
+    int i1 = 0;
+    int i2 = 0;
+    while (i1 < names1.size() || i2 < names2.size()) {
+      int comp;
+      if (i1 == names1.size()) {
+        comp = 1;
+      } else if (i2 == names2.size()) {
+        comp = -1;
+      } else {
+        comp = GIT_ORDER.compare(names1.get(i1), names2.get(i2));
+      }
+      Entry child1 = null;
+      Entry child2 = null;
+      if (comp <= 0) {
+        String name = names1.get(i1++);
+        child1 = entry(one.path().resolve(name), one.name() + "/" + name);
+      }
+      if (comp >= 0) {
+        String name = names2.get(i2++);
+        child2 = entry(two.path().resolve(name), two.name() + "/" + name);
+      }
+      if (!walk(pairs, child1, child2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<String> list(@Nullable Entry dir) throws IOException {
+    List<String> names = new ArrayList<>();
+    if (dir == null) {
+      return names;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.path())) {
+      for (Path child : stream) {
+        names.add(child.getFileName().toString());
+      }
+    }
+    names.sort(GIT_ORDER);
+    return names;
+  }
+
+  /**
+   * Writes the diff to {@code out}. Files are diffed in parallel in windows, so that the memory
+   * used is bounded.
+   */
+  void write(OutputStream out, LocalParallelizer parallelizer) throws IOException {
+    List<FilePair> window = new ArrayList<>();
+    long weight = 0;
+    for (FilePair pair : pairs) {
+      window.add(pair);
+      weight += pair.weight();
+      if (window.size() >= WINDOW_SIZE || weight >= WINDOW_WEIGHT) {
+        writeWindow(window, out, parallelizer);
+        window.clear();
+        weight = 0;
+      }
+    }
+    writeWindow(window, out, parallelizer);
+  }
+
+  private void writeWindow(List<FilePair> window, OutputStream out,
+      LocalParallelizer parallelizer) throws IOException {
+    List<byte[]> results;
+    try {
+      results = parallelizer.run(window, FilePair::weight, batch -> {
+        ByteArrayOutputStream batchOut = new ByteArrayOutputStream();
+        for (FilePair pair : batch) {
+          writePair(pair, batchOut);
+        }
+        return batchOut.toByteArray();
+      });
+    } catch (ValidationException e) {
+      throw new IllegalStateException("Unexpected error diffing files", e);
+    }
+    for (byte[] result : results) {
+      out.write(result);
+    }
+  }
+
+  private void writePair(FilePair pair, OutputStream out) throws IOException {
+    Entry one = pair.one();
+    Entry two = pair.two();
+    if (one != null && two != null && one.mode() == two.mode() && sameContent(one, two)) {
+      return;
+    }
+    boolean typeChange = one != null && two != null
+        && (one.mode() & MODE_TYPE_MASK) != (two.mode() & MODE_TYPE_MASK);
+    if (nameStatus) {
+      String status = one == null ? "A" : two == null ? "D" : typeChange ? "T" : "M";
+      String name = one == null ? two.name() : one.name();
+      out.write((status + "\0" + name + "\0").getBytes(UTF_8));
+    } else if (typeChange) {
+      // git splits it into a deletion and an addition
+      writePatch(one, null, out);
+      writePatch(null, two, out);
+    } else {
+      writePatch(one, two, out);
+    }
+  }
+
+  private static boolean sameContent(Entry one, Entry two) throws IOException {
+    if (one.mode() == MODE_SYMLINK) {
+      return Files.readSymbolicLink(one.path()).equals(Files.readSymbolicLink(two.path()));
+    }
+    return one.size() == two.size() && Files.mismatch(one.path(), two.path()) == -1;
+  }
+
+  private void writePatch(@Nullable Entry one, @Nullable Entry two, OutputStream out)
+      throws IOException {
+    String nameA = one != null ? one.name() : two.name();
+    String nameB = two != null ? two.name() : one.name();
+    String aOne = quoteTwo("a/", nameA);
+    String bTwo = quoteTwo("b/", nameB);
+
+    StringBuilder header = new StringBuilder("diff --git ").append(aOne).append(' ')
+        .append(bTwo).append('\n');
+    boolean mustShowHeader = false;
+    if (one == null) {
+      header.append(String.format("new file mode %06o\n", two.mode()));
+      mustShowHeader = true;
+    } else if (two == null) {
+      header.append(String.format("deleted file mode %06o\n", one.mode()));
+      mustShowHeader = true;
+    } else if (one.mode() != two.mode()) {
+      header.append(String.format("old mode %06o\n", one.mode()));
+      header.append(String.format("new mode %06o\n", two.mode()));
+      mustShowHeader = true;
+    }
+
+    byte[] content1 = one == null ? new byte[0] : content(one);
+    byte[] content2 = two == null ? new byte[0] : content(two);
+    String id1 = one == null ? NULL_ID : blobId(content1);
+    String id2 = two == null ? NULL_ID : blobId(content2);
+    if (!id1.equals(id2)) {
+      header.append("index ").append(id1).append("..").append(id2);
+      if (one != null && two != null && one.mode() == two.mode()) {
+        header.append(String.format(" %06o", one.mode()));
+      }
+      header.append('\n');
+    }
+
+    String lbl0 = one != null ? aOne : DEV_NULL;
+    String lbl1 = two != null ? bTwo : DEV_NULL;
+    if (isBinary(content1) || isBinary(content2)) {
+      if (!id1.equals(id2)) {
+        header.append("Binary files ").append(lbl0).append(" and ").append(lbl1)
+            .append(" differ\n");
+        mustShowHeader = true;
+      }
+      if (mustShowHeader) {
+        out.write(header.toString().getBytes(UTF_8));
+      }
+      return;
+    }
+
+    LineDiff.Lines lines1 = new LineDiff.Lines(content1);
+    LineDiff.Lines lines2 = new LineDiff.Lines(content2);
+    ImmutableList<LineDiff.Change> changes = LineDiff.diff(lines1, lines2, ignoreCrAtEol);
+    if (changes.isEmpty()) {
+      if (mustShowHeader) {
+        out.write(header.toString().getBytes(UTF_8));
+      }
+      return;
+    }
+    header.append("--- ").append(lbl0).append(one != null && nameA.contains(" ") ? "\t" : "")
+        .append('\n');
+    header.append("+++ ").append(lbl1).append(two != null && nameB.contains(" ") ? "\t" : "")
+        .append('\n');
+    out.write(header.toString().getBytes(UTF_8));
+    LineDiff.writeHunks(lines1, lines2, changes, out);
+  }
+
+  private static byte[] content(Entry entry) throws IOException {
+    if (entry.mode() == MODE_SYMLINK) {
+      return Files.readSymbolicLink(entry.path()).toString().getBytes(UTF_8);
+    }
+    return Files.readAllBytes(entry.path());
+  }
+
+  /** Abbreviated git blob id of the content. */
+  @SuppressWarnings("deprecation") // git uses SHA-1 for the object ids
+  private static String blobId(byte[] content) {
+    return Hashing.sha1().newHasher()
+        .putBytes(("blob " + content.length + "\0").getBytes(UTF_8))
+        .putBytes(content)
+        .hash()
+        .toString()
+        .substring(0, ABBREV);
+  }
+
+  private static boolean isBinary(byte[] content) {
+    int len = Math.min(content.length, FIRST_FEW_BYTES);
+    for (int i = 0; i < len; i++) {
+      if (content[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Quotes {@code prefix + name} using C style quoting if the name contains special characters, as
+   * git does with the default core.quotePath.
+   */
+  private static String quoteTwo(String prefix, String name) {
+    byte[] bytes = name.getBytes(UTF_8);
+    boolean needsQuote = false;
+    for (byte b : bytes) {
+      if (needsQuote(b)) {
+        needsQuote = true;
+        break;
+      }
+    }
+    if (!needsQuote) {
+      return prefix + name;
+    }
+    StringBuilder sb = new StringBuilder("\"").append(prefix);
+    for (byte b : bytes) {
+      int c = b & 0xff;
+      if (!needsQuote(b)) {
+        sb.append((char) c);
+        continue;
+      }
+      sb.append('\\');
+      switch (c) {
+        case 0x07 -> sb.append('a');
+        case '\b' -> sb.append('b');
+        case '\t' -> sb.append('t');
+        case '\n' -> sb.append('n');
+        case 0x0b -> sb.append('v');
+        case '\f' -> sb.append('f');
+        case '\r' -> sb.append('r');
+        case '"', '\\' -> sb.append((char) c);
+        default -> sb.append((char) ('0' + ((c >> 6) & 03)))
+            .append((char) ('0' + ((c >> 3) & 07)))
+            .append((char) ('0' + (c & 07)));
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static boolean needsQuote(byte b) {
+    int c = b & 0xff;
+    return c < 0x20 || c == '"' || c == '\\' || c >= 0x7f;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.writeFile;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.config.ConfigValidator;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitEnvironment;
+import com.google.copybara.git.GitRepository;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.RecordsProcessCallDestination;
+import com.google.copybara.testing.SkylarkTestExecutor;
+import com.google.copybara.testing.git.GitTestUtil;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Message.MessageType;
+import com.google.copybara.util.console.StarlarkMode;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BatchMigrateCmdTest {
+
+  private SkylarkTestExecutor skylark;
+  private TestingConsole console;
+  private OptionsBuilder optionsBuilder;
+  private RecordsProcessCallDestination destination;
+  private Path temp;
+  private Path remote;
+  private GitRepository repo;
+  private String url;
+  private String primaryBranch;
+  private List<String> loadedConfigs;
+
+  @Before
+  public void setUp() throws Exception {
+    console = new TestingConsole();
+    temp = Files.createTempDirectory("temp");
+    optionsBuilder = new OptionsBuilder();
+    optionsBuilder.setConsole(console).setOutputRootToTmpDir();
+    optionsBuilder.setForce(true);
+    optionsBuilder.setEnvironment(GitTestUtil.getGitEnv().getEnvironment());
+    optionsBuilder.setHomeDir(Files.createTempDirectory("home").toString());
+    optionsBuilder.general.starlarkMode = StarlarkMode.STRICT.name();
+    optionsBuilder.general.dryRunMode = true;
+    remote = Files.createTempDirectory("remote");
+    repo =
+        GitRepository.newRepo(
+                /*verbose=*/ true,
+                remote,
+                new GitEnvironment(optionsBuilder.general.getEnvironment()))
+            .init();
+    primaryBranch = repo.getPrimaryBranch();
+    writeFile(remote, "test.txt", "some content");
+    repo.add().files("test.txt").run();
+    git("commit", "-m", "first file");
+    url = "file://" + remote.toFile().getAbsolutePath();
+
+    destination = new RecordsProcessCallDestination();
+    optionsBuilder.testingOptions.destination = destination;
+    optionsBuilder.workflowOptions.batchMigrateJobs = 1;
+    skylark = new SkylarkTestExecutor(optionsBuilder);
+    loadedConfigs = new ArrayList<>();
+  }
+
+  @Test
+  public void testRunsMatchingWorkflows() throws Exception {
+    BatchMigrateCmd cmd =
+        getBatchMigrateCmd(
+            workflow("import_a", primaryBranch)
+                + workflow("import_b", primaryBranch)
+                + workflow("other", primaryBranch));
+
+    assertThat(cmd.run(commandEnv("import_*"))).isEqualTo(ExitCode.SUCCESS);
+
+    assertThat(loadedConfigs).hasSize(1);
+    assertThat(destination.processed).hasSize(2);
+    console.assertThat()
+        .onceInLog(MessageType.INFO, "Workflow 'import_a': SUCCESS")
+        .onceInLog(MessageType.INFO, "Workflow 'import_b': SUCCESS")
+        .timesInLog(0, MessageType.INFO, "Workflow 'other'.*");
+  }
+
+  @Test
+  public void testExitCodePerWorkflow() throws Exception {
+    BatchMigrateCmd cmd =
+        getBatchMigrateCmd(
+            workflow("good", primaryBranch) + workflow("bad", "not_a_branch"));
+
+    assertThat(cmd.run(commandEnv("bad", "good"))).isEqualTo(ExitCode.CONFIGURATION_ERROR);
+
+    assertThat(destination.processed).hasSize(1);
+    console.assertThat()
+        .onceInLog(MessageType.INFO, "Workflow 'good': SUCCESS")
+        .onceInLog(MessageType.INFO, "Workflow 'bad': CONFIGURATION_ERROR");
+  }
+
+  @Test
+  public void testSelectMigrations() throws Exception {
+    ImmutableList<String> migrations = ImmutableList.of("foo", "foo_bar", "bar", "a.b");
+
+    assertThat(BatchMigrateCmd.selectMigrations(migrations, ImmutableList.of("*bar", "foo")))
+        .containsExactly("foo_bar", "bar", "foo")
+        .inOrder();
+    assertThat(BatchMigrateCmd.selectMigrations(migrations, ImmutableList.of("a.b")))
+        .containsExactly("a.b");
+    CommandLineException e =
+        assertThrows(
+            CommandLineException.class,
+            () -> BatchMigrateCmd.selectMigrations(migrations, ImmutableList.of("a?b")));
+    assertThat(e).hasMessageThat().contains("No migration matches 'a?b'");
+  }
+
+  private CommandEnv commandEnv(String... workflows) throws Exception {
+    return new CommandEnv(
+        temp,
+        optionsBuilder.build(),
+        ImmutableList.<String>builder()
+            .add(temp.resolve("copy.bara.sky").toString())
+            .add(workflows)
+            .build());
+  }
+
+  private String git(String... params) throws RepoException {
+    return repo.git(remote, params).getStdout();
+  }
+
+  private String workflow(String name, String ref) {
+    return """
+        core.workflow(
+            name = '%s',
+            origin = git.origin(
+                 url = '%s',
+                 ref = '%s',
+            ),
+            destination = testing.destination(),
+            mode = 'SQUASH',
+            authoring = authoring.pass_thru('example <example@example.com>'),
+        )
+        """
+        .formatted(name, url, ref);
+  }
+
+  private BatchMigrateCmd getBatchMigrateCmd(String configContent) {
+    ModuleSet moduleSet = skylark.createModuleSet();
+    return new BatchMigrateCmd(
+        new ConfigValidator() {},
+        migration -> {},
+        (configPath, sourceRef) -> {
+          loadedConfigs.add(configPath);
+          return new ConfigLoader(
+              moduleSet,
+              skylark.createConfigFile("copy.bara.sky", configContent),
+              optionsBuilder.general.getStarlarkMode());
+        });
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.copybara.exception.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalParallelizerTest {
+
+  private static final ImmutableList<Integer> ELEMENTS =
+      IntStream.range(0, 1000).boxed().collect(ImmutableList.toImmutableList());
+
+  @Test
+  public void testSmallListRunsInOneBatch() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(4, 100).run(ELEMENTS.subList(0, 10), LocalParallelizerTest::copy);
+
+    assertThat(Iterables.getOnlyElement(result)).isEqualTo(ELEMENTS.subList(0, 10));
+  }
+
+  @Test
+  public void testAllElementsProcessedOnce() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(4, 10).run(ELEMENTS, LocalParallelizerTest::copy);
+
+    assertThat(result.size()).isGreaterThan(4);
+    assertThat(Iterables.concat(result)).containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testNonCollectionInput() throws Exception {
+    Iterable<Integer> lazy = () -> ELEMENTS.iterator();
+
+    List<List<Integer>> result =
+        new LocalParallelizer(4, 10).run(lazy, LocalParallelizerTest::copy);
+
+    assertThat(Iterables.concat(result)).containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testHeavyElementsGetTheirOwnBatch() throws Exception {
+    List<List<Integer>> result =
+        new LocalParallelizer(2, 10)
+            .run(
+                ELEMENTS,
+                e -> e % 100 == 0 ? LocalParallelizer.MAX_BATCH_WEIGHT : 1,
+                LocalParallelizerTest::copy);
+
+    for (List<Integer> batch : result) {
+      for (int i = 0; i < batch.size() - 1; i++) {
+        assertThat(batch.get(i) % 100).isNotEqualTo(0);
+      }
+    }
+    assertThat(Iterables.concat(result)).containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testNestedUseInTheSamePool() throws Exception {
+    LocalParallelizer parallelizer = new LocalParallelizer(2, 1);
+
+    // Every outer batch waits for inner batches that need the threads of the same pool
+    List<Integer> result =
+        parallelizer.run(
+            ELEMENTS.subList(0, 100),
+            outer -> {
+              int sum = 0;
+              for (List<Integer> inner : parallelizer.run(ELEMENTS, LocalParallelizerTest::copy)) {
+                sum += inner.size();
+              }
+              return sum;
+            });
+
+    assertThat(result.size()).isGreaterThan(2);
+    assertThat(ImmutableSet.copyOf(result)).containsExactly(ELEMENTS.size());
+  }
+
+  @Test
+  public void testExceptionIsPropagated() {
+    ValidationException e =
+        assertThrows(
+            ValidationException.class,
+            () ->
+                new LocalParallelizer(4, 10)
+                    .run(
+                        ELEMENTS,
+                        batch -> {
+                          if (Iterables.contains(batch, 500)) {
+                            throw new ValidationException("Found 500");
+                          }
+                          return true;
+                        }));
+    assertThat(e).hasMessageThat().isEqualTo("Found 500");
+  }
+
+  private static List<Integer> copy(Iterable<Integer> batch) {
+    List<Integer> result = new ArrayList<>();
+    Iterables.addAll(result, batch);
+    return result;
+  }
+}
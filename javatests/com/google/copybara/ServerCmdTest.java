@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServerCmdTest {
+
+  private Path temp;
+  private Path socket;
+  private OptionsBuilder options;
+  private List<List<String>> requests;
+  private ExecutorService executor;
+  private Future<ExitCode> server;
+
+  @Before
+  public void setUp() throws Exception {
+    temp = Files.createTempDirectory("server");
+    socket = temp.resolve("copybara.sock");
+    requests = Collections.synchronizedList(new ArrayList<>());
+    options = new OptionsBuilder();
+    options.setConsole(new TestingConsole()).setOutputRootToTmpDir();
+    options.general.serverReadTimeout = Duration.ofMillis(500);
+    ServerCmd cmd = newServerCmd();
+    CommandEnv env =
+        new CommandEnv(temp, options.build(), ImmutableList.of(socket.toString()));
+    executor = Executors.newSingleThreadExecutor();
+    server = executor.submit(() -> cmd.run(env));
+    for (int i = 0; i < 100 && !Files.exists(socket); i++) {
+      Thread.sleep(50);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testRequests() throws Exception {
+    List<String> response = request("migrate", "/tmp/copy.bara.sky", "default", "--force");
+    assertThat(response.get(0)).contains("INFO: Running migrate");
+    assertThat(response.get(response.size() - 1)).isEqualTo("EXIT 0");
+
+    response = request("validate", "/tmp/copy.bara.sky");
+    assertThat(response.get(response.size() - 1)).isEqualTo("EXIT 2");
+
+    assertThat(requests)
+        .containsExactly(
+            ImmutableList.of("migrate", "/tmp/copy.bara.sky", "default", "--force"),
+            ImmutableList.of("validate", "/tmp/copy.bara.sky"))
+        .inOrder();
+  }
+
+  @Test
+  public void testOnlySomeCommandsAreAllowed() throws Exception {
+    List<String> response = request("serve", "/tmp/other.sock");
+    assertThat(response.get(0)).contains("The first argument should be one of");
+    assertThat(response.get(response.size() - 1)).isEqualTo("EXIT 1");
+    assertThat(requests).isEmpty();
+  }
+
+  @Test
+  public void testOnlyTheOwnerCanConnect() throws Exception {
+    assertThat(Files.getPosixFilePermissions(socket))
+        .containsExactly(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+    try (Stream<Path> files = Files.list(socket.getParent())) {
+      assertThat(files.collect(toImmutableList())).containsExactly(socket);
+    }
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    assertThat(request("shutdown")).containsExactly("EXIT 0");
+    assertThat(server.get(10, TimeUnit.SECONDS)).isEqualTo(ExitCode.SUCCESS);
+    assertThat(Files.exists(socket)).isFalse();
+  }
+
+  @Test
+  public void testConnectionsWithoutRequestAreClosed() throws Exception {
+    ExecutorService reader = Executors.newSingleThreadExecutor();
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      Future<byte[]> read = reader.submit(() -> Channels.newInputStream(channel).readAllBytes());
+      assertThat(read.get(10, TimeUnit.SECONDS)).isEmpty();
+    } finally {
+      reader.shutdownNow();
+    }
+    // The server keeps serving other requests
+    List<String> response = request("info", "/tmp/copy.bara.sky");
+    assertThat(response.get(response.size() - 1)).isEqualTo("EXIT 0");
+  }
+
+  @Test
+  public void testDoesNotDeleteOtherFiles() throws Exception {
+    Path file = Files.writeString(temp.resolve("not_a_socket"), "content");
+    CommandEnv env = new CommandEnv(temp, options.build(), ImmutableList.of(file.toString()));
+
+    ValidationException e =
+        assertThrows(ValidationException.class, () -> newServerCmd().run(env));
+
+    assertThat(e).hasMessageThat().contains("already exists and is not a socket");
+    assertThat(Files.readString(file)).isEqualTo("content");
+  }
+
+  private ServerCmd newServerCmd() {
+    return new ServerCmd(
+        (args, console) -> {
+          requests.add(ImmutableList.copyOf(args));
+          console.info("Running " + args[0]);
+          return args[0].equals("validate") ? ExitCode.CONFIGURATION_ERROR : ExitCode.SUCCESS;
+        });
+  }
+
+  private List<String> request(String... args) throws Exception {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      channel.write(ByteBuffer.wrap((Joiner.on('\n').join(args) + "\n\n").getBytes(UTF_8)));
+      String response = new String(Channels.newInputStream(channel).readAllBytes(), UTF_8);
+      return ImmutableList.copyOf(response.split("\n"));
+    }
+  }
+}
@@ -119,6 +119,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import net.starlark.java.annot.StarlarkBuiltin;
 import net.starlark.java.annot.StarlarkMethod;
@@ -851,6 +852,232 @@ public class WorkflowTest {
     assertThat(destination.processed).hasSize(18);
   }
 
+  @Test
+  public void iterativeWorkflowPreparesChangesAhead() throws Exception {
+    for (int timestamp = 0; timestamp < 20; timestamp++) {
+      origin.addSimpleChange(timestamp);
+    }
+    options.workflowOptions.iterativePrepareAhead = 3;
+    Workflow<?, ?> workflow = iterativeWorkflow(/*previousRef=*/ "4");
+
+    workflow.run(workdir, ImmutableList.of("19"));
+    assertThat(destination.processed).hasSize(15);
+    int nextChange = 5;
+    for (ProcessedChange change : destination.processed) {
+      String asString = Integer.toString(nextChange);
+      assertThat(change.getOriginRef().asString()).isEqualTo(asString);
+      assertThat(change.getContent("file.txt")).isEqualTo(PREFIX + asString);
+      nextChange++;
+    }
+  }
+
+  @Test
+  public void iterativeWorkflowWithIncrementalCheckout() throws Exception {
+    for (int timestamp = 0; timestamp < 10; timestamp++) {
+      origin.addSimpleChange(timestamp);
+    }
+    options.workflowOptions.incrementalCheckout = true;
+    Workflow<?, ?> workflow = iterativeWorkflow(/*previousRef=*/ "4");
+
+    workflow.run(workdir, ImmutableList.of("9"));
+    assertThat(destination.processed).hasSize(5);
+    int nextChange = 5;
+    for (ProcessedChange change : destination.processed) {
+      String asString = Integer.toString(nextChange);
+      assertThat(change.getOriginRef().asString()).isEqualTo(asString);
+      assertThat(change.getContent("file.txt")).isEqualTo(PREFIX + asString);
+      nextChange++;
+    }
+  }
+
+  @Test
+  public void iterativeWorkflowWithIncrementalTransforms() throws Exception {
+    Path remoteWorkTree = Files.createTempDirectory("remote_work_tree");
+    GitRepository remote =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("gitdir"),
+                getGitEnv(),
+                /* verbose= */ true,
+                DEFAULT_TIMEOUT,
+                /* noVerify= */ false)
+            .withWorkTree(remoteWorkTree);
+    remote.init();
+    String primaryBranch = remote.getPrimaryBranch();
+    Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo 0");
+    Files.writeString(remoteWorkTree.resolve("bar.txt"), "bar 0");
+    remote.add().files("foo.txt", "bar.txt").run();
+    remote.simpleCommand("commit", "-m", "message_0");
+    options.workflowOptions.lastRevision = remote.resolveReference(primaryBranch).getHash();
+    for (int i = 1; i <= 3; i++) {
+      Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo " + i);
+      remote.add().files("foo.txt").run();
+      remote.simpleCommand("commit", "-m", "message_" + i);
+    }
+    options.workflowOptions.incrementalTransforms = true;
+
+    Workflow<?, ?> workflow =
+        (Workflow<?, ?>)
+            skylark
+                .loadConfig(
+                    """
+                    core.workflow(
+                        name = 'default',
+                        origin = git.origin(url='%s', ref='%s'),
+                        destination = testing.destination(),
+                        mode = 'ITERATIVE',
+                        authoring = %s,
+                        transformations = [
+                            core.replace('foo', 'FOO'),
+                            core.replace('bar', 'BAR'),
+                        ],
+                    )
+                    """
+                        .formatted(remote.getGitDir(), primaryBranch, authoring))
+                .getMigration("default");
+    workflow.run(workdir, ImmutableList.of(primaryBranch));
+
+    assertThat(destination.processed).hasSize(3);
+    for (int i = 0; i < 3; i++) {
+      ProcessedChange change = destination.processed.get(i);
+      assertThat(change.getContent("foo.txt")).isEqualTo("FOO " + (i + 1));
+      // Only transformed in the first change, reused later
+      assertThat(change.getContent("bar.txt")).isEqualTo("BAR 0");
+    }
+    console()
+        .assertThat()
+        .timesInLog(2, MessageType.VERBOSE, "Transforming only the 1 paths that changed");
+  }
+
+  @Test
+  public void iterativeWorkflowWithIncrementalTransformsAndReversibleCheck() throws Exception {
+    Path remoteWorkTree = Files.createTempDirectory("remote_work_tree");
+    GitRepository remote =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("gitdir"),
+                getGitEnv(),
+                /* verbose= */ true,
+                DEFAULT_TIMEOUT,
+                /* noVerify= */ false)
+            .withWorkTree(remoteWorkTree);
+    remote.init();
+    String primaryBranch = remote.getPrimaryBranch();
+    Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo 0");
+    Files.writeString(remoteWorkTree.resolve("bar.txt"), "bar 0");
+    remote.add().files("foo.txt", "bar.txt").run();
+    remote.simpleCommand("commit", "-m", "message_0");
+    options.workflowOptions.lastRevision = remote.resolveReference(primaryBranch).getHash();
+    for (int i = 1; i <= 3; i++) {
+      Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo " + i);
+      remote.add().files("foo.txt").run();
+      remote.simpleCommand("commit", "-m", "message_" + i);
+    }
+    options.workflowOptions.incrementalTransforms = true;
+
+    Workflow<?, ?> workflow =
+        (Workflow<?, ?>)
+            skylark
+                .loadConfig(
+                    """
+                    core.workflow(
+                        name = 'default',
+                        origin = git.origin(url='%s', ref='%s'),
+                        destination = testing.destination(),
+                        mode = 'ITERATIVE',
+                        authoring = %s,
+                        reversible_check = True,
+                        transformations = [
+                            core.replace('foo', 'FOO'),
+                            core.replace('bar', 'BAR'),
+                        ],
+                    )
+                    """
+                        .formatted(remote.getGitDir(), primaryBranch, authoring))
+                .getMigration("default");
+    workflow.run(workdir, ImmutableList.of(primaryBranch));
+
+    assertThat(destination.processed).hasSize(3);
+    for (int i = 0; i < 3; i++) {
+      ProcessedChange change = destination.processed.get(i);
+      assertThat(change.getContent("foo.txt")).isEqualTo("FOO " + (i + 1));
+      assertThat(change.getContent("bar.txt")).isEqualTo("BAR 0");
+    }
+    // The reversible check needs the whole origin checkout, so nothing is reused
+    console().assertThat().timesInLog(0, MessageType.VERBOSE, "Transforming only the");
+  }
+
+  @Test
+  public void iterativeWorkflowWithTreeStateIndex() throws Exception {
+    Path remoteWorkTree = Files.createTempDirectory("remote_work_tree");
+    GitRepository remote =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("gitdir"),
+                getGitEnv(),
+                /* verbose= */ true,
+                DEFAULT_TIMEOUT,
+                /* noVerify= */ false)
+            .withWorkTree(remoteWorkTree);
+    remote.init();
+    String primaryBranch = remote.getPrimaryBranch();
+    Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo 0");
+    Files.writeString(remoteWorkTree.resolve("bar.txt"), "bar 0");
+    Files.writeString(remoteWorkTree.resolve("baz.txt"), "baz 0");
+    remote.add().files("foo.txt", "bar.txt", "baz.txt").run();
+    remote.simpleCommand("commit", "-m", "message_0");
+    options.workflowOptions.lastRevision = remote.resolveReference(primaryBranch).getHash();
+    for (int i = 1; i <= 3; i++) {
+      Files.writeString(remoteWorkTree.resolve("foo.txt"), "foo " + i);
+      remote.add().files("foo.txt").run();
+      remote.simpleCommand("commit", "-m", "message_" + i);
+    }
+    options.workflowOptions.treeStateIndex = true;
+
+    Workflow<?, ?> workflow =
+        (Workflow<?, ?>)
+            skylark
+                .loadConfig(
+                    """
+                    core.workflow(
+                        name = 'default',
+                        origin = git.origin(url='%s', ref='%s'),
+                        destination = testing.destination(),
+                        mode = 'ITERATIVE',
+                        authoring = %s,
+                        transformations = [
+                            core.replace('foo', 'FOO'),
+                            core.replace('bar', 'BAR'),
+                        ],
+                    )
+                    """
+                        .formatted(remote.getGitDir(), primaryBranch, authoring))
+                .getMigration("default");
+    workflow.run(workdir, ImmutableList.of(primaryBranch));
+
+    assertThat(destination.processed).hasSize(3);
+    for (int i = 0; i < 3; i++) {
+      ProcessedChange change = destination.processed.get(i);
+      assertThat(change.getContent("foo.txt")).isEqualTo("FOO " + (i + 1));
+      assertThat(change.getContent("bar.txt")).isEqualTo("BAR 0");
+    }
+    // Only the first change walks the checkout, the next ones only read the changed file
+    console()
+        .assertThat()
+        .onceInLog(MessageType.VERBOSE, "Tree state index: read 3 files from the file system")
+        .timesInLog(2, MessageType.VERBOSE, "Tree state index: read 1 files from the file system");
+  }
+
+  @Test
+  public void testIterativePreparedAheadValidationException() throws Exception {
+    options.workflowOptions.iterativePrepareAhead = 2;
+    assertThat(checkIterativeModeWithError(new ValidationException("Your change is wrong!")))
+        .hasMessageThat()
+        .isEqualTo("Your change is wrong!");
+    console()
+        .assertThat()
+        .onceInLog(
+            MessageType.ERROR,
+            "Migration of origin revision '2' failed with error: Your change is wrong.*");
+  }
+
   @Test
   @SuppressWarnings("AssertThrowsMinimizer")
   public void testIterativeModeWithLimit() throws Exception {
@@ -3798,6 +4025,82 @@ public class WorkflowTest {
 
   @Test
   public void reversibleCheckFiles() throws Exception {
+    runReversibleCheckFiles();
+  }
+
+  @Test
+  public void reversibleCheckFiles_hashes() throws Exception {
+    options.workflowOptions.reversibleCheckHashes = true;
+    runReversibleCheckFiles();
+  }
+
+  @Test
+  public void reversibleCheckFiles_hashesWithPrepareAhead() throws Exception {
+    options.workflowOptions.reversibleCheckHashes = true;
+    options.workflowOptions.iterativePrepareAhead = 2;
+    Path remoteWorkTree = Files.createTempDirectory("remote_work_tree");
+    GitRepository remote =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("gitdir"),
+                getGitEnv(),
+                /* verbose= */ true,
+                DEFAULT_TIMEOUT,
+                /* noVerify= */ false)
+            .withWorkTree(remoteWorkTree);
+    remote.init();
+    String primaryBranch = remote.getPrimaryBranch();
+    Files.writeString(remoteWorkTree.resolve("test"), "aa 0");
+    remote.add().files("test").run();
+    remote.simpleCommand("commit", "-m", "message_0");
+    options.workflowOptions.lastRevision = remote.resolveReference(primaryBranch).getHash();
+    for (int i = 1; i <= 3; i++) {
+      Files.writeString(remoteWorkTree.resolve("test"), "aabb " + i);
+      remote.add().files("test").run();
+      remote.simpleCommand("commit", "-m", "message_" + i);
+    }
+
+    Workflow<?, ?> workflow =
+        (Workflow<?, ?>)
+            skylark
+                .loadConfig(
+                    """
+                    core.workflow(
+                        name = 'default',
+                        origin = git.origin(url='%s', ref='%s'),
+                        destination = testing.destination(),
+                        mode = 'ITERATIVE',
+                        authoring = %s,
+                        reversible_check = True,
+                        transformations = [
+                            core.replace('aa', 'bb'),
+                        ],
+                    )
+                    """
+                        .formatted(remote.getGitDir(), primaryBranch, authoring))
+                .getMigration("default");
+
+    ValidationException e =
+        assertThrows(
+            ValidationException.class,
+            () -> workflow.run(workdir, ImmutableList.of(primaryBranch)));
+    assertThat(e).hasMessageThat().contains("is not reversible");
+    ImmutableList<String> diffs =
+        console().getMessages().stream()
+            .filter(m -> m.getType() == MessageType.ERROR && m.getText().contains("non-reversible"))
+            .map(Message::getText)
+            .collect(toImmutableList());
+    assertThat(diffs).isNotEmpty();
+    assertThat(diffs.stream().anyMatch(d -> d.contains("-aabb 1"))).isTrue();
+    // Changes prepared at the same time don't share the directories used for the diff
+    for (String diff : diffs) {
+      assertThat(
+              IntStream.rangeClosed(1, 3).filter(i -> diff.contains("-aabb " + i)).count())
+          .isEqualTo(1);
+    }
+    assertThat(destination.processed).isEmpty();
+  }
+
+  private void runReversibleCheckFiles() throws Exception {
     Path someRoot = Files.createTempDirectory("someRoot");
     Path originPath = someRoot.resolve("origin");
     Files.createDirectories(originPath);
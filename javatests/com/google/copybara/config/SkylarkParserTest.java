@@ -17,6 +17,7 @@
 package com.google.copybara.config;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
@@ -24,6 +25,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.copybara.Destination;
+import com.google.copybara.ModuleSet;
 import com.google.copybara.Origin;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
@@ -169,6 +171,52 @@ core.workflow(
     assertThat(transformation2.field2).isEqualTo("bee");
   }
 
+  @Test
+  public void testChangedConfigFileIsCompiledAgain() throws Exception {
+    String configContent = setUpInclusionTest();
+    Config config = parser.loadConfig(configContent);
+    assertThat(((MockOrigin) getWorkflow(config, "foo42").getOrigin()).url)
+        .isEqualTo("https://so.me/random/url");
+
+    // Same content, loaded again
+    config = parser.loadConfig(configContent);
+    assertThat(((MockOrigin) getWorkflow(config, "foo42").getOrigin()).url)
+        .isEqualTo("https://so.me/random/url");
+
+    config =
+        parser.loadConfig(configContent.replace("https://so.me/random/url", "https://other/url"));
+    assertThat(((MockOrigin) getWorkflow(config, "foo42").getOrigin()).url)
+        .isEqualTo("https://other/url");
+  }
+
+  @Test
+  public void testUnchangedConfigFilesAreNotEvaluatedAgain() throws Exception {
+    String configContent = setUpInclusionTest();
+    SkylarkParser skylarkParser = parser.getSkylarkParser();
+    ModuleSet moduleSet = parser.createModuleSet();
+    Config config =
+        skylarkParser.loadConfig(
+            parser.createConfigFile("copy.bara.sky", configContent), moduleSet, console);
+
+    assertThat(
+            skylarkParser.loadConfig(
+                parser.createConfigFile("copy.bara.sky", configContent), moduleSet, console))
+        .isSameInstanceAs(config);
+
+    // A change in a loaded file is evaluated again
+    ConfigFile changed =
+        new MapConfigFile(
+            ImmutableMap.of(
+                "copy.bara.sky", configContent.getBytes(UTF_8),
+                "foo/authoring.bara.sky",
+                    "baz=43\ndef copy_author():\n  return authoring.pass_thru('a <a@b.com>')\n"
+                        .getBytes(UTF_8)),
+            "copy.bara.sky");
+    Config changedConfig = skylarkParser.loadConfig(changed, moduleSet, console);
+    assertThat(changedConfig).isNotSameInstanceAs(config);
+    assertThat(changedConfig.getMigrations()).containsKey("foo43");
+  }
+
   @Test
   public void testStrictStarlarkParsingCatchesError() throws IOException, ValidationException {
     // A parse error is always reported, even in LOOSE mode.
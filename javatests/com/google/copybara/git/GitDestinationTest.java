@@ -16,6 +16,7 @@
 
 package com.google.copybara.git;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.ChangeMessage.parseMessage;
@@ -384,6 +385,74 @@ public class GitDestinationTest {
     assertCommitHasOrigin("testPushToRef", "origin_ref");
   }
 
+  @Test
+  public void testPushEvery() throws Exception {
+    fetch = "testPullFromRef";
+    push = "testPushToRef";
+    options.gitDestination.pushEvery = 2;
+    Writer<GitRevision> writer = firstCommitWriter();
+
+    Files.write(workdir.resolve("test.txt"), "one".getBytes(UTF_8));
+    assertThat(writeEffectTypes(writer, "origin_ref1")).containsExactly(Type.PENDING);
+    assertThat(repo().refExists("refs/heads/testPushToRef")).isFalse();
+
+    Files.write(workdir.resolve("test.txt"), "two".getBytes(UTF_8));
+    // The pending commit is reported as created once pushed
+    assertThat(writeEffectTypes(writer, "origin_ref2"))
+        .containsExactly(Type.CREATED, Type.CREATED);
+    assertCommitCount(2, "testPushToRef");
+    assertCommitHasOrigin("testPushToRef", "origin_ref2");
+
+    Files.write(workdir.resolve("test.txt"), "three".getBytes(UTF_8));
+    assertThat(writeEffectTypes(writer, "origin_ref3")).containsExactly(Type.PENDING);
+    assertCommitCount(2, "testPushToRef");
+
+    ImmutableList<DestinationEffect> effects = writer.finishWrites(console);
+    assertThat(effects).hasSize(1);
+    assertThat(effects.get(0).getType()).isEqualTo(Type.CREATED);
+    assertCommitCount(3, "testPushToRef");
+    assertThat(effects.get(0).getDestinationRef().getId())
+        .isEqualTo(repo().parseRef("refs/heads/testPushToRef"));
+    assertCommitHasOrigin("testPushToRef", "origin_ref3");
+    assertThat(writer.finishWrites(console)).isEmpty();
+  }
+
+  @Test
+  public void testPushEvery_failedPushIsReportedAsError() throws Exception {
+    fetch = "testPullFromRef";
+    push = "testPushToRef";
+    options.gitDestination.pushEvery = 2;
+    Writer<GitRevision> writer = firstCommitWriter();
+
+    Files.write(workdir.resolve("test.txt"), "one".getBytes(UTF_8));
+    writeEffectTypes(writer, "origin_ref1");
+    Files.write(workdir.resolve("test.txt"), "two".getBytes(UTF_8));
+    writeEffectTypes(writer, "origin_ref2");
+    Files.write(workdir.resolve("test.txt"), "three".getBytes(UTF_8));
+    assertThat(writeEffectTypes(writer, "origin_ref3")).containsExactly(Type.PENDING);
+
+    // The destination moves to an unrelated commit, so the pending commit cannot be pushed
+    String unrelated =
+        repo()
+            .simpleCommand("commit-tree", "refs/heads/testPushToRef^{tree}", "-m", "unrelated")
+            .getStdout()
+            .trim();
+    repo().simpleCommand("update-ref", "refs/heads/testPushToRef", unrelated);
+
+    ImmutableList<DestinationEffect> effects = writer.finishWrites(console);
+    assertThat(effects).hasSize(1);
+    assertThat(effects.get(0).getType()).isEqualTo(Type.TEMPORARY_ERROR);
+    assertThat(effects.get(0).getErrors()).isNotEmpty();
+  }
+
+  private ImmutableList<Type> writeEffectTypes(Writer<GitRevision> writer, String originRef)
+      throws Exception {
+    TransformResult result = TransformResults.of(workdir, new DummyRevision(originRef));
+    return writer.write(result, destinationFiles, console).stream()
+        .map(DestinationEffect::getType)
+        .collect(toImmutableList());
+  }
+
   @Test
   public void process_autoDetect() throws Exception {
     push = primaryBranch;
@@ -1361,6 +1430,104 @@ public class GitDestinationTest {
         .isEqualTo("first_commit");
   }
 
+  @Test
+  public void previousImportReference_labelIndexUpdatedIncrementally() throws Exception {
+    options.gitDestination.labelIndex = true;
+    fetch = primaryBranch;
+    push = primaryBranch;
+
+    Files.write(workdir.resolve("test.txt"), "some content".getBytes(UTF_8));
+    process(firstCommitWriter(), new DummyRevision("first_commit"));
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    GitRepository scratchRepo = repo().withWorkTree(scratchTree);
+    scratchRepo.forceCheckout(primaryBranch);
+    Files.write(scratchTree.resolve("test.txt"), "manual".getBytes(UTF_8));
+    scratchRepo.add().files("test.txt").run();
+    scratchRepo.simpleCommand("commit", "-m", "manual\n\n"
+        + DummyOrigin.LABEL_NAME + ": manual_commit");
+
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("manual_commit");
+
+    // Rewrite the history, the index shouldn't return commits that are not reachable anymore
+    scratchRepo.simpleCommand("reset", "--hard", "HEAD~1");
+    Files.write(scratchTree.resolve("test.txt"), "other".getBytes(UTF_8));
+    scratchRepo.add().files("test.txt").run();
+    scratchRepo.simpleCommand("commit", "-m", "no label");
+
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+  }
+
+  @Test
+  public void previousImportReferenceIsBeforeACommitWithMultipleParents_labelIndex()
+      throws Exception {
+    options.gitDestination.labelIndex = true;
+    Truth.assertThat(checkPreviousImportReferenceMultipleParents()).isEqualTo("b2-origin");
+  }
+
+  @Test
+  public void previousImportReferenceIsBeforeACommitWithMultipleParents_labelIndexFirstParent()
+      throws Exception {
+    options.gitDestination.labelIndex = true;
+    options.gitDestination.lastRevFirstParent = true;
+    Truth.assertThat(checkPreviousImportReferenceMultipleParents()).isEqualTo("b1-origin");
+  }
+
+  @Test
+  public void previousImportReference_labelIndexSameAsGitLogAfterMergingOlderCommits()
+      throws Exception {
+    fetch = "b1";
+    push = "b1";
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    GitRepository scratchRepo = repo().withWorkTree(scratchTree);
+    Files.write(scratchTree.resolve("base.file"), "base".getBytes(UTF_8));
+    scratchRepo.add().files("base.file").run();
+    scratchRepo.simpleCommand("commit", "-m", "base");
+    scratchRepo.branch("b1").run();
+    scratchRepo.branch("b2").run();
+
+    branchChange(scratchTree, scratchRepo, "b2", "b2-1\n\n"
+        + DummyOrigin.LABEL_NAME + ": b2-origin");
+    // Wait a second so that the git log history is ordered.
+    Thread.sleep(1000);
+    branchChange(scratchTree, scratchRepo, "b1", "b1-1\n\n"
+        + DummyOrigin.LABEL_NAME + ": b1-origin");
+
+    // Index the history of b1 before b2, that has an older labeled commit, is merged
+    options.gitDestination.labelIndex = true;
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("b1-origin");
+    scratchRepo.simpleCommand("checkout", "b1");
+    scratchRepo.simpleCommand("merge", "b2");
+
+    for (boolean firstParent : ImmutableList.of(false, true)) {
+      options.gitDestination.lastRevFirstParent = firstParent;
+      options.gitDestination.labelIndex = false;
+      String withoutIndex = newWriter()
+          .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline();
+      options.gitDestination.labelIndex = true;
+      String withIndex = newWriter()
+          .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline();
+      assertThat(withIndex).isEqualTo(withoutIndex);
+      assertThat(withIndex).isEqualTo("b1-origin");
+    }
+
+    // New commits on top of the merge are prepended to the index
+    branchChange(scratchTree, scratchRepo, "b1", "b1-2\n\n"
+        + DummyOrigin.LABEL_NAME + ": b1-2-origin");
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("b1-2-origin");
+  }
+
   @Test
   public void previousImportReferenceIsBeforeACommitWithMultipleParents() throws Exception {
     Truth.assertThat(checkPreviousImportReferenceMultipleParents()).isEqualTo("b2-origin");
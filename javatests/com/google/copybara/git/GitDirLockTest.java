@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitDirLock.Resource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitDirLockTest {
+
+  private Path gitDir;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() throws Exception {
+    gitDir = Files.createTempDirectory("gitdir");
+    executor = Executors.newFixedThreadPool(8);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testLockIsExclusive() throws Exception {
+    Future<?> other;
+    try (GitDirLock ignored = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+      other = executor.submit(() -> {
+        try (GitDirLock ignored2 = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+          return null;
+        }
+      });
+      assertThrowsTimeout(other);
+    }
+    other.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testLockIsReentrant() throws Exception {
+    try (GitDirLock ignored = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+      try (GitDirLock ignored2 = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+        assertThat(Files.exists(gitDir.resolve(Resource.REFS.fileName()))).isTrue();
+      }
+      // Still held after the inner lock is released
+      assertThrowsTimeout(executor.submit(() -> {
+        try (GitDirLock ignored3 = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+          return null;
+        }
+      }));
+    }
+  }
+
+  @Test
+  public void testResourcesAreIndependent() throws Exception {
+    try (GitDirLock ignored = GitDirLock.lock(gitDir, Resource.INDEX, DEFAULT_TIMEOUT)) {
+      executor.submit(() -> {
+        try (GitDirLock ignored2 = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+          return null;
+        }
+      }).get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testSharedLocksDontWaitForEachOther() throws Exception {
+    try (GitDirLock ignored = GitDirLock.lockShared(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+      executor.submit(() -> {
+        try (GitDirLock ignored2 =
+            GitDirLock.lockShared(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+          return null;
+        }
+      }).get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testSharedAndExclusiveLocksExcludeEachOther() throws Exception {
+    Future<?> exclusive;
+    try (GitDirLock ignored = GitDirLock.lockShared(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+      exclusive = executor.submit(() -> {
+        try (GitDirLock ignored2 = GitDirLock.lock(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+          return null;
+        }
+      });
+      assertThrowsTimeout(exclusive);
+    }
+    exclusive.get(10, TimeUnit.SECONDS);
+
+    Future<?> shared;
+    try (GitDirLock ignored = GitDirLock.lock(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+      // The exclusive holder can also take it shared
+      try (GitDirLock ignored2 =
+          GitDirLock.lockShared(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+        shared = executor.submit(() -> {
+          try (GitDirLock ignored3 =
+              GitDirLock.lockShared(gitDir, Resource.CONFIG, DEFAULT_TIMEOUT)) {
+            return null;
+          }
+        });
+      }
+      assertThrowsTimeout(shared);
+    }
+    shared.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testWaitIsBounded() throws Exception {
+    try (GitDirLock ignored = GitDirLock.lock(gitDir, Resource.REFS, DEFAULT_TIMEOUT)) {
+      ExecutionException e =
+          assertThrows(
+              ExecutionException.class,
+              () ->
+                  executor
+                      .submit(() -> GitDirLock.lock(gitDir, Resource.REFS, Duration.ofMillis(100)))
+                      .get(10, TimeUnit.SECONDS));
+      assertThat(e).hasCauseThat().isInstanceOf(RepoException.class);
+      assertThat(e).hasCauseThat().hasMessageThat().contains("Timed out after");
+      assertThat(e).hasCauseThat().hasMessageThat().contains(Resource.REFS.fileName());
+    }
+  }
+
+  @Test
+  public void testConcurrentFetchesIntoTheSameRepo() throws Exception {
+    Path remoteWorkdir = Files.createTempDirectory("remote");
+    GitRepository remote =
+        GitRepository.newRepo(/*verbose=*/ true, remoteWorkdir, getGitEnv()).init();
+    for (int i = 0; i < 8; i++) {
+      Files.writeString(remoteWorkdir.resolve("file" + i), "content" + i, UTF_8);
+      remote.add().files("file" + i).run();
+      remote.simpleCommand("commit", "-m", "change " + i);
+      remote.simpleCommand("branch", "branch" + i);
+    }
+    GitRepository cache =
+        GitRepository.newBareRepo(
+                gitDir, getGitEnv(), /*verbose=*/ true, DEFAULT_TIMEOUT, /*noVerify=*/ false)
+            .init();
+
+    List<Future<FetchResult>> fetches = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      String branch = "branch" + i;
+      fetches.add(executor.submit(() -> cache.fetch(
+          "file://" + remote.getGitDir(),
+          /*prune=*/ false,
+          /*force=*/ true,
+          ImmutableList.of("refs/heads/*:refs/heads/*", branch + ":refs/fetched/" + branch),
+          /*partialFetch=*/ false,
+          Optional.empty(),
+          /*tags=*/ false)));
+    }
+    for (Future<FetchResult> fetch : fetches) {
+      fetch.get(60, TimeUnit.SECONDS);
+    }
+    assertThat(cache.showRef().keySet()).containsAtLeast("refs/fetched/branch0",
+        "refs/fetched/branch7", "refs/heads/branch3");
+  }
+
+  private static void assertThrowsTimeout(Future<?> future) {
+    assertThrows(TimeoutException.class, () -> future.get(200, TimeUnit.MILLISECONDS));
+  }
+}
@@ -245,49 +245,44 @@ public final class GitHubUserApprovalsValidatorTest {
   }
 
   @Test
-  public void testGitHubUserApprovalsValidator_withNoApprovalsAndRetry() throws Exception {
-    var mockResponseWithMatchingOid =
+  public void testGitHubUserApprovalsValidator_withNoApprovalsOutsideHistory() throws Exception {
+    var mockCommitsResponse =
         GitTestUtil.mockResponse(
             """
             {
               "data": {
                 "repository": {
-                  "ref": {
-                    "target": {
-                      "id": "C_notreadatall",
-                      "history": {
-                        "nodes": [
-                          {
-                            "id": "C_notreadatall",
-                            "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
-                            "associatedPullRequests": {
+                  "c0": {
+                    "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                    "associatedPullRequests": {
+                      "edges": [
+                        {
+                          "node": {
+                            "title": "title place holder",
+                            "state": "MERGED",
+                            "baseRefName": "main",
+                            "mergeCommit": {
+                              "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44"
+                            },
+                            "author": {
+                              "login": "copybaraauthor"
+                            },
+                            "reviewDecision": "CHANGES_REQUESTED",
+                            "latestOpinionatedReviews": {
                               "edges": [
                                 {
                                   "node": {
-                                    "title": "title place holder",
                                     "author": {
-                                      "login": "copybaraauthor"
+                                      "login": "copybarareviewer"
                                     },
-                                    "reviewDecision": "CHANGES_REQUESTED",
-                                    "latestOpinionatedReviews": {
-                                      "edges": [
-                                        {
-                                          "node": {
-                                            "author": {
-                                              "login": "copybarareviewer"
-                                            },
-                                            "state": "CHANGES_REQUESTED"
-                                          }
-                                        }
-                                      ]
-                                    }
+                                    "state": "CHANGES_REQUESTED"
                                   }
                                 }
                               ]
                             }
                           }
-                        ]
-                      }
+                        }
+                      ]
                     }
                   }
                 }
@@ -346,8 +341,7 @@ public final class GitHubUserApprovalsValidatorTest {
         eq("POST"),
         eq("https://api.github.com/graphql"),
         mockResponseWithoutMatchingOid,
-        mockResponseWithoutMatchingOid,
-        mockResponseWithMatchingOid);
+        mockCommitsResponse);
     GitHubUserApprovalsValidator validator = getUnitUnderTest();
     ImmutableList<ChangeWithApprovals> changes =
         generateChangeList(
@@ -449,8 +443,51 @@ public final class GitHubUserApprovalsValidatorTest {
   }
 
   @Test
-  public void testGitHubUserApprovalsValidator_withOnlyApprovalsAndRetry() throws Exception {
-    var mockResponseWithMatchingOid =
+  public void testGitHubUserApprovalsValidator_withOnlyApprovalsOutsideHistory() throws Exception {
+    var mockCommitsResponse =
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": {
+                "repository": {
+                  "c0": {
+                    "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                    "associatedPullRequests": {
+                      "edges": [
+                        {
+                          "node": {
+                            "title": "title place holder",
+                            "state": "MERGED",
+                            "baseRefName": "main",
+                            "mergeCommit": {
+                              "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44"
+                            },
+                            "author": {
+                              "login": "copybaraauthor"
+                            },
+                            "reviewDecision": "APPROVED",
+                            "latestOpinionatedReviews": {
+                              "edges": [
+                                {
+                                  "node": {
+                                    "author": {
+                                      "login": "copybarareviewer"
+                                    },
+                                    "state": "APPROVED"
+                                  }
+                                }
+                              ]
+                            }
+                          }
+                        }
+                      ]
+                    }
+                  }
+                }
+              }
+            }
+            """);
+    var mockResponseWithoutMatchingOid =
         GitTestUtil.mockResponse(
             """
             {
@@ -463,7 +500,7 @@ public final class GitHubUserApprovalsValidatorTest {
                         "nodes": [
                           {
                             "id": "C_notreadatall",
-                            "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                            "oid": "3071d674373ab56d8a7f264d308b39b7773b9exx",
                             "associatedPullRequests": {
                               "edges": [
                                 {
@@ -498,7 +535,203 @@ public final class GitHubUserApprovalsValidatorTest {
               }
             }
             """);
-    var mockResponseWithoutMatchingOid =
+    gitTestUtil.mockApi(
+        eq("POST"),
+        eq("https://api.github.com/graphql"),
+        mockResponseWithoutMatchingOid,
+        mockCommitsResponse);
+    GitHubUserApprovalsValidator validator = getUnitUnderTest();
+    GetCommitHistoryParams params = new GetCommitHistoryParams(5, 5, 5);
+    ImmutableList<ChangeWithApprovals> changes =
+        generateChangeList(
+            gitRepository,
+            PROJECT_ID,
+            ImmutableListMultimap.of(),
+            "3071d674373ab56d8a7f264d308b39b7773b9e44");
+    ImmutableList<ChangeWithApprovals> approvals =
+        validator.mapApprovalsForUserPredicates(changes, BRANCH);
+    assertThat(approvals).hasSize(changes.size());
+    assertThat(Iterables.getOnlyElement(approvals).getPredicates()).containsNoDuplicates();
+    assertThat(Iterables.getOnlyElement(approvals).getPredicates())
+        .containsExactly(
+            new UserPredicate(
+                "copybaraauthor",
+                UserPredicate.UserPredicateType.OWNER,
+                Iterables.getLast(changes).getChange().getRevision().getUrl(),
+                "GitHub user 'copybaraauthor' authored change with sha"
+                    + " '3071d674373ab56d8a7f264d308b39b7773b9e44'."),
+            new UserPredicate(
+                "copybarareviewer",
+                UserPredicate.UserPredicateType.LGTM,
+                Iterables.getLast(changes).getChange().getRevision().getUrl(),
+                "GitHub user 'copybarareviewer' approved change with sha"
+                    + " '3071d674373ab56d8a7f264d308b39b7773b9e44'."));
+  }
+
+  @Test
+  public void testGitHubUserApprovalsValidator_outsideHistoryRequiresMergedPullRequest()
+      throws Exception {
+    gitTestUtil.mockApi(
+        eq("POST"),
+        eq("https://api.github.com/graphql"),
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": null
+            }
+            """),
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": {
+                "repository": {
+                  "c0": {
+                    "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                    "associatedPullRequests": {
+                      "edges": [
+                        {
+                          "node": {
+                            "title": "title place holder",
+                            "state": "OPEN",
+                            "baseRefName": "main",
+                            "author": {
+                              "login": "copybaraauthor"
+                            },
+                            "reviewDecision": "APPROVED",
+                            "latestOpinionatedReviews": {
+                              "edges": []
+                            }
+                          }
+                        }
+                      ]
+                    }
+                  },
+                  "c1": null
+                }
+              }
+            }
+            """));
+    GitHubUserApprovalsValidator validator = getUnitUnderTest();
+    ImmutableList<ChangeWithApprovals> changes =
+        generateChangeList(
+            gitRepository,
+            PROJECT_ID,
+            ImmutableListMultimap.of(),
+            "3071d674373ab56d8a7f264d308b39b7773b9e44",
+            "4071d674373ab56d8a7f264d308b39b7773b9e44");
+    ImmutableList<ChangeWithApprovals> approvals =
+        validator.mapApprovalsForUserPredicates(changes, BRANCH);
+    assertThat(approvals).hasSize(changes.size());
+    for (ChangeWithApprovals approval : approvals) {
+      assertThat(approval.getPredicates()).isEmpty();
+    }
+  }
+
+  @Test
+  public void testGitHubUserApprovalsValidator_outsideHistoryRequiresMatchingMergeCommit()
+      throws Exception {
+    gitTestUtil.mockApi(
+        eq("POST"),
+        eq("https://api.github.com/graphql"),
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": null
+            }
+            """),
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": {
+                "repository": {
+                  "c0": {
+                    "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                    "associatedPullRequests": {
+                      "edges": [
+                        {
+                          "node": {
+                            "title": "squash merged elsewhere",
+                            "state": "MERGED",
+                            "baseRefName": "main",
+                            "mergeCommit": {
+                              "oid": "5071d674373ab56d8a7f264d308b39b7773b9e44"
+                            },
+                            "author": {
+                              "login": "copybaraauthor"
+                            },
+                            "reviewDecision": "APPROVED",
+                            "latestOpinionatedReviews": {
+                              "edges": [
+                                {
+                                  "node": {
+                                    "author": {
+                                      "login": "copybarareviewer"
+                                    },
+                                    "state": "APPROVED"
+                                  }
+                                }
+                              ]
+                            }
+                          }
+                        }
+                      ]
+                    }
+                  }
+                }
+              }
+            }
+            """));
+    GitHubUserApprovalsValidator validator = getUnitUnderTest();
+    ImmutableList<ChangeWithApprovals> changes =
+        generateChangeList(
+            gitRepository,
+            PROJECT_ID,
+            ImmutableListMultimap.of(),
+            "3071d674373ab56d8a7f264d308b39b7773b9e44");
+    ImmutableList<ChangeWithApprovals> approvals =
+        validator.mapApprovalsForUserPredicates(changes, BRANCH);
+    assertThat(Iterables.getOnlyElement(approvals).getPredicates()).isEmpty();
+  }
+
+  @Test
+  public void testGitHubUserApprovalsValidator_rebaseMergedOutsideHistoryFoundInLongerHistory()
+      throws Exception {
+    // A commit of a rebase merged pull request, that is not its merge commit
+    var mockCommitsResponse =
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": {
+                "repository": {
+                  "c0": {
+                    "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
+                    "associatedPullRequests": {
+                      "edges": [
+                        {
+                          "node": {
+                            "title": "title place holder",
+                            "state": "MERGED",
+                            "baseRefName": "main",
+                            "mergeCommit": {
+                              "oid": "5071d674373ab56d8a7f264d308b39b7773b9e44"
+                            },
+                            "author": {
+                              "login": "copybaraauthor"
+                            },
+                            "reviewDecision": "APPROVED",
+                            "latestOpinionatedReviews": {
+                              "edges": []
+                            }
+                          }
+                        }
+                      ]
+                    }
+                  }
+                }
+              }
+            }
+            """);
+    var mockResponseWithMatchingOid =
         GitTestUtil.mockResponse(
             """
             {
@@ -511,7 +744,7 @@ public final class GitHubUserApprovalsValidatorTest {
                         "nodes": [
                           {
                             "id": "C_notreadatall",
-                            "oid": "3071d674373ab56d8a7f264d308b39b7773b9exx",
+                            "oid": "3071d674373ab56d8a7f264d308b39b7773b9e44",
                             "associatedPullRequests": {
                               "edges": [
                                 {
@@ -549,11 +782,15 @@ public final class GitHubUserApprovalsValidatorTest {
     gitTestUtil.mockApi(
         eq("POST"),
         eq("https://api.github.com/graphql"),
-        mockResponseWithoutMatchingOid,
-        mockResponseWithoutMatchingOid,
+        GitTestUtil.mockResponse(
+            """
+            {
+              "data": null
+            }
+            """),
+        mockCommitsResponse,
         mockResponseWithMatchingOid);
     GitHubUserApprovalsValidator validator = getUnitUnderTest();
-    GetCommitHistoryParams params = new GetCommitHistoryParams(5, 5, 5);
     ImmutableList<ChangeWithApprovals> changes =
         generateChangeList(
             gitRepository,
@@ -562,8 +799,6 @@ public final class GitHubUserApprovalsValidatorTest {
             "3071d674373ab56d8a7f264d308b39b7773b9e44");
     ImmutableList<ChangeWithApprovals> approvals =
         validator.mapApprovalsForUserPredicates(changes, BRANCH);
-    assertThat(approvals).hasSize(changes.size());
-    assertThat(Iterables.getOnlyElement(approvals).getPredicates()).containsNoDuplicates();
     assertThat(Iterables.getOnlyElement(approvals).getPredicates())
         .containsExactly(
             new UserPredicate(
@@ -578,6 +813,9 @@ public final class GitHubUserApprovalsValidatorTest {
                 Iterables.getLast(changes).getChange().getRevision().getUrl(),
                 "GitHub user 'copybarareviewer' approved change with sha"
                     + " '3071d674373ab56d8a7f264d308b39b7773b9e44'."));
+    console
+        .assertThat()
+        .onceInLog(MessageType.WARNING, "Commit history response did not contain all commits.*");
   }
 
   @Test
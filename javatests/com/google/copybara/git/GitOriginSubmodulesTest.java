@@ -35,6 +35,7 @@ import com.google.copybara.testing.FileSubjects;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
 import com.google.testing.junit.testparameterinjector.TestParameter;
 import com.google.testing.junit.testparameterinjector.TestParameterInjector;
@@ -62,11 +63,13 @@ public class GitOriginSubmodulesTest {
       AuthoringMappingMode.PASS_THRU, ImmutableSet.of());
 
   private SkylarkTestExecutor skylark;
+  private TestingConsole console;
 
   @Before
   public void setup() throws Exception {
+    console = new TestingConsole();
     OptionsBuilder options = new OptionsBuilder()
-        .setConsole(new TestingConsole())
+        .setConsole(console)
         .setOutputRootToTmpDir();
 
     skylark = new SkylarkTestExecutor(options);
@@ -520,6 +523,45 @@ public class GitOriginSubmodulesTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void testSameSubmoduleUrlInSeveralPaths() throws Exception {
+    Path base = Files.createTempDirectory("testSameSubmoduleUrl");
+    GitRepository r1 = createRepoWithFoo(base, "r1");
+    GitRepository r2 = createRepoWithFoo(base, "r2");
+    GitRepository r3 = createRepoWithFoo(base, "r3");
+    for (String path : ImmutableList.of("a", "b", "c")) {
+      r3.simpleCommand(
+          "-c", "protocol.file.allow=always", "submodule", "add", "-f", "--name", path,
+          "file://" + r1.getWorkTree(), path);
+    }
+    r3.simpleCommand(
+        "-c", "protocol.file.allow=always", "submodule", "add", "-f", "--name", "d",
+        "file://" + r2.getWorkTree(), "d");
+    commit(r3, "adding submodules");
+
+    GitOrigin origin = origin("file://" + r3.getGitDir(), r3.getPrimaryBranch());
+    GitRevision main = origin.resolve(r3.getPrimaryBranch());
+    origin.newReader(Glob.ALL_FILES, authoring).checkout(main, checkoutDir);
+
+    FileSubjects.assertThatPath(checkoutDir)
+        .containsFiles(GITMODULES)
+        .containsFile("foo", "1")
+        .containsFile("a/foo", "1")
+        .containsFile("b/foo", "1")
+        .containsFile("c/foo", "1")
+        .containsFile("d/foo", "1")
+        .containsNoMoreFiles();
+
+    // The submodule SHA-1s are in the cache now, so there is nothing to fetch
+    Path secondCheckout = Files.createTempDirectory("checkout2");
+    origin.newReader(Glob.ALL_FILES, authoring).checkout(main, secondCheckout);
+    console.assertThat()
+        .logContains(MessageType.VERBOSE, "Submodule 'd' reference '.*' is already cached.*");
+    FileSubjects.assertThatPath(secondCheckout)
+        .containsFile("a/foo", "1")
+        .containsFile("d/foo", "1");
+  }
+
   @Test
   public void testInvalidSubmodulesConfigThrows() {
     assertThrows(
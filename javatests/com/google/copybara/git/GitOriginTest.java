@@ -786,6 +786,59 @@ public class GitOriginTest {
     assertThat(Files.exists(testFile)).isFalse();
   }
 
+  @Test
+  public void testUpdateCheckout() throws Exception {
+    Reader<GitRevision> reader = newReader();
+    GitRevision first = origin.resolve(defaultBranch);
+    reader.checkout(first, checkoutDir);
+
+    writeFile(remote, "test.txt", "new content");
+    writeFile(remote, "dir/a.txt", "a");
+    writeFile(remote, "dir/sub/b.txt", "b");
+    repo.add().all().run();
+    git("commit", "-m", "second commit");
+    GitRevision second = origin.resolve(defaultBranch);
+
+    assertThat(reader.updateCheckout(first, second, checkoutDir))
+        .hasValue(ImmutableSet.of("test.txt", "dir/a.txt", "dir/sub/b.txt"));
+    assertThatPath(checkoutDir)
+        .containsFile("test.txt", "new content")
+        .containsFile("dir/a.txt", "a")
+        .containsFile("dir/sub/b.txt", "b")
+        .containsNoMoreFiles();
+
+    // A directory replaced by a file, and a name that would be a pathspec pattern
+    git("rm", "-r", "dir");
+    writeFile(remote, "dir", "now a file");
+    writeFile(remote, "star*.txt", "star");
+    repo.add().all().run();
+    git("commit", "-m", "third commit");
+    GitRevision third = origin.resolve(defaultBranch);
+
+    assertThat(reader.updateCheckout(second, third, checkoutDir))
+        .hasValue(ImmutableSet.of("dir", "dir/a.txt", "dir/sub/b.txt", "star*.txt"));
+    assertThatPath(checkoutDir)
+        .containsFile("test.txt", "new content")
+        .containsFile("dir", "now a file")
+        .containsFile("star*.txt", "star")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testUpdateCheckout_notSupportedWithRebase() throws Exception {
+    GitRevision first = origin.resolve(defaultBranch);
+    newReader().checkout(first, checkoutDir);
+    writeFile(remote, "test.txt", "new content");
+    repo.add().files("test.txt").run();
+    git("commit", "-m", "second commit");
+
+    options.gitOrigin.originRebaseRef = defaultBranch;
+    assertThat(
+            newReader().updateCheckout(first, origin.resolve(defaultBranch), checkoutDir))
+        .isEmpty();
+    assertThatPath(checkoutDir).containsFile("test.txt", "some content").containsNoMoreFiles();
+  }
+
   @Test
   public void testCheckout_withCheckoutFailure() throws Exception {
     options.github =
@@ -1259,6 +1312,24 @@ public class GitOriginTest {
     assertThat(visited.get(1).firstLineMessage()).isEqualTo("two");
   }
 
+  @Test
+  public void testVisitInPages() throws Exception {
+    options.git.visitChangesStream = false;
+    options.git.visitChangePageSize = 2;
+    String author = "John Name <john@name.com>";
+    singleFileCommit(author, "one", "test.txt", "some content1");
+    singleFileCommit(author, "two", "test.txt", "some content2");
+    singleFileCommit(author, "three", "test.txt", "some content3");
+    List<String> visited = new ArrayList<>();
+    newReader().visitChanges(getLastCommitRef(),
+        input -> {
+          visited.add(input.firstLineMessage());
+          return VisitResult.CONTINUE;
+        });
+
+    assertThat(visited).containsExactly("three", "two", "one", "first file").inOrder();
+  }
+
   @Test
   public void testVisitOutsideRoot() throws Exception {
     String author = "John Name <john@name.com>";
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.RecordingListener;
+import com.google.copybara.profiler.Task;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitRepoMaintenanceTest {
+
+  private GitRepository remote;
+  private GitRepository cache;
+  private Path remoteWorkdir;
+  private Profiler profiler;
+  private RecordingListener listener;
+
+  @Before
+  public void setup() throws Exception {
+    remoteWorkdir = Files.createTempDirectory("remote");
+    remote = GitRepository.newRepo(/*verbose=*/ true, remoteWorkdir, getGitEnv()).init();
+    cache =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("cache"),
+                getGitEnv(),
+                /*verbose=*/ true,
+                DEFAULT_TIMEOUT,
+                /*noVerify=*/ false)
+            .init();
+    listener = new RecordingListener();
+    profiler = new Profiler(Ticker.systemTicker());
+    profiler.init(ImmutableList.of(listener));
+  }
+
+  @Test
+  public void testFetchesAreOnlyCountedForTrackedRepos() throws Exception {
+    commitAndFetch("foo");
+    assertThat(Files.exists(cache.getGitDir().resolve(GitRepoMaintenance.FETCH_COUNT_FILE)))
+        .isFalse();
+
+    GitRepoMaintenance.track(cache);
+    commitAndFetch("bar");
+    commitAndFetch("baz");
+    assertThat(GitRepoMaintenance.fetchCount(cache.getGitDir())).isEqualTo(2);
+
+    // Tracking again doesn't reset the count
+    GitRepoMaintenance.track(cache);
+    assertThat(GitRepoMaintenance.fetchCount(cache.getGitDir())).isEqualTo(2);
+  }
+
+  @Test
+  public void testMaintenanceAfterThreshold() throws Exception {
+    GitRepoMaintenance.track(cache);
+    for (int i = 0; i < 5; i++) {
+      commitAndFetch("file" + i);
+    }
+    assertThat(GitRepoMaintenance.maybeRun(cache, /*fetchThreshold=*/ 6, profiler)).isFalse();
+    assertThat(GitRepoMaintenance.maybeRun(cache, /*fetchThreshold=*/ 0, profiler)).isFalse();
+    assertThat(listener.getCompletedTasks()).isEmpty();
+
+    assertThat(GitRepoMaintenance.maybeRun(cache, /*fetchThreshold=*/ 5, profiler)).isTrue();
+
+    assertThat(GitRepoMaintenance.fetchCount(cache.getGitDir())).isEqualTo(0);
+    Path objects = cache.getGitDir().resolve("objects");
+    assertThat(Files.exists(objects.resolve("info/commit-graph"))).isTrue();
+    assertThat(Files.exists(objects.resolve("pack/multi-pack-index"))).isTrue();
+    assertThat(Files.exists(cache.getGitDir().resolve("packed-refs"))).isTrue();
+    assertThat(listener.getCompletedTasks().stream().map(Task::getDescription))
+        .containsAtLeast(
+            "//copybara/git_cache_maintenance/repack",
+            "//copybara/git_cache_maintenance/commit-graph",
+            "//copybara/git_cache_maintenance");
+
+    // The repository is still usable
+    commitAndFetch("after");
+    assertThat(cache.log("main").run()).hasSize(6);
+    assertThat(GitRepoMaintenance.fetchCount(cache.getGitDir())).isEqualTo(1);
+  }
+
+  private void commitAndFetch(String file) throws Exception {
+    Files.writeString(remoteWorkdir.resolve(file), file, UTF_8);
+    remote.add().files(file).run();
+    remote.simpleCommand("commit", "-m", "add " + file);
+    remote.simpleCommand("update-ref", "refs/heads/main", "HEAD");
+    cache.fetch(
+        "file://" + remote.getGitDir(),
+        /*prune=*/ false,
+        /*force=*/ true,
+        ImmutableList.of("refs/heads/main:refs/heads/main"),
+        /*partialFetch=*/ false,
+        Optional.empty(),
+        /*tags=*/ false);
+  }
+}
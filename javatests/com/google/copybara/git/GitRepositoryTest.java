@@ -42,6 +42,7 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.GitObjectType;
+import com.google.copybara.git.GitRepository.LogCmd;
 import com.google.copybara.git.GitRepository.PushCmd;
 import com.google.copybara.git.GitRepository.StatusFile;
 import com.google.copybara.git.GitRepository.TreeElement;
@@ -393,6 +394,84 @@ public class GitRepositoryTest {
     assertThat(log.get(0).files()).containsExactly("bar.txt");
   }
 
+  @Test
+  public void testLogVisit() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      Files.write(workdir.resolve("foo" + i + ".txt"), ("content " + i).getBytes(UTF_8));
+      repository.add().all().run();
+      repository.simpleCommand("commit", "-m", "change " + i + "\n\nLabel=" + i);
+    }
+    LogCmd logCmd = repository.log(defaultBranch).includeFiles(true).includeMergeDiff(true);
+
+    List<GitLogEntry> visited = new ArrayList<>();
+    logCmd.visit(e -> {
+      visited.add(e);
+      return true;
+    });
+    assertThat(visited).isEqualTo(logCmd.run());
+
+    visited.clear();
+    logCmd.visit(e -> {
+      visited.add(e);
+      return visited.size() < 3;
+    });
+    assertThat(visited).isEqualTo(logCmd.run().subList(0, 3));
+    assertThat(visited.get(2).body()).isEqualTo("change 7\n\nLabel=7\n");
+    assertThat(visited.get(2).files()).containsExactly("foo7.txt");
+
+    RepoException e =
+        assertThrows(RepoException.class, () -> repository.log("not_a_branch").visit(x -> true));
+    assertThat(e).hasMessageThat().contains("not_a_branch");
+  }
+
+  @Test
+  public void testFetchMemo() throws Exception {
+    String url = "file://" + repository.getGitDir();
+    String refspec = "refs/heads/" + defaultBranch + ":refs/heads/fetched";
+    GitRepository cache =
+        GitRepository.newBareRepo(
+                Files.createTempDirectory("cache"),
+                getGitEnv(),
+                /*verbose=*/ true,
+                DEFAULT_TIMEOUT,
+                /*noVerify=*/ false)
+            .init();
+    cache.setFetchMemo(new FetchMemo());
+    GitRevision first = simpleChange(repository, "foo.txt", "1", "first");
+    fetch(cache, url, refspec);
+    assertThat(cache.resolveReference("fetched").getSha1()).isEqualTo(first.getSha1());
+
+    GitRevision second = simpleChange(repository, "foo.txt", "2", "second");
+    FetchResult result = fetch(cache, url, refspec);
+    assertThat(result.getUpdated()).isEmpty();
+    assertThat(cache.resolveReference("fetched").getSha1()).isEqualTo(first.getSha1());
+
+    // Pushing forgets the fetches, even when pushing to another url
+    Path mirror = Files.createTempDirectory("mirror");
+    GitRepository.newBareRepo(
+            mirror, getGitEnv(), /*verbose=*/ true, DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .init();
+    cache.push()
+        .withRefspecs(
+            "file://" + mirror,
+            ImmutableList.of(cache.createRefSpec("refs/heads/fetched:refs/pushed")))
+        .run();
+    fetch(cache, url, refspec);
+    assertThat(cache.resolveReference("fetched").getSha1()).isEqualTo(second.getSha1());
+  }
+
+  private static FetchResult fetch(GitRepository repo, String url, String refspec)
+      throws Exception {
+    return repo.fetch(
+        url,
+        /*prune=*/ false,
+        /*force=*/ true,
+        ImmutableList.of(refspec),
+        /*partialFetch=*/ false,
+        Optional.empty(),
+        /*tags=*/ false);
+  }
+
   @Test
   public void tesTopo() throws Exception {
     Files.write(workdir.resolve("foo.txt"), "".getBytes(UTF_8));
@@ -1756,6 +1835,39 @@ public class GitRepositoryTest {
     assertThat(repository.readFile("refs/heads/" + defaultBranch, "foo.txt")).isEqualTo("Hello");
   }
 
+  @Test
+  public void testReadFileReusesReaderAcrossCommits() throws Exception {
+    var first = simpleChange(repository, "foo.txt", "1", "1");
+    assertThat(repository.readFile("HEAD", "foo.txt")).isEqualTo("1");
+
+    // The objects of new commits are visible to the reader started for the first read
+    var second = simpleChange(repository, "foo.txt", "2", "2");
+    assertThat(repository.readFile("HEAD", "foo.txt")).isEqualTo("2");
+    assertThat(repository.readFile(first.getHash(), "foo.txt")).isEqualTo("1");
+    assertThat(repository.readFile(first.getHash(), "foo.txt")).isEqualTo("1");
+    assertThat(repository.resolveReference(second.getHash()).getHash())
+        .isEqualTo(second.getHash());
+
+    assertThrows(RepoException.class, () -> repository.readFile("HEAD", "bar.txt"));
+    assertThrows(
+        CannotResolveRevisionException.class,
+        () -> repository.resolveReference(second.getHash().replaceAll(".", "0")));
+  }
+
+  @Test
+  public void testReadFileAfterClosingObjectReaders() throws Exception {
+    simpleChange(repository, "foo.txt", "1", "1");
+    GitRepository other = repository.withWorkTree(workdir);
+    assertThat(repository.readFile("HEAD", "foo.txt")).isEqualTo("1");
+    assertThat(other.readFile("HEAD", "foo.txt")).isEqualTo("1");
+
+    // Closes the readers of both instances. They are started again on the next read.
+    other.closeObjectReaders();
+    simpleChange(repository, "foo.txt", "2", "2");
+    assertThat(repository.readFile("HEAD", "foo.txt")).isEqualTo("2");
+    assertThat(other.readFile("HEAD", "foo.txt")).isEqualTo("2");
+  }
+
   @Test
   public void testLastModified() throws Exception {
     var change1 = simpleChange(repository, "bar.txt", "1", "1");
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.FileSubjects.assertThatPath;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.copybara.Transformation;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.SkylarkTestExecutor;
+import com.google.copybara.testing.TransformWorks;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LiteralPrefilterTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testNoPrefilterForEmptyLiteral() {
+    assertThat(LiteralPrefilter.forLiteral("")).isNull();
+    assertThat(LiteralPrefilter.forLiteral("foo\uFFFD")).isNull();
+  }
+
+  @Test
+  public void testMayMatch() {
+    LiteralPrefilter prefilter = LiteralPrefilter.forLiteral("abab");
+
+    assertThat(mayMatch(prefilter, "abab")).isTrue();
+    assertThat(mayMatch(prefilter, "aabaabab")).isTrue();
+    assertThat(mayMatch(prefilter, "xxababxx")).isTrue();
+    assertThat(mayMatch(prefilter, "aba")).isFalse();
+    assertThat(mayMatch(prefilter, "abaabba")).isFalse();
+    assertThat(mayMatch(prefilter, "")).isFalse();
+  }
+
+  @Test
+  public void testMayMatchNonAscii() {
+    LiteralPrefilter prefilter = LiteralPrefilter.forLiteral("héllo");
+
+    assertThat(mayMatch(prefilter, "say héllo")).isTrue();
+    assertThat(mayMatch(prefilter, "say hello")).isFalse();
+  }
+
+  @Test
+  public void testBigFilesAreScannedInChunks() throws Exception {
+    Path file = tmpFolder.getRoot().toPath().resolve("big.txt");
+    // "foo" crosses the boundary of the first chunk and "é" is the last character
+    String content =
+        Strings.repeat("a", LiteralPrefilter.CHUNK_SIZE - 2)
+            + "foo"
+            + Strings.repeat("b", LiteralPrefilter.CHUNK_SIZE)
+            + "é";
+    Files.writeString(file, content);
+
+    assertThat(LiteralPrefilter.read(file)).isNull();
+    assertThat(LiteralPrefilter.forLiteral("foo").mayMatch(file)).isTrue();
+    assertThat(LiteralPrefilter.forLiteral("bé").mayMatch(file)).isTrue();
+    assertThat(LiteralPrefilter.forLiteral("bar").mayMatch(file)).isFalse();
+    assertThat(LiteralPrefilter.forLiteral("ab").mayMatch(file)).isFalse();
+  }
+
+  @Test
+  public void testReadSmallFile() throws Exception {
+    Path file = tmpFolder.getRoot().toPath().resolve("small.txt");
+    Files.writeString(file, "foo é");
+
+    ByteBuffer bytes = LiteralPrefilter.read(file);
+
+    assertThat(LiteralPrefilter.forLiteral("foo").mayMatch(bytes)).isTrue();
+    assertThat(LiteralPrefilter.forLiteral("bar").mayMatch(bytes)).isFalse();
+    assertThat(LiteralPrefilter.decode(bytes)).isEqualTo("foo é");
+  }
+
+  @Test
+  public void testReplaceSkipsFilesWithoutLiteral() throws Exception {
+    TestingConsole console = new TestingConsole();
+    SkylarkTestExecutor skylark = new SkylarkTestExecutor(new OptionsBuilder().setConsole(console));
+    Transformation replace =
+        skylark.eval(
+            "r",
+            "r = core.replace(before = 'foo${x}', after = 'bar${x}',"
+                + " regex_groups = {'x': '[0-9]'})");
+    Path checkoutDir = tmpFolder.getRoot().toPath();
+    Files.writeString(checkoutDir.resolve("a.txt"), "foo1 fo2");
+    Files.writeString(checkoutDir.resolve("b.txt"), "fo1 oo2");
+
+    replace.transform(TransformWorks.of(checkoutDir, "msg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("a.txt", "bar1 fo2")
+        .containsFile("b.txt", "fo1 oo2")
+        .containsNoMoreFiles();
+  }
+
+  private static boolean mayMatch(LiteralPrefilter prefilter, String content) {
+    boolean result = prefilter.mayMatch(ByteBuffer.wrap(content.getBytes(UTF_8)));
+    assertThat(prefilter.mayMatch(content)).isEqualTo(result);
+    return result;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.FileSubjects.assertThatPath;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.jimfs.Jimfs;
+import com.google.copybara.Transformation;
+import com.google.copybara.TransformationStatus;
+import com.google.copybara.exception.VoidOperationException;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.SkylarkTestExecutor;
+import com.google.copybara.testing.TransformWorks;
+import com.google.copybara.util.console.Message.MessageType;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ReplaceBatchTest {
+
+  private OptionsBuilder options;
+  private FileSystem fs;
+  private TestingConsole console;
+  private SkylarkTestExecutor skylark;
+
+  @Before
+  public void setup() throws IOException {
+    fs = Jimfs.newFileSystem();
+    console = new TestingConsole();
+    options = new OptionsBuilder()
+        .setConsole(console);
+    options.workflowOptions.noTransformationJoin = false;
+    skylark = new SkylarkTestExecutor(options);
+  }
+
+  @Test
+  public void testSameResultAsSequentialExecution() throws Exception {
+    Transformation t =
+        skylark.eval(
+            "t",
+            """
+            t = core.transform([
+                core.replace(before = 'foo', after = 'bar'),
+                core.replace(before = 'bar', after = 'baz', paths = glob(['**.txt'])),
+                core.filter_replace(
+                    regex = 'a.*',
+                    mapping = {'abc': 'xyz'},
+                ),
+                core.replace(before = 'xyz', after = 'abc', paths = glob(['**.java'])),
+                core.replace(before = 'not found', after = 'irrelevant'),
+            ], reversal = [], noop_behavior = 'IGNORE_NOOP')
+            """);
+
+    Path joined = createFiles("joined");
+    TransformationStatus joinedStatus = transform(t, joined);
+
+    options.workflowOptions.noTransformationJoin = true;
+    Path sequential = createFiles("sequential");
+    TransformationStatus sequentialStatus = transform(t, sequential);
+
+    assertThat(joinedStatus).isEqualTo(sequentialStatus);
+    assertThatPath(joined)
+        .containsFile("a.txt", "baz\nbaz")
+        .containsFile("b.java", "bar\nabc\nabc")
+        .containsFile("c.md", "zzz")
+        .containsNoMoreFiles();
+    for (String file : new String[] {"a.txt", "b.java", "c.md"}) {
+      assertThat(Files.readString(joined.resolve(file)))
+          .isEqualTo(Files.readString(sequential.resolve(file)));
+    }
+  }
+
+  @Test
+  public void testNoopReportedPerTransformation() throws Exception {
+    Transformation t =
+        skylark.eval(
+            "t",
+            """
+            t = core.transform([
+                core.replace(before = 'not found', after = 'irrelevant'),
+                core.replace(before = 'foo', after = 'bar'),
+            ], reversal = [], noop_behavior = 'NOOP_IF_ALL_NOOP')
+            """);
+    Path checkoutDir = createFiles("checkout");
+
+    TransformationStatus status = transform(t, checkoutDir);
+
+    assertThat(status.isSuccess()).isTrue();
+    console.assertThat()
+        .onceInLog(MessageType.WARNING, ".*NOOP: Transformation.*not found.*was a no-op.*");
+    assertThatPath(checkoutDir).containsFile("a.txt", "bar\nbar");
+  }
+
+  @Test
+  public void testNotJoinedWhenNoopStopsTheSequence() throws Exception {
+    Transformation t =
+        skylark.eval(
+            "t",
+            """
+            t = core.transform([
+                core.replace(before = 'not found', after = 'irrelevant'),
+                core.replace(before = 'foo', after = 'bar'),
+            ], reversal = [], noop_behavior = 'FAIL_IF_ANY_NOOP')
+            """);
+    Path checkoutDir = createFiles("checkout");
+
+    assertThrows(VoidOperationException.class, () -> transform(t, checkoutDir));
+
+    assertThatPath(checkoutDir).containsFile("a.txt", "foo\nbar");
+  }
+
+  private TransformationStatus transform(Transformation transformation, Path checkoutDir)
+      throws Exception {
+    return transformation.transform(TransformWorks.of(checkoutDir, "testmsg", console));
+  }
+
+  private Path createFiles(String name) throws IOException {
+    Path checkoutDir = Files.createDirectories(fs.getPath("/" + name));
+    Files.write(checkoutDir.resolve("a.txt"), "foo\nbar".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("b.java"), "foo\nabc\nxyz".getBytes(UTF_8));
+    Files.write(checkoutDir.resolve("c.md"), "zzz".getBytes(UTF_8));
+    return checkoutDir;
+  }
+}
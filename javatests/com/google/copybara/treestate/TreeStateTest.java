@@ -18,12 +18,20 @@ package com.google.copybara.treestate;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -104,4 +112,101 @@ public class TreeStateTest {
     treeState.maybeClearCache();
     assertThat(treeState.isCached()).isFalse();
   }
+
+  @Test
+  public void testStatRecordedUntilModified() throws IOException {
+    Path file = Files.writeString(checkoutDir.resolve("foo.txt"), "foo");
+    TreeState treeState = new TreeState(checkoutDir);
+    Iterable<FileState> files = treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir));
+    assertThat(Iterables.getOnlyElement(files).getSize()).isEqualTo(3);
+
+    Files.writeString(file, "changed");
+    treeState.notifyModify(files);
+    treeState.maybeClearCache();
+
+    assertThat(treeState.isCached()).isTrue();
+    assertThat(
+            Iterables.getOnlyElement(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)))
+                .getSize())
+        .isEqualTo(-1);
+  }
+
+  @Test
+  public void testNotifyModifyKeepsOtherFindResults() throws IOException {
+    Files.writeString(checkoutDir.resolve("foo.txt"), "foo");
+    Files.writeString(checkoutDir.resolve("bar.md"), "bar");
+    PathMatcher txt = Glob.createGlob(ImmutableList.of("*.txt")).relativeTo(checkoutDir);
+    PathMatcher md = Glob.createGlob(ImmutableList.of("*.md")).relativeTo(checkoutDir);
+    TreeState treeState = new TreeState(checkoutDir);
+    Iterable<FileState> txtFiles = treeState.find(txt);
+    Iterable<FileState> mdFiles = treeState.find(md);
+
+    treeState.notifyModify(txtFiles);
+    treeState.maybeClearCache();
+
+    assertThat(treeState.find(md)).isSameInstanceAs(mdFiles);
+    assertThat(treeState.find(txt)).isNotSameInstanceAs(txtFiles);
+    assertThat(Iterables.getOnlyElement(treeState.find(txt)).getSize()).isEqualTo(-1);
+  }
+
+  @Test
+  public void testIndexOnlyReadsChangedPaths() throws IOException {
+    Path indexFile = checkoutDir.getFileSystem().getPath("/cache/index");
+    Files.writeString(checkoutDir.resolve("foo.txt"), "foo");
+    Path bar = Files.writeString(checkoutDir.resolve("bar.txt"), "bar");
+    Files.setLastModifiedTime(bar, FileTime.fromMillis(1000));
+
+    TreeState first = TreeState.withIndex(
+        checkoutDir, indexFile, "1", /* previousRevision= */ null, ImmutableSet.of());
+    assertThat(first.getFilesRead()).isEqualTo(2);
+    first.saveIndex();
+
+    Files.writeString(bar, "other");
+    Files.setLastModifiedTime(bar, FileTime.fromMillis(2000));
+    Files.writeString(checkoutDir.resolve("baz.txt"), "baz");
+
+    TreeState second = TreeState.withIndex(
+        checkoutDir, indexFile, "2", "1", ImmutableSet.of("bar.txt", "baz.txt"));
+    assertThat(second.getFilesRead()).isEqualTo(2);
+    Map<String, Long> sizes = new HashMap<>();
+    for (FileState state : second.find(Glob.ALL_FILES.relativeTo(checkoutDir))) {
+      sizes.put(checkoutDir.relativize(state.getPath()).toString(), state.getSize());
+    }
+    // foo.txt comes from the index
+    assertThat(sizes).containsExactly("foo.txt", 3L, "bar.txt", 5L, "baz.txt", 3L);
+
+    // The index is ignored if it was saved for a different revision
+    TreeState other = TreeState.withIndex(
+        checkoutDir, indexFile, "3", "0", ImmutableSet.of("bar.txt"));
+    assertThat(other.getFilesRead()).isEqualTo(3);
+  }
+
+  @Test
+  public void testCorruptIndexIgnored() throws IOException {
+    Path indexFile = checkoutDir.getFileSystem().getPath("/cache/index");
+    Files.createDirectories(indexFile.getParent());
+    Files.writeString(indexFile, "not an index");
+    Files.writeString(checkoutDir.resolve("foo.txt"), "foo");
+
+    TreeState treeState = TreeState.withIndex(checkoutDir, indexFile);
+
+    assertThat(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir))).hasSize(1);
+  }
+
+  @Test
+  public void testForPathsOnlyFindsListedFiles() throws IOException {
+    Files.writeString(checkoutDir.resolve("foo.txt"), "foo");
+    Files.createDirectories(checkoutDir.resolve("dir"));
+    Path bar = Files.writeString(checkoutDir.resolve("dir/bar.txt"), "bar");
+    Files.writeString(checkoutDir.resolve("dir/baz.txt"), "baz");
+
+    TreeState treeState =
+        TreeState.forPaths(checkoutDir, ImmutableSet.of("dir", "dir/bar.txt", "deleted.txt"));
+
+    assertThat(treeState.isPartial()).isTrue();
+    assertThat(new TreeState(checkoutDir).isPartial()).isFalse();
+    FileState state =
+        Iterables.getOnlyElement(treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    assertThat(state.getPath()).isEqualTo(bar);
+  }
 }
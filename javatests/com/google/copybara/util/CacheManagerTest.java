@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CacheManagerTest {
+
+  private Path rootPath;
+  private DirFactory dirFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    rootPath = Files.createTempDirectory("cache_manager_test");
+    dirFactory = new DirFactory(rootPath);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    Path oldest = createEntry("git_repos", "oldest", 1000, /*lastUse=*/ 1000);
+    Path old = createEntry("hg_repos", "old", 1000, /*lastUse=*/ 2000);
+    Path recent = createEntry("git_repos", "recent", 1000, /*lastUse=*/ 3000);
+
+    assertThat(dirFactory.getCacheManager().evict(2500)).containsExactly(oldest);
+    assertThat(Files.exists(oldest)).isFalse();
+    assertThat(Files.exists(old)).isTrue();
+    assertThat(Files.exists(recent)).isTrue();
+
+    assertThat(dirFactory.getCacheManager().evict(2500)).isEmpty();
+    assertThat(dirFactory.getCacheManager().evict(1000)).containsExactly(old);
+    assertThat(Files.exists(recent)).isTrue();
+  }
+
+  @Test
+  public void testEntriesInUseAreNotEvicted() throws Exception {
+    Path used = createEntry("git_repos", "used", 1000, /*lastUse=*/ 1000);
+    Path unused = createEntry("git_repos", "unused", 1000, /*lastUse=*/ 2000);
+    dirFactory.getCacheManager().recordUse(used);
+    Files.setLastModifiedTime(rootPath.resolve("cache/.usage/git_repos/used"),
+        FileTime.fromMillis(500));
+
+    assertThat(dirFactory.getCacheManager().evict(0)).containsExactly(unused);
+    assertThat(Files.exists(used)).isTrue();
+  }
+
+  @Test
+  public void testEntriesCanBeEvictedOnceAllUsesAreClosed() throws Exception {
+    Path used = createEntry("git_repos", "used", 1000, /*lastUse=*/ 1000);
+    CacheManager.Use first = dirFactory.getCacheManager().recordUse(used);
+    CacheManager.Use second = new DirFactory(rootPath).getCacheManager().recordUse(used);
+    Files.setLastModifiedTime(rootPath.resolve("cache/.usage/git_repos/used"),
+        FileTime.fromMillis(500));
+
+    first.close();
+    // Closing a use twice doesn't release the other one
+    first.close();
+    assertThat(dirFactory.getCacheManager().evict(0)).isEmpty();
+
+    second.close();
+    assertThat(dirFactory.getCacheManager().evict(0)).containsExactly(used);
+    assertThat(Files.exists(used)).isFalse();
+  }
+
+  @Test
+  public void testSizeIsRecomputedAfterAUse() throws Exception {
+    Path entry = createEntry("git_repos", "entry", 1000, /*lastUse=*/ 1000);
+    createEntry("git_repos", "other", 1000, /*lastUse=*/ 2000);
+    assertThat(dirFactory.getCacheManager().evict(2000)).isEmpty();
+
+    dirFactory.getCacheManager().recordUse(entry);
+    Files.write(entry.resolve("more"), new byte[1000]);
+
+    // The other entry is older now, but the size of the used one is not stale
+    assertThat(dirFactory.getCacheManager().evict(2000))
+        .containsExactly(rootPath.resolve("cache/git_repos/other").toAbsolutePath());
+  }
+
+  @Test
+  public void testPathsOutsideTheCacheAreIgnored() throws Exception {
+    Path outside = Files.createTempDirectory("outside");
+    dirFactory.getCacheManager().recordUse(outside);
+    assertThat(Files.exists(rootPath.resolve("cache/.usage"))).isFalse();
+  }
+
+  private Path createEntry(String cacheDir, String name, int size, long lastUse)
+      throws Exception {
+    Path entry = dirFactory.getCacheDir(cacheDir).resolve(name).toAbsolutePath();
+    Files.createDirectories(entry.resolve("objects"));
+    Files.write(entry.resolve("objects/file"), new byte[size]);
+    Files.setLastModifiedTime(entry, FileTime.fromMillis(lastUse));
+    return entry;
+  }
+}
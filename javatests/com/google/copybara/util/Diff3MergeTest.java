@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.util.MergeImportTool.MergeResult;
+import com.google.copybara.util.MergeImportTool.MergeResultCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class Diff3MergeTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+  private Path left;
+  private Path right;
+  private Path baseline;
+  private Path workdir;
+  private CommandLineDiffUtil diff3;
+  private Diff3Merge underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    Path rootPath = tmpFolder.getRoot().toPath();
+    left = createDir(rootPath, "left");
+    right = createDir(rootPath, "right");
+    baseline = createDir(rootPath, "baseline");
+    workdir = createDir(rootPath, "workdir");
+    diff3 = new CommandLineDiffUtil(new OptionsBuilder().general.getDiffBin(), null, null);
+    underTest = new Diff3Merge();
+  }
+
+  @Test
+  public void simpleMergeSuccessTest() throws Exception {
+    writeFiles("a\nb\nc", "foo\na\nb\nc", "a\nb\nc\nbar");
+
+    MergeResult output = merge(underTest);
+
+    assertThat(output.result()).isEqualTo(MergeResultCode.SUCCESS);
+    assertThat(output.fileContents().toString(UTF_8)).isEqualTo("foo\na\nb\nc\nbar");
+  }
+
+  @Test
+  public void testMergeConflict() throws Exception {
+    writeFiles("a\nb\nc\n", "a\nleft\nc\n", "a\nright\nc\n");
+
+    MergeResult output = merge(underTest);
+
+    assertThat(output.result()).isEqualTo(MergeResultCode.MERGE_CONFLICT);
+    assertThat(output.fileContents().toString(UTF_8))
+        .isEqualTo(
+            "a\n"
+                + "<<<<<<< left/file.txt\n"
+                + "left\n"
+                + "||||||| baseline/file.txt\n"
+                + "b\n"
+                + "=======\n"
+                + "right\n"
+                + ">>>>>>> right/file.txt\n"
+                + "c\n");
+    assertSameAsDiff3();
+  }
+
+  @Test
+  public void testSameChangeInBothSides() throws Exception {
+    writeFiles("a\nb\nc\n", "a\nnew\nc\n", "a\nnew\nc\n");
+
+    assertThat(merge(underTest).result()).isEqualTo(MergeResultCode.MERGE_CONFLICT);
+    assertSameAsDiff3();
+  }
+
+  @Test
+  public void testNoNewlineAtEndOfFile() throws Exception {
+    writeFiles("a\nb", "a\nleft", "a\nright");
+    assertSameAsDiff3();
+  }
+
+  @Test
+  public void testBinaryFiles() throws Exception {
+    writeFiles("a\0b", "a\0c", "a\0b");
+
+    assertThat(merge(underTest).result()).isEqualTo(MergeResultCode.TROUBLE);
+    assertThat(merge(diff3).result()).isEqualTo(MergeResultCode.TROUBLE);
+  }
+
+  @Test
+  public void testRandomChanges() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 50; i++) {
+      StringBuilder base = new StringBuilder();
+      StringBuilder lhs = new StringBuilder();
+      StringBuilder rhs = new StringBuilder();
+      for (int line = 0; line < 200; line++) {
+        String content = "line" + random.nextInt(20) + "\n";
+        base.append(content);
+        lhs.append(random.nextInt(8) == 0 ? "changed" + random.nextInt(3) + "\n" : content);
+        rhs.append(random.nextInt(8) == 0 ? "changed" + random.nextInt(3) + "\n" : content);
+      }
+      writeFiles(base.toString(), lhs.toString(), rhs.toString());
+      assertSameAsDiff3();
+    }
+  }
+
+  private void assertSameAsDiff3() throws Exception {
+    MergeResult expected = merge(diff3);
+    MergeResult output = merge(underTest);
+    assertThat(output.result()).isEqualTo(expected.result());
+    assertThat(output.fileContents().toString(UTF_8))
+        .isEqualTo(expected.fileContents().toString(UTF_8));
+  }
+
+  private MergeResult merge(MergeImportTool.MergeRunner runner) throws IOException {
+    return runner.merge(
+        left.resolve("file.txt"),
+        right.resolve("file.txt"),
+        baseline.resolve("file.txt"),
+        workdir);
+  }
+
+  private void writeFiles(String baselineContent, String leftContent, String rightContent)
+      throws IOException {
+    writeFile(baseline, "file.txt", baselineContent);
+    writeFile(left, "file.txt", leftContent);
+    writeFile(right, "file.txt", rightContent);
+  }
+
+  private Path createDir(Path parent, String name) throws IOException {
+    Path path = parent.resolve(name);
+    Files.createDirectories(path);
+    return path;
+  }
+
+  private void writeFile(Path parent, String fileName, String fileContents) throws IOException {
+    Path filePath = parent.resolve(fileName);
+    Files.createDirectories(filePath.getParent());
+    Files.writeString(parent.resolve(filePath), fileContents);
+  }
+}
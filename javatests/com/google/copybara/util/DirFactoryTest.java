@@ -59,4 +59,17 @@ public class DirFactoryTest {
     Path outputDirPath = rootPath.resolve(DirFactory.TMP);
     assertThatPath(rootPath).containsNoFiles(outputDirPath.toString());
   }
+
+  @Test
+  public void testTmpSubdirIsCleanedUpAlone() throws Exception {
+    DirFactory dirFactory = new DirFactory(rootPath);
+    Path fooDir = dirFactory.newTempDir("foo");
+    DirFactory subdirFactory = dirFactory.withTmpSubdir("request");
+    Path barDir = subdirFactory.newTempDir("bar");
+    assertThat(barDir.getParent()).isEqualTo(rootPath.resolve(DirFactory.TMP).resolve("request"));
+
+    subdirFactory.cleanupTempDirs();
+    assertThat(Files.exists(barDir)).isFalse();
+    assertThat(Files.exists(fooDir)).isTrue();
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.FileSubjects.assertThatPath;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.copybara.LocalParallelizer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DirectoryHashesTest {
+
+  private final LocalParallelizer parallelizer = new LocalParallelizer(4, 2);
+  private Path one;
+  private Path other;
+
+  @Before
+  public void setup() throws Exception {
+    Path root = Files.createTempDirectory("DirectoryHashesTest");
+    one = Files.createDirectories(root.resolve("one"));
+    other = Files.createDirectories(root.resolve("other"));
+    for (Path dir : ImmutableList.of(one, other)) {
+      Files.createDirectories(dir.resolve("a/b"));
+      Files.writeString(dir.resolve("a/b/c.txt"), "c");
+      Files.writeString(dir.resolve("d.txt"), "d");
+      Files.writeString(dir.resolve("e.txt"), "e");
+      Files.createSymbolicLink(dir.resolve("link"), Paths.get("d.txt"));
+    }
+  }
+
+  @Test
+  public void testEqualTrees() throws Exception {
+    Files.createDirectories(other.resolve("empty/dir"));
+
+    DirectoryHashes hashes = DirectoryHashes.compute(one, parallelizer);
+
+    assertThat(hashes.size()).isEqualTo(4);
+    assertThat(hashes.differences(DirectoryHashes.compute(other, parallelizer))).isEmpty();
+  }
+
+  @Test
+  public void testDifferences() throws Exception {
+    Files.writeString(other.resolve("a/b/c.txt"), "modified");
+    Files.delete(other.resolve("d.txt"));
+    Files.writeString(other.resolve("new.txt"), "new");
+    Files.delete(other.resolve("link"));
+    Files.createSymbolicLink(other.resolve("link"), Paths.get("e.txt"));
+    Files.setPosixFilePermissions(other.resolve("e.txt"), ImmutableSet.of(
+        PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+        PosixFilePermission.OWNER_EXECUTE));
+
+    assertThat(
+            DirectoryHashes.compute(one, parallelizer)
+                .differences(DirectoryHashes.compute(other, parallelizer)))
+        .containsExactly("a/b/c.txt", "d.txt", "e.txt", "link", "new.txt")
+        .inOrder();
+  }
+
+  @Test
+  public void testLinkFiles() throws Exception {
+    Path dest = Files.createTempDirectory("dest");
+
+    DirectoryHashes.linkFiles(one, dest, ImmutableList.of("a/b/c.txt", "link", "missing.txt"));
+
+    assertThatPath(dest)
+        .containsFile("a/b/c.txt", "c")
+        .containsNoMoreFiles();
+    assertThat(Files.readSymbolicLink(dest.resolve("link"))).isEqualTo(Paths.get("d.txt"));
+    assertThat(Files.exists(dest.resolve("missing.txt"))).isFalse();
+  }
+}
@@ -23,7 +23,12 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.RecordingListener;
+import com.google.copybara.profiler.Task;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.util.MergeImportTool.MergeRunner;
 import com.google.copybara.util.console.Message.MessageType;
@@ -54,6 +59,8 @@ public final class MergeImportToolTest {
   private MergeRunner commandLineDiffUtil;
   private MergeImportTool underTest;
   private TestingConsole console;
+  private Profiler profiler;
+  private RecordingListener recordingListener;
 
   @Before
   public void setUp() throws IOException {
@@ -66,8 +73,11 @@ public final class MergeImportToolTest {
     baselineWorkdir = createDir(rootPath, "baseline");
     diffToolWorkdir = createDir(rootPath, "diffTool");
     console = new TestingConsole();
+    profiler = new Profiler(Ticker.systemTicker());
+    recordingListener = new RecordingListener();
+    profiler.init(ImmutableList.of(recordingListener));
     commandLineDiffUtil = new CommandLineDiffUtil(diff3Bin, null, null);
-    underTest = new MergeImportTool(console, commandLineDiffUtil, 10, null);
+    underTest = new MergeImportTool(console, profiler, commandLineDiffUtil, 10, null);
   }
 
   @Test
@@ -90,7 +100,7 @@ public final class MergeImportToolTest {
   public void testMergeDebug() throws Exception {
     Pattern p = Pattern.compile(".*foo.txt");
     commandLineDiffUtil = new CommandLineDiffUtil(diff3Bin, null, p);
-    underTest = new MergeImportTool(console, commandLineDiffUtil, 10, p);
+    underTest = new MergeImportTool(console, profiler, commandLineDiffUtil, 10, p);
 
     String commonFileContents = "a\nb\nc\n";
     writeFile(baselineWorkdir, "foo.txt", commonFileContents);
@@ -234,7 +244,7 @@ public final class MergeImportToolTest {
     writeFile(baselineWorkdir, fileName, commonFileContents);
     writeFile(originWorkdir, fileName, "foo\n".concat(commonFileContents));
     writeFile(destinationWorkdir, fileName, commonFileContents);
-    underTest = new MergeImportTool(console, commandLineDiffUtil, 10, null);
+    underTest = new MergeImportTool(console, profiler, commandLineDiffUtil, 10, null);
 
     var unused =
         underTest.mergeImport(
@@ -253,7 +263,7 @@ public final class MergeImportToolTest {
     writeFile(baselineWorkdir, fileName, commonFileContents);
     writeFile(originWorkdir, fileName, commonFileContents.concat(additionalFileContents));
     writeFile(destinationWorkdir, fileName, commonFileContents.concat(additionalFileContents));
-    underTest = new MergeImportTool(console, commandLineDiffUtil, 10, null);
+    underTest = new MergeImportTool(console, profiler, commandLineDiffUtil, 10, null);
 
     var unused =
         underTest.mergeImport(
@@ -263,6 +273,48 @@ public final class MergeImportToolTest {
         .merge(any(Path.class), any(Path.class), any(Path.class), any(Path.class));
   }
 
+  @Test
+  public void testSummary() throws Exception {
+    String commonFileContents = "a\nb\nc\n";
+    for (int i = 0; i < 10; i++) {
+      // Identical, only changed in origin
+      writeFile(baselineWorkdir, "same" + i + ".txt", commonFileContents);
+      writeFile(originWorkdir, "same" + i + ".txt", "foo\n".concat(commonFileContents));
+      writeFile(destinationWorkdir, "same" + i + ".txt", commonFileContents);
+    }
+    for (int i = 0; i < 3; i++) {
+      writeFile(baselineWorkdir, "merged" + i + ".txt", commonFileContents);
+      writeFile(originWorkdir, "merged" + i + ".txt", "foo\n".concat(commonFileContents));
+      writeFile(destinationWorkdir, "merged" + i + ".txt", commonFileContents.concat("bar\n"));
+    }
+    writeFile(destinationWorkdir, "destination_only.txt", "foo\n");
+    writeFile(baselineWorkdir, "deleted.txt", commonFileContents);
+    writeFile(destinationWorkdir, "deleted.txt", commonFileContents);
+
+    var unused =
+        underTest.mergeImport(
+            originWorkdir, destinationWorkdir, baselineWorkdir, diffToolWorkdir, glob, packagePath);
+
+    console
+        .assertThat()
+        .logContains(
+            MessageType.VERBOSE,
+            "Merge import files: 10 identical, 1 destination only, 1 deleted, 3 merged");
+    Task task =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                recordingListener.getCompletedTasks(),
+                t -> t.getDescription().endsWith("/merge_import_files")));
+    assertThat(task.getFields())
+        .containsExactly("identical", "10", "destination_only", "1", "deleted", "1", "merged", "3");
+    for (int i = 0; i < 3; i++) {
+      assertThat(Files.readString(originWorkdir.resolve("merged" + i + ".txt")))
+          .isEqualTo("foo\n".concat(commonFileContents).concat("bar\n"));
+    }
+    assertThat(Files.exists(originWorkdir.resolve("destination_only.txt"))).isTrue();
+    assertThat(Files.exists(destinationWorkdir.resolve("deleted.txt"))).isFalse();
+  }
+
   private Path createDir(Path parent, String name) throws IOException {
     Path path = parent.resolve(name);
     Files.createDirectories(path);
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.util.DiffUtil.DiffEngine.GIT;
+import static com.google.copybara.util.DiffUtil.DiffEngine.JAVA;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.copybara.util.DiffUtil.DiffEngine;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeDiffTest {
+
+  private static final boolean VERBOSE = false;
+
+  // Command requires the working dir as a File, and Jimfs does not support Path.toFile()
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+  private Path left;
+  private Path right;
+  private final Map<String, String> env = System.getenv();
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = tmpFolder.getRoot().toPath();
+    left = Files.createDirectories(root.resolve("left"));
+    right = Files.createDirectories(root.resolve("right"));
+  }
+
+  @Test
+  public void testSameOutputAsGit() throws Exception {
+    writeFile(left, "modified.txt", lines(200, 1));
+    writeFile(right, "modified.txt", lines(200, 2));
+    writeFile(left, "same.txt", "foo\n");
+    writeFile(right, "same.txt", "foo\n");
+    writeFile(left, "no_newline.txt", "foo\nbar");
+    writeFile(right, "no_newline.txt", "foo\nbaz");
+    writeFile(left, "mode.sh", "echo\n");
+    writeFile(right, "mode.sh", "echo hello\n");
+    Files.setPosixFilePermissions(right.resolve("mode.sh"),
+        PosixFilePermissions.fromString("rwxr-xr-x"));
+    writeFile(left, "binary", "foo\0bar");
+    writeFile(right, "binary", "foo\0baz");
+    writeFile(left, "with space/é.txt", "foo\n");
+    writeFile(right, "with space/é.txt", "foo\nbar\n");
+    writeFile(left, "link", "not a link\n");
+    Files.createSymbolicLink(right.resolve("link"), right.resolve("same.txt"));
+    writeFile(left, "dir/file", "foo\n");
+    writeFile(right, "dir/file", "bar\n");
+    writeFile(right, "dir/sub/added", "added\n");
+
+    assertThat(TreeDiff.create(left.getParent(), left, right, false, true, false)).isNotNull();
+    assertSameDiff();
+  }
+
+  @Test
+  public void testIgnoreCrAtEol() throws Exception {
+    writeFile(left, "file.txt", "foo\nbar\nbaz");
+    writeFile(right, "file.txt", "foo\r\nbar\r\nbaz\r");
+    writeFile(left, "other.txt", "foo\r\nbar\n");
+    writeFile(right, "other.txt", "foo\nbaz\r\n");
+
+    assertThat(
+            new String(DiffUtil.diffWithIgnoreCrAtEol(left, right, VERBOSE, env, JAVA), UTF_8))
+        .isEqualTo(
+            new String(DiffUtil.diffWithIgnoreCrAtEol(left, right, VERBOSE, env, GIT), UTF_8));
+  }
+
+  @Test
+  public void testDiffFiles() throws Exception {
+    writeFile(left, "deleted", "foo\n");
+    writeFile(left, "modified", "foo\n");
+    writeFile(right, "modified", "bar\n");
+    writeFile(right, "added", "foo\n");
+    writeFile(left, "file_to_dir", "foo\n");
+    writeFile(right, "file_to_dir/file", "foo\n");
+
+    assertThat(DiffUtil.diffFiles(left, right, VERBOSE, env, JAVA).toString())
+        .isEqualTo(DiffUtil.diffFiles(left, right, VERBOSE, env, GIT).toString());
+  }
+
+  @Test
+  public void testRenamesFallbackToGit() throws Exception {
+    writeFile(left, "old_name", lines(20, 1));
+    writeFile(right, "new_name", lines(20, 1));
+
+    assertThat(TreeDiff.create(left.getParent(), left, right, false, true, false)).isNull();
+    assertThat(new String(DiffUtil.diff(left, right, VERBOSE, env, JAVA), UTF_8))
+        .contains("rename from left/old_name");
+  }
+
+  @Test
+  public void testRandomChanges() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 20; i++) {
+      StringBuilder one = new StringBuilder();
+      StringBuilder other = new StringBuilder();
+      for (int line = 0; line < 300; line++) {
+        String content = random.nextInt(5) == 0 ? "\n" : "  line" + random.nextInt(10) + "\n";
+        int op = random.nextInt(10);
+        if (op != 0) {
+          one.append(content);
+        }
+        if (op != 1) {
+          other.append(op == 2 ? "changed\n" : content);
+        }
+      }
+      writeFile(left, "file" + i, one.toString());
+      writeFile(right, "file" + i, other.toString());
+    }
+    assertSameDiff();
+  }
+
+  @Test
+  public void testStreamingDiff() throws Exception {
+    writeFile(left, "file.txt", lines(100, 1));
+    writeFile(right, "file.txt", lines(100, 3));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DiffUtil.diff(left, right, VERBOSE, env, JAVA, out);
+
+    assertThat(out.toString(UTF_8))
+        .isEqualTo(new String(DiffUtil.diff(left, right, VERBOSE, env, GIT), UTF_8));
+  }
+
+  @Test
+  public void testEmptyDiff() throws Exception {
+    writeFile(left, "file.txt", "foo\n");
+    writeFile(right, "file.txt", "foo\n");
+
+    assertThat(DiffUtil.diff(left, right, VERBOSE, env, JAVA)).isEmpty();
+    assertThat(DiffUtil.diffFiles(left, right, VERBOSE, env, JAVA)).isEmpty();
+  }
+
+  @Test
+  public void testEngineFromEnvironment() {
+    assertThat(DiffEngine.fromEnvironment(ImmutableMap.of())).isEqualTo(DiffEngine.GIT);
+    assertThat(DiffEngine.fromEnvironment(ImmutableMap.of(DiffUtil.DIFF_ENGINE_ENV, "JAVA")))
+        .isEqualTo(DiffEngine.JAVA);
+    assertThat(DiffEngine.fromEnvironment(ImmutableMap.of(DiffUtil.DIFF_ENGINE_ENV, "other")))
+        .isEqualTo(DiffEngine.GIT);
+  }
+
+  private void assertSameDiff() throws Exception {
+    assertThat(new String(DiffUtil.diff(left, right, VERBOSE, env, JAVA), UTF_8))
+        .isEqualTo(new String(DiffUtil.diff(left, right, VERBOSE, env, GIT), UTF_8));
+  }
+
+  private static String lines(int count, int every) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      sb.append(i % every == 0 ? "line " + i : "other " + i).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void writeFile(Path parent, String path, String content) throws IOException {
+    Path filePath = parent.resolve(path);
+    Files.createDirectories(filePath.getParent());
+    Files.writeString(filePath, content);
+  }
+}